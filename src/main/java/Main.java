@@ -8,8 +8,11 @@ public class Main {
     private static final Random random = new Random();
 
     public static void main(String[] args) {
-        // Add 100M random places to the quad tree
-        Map2D map2D = new Map2D(new Rectangle(0, MAX_COORDINATE, MAX_COORDINATE, MAX_COORDINATE));
+        // Add 100M random places to the quad tree, or to a uniform grid when run with the argument "grid"
+        Rectangle boundary = new Rectangle(0, MAX_COORDINATE, MAX_COORDINATE, MAX_COORDINATE);
+        SpatialIndex map2D = args.length > 0 && args[0].equals("grid")
+                ? GridIndex.forExpectedPlaces(boundary, NUM_POINTS)
+                : new Map2D(boundary);
         Runtime runtime = Runtime.getRuntime();
         runtime.gc();
         long startMemoryUse = runtime.totalMemory() - runtime.freeMemory();
@@ -20,10 +23,12 @@ public class Main {
             int serviceType = generateRandomService();
             map2D.addPlace(x, y, serviceType);
         }
-        long endMemoryUse = runtime.totalMemory() - runtime.freeMemory();
         long endTime = System.currentTimeMillis();
+        runtime.gc();
+        long endMemoryUse = runtime.totalMemory() - runtime.freeMemory();
         System.out.println("Insertion of " + NUM_POINTS + " points completed in " + (endTime - startTime) + " ms");
         System.out.println("Memory used for insertion: " + ((endMemoryUse - startMemoryUse) / 1024 / 1024) + " MB");
+        System.out.printf("Memory per place: %.2f bytes%n", (double) (endMemoryUse - startMemoryUse) / NUM_POINTS);
 
         // Add a place
         int additionalX = 5_000_000;
@@ -77,7 +82,7 @@ public class Main {
         if (results.size() == 0) {
             System.out.println("This coordinate is out-of-map");
         } else {
-            map2D.displayPlaceList(results, userX, userY, searchService);
+            Map2D.displayPlaceList(results, userX, userY, searchService);
         }
 
     }
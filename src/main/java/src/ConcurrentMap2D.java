@@ -0,0 +1,398 @@
+package src;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Represents a 2D map that can be searched and modified by many threads at once.
+ * The boundary is divided up front into 4^stripeDepth fixed quadrants, each holding its own Map2D guarded by
+ * its own StampedLock, so writers only block the quadrant they change. Searches read every quadrant they
+ * need optimistically, without taking a lock, and repeat the read under the read lock only if a writer
+ * changed that quadrant meanwhile. The results of each quadrant are merged into one k-nearest list.
+ */
+public class ConcurrentMap2D implements SpatialIndex {
+    private static final int DEFAULT_STRIPE_DEPTH = 3; // 64 independently locked quadrants
+    private final Rectangle boundary;
+    private final int stripeDepth;
+    private final Map2D[] stripes;
+    private final Rectangle[] stripeBoundaries;
+    private final StampedLock[] locks;
+
+    /**
+     * Constructs a ConcurrentMap2D object with the given boundary.
+     *
+     * @param boundary The boundary of the map.
+     */
+    public ConcurrentMap2D(Rectangle boundary) {
+        this(boundary, DEFAULT_STRIPE_DEPTH);
+    }
+
+    /**
+     * Constructs a ConcurrentMap2D object with the given boundary and number of locked quadrants.
+     *
+     * @param boundary    The boundary of the map.
+     * @param stripeDepth The number of times the boundary is split into quadrants, giving 4^stripeDepth locks.
+     */
+    public ConcurrentMap2D(Rectangle boundary, int stripeDepth) {
+        if (stripeDepth < 0 || stripeDepth > 8) {
+            throw new IllegalArgumentException("Stripe depth must be between 0 and 8: " + stripeDepth);
+        }
+        this.boundary = boundary;
+        this.stripeDepth = stripeDepth;
+        int numOfStripes = 1 << (2 * stripeDepth);
+        stripes = new Map2D[numOfStripes];
+        stripeBoundaries = new Rectangle[numOfStripes];
+        locks = new StampedLock[numOfStripes];
+        createStripes(boundary, 0, 0);
+    }
+
+    /**
+     * Divides a rectangle into quadrants the same way Map2D splits a node, down to the stripe depth.
+     *
+     * @param rectangle The rectangle to divide.
+     * @param depth     The depth of the rectangle.
+     * @param index     The index of the rectangle among the rectangles of its depth.
+     */
+    private void createStripes(Rectangle rectangle, int depth, int index) {
+        if (depth == stripeDepth) {
+            stripes[index] = new Map2D(rectangle);
+            stripeBoundaries[index] = rectangle;
+            locks[index] = new StampedLock();
+            return;
+        }
+        int subWidth = rectangle.getWidth() / 2;
+        int subHeight = rectangle.getHeight() / 2;
+        int x = rectangle.getX();
+        int y = rectangle.getY();
+        createStripes(new Rectangle(x, y, subWidth, subHeight), depth + 1, index * 4);                            // Top left
+        createStripes(new Rectangle(x + subWidth, y, subWidth, subHeight), depth + 1, index * 4 + 1);             // Top right
+        createStripes(new Rectangle(x, y - subHeight, subWidth, subHeight), depth + 1, index * 4 + 2);            // Bottom left
+        createStripes(new Rectangle(x + subWidth, y - subHeight, subWidth, subHeight), depth + 1, index * 4 + 3); // Bottom right
+    }
+
+    /**
+     * Determines the quadrant holding coordinates (x, y), following the quadrant rules of Map2D.
+     *
+     * @param x The x-coordinate.
+     * @param y The y-coordinate.
+     * @return The index of the stripe.
+     */
+    private int getStripe(int x, int y) {
+        int left = boundary.getX();
+        int top = boundary.getY();
+        int width = boundary.getWidth();
+        int height = boundary.getHeight();
+        int index = 0;
+        for (int depth = 0; depth < stripeDepth; depth++) {
+            int subWidth = width / 2;
+            int subHeight = height / 2;
+            boolean topQuadrant = y >= top - subHeight;
+            boolean rightQuadrant = x >= left + subWidth;
+            index = index * 4 + (topQuadrant ? 0 : 2) + (rightQuadrant ? 1 : 0);
+            if (rightQuadrant) {
+                left += subWidth;
+            }
+            if (!topQuadrant) {
+                top -= subHeight;
+            }
+            width = subWidth;
+            height = subHeight;
+        }
+        return index;
+    }
+
+    /**
+     * Adds a place to the map.
+     *
+     * @param x        The x-coordinate of the place.
+     * @param y        The y-coordinate of the place.
+     * @param services The services available at the place.
+     */
+    @Override
+    public void addPlace(int x, int y, int services) {
+        if (!boundary.contains(x, y)) {
+            throw new IllegalArgumentException("Place is out of boundary.");
+        }
+        int stripe = getStripe(x, y);
+        long stamp = locks[stripe].writeLock();
+        try {
+            stripes[stripe].addPlace(x, y, services);
+        } finally {
+            locks[stripe].unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Edits services available at a place.
+     *
+     * @param x        The x-coordinate of the place.
+     * @param y        The y-coordinate of the place.
+     * @param services The new services available.
+     * @return True if the place is found and edited, false otherwise.
+     */
+    @Override
+    public boolean editPlace(int x, int y, String[] services) {
+        return editPlace(x, y, Service.encodeService(services));
+    }
+
+    /**
+     * Edits services available at a place.
+     *
+     * @param x        The x-coordinate of the place.
+     * @param y        The y-coordinate of the place.
+     * @param services The new encoded services available.
+     * @return True if the place is found and edited, false otherwise.
+     */
+    @Override
+    public boolean editPlace(int x, int y, int services) {
+        if (!boundary.contains(x, y)) {
+            return false;
+        }
+        int stripe = getStripe(x, y);
+        long stamp = locks[stripe].writeLock();
+        try {
+            return stripes[stripe].editPlace(x, y, services);
+        } finally {
+            locks[stripe].unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes a place from the map.
+     *
+     * @param x The x-coordinate of the place.
+     * @param y The y-coordinate of the place.
+     * @return True if the place is found and removed, false otherwise.
+     */
+    @Override
+    public boolean removePlace(int x, int y) {
+        if (!boundary.contains(x, y)) {
+            return false;
+        }
+        int stripe = getStripe(x, y);
+        long stamp = locks[stripe].writeLock();
+        try {
+            return stripes[stripe].removePlace(x, y);
+        } finally {
+            locks[stripe].unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Searches for places within a certain distance from a given point with specified services.
+     *
+     * @param userX        The x-coordinate of the user's position.
+     * @param userY        The y-coordinate of the user's position.
+     * @param walkDistance The maximum walking distance from the user.
+     * @param services     The services to search for.
+     * @param k            The maximum number of results to return.
+     * @return An ArrayList of places matching the search criteria, sorted by distance from the user.
+     */
+    @Override
+    public ArrayList<Place> searchPlace(int userX, int userY, int walkDistance, String[] services, int k) {
+        QueryContext context = new QueryContext();
+        searchPlace(userX, userY, walkDistance, Service.encodeService(services), k, context);
+        return context.toPlaceList();
+    }
+
+    /**
+     * Searches for places within a certain distance from a given point with specified services,
+     * writing the results into a caller-owned context. Use one context per thread.
+     *
+     * @param userX        The x-coordinate of the user's position.
+     * @param userY        The y-coordinate of the user's position.
+     * @param walkDistance The maximum walking distance from the user.
+     * @param serviceMask  The encoded services to search for, see Service.encodeService.
+     * @param k            The maximum number of results to return.
+     * @param context      The context receiving the results, sorted by distance from the user.
+     */
+    @Override
+    public void searchPlace(int userX, int userY, int walkDistance, int serviceMask, int k, QueryContext context) {
+        search(userX, userY, walkDistance, false, serviceMask, k, context);
+    }
+
+    /**
+     * Searches for places within a straight-line radius of a given point with specified services.
+     *
+     * @param userX    The x-coordinate of the user's position.
+     * @param userY    The y-coordinate of the user's position.
+     * @param radius   The maximum straight-line distance from the user.
+     * @param services The services to search for.
+     * @param k        The maximum number of results to return.
+     * @return An ArrayList of places matching the search criteria, sorted by distance from the user.
+     */
+    public ArrayList<Place> searchPlaceWithinRadius(int userX, int userY, int radius, String[] services, int k) {
+        QueryContext context = new QueryContext();
+        searchPlaceWithinRadius(userX, userY, radius, Service.encodeService(services), k, context);
+        return context.toPlaceList();
+    }
+
+    /**
+     * Searches for places within a straight-line radius of a given point with specified services,
+     * writing the results into a caller-owned context. Use one context per thread.
+     *
+     * @param userX       The x-coordinate of the user's position.
+     * @param userY       The y-coordinate of the user's position.
+     * @param radius      The maximum straight-line distance from the user.
+     * @param serviceMask The encoded services to search for, see Service.encodeService.
+     * @param k           The maximum number of results to return.
+     * @param context     The context receiving the results, sorted by distance from the user.
+     */
+    @Override
+    public void searchPlaceWithinRadius(int userX, int userY, int radius, int serviceMask, int k, QueryContext context) {
+        search(userX, userY, radius, true, serviceMask, k, context);
+    }
+
+    /**
+     * Searches the quadrants that overlap the search area and merges their nearest places.
+     * Quadrants are searched in order of their distance to the user, so each search is pruned by the places of the
+     * nearer ones, and the quadrants farther than the worst of k places found are neither read nor locked.
+     *
+     * @param userX        The x-coordinate of the user's position.
+     * @param userY        The y-coordinate of the user's position.
+     * @param walkDistance The maximum walking distance from the user.
+     * @param circular     True to search the circle of radius walkDistance, false to search the square.
+     * @param serviceMask  The encoded services to search for.
+     * @param k            The maximum number of results to return.
+     * @param context      The context receiving the results.
+     */
+    private void search(int userX, int userY, int walkDistance, boolean circular, int serviceMask, int k, QueryContext context) {
+        context.reset(k);
+        if (k > 0 && walkDistance >= 0) {
+            // The quadrants are fixed, so they are queued by distance without any lock
+            NodeQueue queue = context.queue;
+            long radiusSquared = (long) walkDistance * walkDistance;
+            for (int stripe = 0; stripe < stripes.length; stripe++) {
+                Rectangle stripeBoundary = stripeBoundaries[stripe];
+                long stripeDistance = minSquaredDistance(stripeBoundary, userX, userY);
+                boolean overlaps = circular
+                        ? stripeDistance <= radiusSquared
+                        : stripeBoundary.intersects(userX - walkDistance, userY + walkDistance, walkDistance * 2, walkDistance * 2);
+                if (overlaps) {
+                    queue.push(stripes[stripe], stripeDistance, stripe, 0);
+                }
+            }
+            NearestPlaceHeap nearest = context.nearest;
+            while (!queue.isEmpty()) {
+                int stripe = (int) queue.topPath();
+                long stripeDistance = queue.topBound();
+                queue.removeTop();
+                if (nearest.isFull() && stripeDistance > nearest.worstKey()) {
+                    break;
+                }
+                searchStripe(stripe, userX, userY, walkDistance, circular, serviceMask, k, context);
+            }
+            queue.clear();
+        }
+        context.nearest.sortAscending();
+    }
+
+    /**
+     * Searches one quadrant and offers its nearest places to the merged results.
+     * The quadrant is first read optimistically without locking; if a writer changed it during the read,
+     * whatever was read (or thrown) is discarded and the quadrant is read again under its read lock.
+     */
+    private void searchStripe(int stripe, int userX, int userY, int walkDistance, boolean circular, int serviceMask, int k, QueryContext context) {
+        NearestPlaceHeap nearest = context.nearest;
+        QueryContext partial = context.partialContext();
+        StampedLock lock = locks[stripe];
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            RuntimeException failure = null;
+            try {
+                searchStripeUnlocked(stripe, userX, userY, walkDistance, circular, serviceMask, k, partial);
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+            if (lock.validate(stamp)) {
+                if (failure != null) {
+                    throw failure;
+                }
+                mergePartialResults(stripe, partial, nearest);
+                return;
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            searchStripeUnlocked(stripe, userX, userY, walkDistance, circular, serviceMask, k, partial);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        mergePartialResults(stripe, partial, nearest);
+    }
+
+    private void searchStripeUnlocked(int stripe, int userX, int userY, int walkDistance, boolean circular, int serviceMask, int k, QueryContext partial) {
+        if (circular) {
+            stripes[stripe].searchPlaceWithinRadius(userX, userY, walkDistance, serviceMask, k, partial);
+        } else {
+            stripes[stripe].searchPlace(userX, userY, walkDistance, serviceMask, k, partial);
+        }
+    }
+
+    /**
+     * Offers the places found in one quadrant to the merged results.
+     * Ties on distance are broken by quadrant index, then by rank within the quadrant.
+     */
+    private static void mergePartialResults(int stripe, QueryContext partial, NearestPlaceHeap nearest) {
+        NearestPlaceHeap found = partial.nearest;
+        for (int i = 0; i < found.size(); i++) {
+            nearest.offerRanked(found.getKey(i), found.getSquaredDistance(i), stripe, i, found.getX(i), found.getY(i),
+                    found.getServices(i), null, 0);
+        }
+    }
+
+    /**
+     * Calculates the smallest squared distance from a point to a rectangle.
+     *
+     * @return The squared distance, or 0 if the point is inside the rectangle.
+     */
+    private static long minSquaredDistance(Rectangle rectangle, int x, int y) {
+        long dx = (long) Math.max(rectangle.getX(), Math.min(x, rectangle.getX() + rectangle.getWidth())) - x;
+        long dy = (long) Math.max(rectangle.getY() - rectangle.getHeight(), Math.min(y, rectangle.getY())) - y;
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * Counts the places in the map. Quadrants are counted one after another, so places added or removed
+     * concurrently may or may not be included.
+     *
+     * @return The number of places.
+     */
+    @Override
+    public int countPlaces() {
+        int count = 0;
+        for (int stripe = 0; stripe < stripes.length; stripe++) {
+            long stamp = locks[stripe].readLock();
+            try {
+                count += stripes[stripe].countPlaces();
+            } finally {
+                locks[stripe].unlockRead(stamp);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Gets the boundary of the map.
+     *
+     * @return The boundary.
+     */
+    @Override
+    public Rectangle getBoundary() {
+        return boundary;
+    }
+
+    /**
+     * Removes every place from the map.
+     */
+    @Override
+    public void clear() {
+        for (int stripe = 0; stripe < stripes.length; stripe++) {
+            long stamp = locks[stripe].writeLock();
+            try {
+                stripes[stripe].clear();
+            } finally {
+                locks[stripe].unlockWrite(stamp);
+            }
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package src;
+
+/**
+ * An open-addressing hash table from place coordinates to the leaf and slot holding the place.
+ * Keys are the packed (x, y) pair; collisions are resolved by linear probing and deletions use backward
+ * shifting, so no tombstones are left behind. Places sharing the same coordinates get one entry each.
+ * It lets Map2D find a place in its leaf in O(1) instead of scanning up to a full leaf.
+ */
+class CoordinateIndex {
+    private static final int DEFAULT_CAPACITY = 1 << 10; // Default number of slots when initialized (a power of 2)
+    private static final int REFERENCE_BYTES = 4; // Assumes compressed object references
+    private long[] keys;
+    private Map2D[] leaves; // null marks an empty slot
+    private int[] slots;
+    private int size;
+    private int mask;
+    private boolean suspended;
+
+    /**
+     * Constructs an empty CoordinateIndex.
+     */
+    CoordinateIndex() {
+        allocate(DEFAULT_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        leaves = new Map2D[capacity];
+        slots = new int[capacity];
+        mask = capacity - 1;
+        size = 0;
+    }
+
+    private static long key(int x, int y) {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+
+    private int home(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    /**
+     * Doubles the table once it is three quarters full.
+     */
+    private void ensureCapacity() {
+        if (size + 1 > keys.length / 4 * 3) {
+            long[] oldKeys = keys;
+            Map2D[] oldLeaves = leaves;
+            int[] oldSlots = slots;
+            allocate(oldKeys.length * 2);
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldLeaves[i] != null) {
+                    insert(oldKeys[i], oldLeaves[i], oldSlots[i]);
+                }
+            }
+        }
+    }
+
+    private void insert(long key, Map2D leaf, int slot) {
+        int i = home(key);
+        while (leaves[i] != null) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        leaves[i] = leaf;
+        slots[i] = slot;
+        size++;
+    }
+
+    /**
+     * Finds the table position of the entry for a place.
+     *
+     * @param key  The packed coordinates of the place.
+     * @param leaf The leaf holding the place.
+     * @param slot The index of the place in the leaf.
+     * @return The table position, or -1 if there is no such entry.
+     */
+    private int position(long key, Map2D leaf, int slot) {
+        for (int i = home(key); leaves[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key && leaves[i] == leaf && slots[i] == slot) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Records that a place is stored at a slot of a leaf.
+     *
+     * @param x    The x-coordinate of the place.
+     * @param y    The y-coordinate of the place.
+     * @param leaf The leaf holding the place.
+     * @param slot The index of the place in the leaf.
+     */
+    void add(int x, int y, Map2D leaf, int slot) {
+        if (suspended) {
+            return;
+        }
+        ensureCapacity();
+        insert(key(x, y), leaf, slot);
+    }
+
+    /**
+     * Records that a place moved to another slot, possibly of another leaf.
+     *
+     * @param x       The x-coordinate of the place.
+     * @param y       The y-coordinate of the place.
+     * @param oldLeaf The leaf that held the place.
+     * @param oldSlot The index the place had in that leaf.
+     * @param newLeaf The leaf now holding the place.
+     * @param newSlot The index of the place in the new leaf.
+     */
+    void move(int x, int y, Map2D oldLeaf, int oldSlot, Map2D newLeaf, int newSlot) {
+        if (suspended) {
+            return;
+        }
+        int i = position(key(x, y), oldLeaf, oldSlot);
+        if (i >= 0) {
+            leaves[i] = newLeaf;
+            slots[i] = newSlot;
+        }
+    }
+
+    /**
+     * Forgets the entry of a removed place.
+     *
+     * @param x    The x-coordinate of the place.
+     * @param y    The y-coordinate of the place.
+     * @param leaf The leaf that held the place.
+     * @param slot The index the place had in the leaf.
+     */
+    void remove(int x, int y, Map2D leaf, int slot) {
+        if (suspended) {
+            return;
+        }
+        int i = position(key(x, y), leaf, slot);
+        if (i < 0) {
+            return;
+        }
+        // Shift back later entries of the probe run so lookups never hit a gap before their entry
+        int gap = i;
+        for (int j = (gap + 1) & mask; leaves[j] != null; j = (j + 1) & mask) {
+            int entryHome = home(keys[j]);
+            boolean canFillGap = gap <= j ? (entryHome <= gap || entryHome > j) : (entryHome <= gap && entryHome > j);
+            if (canFillGap) {
+                keys[gap] = keys[j];
+                leaves[gap] = leaves[j];
+                slots[gap] = slots[j];
+                gap = j;
+            }
+        }
+        leaves[gap] = null;
+        size--;
+    }
+
+    /**
+     * Finds the slot of a place with the given coordinates in a leaf.
+     *
+     * @param x    The x-coordinate of the place.
+     * @param y    The y-coordinate of the place.
+     * @param leaf The leaf the coordinates belong to.
+     * @return The lowest index of a place at these coordinates in the leaf, matching a scan of the leaf,
+     *         or -1 if there is no place at these coordinates.
+     */
+    int findSlot(int x, int y, Map2D leaf) {
+        long key = key(x, y);
+        int lowest = -1;
+        for (int i = home(key); leaves[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key && leaves[i] == leaf && (lowest < 0 || slots[i] < lowest)) {
+                lowest = slots[i];
+            }
+        }
+        return lowest;
+    }
+
+    /**
+     * Stops recording changes, for example while several threads build disjoint subtrees.
+     * The index must be rebuilt with clear and add once recording resumes.
+     *
+     * @param suspended True to ignore changes, false to record them again.
+     */
+    void setSuspended(boolean suspended) {
+        this.suspended = suspended;
+    }
+
+    /**
+     * Removes every entry and shrinks the table back to its initial size.
+     */
+    void clear() {
+        allocate(DEFAULT_CAPACITY);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Estimates the heap used by the table.
+     *
+     * @return The size of the table arrays in bytes.
+     */
+    long memoryBytes() {
+        return (long) keys.length * (Long.BYTES + Integer.BYTES + REFERENCE_BYTES);
+    }
+}
@@ -0,0 +1,28 @@
+package src;
+
+/**
+ * Represents how far a change to a DurableMap2D is pushed towards the disk before the call making it returns.
+ * Each level trades mutation throughput for the kind of failure the change survives.
+ */
+public enum Durability {
+    /**
+     * Changes are collected in the log's buffer and written when it fills, at a checkpoint or on close.
+     * A process crash loses the changes still in the buffer.
+     */
+    BUFFERED,
+    /**
+     * Each change is written to the operating system before the call returns.
+     * It survives a process crash but not a power failure or kernel crash.
+     */
+    WRITTEN,
+    /**
+     * Each change is written like WRITTEN, and the log is forced to the device once every syncEvery changes.
+     * A power failure loses at most the changes made since the last force.
+     */
+    BATCH_SYNCED,
+    /**
+     * Each change is forced to the device before the call returns. Callers waiting at the same time share
+     * one force (group commit), so throughput grows with the number of concurrent writers.
+     */
+    SYNCED
+}
@@ -0,0 +1,588 @@
+package src;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Represents a 2D map whose changes survive a crash.
+ * The map lives in a directory holding a base snapshot written by Map2D.save, the segments written by
+ * Map2D.saveSegment at each checkpoint since, and a write-ahead log of every change made since the last
+ * checkpoint. Opening the directory loads the snapshot, applies the segments and replays the log on top of them.
+ * A checkpoint only writes the leaves changed since the previous one, so its cost follows the churn rather than
+ * the size of the map; once MERGE_SEGMENTS segments have piled up, a background thread folds them into a new
+ * base snapshot, holding a second copy of the map in memory while it does.
+ * Every file carries the generation of the checkpoint it belongs to in its name, and a checkpoint only becomes
+ * current once its file is complete, so a crash at any point leaves either the old or the new generation intact.
+ * How far a change is pushed towards the disk before its call returns is set by a Durability level.
+ * Changes and searches are serialized on the map. With Durability.SYNCED a change is forced after the map is
+ * released, so other threads may see it shortly before it is durable.
+ * A map opened with a ServiceRegistry stores and logs every service word of its places; it must be reopened with
+ * a registry of the same number of words.
+ */
+public class DurableMap2D implements AutoCloseable {
+    private static final int DEFAULT_SYNC_EVERY = 64;
+    private static final int MERGE_SEGMENTS = 8; // Segments that trigger a background merge into a new base
+    private static final Pattern FILE_NAME = Pattern.compile("(snapshot|segment|log)-(\\d+)\\.bin");
+    private final Path directory;
+    private final Map2D map2D;
+    private final Durability durability;
+    private final int syncEvery;
+    private final int extraServiceWords;
+    private final long replayedChanges;
+    // Guards the set of files, shared with the merge thread, which never takes the map's lock
+    private final Object fileLock = new Object();
+    private long baseGeneration; // Generation of the base snapshot, 0 before the first checkpoint
+    private long generation; // Generation of the last checkpoint; segments cover baseGeneration + 1 to generation
+    private Thread mergeThread;
+    private WriteAheadLog log;
+    private boolean failed; // Set when a change could not be logged, after which the map refuses changes
+    // Set when the change marks were reset without their segment becoming current, see checkpoint
+    private boolean fullCheckpointNeeded;
+
+    /**
+     * Constructs a DurableMap2D object from the given directory, syncing the log every DEFAULT_SYNC_EVERY
+     * changes with Durability.BATCH_SYNCED.
+     *
+     * @param directory  The directory holding the map, created with an empty map if it does not exist.
+     * @param boundary   The boundary of the map.
+     * @param durability How far each change is pushed towards the disk before its call returns.
+     * @throws IOException If the map cannot be restored.
+     */
+    public DurableMap2D(Path directory, Rectangle boundary, Durability durability) throws IOException {
+        this(directory, boundary, durability, DEFAULT_SYNC_EVERY);
+    }
+
+    /**
+     * Constructs a DurableMap2D object from the given directory: loads the latest snapshot, if any, and replays
+     * the changes logged since.
+     *
+     * @param directory  The directory holding the map, created with an empty map if it does not exist.
+     * @param boundary   The boundary of the map.
+     * @param durability How far each change is pushed towards the disk before its call returns.
+     * @param syncEvery  The number of changes between two forces of the log with Durability.BATCH_SYNCED.
+     * @throws IOException If the map cannot be restored or was saved with another boundary.
+     */
+    public DurableMap2D(Path directory, Rectangle boundary, Durability durability, int syncEvery) throws IOException {
+        this(directory, boundary, null, durability, syncEvery);
+    }
+
+    /**
+     * Constructs a DurableMap2D object from the given directory for places offering services of a ServiceRegistry,
+     * syncing the log every DEFAULT_SYNC_EVERY changes with Durability.BATCH_SYNCED.
+     *
+     * @param directory  The directory holding the map, created with an empty map if it does not exist.
+     * @param boundary   The boundary of the map.
+     * @param registry   The registry of the services offered at places, see ServiceRegistry.getWords.
+     * @param durability How far each change is pushed towards the disk before its call returns.
+     * @throws IOException If the map cannot be restored or was saved with another boundary or number of service words.
+     */
+    public DurableMap2D(Path directory, Rectangle boundary, ServiceRegistry registry, Durability durability) throws IOException {
+        this(directory, boundary, registry, durability, DEFAULT_SYNC_EVERY);
+    }
+
+    /**
+     * Constructs a DurableMap2D object from the given directory for places offering services of a ServiceRegistry:
+     * loads the latest snapshot, if any, and replays the changes logged since.
+     *
+     * @param directory  The directory holding the map, created with an empty map if it does not exist.
+     * @param boundary   The boundary of the map.
+     * @param registry   The registry of the services offered at places, or null for the services of Service.
+     * @param durability How far each change is pushed towards the disk before its call returns.
+     * @param syncEvery  The number of changes between two forces of the log with Durability.BATCH_SYNCED.
+     * @throws IOException If the map cannot be restored or was saved with another boundary or number of service words.
+     */
+    public DurableMap2D(Path directory, Rectangle boundary, ServiceRegistry registry, Durability durability, int syncEvery) throws IOException {
+        this.directory = directory;
+        this.durability = durability;
+        this.syncEvery = syncEvery;
+        extraServiceWords = registry == null ? 0 : registry.getWords() - 1;
+        Files.createDirectories(directory);
+        baseGeneration = 0;
+        try (var files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Matcher matcher = FILE_NAME.matcher(file.getFileName().toString());
+                if (matcher.matches() && matcher.group(1).equals("snapshot")) {
+                    baseGeneration = Math.max(baseGeneration, Long.parseLong(matcher.group(2)));
+                }
+            }
+        }
+        generation = baseGeneration;
+        while (baseGeneration > 0 && Files.exists(segmentPath(generation + 1))) {
+            generation++;
+        }
+        deleteStaleFiles();
+        if (baseGeneration > 0) {
+            map2D = Map2D.load(snapshotPath(baseGeneration), segmentPaths(baseGeneration, generation));
+            Rectangle loaded = map2D.getBoundary();
+            if (loaded.getX() != boundary.getX() || loaded.getY() != boundary.getY()
+                    || loaded.getWidth() != boundary.getWidth() || loaded.getHeight() != boundary.getHeight()) {
+                throw new IOException("The map in " + directory + " has another boundary.");
+            }
+            if (map2D.getExtraServiceWords() != extraServiceWords) {
+                throw new IOException("The map in " + directory + " stores " + (1 + map2D.getExtraServiceWords())
+                        + " service words per place, expected " + (1 + extraServiceWords) + ".");
+            }
+        } else {
+            map2D = registry == null ? new Map2D(boundary) : new Map2D(boundary, registry);
+        }
+        log = new WriteAheadLog(logPath(generation), generation, extraServiceWords, durability, syncEvery);
+        try {
+            replayedChanges = log.replay(map2D);
+        } catch (IOException | RuntimeException e) {
+            log.close();
+            throw e;
+        }
+    }
+
+    private Path snapshotPath(long generation) {
+        return directory.resolve("snapshot-" + generation + ".bin");
+    }
+
+    private Path segmentPath(long generation) {
+        return directory.resolve("segment-" + generation + ".bin");
+    }
+
+    private Path logPath(long generation) {
+        return directory.resolve("log-" + generation + ".bin");
+    }
+
+    /**
+     * Gets the segments following a base snapshot, in the order they apply.
+     *
+     * @param base The generation of the base snapshot.
+     * @param last The generation of the last segment.
+     * @return The segment files.
+     */
+    private Path[] segmentPaths(long base, long last) {
+        Path[] segments = new Path[(int) (last - base)];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = segmentPath(base + 1 + i);
+        }
+        return segments;
+    }
+
+    /**
+     * Deletes every file the current generation does not need: older snapshots and the segments they hold,
+     * logs of earlier checkpoints, and files left unfinished by a crash. Called while holding fileLock,
+     * or before the map is shared.
+     */
+    private void deleteStaleFiles() throws IOException {
+        try (var files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                Matcher matcher = FILE_NAME.matcher(name);
+                boolean stale;
+                if (matcher.matches()) {
+                    long fileGeneration = Long.parseLong(matcher.group(2));
+                    stale = switch (matcher.group(1)) {
+                        case "snapshot" -> fileGeneration != baseGeneration;
+                        case "segment" -> fileGeneration <= baseGeneration || fileGeneration > generation;
+                        default -> fileGeneration != generation;
+                    };
+                } else {
+                    stale = name.endsWith(".tmp") && !(name.equals("merge.tmp") && mergeThread != null);
+                }
+                if (stale) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Forces the directory entries, so that a renamed file keeps its new name after a crash.
+     */
+    private void syncDirectory() {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Some platforms cannot open a directory; there, the rename is as durable as the file system makes it
+        }
+    }
+
+    /**
+     * Logs a change just applied to the map. Must be called while holding the map's lock, so that no
+     * checkpoint can take the change into its snapshot and also find it in the new log.
+     *
+     * @return The sequence number of the change in the current log.
+     */
+    private long logChange(int operation, int x, int y, int services, int[] words) throws IOException {
+        try {
+            return log.append(operation, x, y, services, words);
+        } catch (IOException e) {
+            failed = true;
+            throw e;
+        }
+    }
+
+    /**
+     * Waits for a logged change to reach the device if the durability level requires it. Called without
+     * holding the map's lock, so that writers arriving meanwhile join the next force of the log.
+     */
+    private void awaitDurable(WriteAheadLog changeLog, long sequence) throws IOException {
+        if (durability == Durability.SYNCED) {
+            changeLog.awaitDurable(sequence);
+        }
+    }
+
+    private void checkNotFailed() throws IOException {
+        if (failed) {
+            throw new IOException("The log could not be written; reopen the map to recover its last durable state.");
+        }
+    }
+
+    /**
+     * Adds a place to the map and logs it.
+     *
+     * @param x        The x-coordinate of the place.
+     * @param y        The y-coordinate of the place.
+     * @param services The services available at the place.
+     * @throws IOException If the change cannot be logged.
+     */
+    public void addPlace(int x, int y, int services) throws IOException {
+        WriteAheadLog changeLog;
+        long sequence;
+        synchronized (this) {
+            checkNotFailed();
+            map2D.addPlace(x, y, services);
+            changeLog = log;
+            sequence = logChange(WriteAheadLog.ADD, x, y, services, null);
+        }
+        awaitDurable(changeLog, sequence);
+    }
+
+    /**
+     * Adds a place offering services of a ServiceRegistry to the map and logs it.
+     *
+     * @param x        The x-coordinate of the place.
+     * @param y        The y-coordinate of the place.
+     * @param services The mask of the services available at the place, see ServiceRegistry.encodeService.
+     * @throws IOException If the change cannot be logged.
+     */
+    public void addPlace(int x, int y, int[] services) throws IOException {
+        WriteAheadLog changeLog;
+        long sequence;
+        synchronized (this) {
+            checkNotFailed();
+            map2D.addPlace(x, y, services);
+            changeLog = log;
+            sequence = logChange(WriteAheadLog.ADD, x, y, services[0], services);
+        }
+        awaitDurable(changeLog, sequence);
+    }
+
+    /**
+     * Edits services available at a place and logs the change.
+     *
+     * @param x        The x-coordinate of the place.
+     * @param y        The y-coordinate of the place.
+     * @param services The new services available.
+     * @return True if the place is found and edited, false otherwise.
+     * @throws IOException If the change cannot be logged.
+     */
+    public boolean editPlace(int x, int y, String[] services) throws IOException {
+        return editPlace(x, y, Service.encodeService(services));
+    }
+
+    /**
+     * Edits services available at a place and logs the change.
+     *
+     * @param x        The x-coordinate of the place.
+     * @param y        The y-coordinate of the place.
+     * @param services The new encoded services available.
+     * @return True if the place is found and edited, false otherwise.
+     * @throws IOException If the change cannot be logged.
+     */
+    public boolean editPlace(int x, int y, int services) throws IOException {
+        WriteAheadLog changeLog;
+        long sequence;
+        synchronized (this) {
+            checkNotFailed();
+            if (!map2D.editPlace(x, y, services)) {
+                return false;
+            }
+            changeLog = log;
+            sequence = logChange(WriteAheadLog.EDIT, x, y, services, null);
+        }
+        awaitDurable(changeLog, sequence);
+        return true;
+    }
+
+    /**
+     * Edits the services of a ServiceRegistry available at a place and logs the change.
+     *
+     * @param x        The x-coordinate of the place.
+     * @param y        The y-coordinate of the place.
+     * @param services The mask of the new services available, see ServiceRegistry.encodeService.
+     * @return True if the place is found and edited, false otherwise.
+     * @throws IOException If the change cannot be logged.
+     */
+    public boolean editPlace(int x, int y, int[] services) throws IOException {
+        WriteAheadLog changeLog;
+        long sequence;
+        synchronized (this) {
+            checkNotFailed();
+            if (!map2D.editPlace(x, y, services)) {
+                return false;
+            }
+            changeLog = log;
+            sequence = logChange(WriteAheadLog.EDIT, x, y, services[0], services);
+        }
+        awaitDurable(changeLog, sequence);
+        return true;
+    }
+
+    /**
+     * Removes a place from the map and logs the change.
+     *
+     * @param x The x-coordinate of the place.
+     * @param y The y-coordinate of the place.
+     * @return True if the place is found and removed, false otherwise.
+     * @throws IOException If the change cannot be logged.
+     */
+    public boolean removePlace(int x, int y) throws IOException {
+        WriteAheadLog changeLog;
+        long sequence;
+        synchronized (this) {
+            checkNotFailed();
+            if (!map2D.removePlace(x, y)) {
+                return false;
+            }
+            changeLog = log;
+            sequence = logChange(WriteAheadLog.REMOVE, x, y, 0, null);
+        }
+        awaitDurable(changeLog, sequence);
+        return true;
+    }
+
+    /**
+     * Searches for places within a certain distance from a given point with specified services.
+     *
+     * @param userX        The x-coordinate of the user's position.
+     * @param userY        The y-coordinate of the user's position.
+     * @param walkDistance The maximum walking distance from the user.
+     * @param services     The services to search for.
+     * @param k            The maximum number of results to return.
+     * @return An ArrayList of places matching the search criteria, sorted by distance from the user.
+     */
+    public synchronized ArrayList<Place> searchPlace(int userX, int userY, int walkDistance, String[] services, int k) {
+        return map2D.searchPlace(userX, userY, walkDistance, services, k);
+    }
+
+    /**
+     * Searches for places within a certain distance from a given point with specified services,
+     * writing the results into a caller-owned context.
+     *
+     * @param userX        The x-coordinate of the user's position.
+     * @param userY        The y-coordinate of the user's position.
+     * @param walkDistance The maximum walking distance from the user.
+     * @param serviceMask  The encoded services to search for, see Service.encodeService.
+     * @param k            The maximum number of results to return.
+     * @param context      The context receiving the results, sorted by distance from the user.
+     */
+    public synchronized void searchPlace(int userX, int userY, int walkDistance, int serviceMask, int k, QueryContext context) {
+        map2D.searchPlace(userX, userY, walkDistance, serviceMask, k, context);
+    }
+
+    /**
+     * Searches for places within a straight-line radius of a given point with specified services,
+     * writing the results into a caller-owned context.
+     *
+     * @param userX       The x-coordinate of the user's position.
+     * @param userY       The y-coordinate of the user's position.
+     * @param radius      The maximum straight-line distance from the user.
+     * @param serviceMask The encoded services to search for, see Service.encodeService.
+     * @param k           The maximum number of results to return.
+     * @param context     The context receiving the results, sorted by distance from the user.
+     */
+    public synchronized void searchPlaceWithinRadius(int userX, int userY, int radius, int serviceMask, int k, QueryContext context) {
+        map2D.searchPlaceWithinRadius(userX, userY, radius, serviceMask, k, context);
+    }
+
+    /**
+     * Searches for places within a certain distance from a given point offering services of a ServiceRegistry,
+     * writing the results into a caller-owned context.
+     *
+     * @param userX        The x-coordinate of the user's position.
+     * @param userY        The y-coordinate of the user's position.
+     * @param walkDistance The maximum walking distance from the user.
+     * @param serviceMask  The mask of the services to search for, see ServiceRegistry.encodeService.
+     * @param k            The maximum number of results to return.
+     * @param context      The context receiving the results, sorted by distance from the user.
+     */
+    public synchronized void searchPlace(int userX, int userY, int walkDistance, int[] serviceMask, int k, QueryContext context) {
+        map2D.searchPlace(userX, userY, walkDistance, serviceMask, k, context);
+    }
+
+    public synchronized int countPlaces() {
+        return map2D.countPlaces();
+    }
+
+    /**
+     * Forces every change made so far to the device, whatever the durability level.
+     *
+     * @throws IOException If the log cannot be written.
+     */
+    public void sync() throws IOException {
+        WriteAheadLog current;
+        synchronized (this) {
+            current = log;
+        }
+        current.sync();
+    }
+
+    /**
+     * Saves the changes made since the last checkpoint and starts an empty log, discarding the changes now
+     * saved. The first checkpoint saves a full base snapshot; later ones save a segment holding the leaves
+     * changed since the previous checkpoint, and start a background merge once MERGE_SEGMENTS have piled up.
+     * Changes and searches wait while the file is written.
+     *
+     * @throws IOException If the file cannot be written; the previous checkpoint and log then stay current.
+     */
+    public synchronized void checkpoint() throws IOException {
+        checkNotFailed();
+        long next = generation + 1;
+        boolean full = baseGeneration == 0 || fullCheckpointNeeded;
+        if (full) {
+            // A full checkpoint replaces the files a merge may still be reading
+            awaitMerge();
+        }
+        Path temporary = directory.resolve(full ? "snapshot.tmp" : "segment.tmp");
+        if (full) {
+            map2D.save(temporary);
+        } else {
+            map2D.saveSegment(temporary);
+        }
+        // The change marks are reset: until the file becomes current, only a full checkpoint is safe
+        fullCheckpointNeeded = true;
+        Files.deleteIfExists(logPath(next)); // Left behind by an earlier attempt at this checkpoint
+        WriteAheadLog nextLog = new WriteAheadLog(logPath(next), next, extraServiceWords, durability, syncEvery);
+        try {
+            // The checkpoint takes effect here: a crash from now on restores the new generation
+            Files.move(temporary, full ? snapshotPath(next) : segmentPath(next), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            nextLog.close();
+            throw e;
+        }
+        syncDirectory();
+        fullCheckpointNeeded = false;
+        // Writers still waiting on the old log find their changes forced by close
+        log.close();
+        log = nextLog;
+        synchronized (fileLock) {
+            generation = next;
+            if (full) {
+                baseGeneration = next;
+            }
+            deleteStaleFiles();
+            if (mergeThread == null && generation - baseGeneration >= MERGE_SEGMENTS) {
+                long base = baseGeneration;
+                mergeThread = new Thread(() -> merge(base, next), "map2d-merge");
+                mergeThread.setDaemon(true);
+                mergeThread.start();
+            }
+        }
+    }
+
+    /**
+     * Folds a base snapshot and the segments following it into a new base snapshot, read from the files
+     * alone so that changes and checkpoints go on meanwhile. On failure the segments stay current and the
+     * next checkpoint starts another merge.
+     *
+     * @param base The generation of the base snapshot.
+     * @param last The generation of the last segment to fold in, which the new base takes.
+     */
+    private void merge(long base, long last) {
+        Path temporary = directory.resolve("merge.tmp");
+        try {
+            Map2D.load(snapshotPath(base), segmentPaths(base, last)).save(temporary);
+            synchronized (fileLock) {
+                Files.move(temporary, snapshotPath(last), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                syncDirectory();
+                baseGeneration = last;
+                deleteStaleFiles();
+            }
+        } catch (IOException e) {
+            try {
+                Files.deleteIfExists(temporary);
+            } catch (IOException ignored) {
+                // Deleted as a stale file by the next checkpoint or open
+            }
+        } finally {
+            synchronized (fileLock) {
+                mergeThread = null;
+            }
+        }
+    }
+
+    /**
+     * Waits until a background merge in progress, if any, has finished.
+     */
+    public void awaitMerge() {
+        Thread thread;
+        synchronized (fileLock) {
+            thread = mergeThread;
+        }
+        if (thread == null) {
+            return;
+        }
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Gets the number of segments a restart would apply on top of the base snapshot.
+     *
+     * @return The number of segments.
+     */
+    public long getSegmentCount() {
+        synchronized (fileLock) {
+            return generation - baseGeneration;
+        }
+    }
+
+    /**
+     * Gets the number of changes replayed from the log when the map was opened.
+     *
+     * @return The number of changes.
+     */
+    public long getReplayedChanges() {
+        return replayedChanges;
+    }
+
+    /**
+     * Gets the size of the current log, the changes a restart would replay.
+     *
+     * @return The size in bytes.
+     */
+    public synchronized long getLogBytes() {
+        return log.getBytes();
+    }
+
+    /**
+     * Forces every change made so far and closes the log. The map must not be used afterwards.
+     *
+     * @throws IOException If the log cannot be written.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        awaitMerge();
+        log.close();
+    }
+}
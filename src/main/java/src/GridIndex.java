@@ -0,0 +1,280 @@
+package src;
+
+import java.util.Arrays;
+
+/**
+ * A SpatialIndex dividing its boundary into a flat grid of square cells, suited to places spread close to uniformly.
+ * Adding a place appends it to the array of its cell, without the descent and splits of a tree, and a search visits
+ * the cells around the user ring by ring, stopping once the next ring is farther than the worst of the k places found.
+ * Each cell stores its places as interleaved (x, y, services) triples, so a cell is scanned in one sequential pass,
+ * along with the union of their services so cells without the requested services are skipped.
+ * The cell size should be chosen for a few tens of places per cell, see forExpectedPlaces: clustered data overfills
+ * some cells and leaves most empty, for which the quadtree of Map2D is the better fit.
+ * A GridIndex is not thread-safe.
+ */
+public class GridIndex implements SpatialIndex {
+    private static final int PLACES_PER_CELL = 32; // Average number of places per cell chosen by forExpectedPlaces
+    private static final int INITIAL_CELL_CAPACITY = 4;
+    private final Rectangle boundary;
+    private final int cellSize;
+    private final int columns;
+    private final int rows;
+    // Places of cell (column, row) at index row * columns + column, null until the cell receives a place
+    private final int[][] cells;
+    private final int[] counts;
+    private final int[] summaries;
+    private int size;
+
+    /**
+     * Constructs an empty GridIndex.
+     *
+     * @param boundary The boundary of the index.
+     * @param cellSize The side of a cell.
+     */
+    public GridIndex(Rectangle boundary, int cellSize) {
+        if (cellSize <= 0) {
+            throw new IllegalArgumentException("Illegal cell size: " + cellSize);
+        }
+        long columns = boundary.getWidth() / cellSize + 1L;
+        long rows = boundary.getHeight() / cellSize + 1L;
+        if (columns * rows > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Cell size " + cellSize + " gives too many cells: " + columns * rows);
+        }
+        this.boundary = boundary;
+        this.cellSize = cellSize;
+        this.columns = (int) columns;
+        this.rows = (int) rows;
+        cells = new int[this.columns * this.rows][];
+        counts = new int[cells.length];
+        summaries = new int[cells.length];
+    }
+
+    /**
+     * Constructs an empty GridIndex whose cells will hold a few tens of places each once the expected number of
+     * places, spread uniformly over the boundary, has been added.
+     *
+     * @param boundary       The boundary of the index.
+     * @param expectedPlaces The number of places expected.
+     * @return The new index.
+     */
+    public static GridIndex forExpectedPlaces(Rectangle boundary, long expectedPlaces) {
+        double area = (double) boundary.getWidth() * boundary.getHeight();
+        double cellArea = area * PLACES_PER_CELL / Math.max(expectedPlaces, 1);
+        int cellSize = (int) Math.max(1, Math.min(Math.ceil(Math.sqrt(cellArea)), Math.max(boundary.getWidth(), boundary.getHeight()) + 1L));
+        return new GridIndex(boundary, cellSize);
+    }
+
+    private int columnOf(int x) {
+        return (int) (((long) x - boundary.getX()) / cellSize);
+    }
+
+    private int rowOf(int y) {
+        return (int) (((long) boundary.getY() - y) / cellSize);
+    }
+
+    @Override
+    public void addPlace(int x, int y, int services) {
+        if (!boundary.contains(x, y)) {
+            throw new IllegalArgumentException("Place is out of boundary.");
+        }
+        int cell = rowOf(y) * columns + columnOf(x);
+        int[] places = cells[cell];
+        int count = counts[cell];
+        if (places == null) {
+            places = cells[cell] = new int[3 * INITIAL_CELL_CAPACITY];
+        } else if (3 * count == places.length) {
+            places = cells[cell] = Arrays.copyOf(places, 2 * places.length);
+        }
+        places[3 * count] = x;
+        places[3 * count + 1] = y;
+        places[3 * count + 2] = services;
+        counts[cell] = count + 1;
+        summaries[cell] |= services;
+        size++;
+    }
+
+    /**
+     * Finds the cell holding a place.
+     *
+     * @return The cell, or -1 if the place is out of the boundary.
+     */
+    private int cellOf(int x, int y) {
+        return boundary.contains(x, y) ? rowOf(y) * columns + columnOf(x) : -1;
+    }
+
+    /**
+     * Finds the index of a place in its cell.
+     *
+     * @return The index, or -1 if the cell holds no place at these coordinates.
+     */
+    private int findSlot(int cell, int x, int y) {
+        int[] places = cells[cell];
+        for (int i = 0; i < counts[cell]; i++) {
+            if (places[3 * i] == x && places[3 * i + 1] == y) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public boolean editPlace(int x, int y, int services) {
+        int cell = cellOf(x, y);
+        int slot = cell >= 0 ? findSlot(cell, x, y) : -1;
+        if (slot < 0) {
+            return false;
+        }
+        cells[cell][3 * slot + 2] = services;
+        updateSummary(cell);
+        return true;
+    }
+
+    @Override
+    public boolean removePlace(int x, int y) {
+        int cell = cellOf(x, y);
+        int slot = cell >= 0 ? findSlot(cell, x, y) : -1;
+        if (slot < 0) {
+            return false;
+        }
+        int[] places = cells[cell];
+        int last = --counts[cell];
+        System.arraycopy(places, 3 * last, places, 3 * slot, 3);
+        if (last == 0) {
+            cells[cell] = null;
+        }
+        updateSummary(cell);
+        size--;
+        return true;
+    }
+
+    /**
+     * Recomputes the union of the services of a cell after one of its places lost some.
+     */
+    private void updateSummary(int cell) {
+        int summary = 0;
+        int[] places = cells[cell];
+        for (int i = 0; i < counts[cell]; i++) {
+            summary |= places[3 * i + 2];
+        }
+        summaries[cell] = summary;
+    }
+
+    @Override
+    public void searchPlace(int userX, int userY, int walkDistance, int serviceMask, int k, QueryContext context) {
+        search(userX, userY, walkDistance, false, serviceMask, k, context);
+    }
+
+    @Override
+    public void searchPlaceWithinRadius(int userX, int userY, int radius, int serviceMask, int k, QueryContext context) {
+        search(userX, userY, radius, true, serviceMask, k, context);
+    }
+
+    /**
+     * Finds the nearest places within the walk distance with the specified services, visiting the cells overlapping
+     * the walk-distance square ring by ring around the cell of the user.
+     * Every cell of ring r is at least (r - 1) * cellSize away from the user, so once that exceeds the worst of
+     * k places already found, no farther ring can hold a better one.
+     *
+     * @param userX        The x-coordinate of the user's position.
+     * @param userY        The y-coordinate of the user's position.
+     * @param walkDistance The maximum walking distance from the user.
+     * @param circular     True to search the circle of radius walkDistance, false to search the square.
+     * @param serviceMask  The encoded services to search for.
+     * @param k            The maximum number of results to return.
+     * @param context      The context receiving the results.
+     */
+    private void search(int userX, int userY, int walkDistance, boolean circular, int serviceMask, int k, QueryContext context) {
+        context.reset(k);
+        NearestPlaceHeap nearest = context.nearest;
+        long left = (long) userX - walkDistance;
+        long right = (long) userX + walkDistance;
+        long top = (long) userY + walkDistance;
+        long bottom = (long) userY - walkDistance;
+        long maxX = (long) boundary.getX() + boundary.getWidth();
+        long minY = (long) boundary.getY() - boundary.getHeight();
+        if (k > 0 && walkDistance >= 0 && left <= maxX && right >= boundary.getX() && bottom <= boundary.getY() && top >= minY) {
+            // The cells overlapping the walk-distance square
+            int firstColumn = columnOf((int) Math.max(left, boundary.getX()));
+            int lastColumn = columnOf((int) Math.min(right, maxX));
+            int firstRow = rowOf((int) Math.min(top, boundary.getY()));
+            int lastRow = rowOf((int) Math.max(bottom, minY));
+            int userColumn = Math.max(firstColumn, Math.min(lastColumn, columnOf((int) Math.max(boundary.getX(), Math.min(userX, maxX)))));
+            int userRow = Math.max(firstRow, Math.min(lastRow, rowOf((int) Math.max(minY, Math.min(userY, boundary.getY())))));
+            int lastRing = Math.max(Math.max(userColumn - firstColumn, lastColumn - userColumn),
+                    Math.max(userRow - firstRow, lastRow - userRow));
+            long radiusSquared = (long) walkDistance * walkDistance;
+            for (int ring = 0; ring <= lastRing; ring++) {
+                long ringDistance = (long) Math.max(ring - 1, 0) * cellSize;
+                if (nearest.isFull() && ringDistance * ringDistance > nearest.worstKey()) {
+                    break;
+                }
+                int fromColumn = Math.max(firstColumn, userColumn - ring);
+                int toColumn = Math.min(lastColumn, userColumn + ring);
+                for (int row = Math.max(firstRow, userRow - ring); row <= Math.min(lastRow, userRow + ring); row++) {
+                    // Rows at the top and bottom of the ring are crossed entirely, the others only at their two ends
+                    boolean edgeRow = row == userRow - ring || row == userRow + ring;
+                    int step = edgeRow || ring == 0 ? 1 : 2 * ring;
+                    for (int column = edgeRow ? fromColumn : userColumn - ring; column <= toColumn; column += step) {
+                        if (column >= fromColumn) {
+                            searchCell(row * columns + column, userX, userY, left, right, top, bottom, circular, radiusSquared,
+                                    serviceMask, nearest);
+                        }
+                    }
+                }
+            }
+        }
+        nearest.sortAscending();
+    }
+
+    /**
+     * Offers the places of a cell that lie in the search area and offer the requested services.
+     */
+    private void searchCell(int cell, int userX, int userY, long left, long right, long top, long bottom, boolean circular,
+                            long radiusSquared, int serviceMask, NearestPlaceHeap nearest) {
+        if (!Service.contains(summaries[cell], serviceMask)) {
+            return;
+        }
+        int[] places = cells[cell];
+        for (int i = 0; i < counts[cell]; i++) {
+            int x = places[3 * i];
+            int y = places[3 * i + 1];
+            int services = places[3 * i + 2];
+            long dx = (long) x - userX;
+            long dy = (long) y - userY;
+            long squaredDistance = dx * dx + dy * dy;
+            boolean inside = circular
+                    ? squaredDistance <= radiusSquared
+                    : x >= left && x <= right && y <= top && y >= bottom;
+            if (inside && Service.contains(services, serviceMask)) {
+                nearest.offer(squaredDistance, cell, i, x, y, services);
+            }
+        }
+    }
+
+    @Override
+    public int countPlaces() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(cells, null);
+        Arrays.fill(counts, 0);
+        Arrays.fill(summaries, 0);
+        size = 0;
+    }
+
+    @Override
+    public Rectangle getBoundary() {
+        return boundary;
+    }
+
+    /**
+     * Gets the side of a cell.
+     *
+     * @return The cell size.
+     */
+    public int getCellSize() {
+        return cellSize;
+    }
+}
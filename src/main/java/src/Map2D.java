@@ -1,18 +1,72 @@
 package src;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Represents a 2D map with the ability to add, edit, and search places within a boundary.
  */
-public class Map2D {
-    private static final int CAPACITY = 100_000;
+public class Map2D implements SpatialIndex {
+    static final int CAPACITY = 100_000; // Largest number of places in a leaf, also relied on by MappedMap2D
+    // Internal nodes whose subtree drops to this many places collapse back into a leaf. Leaves split above
+    // CAPACITY, so a collapsed leaf needs 75% of CAPACITY new places before it splits again
+    private static final int MERGE_THRESHOLD = CAPACITY / 4;
+    // Searches expected to cover fewer places than this stay on the sequential path of parallelSearchPlace,
+    // and subtrees with no more places are searched by a single task
+    private static final int PARALLEL_SEARCH_THRESHOLD = 4 * CAPACITY;
+    private static final int INITIAL_LEAF_CAPACITY = 16;
+    // Slots of a leaf are summarised in blocks of 1 << BLOCK_SHIFT places when leaves are sorted, see enableSortedLeaves
+    private static final int BLOCK_SHIFT = 8;
+    private static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+    private static final long NOT_FOUND = -1L;
     private final Rectangle boundary;
     private final Map2D[] children;
+    private final boolean stableRemoval;
     private int numOfPlaces;
-    private final int[] placeXs;
-    private final int[] placeYs;
-    private final int[] placeServices;
+    // Number of places below an internal node; leaves use numOfPlaces
+    private int subtreePlaces;
+    // Leaf buffers are allocated on first insert, grow geometrically up to CAPACITY and are released on split
+    private int[] placeXs;
+    private int[] placeYs;
+    private int[] placeServices;
+    // Number of places in this subtree offering each service, and the union of their services
+    private final int[] serviceCounts;
+    private int serviceSummary;
+    // Service words beyond the first, for maps built with a ServiceRegistry of more than 32 services: the words of
+    // slot i of a leaf start at i * extraServiceWords, and the summary holds the union of these words
+    private final int extraServiceWords;
+    private int[] placeExtraServices;
+    private final int[] extraServiceSummary;
+    // Optional coordinate lookup shared by every node of the tree, null when disabled
+    private CoordinateIndex coordinateIndex;
+    // Optional per-leaf index of the places offering each service of the first word, see enableServiceIndex:
+    // bit i of serviceBitmaps[s] is set when slot i offers service s, and a bitmap is null until a slot needs it
+    private boolean serviceIndexed;
+    private long[][] serviceBitmaps;
+    // Optional Morton-ordered layout of the leaves, see enableSortedLeaves. Block b holds slots b * BLOCK_SIZE to
+    // (b + 1) * BLOCK_SIZE - 1: blockBoxes[4b..4b+3] is the minX, maxX, minY, maxY of its places and blockCodes[2b],
+    // blockCodes[2b+1] the smallest and largest of their Morton codes. Changes may leave a block wider than its
+    // places but never narrower
+    private boolean sortedLeaves;
+    private int[] blockBoxes;
+    private long[] blockCodes;
+    // The number of places at the start of this leaf that are in Morton order: the blocks they fill can be found by
+    // binary search on their codes, those of the places appended or moved after them are only checked by their box
+    private int sortedPlaces;
+    // Batch allowed to modify this node in place, see copyFor. Null for nodes of an ordinary map
+    private Object owner;
+    // Changes since the last save, saveSegment or load: dirty when places of this subtree changed, reshaped
+    // when this node was split or collapsed, in which case saveSegment writes its whole subtree
+    private boolean dirty;
+    private boolean reshaped;
+    // Bitmap of the leaf slots written since the last save, saveSegment or load, null when none or unknown
+    private long[] changedSlots;
 
     /**
      * Constructs a Map2D object with the given boundary.
@@ -20,12 +74,594 @@ public class Map2D {
      * @param boundary The boundary of the map.
      */
     public Map2D(Rectangle boundary) {
+        this(boundary, false);
+    }
+
+    /**
+     * Constructs a Map2D object with the given boundary and removal mode.
+     * By default a removed place is replaced by the last place of its leaf, which is O(1) and does not
+     * affect search results. Stable removal instead shifts the following places left, keeping the
+     * insertion order within each leaf at O(leaf size) per removal.
+     *
+     * @param boundary      The boundary of the map.
+     * @param stableRemoval True to keep insertion order on removal, false to swap with the last place.
+     */
+    public Map2D(Rectangle boundary, boolean stableRemoval) {
+        this(boundary, stableRemoval, 0);
+    }
+
+    /**
+     * Constructs a Map2D object whose places offer the services of the given registry.
+     * Masks of the registry's first 32 services are stored and searched like the int masks of Service;
+     * the other words are stored next to them and only checked by searches that ask for those services.
+     *
+     * @param boundary The boundary of the map.
+     * @param registry The registry of the services offered at places, see ServiceRegistry.getWords.
+     */
+    public Map2D(Rectangle boundary, ServiceRegistry registry) {
+        this(boundary, false, registry.getWords() - 1);
+    }
+
+    private Map2D(Rectangle boundary, boolean stableRemoval, int extraServiceWords) {
         this.boundary = boundary;
+        this.stableRemoval = stableRemoval;
+        this.extraServiceWords = extraServiceWords;
         children = new Map2D[4];
         numOfPlaces = 0;
-        placeXs = new int[CAPACITY];
-        placeYs = new int[CAPACITY];
-        placeServices = new int[CAPACITY];
+        serviceCounts = new int[Integer.SIZE * (1 + extraServiceWords)];
+        serviceSummary = 0;
+        extraServiceSummary = new int[extraServiceWords];
+    }
+
+    /**
+     * Constructs a copy of a node that the given batch may modify in place.
+     * Children are shared with the source node and are copied in turn when a change reaches them.
+     *
+     * @param source The node to copy.
+     * @param owner  The batch owning the copy.
+     */
+    private Map2D(Map2D source, Object owner) {
+        boundary = source.boundary;
+        stableRemoval = source.stableRemoval;
+        extraServiceWords = source.extraServiceWords;
+        children = source.children.clone();
+        numOfPlaces = source.numOfPlaces;
+        subtreePlaces = source.subtreePlaces;
+        if (source.placeXs != null) {
+            placeXs = source.placeXs.clone();
+            placeYs = source.placeYs.clone();
+            placeServices = source.placeServices.clone();
+            if (source.placeExtraServices != null) {
+                placeExtraServices = source.placeExtraServices.clone();
+            }
+        }
+        serviceIndexed = source.serviceIndexed;
+        if (source.serviceBitmaps != null) {
+            serviceBitmaps = new long[Integer.SIZE][];
+            for (int service = 0; service < Integer.SIZE; service++) {
+                if (source.serviceBitmaps[service] != null) {
+                    serviceBitmaps[service] = source.serviceBitmaps[service].clone();
+                }
+            }
+        }
+        sortedLeaves = source.sortedLeaves;
+        if (source.blockBoxes != null) {
+            blockBoxes = source.blockBoxes.clone();
+            blockCodes = source.blockCodes.clone();
+        }
+        sortedPlaces = source.sortedPlaces;
+        serviceCounts = source.serviceCounts.clone();
+        serviceSummary = source.serviceSummary;
+        extraServiceSummary = source.extraServiceSummary.clone();
+        dirty = source.dirty;
+        reshaped = source.reshaped;
+        if (source.changedSlots != null) {
+            changedSlots = source.changedSlots.clone();
+        }
+        this.owner = owner;
+    }
+
+    /**
+     * Gets a version of this node that the given batch may modify without affecting other versions of the map.
+     * Used by SnapshotMap2D for path copying: changes made through the returned root copy only the nodes on
+     * their way, and nodes already copied by the same batch are modified in place.
+     *
+     * @param owner The batch that will modify the node.
+     * @return This node if the batch already owns it, otherwise a copy owned by the batch.
+     */
+    Map2D copyFor(Object owner) {
+        return this.owner == owner ? this : new Map2D(this, owner);
+    }
+
+    /**
+     * Gets the child at the given index, copying it first if it belongs to another version of the map.
+     * Ordinary maps have no owner on any node, so their children are always returned as is.
+     *
+     * @param index The index of the child.
+     * @return The child, safe to modify.
+     */
+    private Map2D writableChild(int index) {
+        Map2D child = children[index];
+        if (child.owner != owner) {
+            child = new Map2D(child, owner);
+            children[index] = child;
+        }
+        return child;
+    }
+
+    /**
+     * Adds or subtracts one place's services from this node's service summary.
+     *
+     * @param services The services of the place.
+     * @param delta    1 when the place enters the subtree, -1 when it leaves.
+     */
+    private void updateServiceSummary(int services, int delta) {
+        dirty = true;
+        for (int remaining = services; remaining != 0; remaining &= remaining - 1) {
+            int service = Integer.numberOfTrailingZeros(remaining);
+            serviceCounts[service] += delta;
+            if (serviceCounts[service] == 0) {
+                serviceSummary &= ~(1 << service);
+            } else {
+                serviceSummary |= 1 << service;
+            }
+        }
+    }
+
+    /**
+     * Adds or subtracts one place's service words beyond the first from this node's service summary.
+     *
+     * @param extras The array holding the words, or null if they are all 0.
+     * @param offset The index of the first of the words.
+     * @param delta  1 when the place enters the subtree, -1 when it leaves.
+     */
+    private void updateExtraServiceSummary(int[] extras, int offset, int delta) {
+        if (extras == null) {
+            return;
+        }
+        for (int w = 0; w < extraServiceWords; w++) {
+            for (int remaining = extras[offset + w]; remaining != 0; remaining &= remaining - 1) {
+                int bit = Integer.numberOfTrailingZeros(remaining);
+                int service = (w + 1) * Integer.SIZE + bit;
+                serviceCounts[service] += delta;
+                if (serviceCounts[service] == 0) {
+                    extraServiceSummary[w] &= ~(1 << bit);
+                } else {
+                    extraServiceSummary[w] |= 1 << bit;
+                }
+            }
+        }
+    }
+
+    /**
+     * Rebuilds this internal node's service summary and place count from those of its children.
+     */
+    private void sumChildServiceSummaries() {
+        dirty = true;
+        subtreePlaces = 0;
+        for (Map2D child : children) {
+            subtreePlaces += child.size();
+        }
+        serviceSummary = 0;
+        Arrays.fill(extraServiceSummary, 0);
+        for (int service = 0; service < serviceCounts.length; service++) {
+            int count = 0;
+            for (Map2D child : children) {
+                count += child.serviceCounts[service];
+            }
+            serviceCounts[service] = count;
+            if (count != 0) {
+                if (service < Integer.SIZE) {
+                    serviceSummary |= 1 << service;
+                } else {
+                    extraServiceSummary[service / Integer.SIZE - 1] |= 1 << (service % Integer.SIZE);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks whether some place of this subtree offers every requested service.
+     *
+     * @param serviceMask  The first word of the requested services.
+     * @param serviceWords The whole mask of the requested services, or null if they all fit in the first word.
+     * @return True if the service summary contains the requested services, false otherwise.
+     */
+    private boolean offersServices(int serviceMask, int[] serviceWords) {
+        return Service.contains(serviceSummary, serviceMask)
+                && (serviceWords == null || Service.contains(extraServiceSummary, 0, serviceWords, 1, extraServiceWords));
+    }
+
+    /**
+     * Stores the service words beyond the first of a slot of this leaf.
+     *
+     * @param slot   The slot.
+     * @param extras The array holding the words, or null to clear them.
+     * @param offset The index of the first of the words.
+     */
+    private void setExtraServices(int slot, int[] extras, int offset) {
+        if (extraServiceWords == 0) {
+            return;
+        }
+        if (extras == null) {
+            Arrays.fill(placeExtraServices, slot * extraServiceWords, (slot + 1) * extraServiceWords, 0);
+        } else {
+            System.arraycopy(extras, offset, placeExtraServices, slot * extraServiceWords, extraServiceWords);
+        }
+    }
+
+    /**
+     * Ensures the leaf buffers can hold at least the given number of places.
+     * Buffers are allocated lazily and doubled in size (never beyond CAPACITY) when full.
+     *
+     * @param minCapacity The number of places the buffers must be able to hold.
+     */
+    private void ensureLeafCapacity(int minCapacity) {
+        if (placeXs == null) {
+            int newCapacity = Math.max(INITIAL_LEAF_CAPACITY, minCapacity);
+            placeXs = new int[newCapacity];
+            placeYs = new int[newCapacity];
+            placeServices = new int[newCapacity];
+            if (extraServiceWords > 0) {
+                placeExtraServices = new int[newCapacity * extraServiceWords];
+            }
+            resizeBlocks(newCapacity);
+        } else if (placeXs.length < minCapacity) {
+            int newCapacity = Math.max(minCapacity, Math.min(placeXs.length * 2, CAPACITY));
+            placeXs = Arrays.copyOf(placeXs, newCapacity);
+            placeYs = Arrays.copyOf(placeYs, newCapacity);
+            placeServices = Arrays.copyOf(placeServices, newCapacity);
+            if (extraServiceWords > 0) {
+                placeExtraServices = Arrays.copyOf(placeExtraServices, newCapacity * extraServiceWords);
+            }
+            if (serviceBitmaps != null) {
+                for (int service = 0; service < Integer.SIZE; service++) {
+                    if (serviceBitmaps[service] != null) {
+                        serviceBitmaps[service] = Arrays.copyOf(serviceBitmaps[service], (newCapacity + 63) >>> 6);
+                    }
+                }
+            }
+            resizeBlocks(newCapacity);
+        }
+    }
+
+    /**
+     * Resizes the block summaries of this leaf for the given capacity when leaves are sorted.
+     * Blocks that did not exist yet start empty.
+     *
+     * @param capacity The number of places the leaf buffers hold.
+     */
+    private void resizeBlocks(int capacity) {
+        if (!sortedLeaves) {
+            return;
+        }
+        int blocks = (capacity + BLOCK_SIZE - 1) >>> BLOCK_SHIFT;
+        int oldBlocks = blockCodes == null ? 0 : blockCodes.length / 2;
+        blockBoxes = blockBoxes == null ? new int[4 * blocks] : Arrays.copyOf(blockBoxes, 4 * blocks);
+        blockCodes = blockCodes == null ? new long[2 * blocks] : Arrays.copyOf(blockCodes, 2 * blocks);
+        for (int block = oldBlocks; block < blocks; block++) {
+            clearBlock(block);
+        }
+    }
+
+    private void clearBlock(int block) {
+        blockBoxes[4 * block] = Integer.MAX_VALUE;
+        blockBoxes[4 * block + 1] = Integer.MIN_VALUE;
+        blockBoxes[4 * block + 2] = Integer.MAX_VALUE;
+        blockBoxes[4 * block + 3] = Integer.MIN_VALUE;
+        blockCodes[2 * block] = Long.MAX_VALUE;
+        blockCodes[2 * block + 1] = Long.MIN_VALUE;
+    }
+
+    /**
+     * Widens the summary of the block holding a slot to cover a place.
+     *
+     * @param slot The slot of the place.
+     * @param x    The x-coordinate of the place.
+     * @param y    The y-coordinate of the place.
+     * @param code The Morton code of the place.
+     */
+    private void expandBlock(int slot, int x, int y, long code) {
+        int block = slot >>> BLOCK_SHIFT;
+        blockBoxes[4 * block] = Math.min(blockBoxes[4 * block], x);
+        blockBoxes[4 * block + 1] = Math.max(blockBoxes[4 * block + 1], x);
+        blockBoxes[4 * block + 2] = Math.min(blockBoxes[4 * block + 2], y);
+        blockBoxes[4 * block + 3] = Math.max(blockBoxes[4 * block + 3], y);
+        blockCodes[2 * block] = Math.min(blockCodes[2 * block], code);
+        blockCodes[2 * block + 1] = Math.max(blockCodes[2 * block + 1], code);
+    }
+
+    /**
+     * Recomputes the block summaries from the block holding a slot to the end of this leaf, and how many places at
+     * its start are in Morton order.
+     *
+     * @param fromSlot The first slot whose block changed.
+     */
+    private void rebuildBlocks(int fromSlot) {
+        if (blockBoxes == null) {
+            return;
+        }
+        int fromBlock = fromSlot >>> BLOCK_SHIFT;
+        for (int block = fromBlock; block < blockCodes.length / 2; block++) {
+            clearBlock(block);
+        }
+        int first = fromBlock << BLOCK_SHIFT;
+        int sorted = Math.min(sortedPlaces, first);
+        long previous = first == 0 ? Long.MIN_VALUE : mortonCode(placeXs[first - 1], placeYs[first - 1]);
+        for (int slot = first; slot < numOfPlaces; slot++) {
+            long code = mortonCode(placeXs[slot], placeYs[slot]);
+            if (sorted == slot && code >= previous) {
+                sorted++;
+            }
+            previous = code;
+            expandBlock(slot, placeXs[slot], placeYs[slot], code);
+        }
+        sortedPlaces = sorted;
+    }
+
+    /**
+     * Calculates the Morton code of a point relative to the top-left corner of this node: the bits of its offsets
+     * to the right and downwards, interleaved. Codes grow with either offset, so every point of a rectangle has a
+     * code between those of its top-left and bottom-right corners.
+     *
+     * @param x The x-coordinate of the point.
+     * @param y The y-coordinate of the point.
+     * @return The code, on 62 bits.
+     */
+    private long mortonCode(int x, int y) {
+        long dx = Math.max(0, Math.min((long) x - boundary.getX(), Integer.MAX_VALUE));
+        long dy = Math.max(0, Math.min((long) boundary.getY() - y, Integer.MAX_VALUE));
+        return spreadBits(dx) | spreadBits(dy) << 1;
+    }
+
+    /**
+     * Spreads the 31 low bits of a value to the even bits of the result.
+     */
+    private static long spreadBits(long value) {
+        value = (value | value << 16) & 0x0000FFFF0000FFFFL;
+        value = (value | value << 8) & 0x00FF00FF00FF00FFL;
+        value = (value | value << 4) & 0x0F0F0F0F0F0F0F0FL;
+        value = (value | value << 2) & 0x3333333333333333L;
+        value = (value | value << 1) & 0x5555555555555555L;
+        return value;
+    }
+
+    /**
+     * Reorders a range of slots of this leaf by Morton code, then brings the service index, the coordinate index
+     * and the block summaries up to date. Places with the same code keep their relative order.
+     *
+     * @param from The first slot of the range (inclusive).
+     * @param to   The last slot of the range (exclusive).
+     */
+    private void sortSlots(int from, int to) {
+        int count = to - from;
+        if (count > 1) {
+            long[] codes = new long[count];
+            int[] order = new int[count];
+            for (int i = 0; i < count; i++) {
+                codes[i] = mortonCode(placeXs[from + i], placeYs[from + i]);
+                order[i] = from + i;
+            }
+            sortByCode(codes, order, 0, count);
+            for (int slot = from; slot < to; slot++) {
+                clearServiceBits(slot, placeServices[slot]);
+                if (coordinateIndex != null) {
+                    coordinateIndex.remove(placeXs[slot], placeYs[slot], this, slot);
+                }
+            }
+            for (int[] values : new int[][]{placeXs, placeYs, placeServices}) {
+                int[] sorted = new int[count];
+                for (int i = 0; i < count; i++) {
+                    sorted[i] = values[order[i]];
+                }
+                System.arraycopy(sorted, 0, values, from, count);
+            }
+            if (extraServiceWords > 0) {
+                int[] sorted = new int[count * extraServiceWords];
+                for (int i = 0; i < count; i++) {
+                    System.arraycopy(placeExtraServices, order[i] * extraServiceWords, sorted, i * extraServiceWords, extraServiceWords);
+                }
+                System.arraycopy(sorted, 0, placeExtraServices, from * extraServiceWords, sorted.length);
+            }
+            for (int slot = from; slot < to; slot++) {
+                setServiceBits(slot, placeServices[slot]);
+                if (coordinateIndex != null) {
+                    coordinateIndex.add(placeXs[slot], placeYs[slot], this, slot);
+                }
+            }
+            markSlotsChanged(from, to);
+            dirty = true;
+        }
+        rebuildBlocks(from);
+    }
+
+    /**
+     * Sorts a range of codes along with the slots they belong to, breaking ties on the slot.
+     * Quicksort on the median of three, finishing small ranges by insertion.
+     */
+    private static void sortByCode(long[] codes, int[] order, int from, int to) {
+        while (to - from > 16) {
+            int middle = (from + to) >>> 1;
+            if (compareCodes(codes, order, middle, from) < 0) {
+                swapCodes(codes, order, middle, from);
+            }
+            if (compareCodes(codes, order, to - 1, from) < 0) {
+                swapCodes(codes, order, to - 1, from);
+            }
+            if (compareCodes(codes, order, to - 1, middle) < 0) {
+                swapCodes(codes, order, to - 1, middle);
+            }
+            long pivotCode = codes[middle];
+            int pivotSlot = order[middle];
+            int i = from;
+            int j = to - 1;
+            while (i <= j) {
+                while (codes[i] < pivotCode || (codes[i] == pivotCode && order[i] < pivotSlot)) {
+                    i++;
+                }
+                while (codes[j] > pivotCode || (codes[j] == pivotCode && order[j] > pivotSlot)) {
+                    j--;
+                }
+                if (i <= j) {
+                    swapCodes(codes, order, i++, j--);
+                }
+            }
+            // Recurse into the smaller part so the stack stays logarithmic
+            if (j - from < to - i) {
+                sortByCode(codes, order, from, j + 1);
+                from = i;
+            } else {
+                sortByCode(codes, order, i, to);
+                to = j + 1;
+            }
+        }
+        for (int i = from + 1; i < to; i++) {
+            for (int j = i; j > from && compareCodes(codes, order, j, j - 1) < 0; j--) {
+                swapCodes(codes, order, j, j - 1);
+            }
+        }
+    }
+
+    private static int compareCodes(long[] codes, int[] order, int i, int j) {
+        return codes[i] != codes[j] ? Long.compare(codes[i], codes[j]) : Integer.compare(order[i], order[j]);
+    }
+
+    private static void swapCodes(long[] codes, int[] order, int i, int j) {
+        long code = codes[i];
+        codes[i] = codes[j];
+        codes[j] = code;
+        int slot = order[i];
+        order[i] = order[j];
+        order[j] = slot;
+    }
+
+    /**
+     * Releases the leaf buffers once the node no longer stores places itself.
+     */
+    private void releaseLeafStorage() {
+        numOfPlaces = 0;
+        placeXs = null;
+        placeYs = null;
+        placeServices = null;
+        placeExtraServices = null;
+        serviceBitmaps = null;
+        blockBoxes = null;
+        blockCodes = null;
+        sortedPlaces = 0;
+        changedSlots = null;
+    }
+
+    /**
+     * Records in the service index that a slot of this leaf offers the given services.
+     *
+     * @param slot     The slot.
+     * @param services The services of the first word offered at the slot.
+     */
+    private void setServiceBits(int slot, int services) {
+        if (!serviceIndexed) {
+            return;
+        }
+        if (serviceBitmaps == null) {
+            serviceBitmaps = new long[Integer.SIZE][];
+        }
+        for (int remaining = services; remaining != 0; remaining &= remaining - 1) {
+            int service = Integer.numberOfTrailingZeros(remaining);
+            if (serviceBitmaps[service] == null) {
+                serviceBitmaps[service] = new long[(placeXs.length + 63) >>> 6];
+            }
+            serviceBitmaps[service][slot >>> 6] |= 1L << slot;
+        }
+    }
+
+    /**
+     * Removes a slot of this leaf from the service index.
+     *
+     * @param slot     The slot.
+     * @param services The services of the first word the slot offered.
+     */
+    private void clearServiceBits(int slot, int services) {
+        if (serviceBitmaps == null) {
+            return;
+        }
+        for (int remaining = services; remaining != 0; remaining &= remaining - 1) {
+            serviceBitmaps[Integer.numberOfTrailingZeros(remaining)][slot >>> 6] &= ~(1L << slot);
+        }
+    }
+
+    /**
+     * Rebuilds the service index of this leaf from its places, after they were moved or reordered.
+     */
+    private void rebuildServiceIndex() {
+        if (!serviceIndexed) {
+            return;
+        }
+        if (placeXs == null) {
+            serviceBitmaps = null;
+            return;
+        }
+        if (serviceBitmaps != null) {
+            for (int service = 0; service < Integer.SIZE; service++) {
+                // Bitmaps of the right length are cleared and reused, others are reallocated on demand
+                if (serviceBitmaps[service] != null && serviceBitmaps[service].length == (placeXs.length + 63) >>> 6) {
+                    Arrays.fill(serviceBitmaps[service], 0L);
+                } else {
+                    serviceBitmaps[service] = null;
+                }
+            }
+        }
+        for (int slot = 0; slot < numOfPlaces; slot++) {
+            setServiceBits(slot, placeServices[slot]);
+        }
+    }
+
+    /**
+     * Records that a range of this leaf's slots was written, so that saveSegment only writes those slots.
+     *
+     * @param from The first slot written (inclusive).
+     * @param to   The last slot written (exclusive).
+     */
+    private void markSlotsChanged(int from, int to) {
+        if (changedSlots == null) {
+            changedSlots = new long[(placeXs.length + 63) >>> 6];
+        } else if (changedSlots.length << 6 < to) {
+            changedSlots = Arrays.copyOf(changedSlots, (placeXs.length + 63) >>> 6);
+        }
+        for (int slot = from; slot < to; slot++) {
+            changedSlots[slot >>> 6] |= 1L << slot;
+        }
+    }
+
+    /**
+     * Counts the changed slots of this leaf that still hold a place.
+     *
+     * @return The number of changed slots.
+     */
+    private int countChangedSlots() {
+        int count = 0;
+        for (int slot = 0; slot < numOfPlaces; slot++) {
+            if ((changedSlots[slot >>> 6] & 1L << slot) != 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Gets the x-coordinate separating the left and right quadrants.
+     *
+     * @return The vertical midpoint of the boundary.
+     */
+    private int getVerticalMidpoint() {
+        return boundary.getX() + boundary.getWidth() / 2;
+    }
+
+    /**
+     * Gets the y-coordinate separating the top and bottom quadrants.
+     *
+     * @return The horizontal midpoint of the boundary.
+     */
+    private int getHorizontalMidpoint() {
+        return boundary.getY() - boundary.getHeight() / 2;
     }
 
     /**
@@ -36,10 +672,8 @@ public class Map2D {
      * @return The index of the suitable leaf.
      */
     private int getSuitableLeaf(int x, int y) {
-        int verticalMidpoint = boundary.getX() + boundary.getWidth() / 2;
-        int horizontalMidpoint = boundary.getY() - boundary.getHeight() / 2;
-        boolean topQuadrant = (y >= horizontalMidpoint);
-        boolean rightQuadrant = (x >= verticalMidpoint);
+        boolean topQuadrant = (y >= getHorizontalMidpoint());
+        boolean rightQuadrant = (x >= getVerticalMidpoint());
         if (topQuadrant) {
             return rightQuadrant ? 1 : 0; // Top right or top left
         } else {
@@ -47,221 +681,1605 @@ public class Map2D {
         }
     }
 
+    /**
+     * Creates a child node that shares this node's configuration.
+     *
+     * @param childBoundary The boundary of the child.
+     * @return The new child node.
+     */
+    private Map2D createChild(Rectangle childBoundary) {
+        Map2D child = new Map2D(childBoundary, stableRemoval, extraServiceWords);
+        child.coordinateIndex = coordinateIndex;
+        child.serviceIndexed = serviceIndexed;
+        child.sortedLeaves = sortedLeaves;
+        child.owner = owner;
+        return child;
+    }
+
     /**
      * Splits the map into four quadrants.
+     * Places keep their insertion order within each child, unless leaves are sorted.
      */
     private void split() {
+        createChildren();
+        int[] xs = placeXs;
+        int[] ys = placeYs;
+        int[] services = placeServices;
+        int[] extras = placeExtraServices;
+        int count = numOfPlaces;
+        releaseLeafStorage();
+        subtreePlaces = count;
+        for (int i = 0; i < count; i++) {
+            Map2D child = children[getSuitableLeaf(xs[i], ys[i])];
+            child.appendPlace(xs[i], ys[i], services[i], extras, i * extraServiceWords);
+            if (coordinateIndex != null) {
+                coordinateIndex.move(xs[i], ys[i], this, i, child, child.numOfPlaces - 1);
+            }
+        }
+        if (sortedLeaves) {
+            for (Map2D child : children) {
+                child.sortSlots(0, child.numOfPlaces);
+            }
+        }
+    }
+
+    /**
+     * Creates the four empty quadrants of this node.
+     */
+    private void createChildren() {
+        dirty = true;
+        reshaped = true;
         int subWidth = boundary.getWidth() / 2;
         int subHeight = boundary.getHeight() / 2;
         int x = boundary.getX();
         int y = boundary.getY();
 
-        children[0] = new Map2D(new Rectangle(x, y, subWidth, subHeight));                                // Top left
-        children[1] = new Map2D(new Rectangle(x + subWidth, y, subWidth, subHeight));                  // Top right
-        children[2] = new Map2D(new Rectangle(x, y - subHeight, subWidth, subHeight));                 // Bottom left
-        children[3] = new Map2D(new Rectangle(x + subWidth, y - subHeight, subWidth, subHeight));   // Bottom right
-
-        for (int i = 0; i < numOfPlaces; i++) {
-            int leaf = getSuitableLeaf(placeXs[i], placeYs[i]);
-            children[leaf].addPlace(placeXs[i], placeYs[i], placeServices[i]);
-        }
-        numOfPlaces = 0;
+        // children[0] is assigned last since readers test it to tell a leaf from an internal node. Optimistic
+        // readers of a ConcurrentMap2D then rarely meet missing children, and validate their reads anyway
+        children[1] = createChild(new Rectangle(x + subWidth, y, subWidth, subHeight));                  // Top right
+        children[2] = createChild(new Rectangle(x, y - subHeight, subWidth, subHeight));                 // Bottom left
+        children[3] = createChild(new Rectangle(x + subWidth, y - subHeight, subWidth, subHeight));   // Bottom right
+        children[0] = createChild(new Rectangle(x, y, subWidth, subHeight));                                // Top left
     }
 
     /**
-     * Adds a place to the map.
+     * Appends a place to this leaf's buffers. The caller ensures the leaf is not full.
      *
      * @param x        The x-coordinate of the place.
      * @param y        The y-coordinate of the place.
      * @param services The services available at the place.
+     * @param extras   The array holding the other service words of the place, or null if they are all 0.
+     * @param offset   The index of the first of those words.
      */
-    public void addPlace(int x, int y, int services) {
-        if (!boundary.contains(x, y)) {
-            throw new IllegalArgumentException("Place is out of boundary.");
-        }
-        if (children[0] != null) {
-            int leaf = getSuitableLeaf(x, y);
-            children[leaf].addPlace(x, y, services);
-        } else {
-            if (numOfPlaces < CAPACITY) {
-                placeXs[numOfPlaces] = x;
-                placeYs[numOfPlaces] = y;
-                placeServices[numOfPlaces] = services;
-                numOfPlaces++;
-            } else {
-                split();
-                addPlace(x, y, services);
+    private void appendPlace(int x, int y, int services, int[] extras, int offset) {
+        ensureLeafCapacity(numOfPlaces + 1);
+        placeXs[numOfPlaces] = x;
+        placeYs[numOfPlaces] = y;
+        placeServices[numOfPlaces] = services;
+        setExtraServices(numOfPlaces, extras, offset);
+        setServiceBits(numOfPlaces, services);
+        if (blockBoxes != null) {
+            long code = mortonCode(x, y);
+            if (sortedPlaces == numOfPlaces
+                    && (numOfPlaces == 0 || code >= mortonCode(placeXs[numOfPlaces - 1], placeYs[numOfPlaces - 1]))) {
+                sortedPlaces++;
             }
+            expandBlock(numOfPlaces, x, y, code);
         }
+        markSlotsChanged(numOfPlaces, numOfPlaces + 1);
+        numOfPlaces++;
+        updateServiceSummary(services, 1);
+        updateExtraServiceSummary(extras, offset, 1);
     }
 
     /**
-     * Edits services available at a place.
+     * Partitions a range of places by quadrant and hands each quadrant's slice to the matching child.
+     * After partitioning, the range is ordered top left, top right, bottom left, bottom right.
      *
-     * @param x        The x-coordinate of the place.
-     * @param y        The y-coordinate of the place.
-     * @param services The new services available.
-     * @return True if the place is found and edited, false otherwise.
+     * @param xs       The x-coordinates of the places.
+     * @param ys       The y-coordinates of the places.
+     * @param services The services of the places.
+     * @param from     The first index of the range (inclusive).
+     * @param to       The last index of the range (exclusive).
      */
-    public boolean editPlace(int x, int y, String[] services) {
+    private void distribute(int[] xs, int[] ys, int[] services, int from, int to) {
+        int bottomStart = partition(ys, xs, ys, services, from, to, getHorizontalMidpoint(), true);
+        int topRightStart = partition(xs, xs, ys, services, from, bottomStart, getVerticalMidpoint(), false);
+        int bottomRightStart = partition(xs, xs, ys, services, bottomStart, to, getVerticalMidpoint(), false);
+        children[0].bulkInsert(xs, ys, services, from, topRightStart);
+        children[1].bulkInsert(xs, ys, services, topRightStart, bottomStart);
+        children[2].bulkInsert(xs, ys, services, bottomStart, bottomRightStart);
+        children[3].bulkInsert(xs, ys, services, bottomRightStart, to);
+    }
+
+    /**
+     * Reorders a range of places in place so that those on one side of a midpoint come first.
+     *
+     * @param keys          The coordinate array compared against the midpoint (xs or ys).
+     * @param xs            The x-coordinates of the places.
+     * @param ys            The y-coordinates of the places.
+     * @param services      The services of the places.
+     * @param from          The first index of the range (inclusive).
+     * @param to            The last index of the range (exclusive).
+     * @param midpoint      The midpoint to partition on.
+     * @param aboveFirst    True to move keys >= midpoint first, false to move keys < midpoint first.
+     * @return The index of the first place of the second part.
+     */
+    private static int partition(int[] keys, int[] xs, int[] ys, int[] services, int from, int to, int midpoint, boolean aboveFirst) {
+        int i = from;
+        int j = to - 1;
+        while (true) {
+            while (i <= j && (keys[i] >= midpoint) == aboveFirst) {
+                i++;
+            }
+            while (i <= j && (keys[j] >= midpoint) != aboveFirst) {
+                j--;
+            }
+            if (i >= j) {
+                return i;
+            }
+            swap(xs, i, j);
+            swap(ys, i, j);
+            swap(services, i, j);
+            i++;
+            j--;
+        }
+    }
+
+    private static void swap(int[] values, int i, int j) {
+        int temp = values[i];
+        values[i] = values[j];
+        values[j] = temp;
+    }
+
+    /**
+     * Inserts a range of places that all lie within this node's boundary.
+     * Leaves copy the range directly when it fits; otherwise the node splits and the range is distributed.
+     *
+     * @param xs       The x-coordinates of the places.
+     * @param ys       The y-coordinates of the places.
+     * @param services The services of the places.
+     * @param from     The first index of the range (inclusive).
+     * @param to       The last index of the range (exclusive).
+     */
+    private void bulkInsert(int[] xs, int[] ys, int[] services, int from, int to) {
+        int count = to - from;
+        if (count == 0) {
+            return;
+        }
+        if (children[0] == null) {
+            if (numOfPlaces + count <= CAPACITY) {
+                ensureLeafCapacity(numOfPlaces + count);
+                System.arraycopy(xs, from, placeXs, numOfPlaces, count);
+                System.arraycopy(ys, from, placeYs, numOfPlaces, count);
+                System.arraycopy(services, from, placeServices, numOfPlaces, count);
+                if (extraServiceWords > 0) {
+                    Arrays.fill(placeExtraServices, numOfPlaces * extraServiceWords, (numOfPlaces + count) * extraServiceWords, 0);
+                }
+                markSlotsChanged(numOfPlaces, numOfPlaces + count);
+                for (int i = from; i < to; i++) {
+                    updateServiceSummary(services[i], 1);
+                    setServiceBits(numOfPlaces + i - from, services[i]);
+                    if (coordinateIndex != null) {
+                        coordinateIndex.add(xs[i], ys[i], this, numOfPlaces + i - from);
+                    }
+                }
+                numOfPlaces += count;
+                if (sortedLeaves) {
+                    sortSlots(numOfPlaces - count, numOfPlaces);
+                }
+                return;
+            }
+            split();
+        }
+        distribute(xs, ys, services, from, to);
+        sumChildServiceSummaries();
+    }
+
+    /**
+     * Builds the subtree of one node from a range of places on a ForkJoinPool.
+     * Each task partitions its range by quadrant and forks one task per child, so disjoint subtrees
+     * are built concurrently; ranges smaller than a leaf fall back to the sequential bulkInsert.
+     */
+    private static final class BulkInsertTask extends RecursiveTask<Integer> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient Map2D node; // Tasks are never serialized
+        private final int[] xs;
+        private final int[] ys;
+        private final int[] services;
+        private final int from;
+        private final int to;
+
+        BulkInsertTask(Map2D node, int[] xs, int[] ys, int[] services, int from, int to) {
+            this.node = node;
+            this.xs = xs;
+            this.ys = ys;
+            this.services = services;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Integer compute() {
+            int count = to - from;
+            if (count < CAPACITY || (node.children[0] == null && node.numOfPlaces + count <= CAPACITY)) {
+                node.bulkInsert(xs, ys, services, from, to);
+                return count;
+            }
+            if (node.children[0] == null) {
+                node.split();
+            }
+            int bottomStart = partition(ys, xs, ys, services, from, to, node.getHorizontalMidpoint(), true);
+            int topRightStart = partition(xs, xs, ys, services, from, bottomStart, node.getVerticalMidpoint(), false);
+            int bottomRightStart = partition(xs, xs, ys, services, bottomStart, to, node.getVerticalMidpoint(), false);
+            BulkInsertTask topLeft = new BulkInsertTask(node.children[0], xs, ys, services, from, topRightStart);
+            BulkInsertTask topRight = new BulkInsertTask(node.children[1], xs, ys, services, topRightStart, bottomStart);
+            BulkInsertTask bottomLeft = new BulkInsertTask(node.children[2], xs, ys, services, bottomStart, bottomRightStart);
+            BulkInsertTask bottomRight = new BulkInsertTask(node.children[3], xs, ys, services, bottomRightStart, to);
+            topRight.fork();
+            bottomLeft.fork();
+            bottomRight.fork();
+            int loaded = topLeft.compute() + topRight.join() + bottomLeft.join() + bottomRight.join();
+            node.sumChildServiceSummaries();
+            return loaded;
+        }
+    }
+
+    /**
+     * Loads a batch of places into the map in a single pass.
+     * The batch is sorted by quadrant path (Morton order) while descending, and each leaf receives its
+     * slice with one array copy, so no place is ever re-inserted when a node splits.
+     * The resulting tree holds the same places as calling addPlace for each entry.
+     * Note that the input arrays are reordered in place.
+     *
+     * @param xs       The x-coordinates of the places.
+     * @param ys       The y-coordinates of the places.
+     * @param services The services available at each place.
+     */
+    public void bulkLoad(int[] xs, int[] ys, int[] services) {
+        bulkLoad(xs, ys, services, xs.length);
+    }
+
+    /**
+     * Loads the first length entries of a batch into the map in a single pass.
+     * This is the streaming variant of bulkLoad: callers can refill the same buffers with the next chunk
+     * of an import and call it again, and each chunk is merged into the existing tree.
+     *
+     * @param xs       The x-coordinates of the places.
+     * @param ys       The y-coordinates of the places.
+     * @param services The services available at each place.
+     * @param length   The number of entries to load.
+     */
+    public void bulkLoad(int[] xs, int[] ys, int[] services, int length) {
+        if (length < 0 || length > xs.length || length > ys.length || length > services.length) {
+            throw new IllegalArgumentException("Invalid batch length: " + length);
+        }
+        for (int i = 0; i < length; i++) {
+            if (!boundary.contains(xs[i], ys[i])) {
+                throw new IllegalArgumentException("Place is out of boundary.");
+            }
+        }
+        bulkInsert(xs, ys, services, 0, length);
+    }
+
+    /**
+     * Loads a batch of places into the map, building the four quadrants of every large node in parallel.
+     * The resulting tree holds the same places as the sequential bulkLoad and as calling addPlace for each entry.
+     * Note that the input arrays are reordered in place.
+     *
+     * @param xs       The x-coordinates of the places.
+     * @param ys       The y-coordinates of the places.
+     * @param services The services available at each place.
+     * @param pool     The pool running the construction tasks; its parallelism bounds the number of threads used.
+     */
+    public void parallelBulkLoad(int[] xs, int[] ys, int[] services, ForkJoinPool pool) {
+        parallelBulkLoad(xs, ys, services, xs.length, pool);
+    }
+
+    /**
+     * Loads the first length entries of a batch into the map, building the four quadrants of every large node
+     * in parallel.
+     *
+     * @param xs       The x-coordinates of the places.
+     * @param ys       The y-coordinates of the places.
+     * @param services The services available at each place.
+     * @param length   The number of entries to load.
+     * @param pool     The pool running the construction tasks; its parallelism bounds the number of threads used.
+     */
+    public void parallelBulkLoad(int[] xs, int[] ys, int[] services, int length, ForkJoinPool pool) {
+        if (length < 0 || length > xs.length || length > ys.length || length > services.length) {
+            throw new IllegalArgumentException("Invalid batch length: " + length);
+        }
+        for (int i = 0; i < length; i++) {
+            if (!boundary.contains(xs[i], ys[i])) {
+                throw new IllegalArgumentException("Place is out of boundary.");
+            }
+        }
+        if (coordinateIndex == null) {
+            pool.invoke(new BulkInsertTask(this, xs, ys, services, 0, length));
+            return;
+        }
+        // The index is not thread-safe: build the tree without it, then index every place again
+        coordinateIndex.setSuspended(true);
+        try {
+            pool.invoke(new BulkInsertTask(this, xs, ys, services, 0, length));
+        } finally {
+            coordinateIndex.setSuspended(false);
+            coordinateIndex.clear();
+            indexPlaces(coordinateIndex);
+        }
+    }
+
+    /**
+     * Adds a place to the map.
+     *
+     * @param x        The x-coordinate of the place.
+     * @param y        The y-coordinate of the place.
+     * @param services The services available at the place.
+     */
+    @Override
+    public void addPlace(int x, int y, int services) {
+        if (!boundary.contains(x, y)) {
+            throw new IllegalArgumentException("Place is out of boundary.");
+        }
+        insertPlace(x, y, services, null);
+    }
+
+    /**
+     * Adds a place offering services of a ServiceRegistry to the map.
+     *
+     * @param x        The x-coordinate of the place.
+     * @param y        The y-coordinate of the place.
+     * @param services The mask of the services available at the place, see ServiceRegistry.encodeService.
+     */
+    public void addPlace(int x, int y, int[] services) {
+        if (!boundary.contains(x, y)) {
+            throw new IllegalArgumentException("Place is out of boundary.");
+        }
+        checkServiceWords(services);
+        insertPlace(x, y, services[0], services);
+    }
+
+    /**
+     * Checks that a mask has one word per word of the services stored at each place.
+     *
+     * @param services The mask.
+     */
+    private void checkServiceWords(int[] services) {
+        if (services.length != 1 + extraServiceWords) {
+            throw new IllegalArgumentException("Service mask has " + services.length + " words, expected " + (1 + extraServiceWords) + ".");
+        }
+    }
+
+    /**
+     * Inserts a place below this node.
+     *
+     * @param services The first service word of the place.
+     * @param words    The whole mask of the place, or null if its other words are all 0.
+     */
+    private void insertPlace(int x, int y, int services, int[] words) {
+        if (children[0] == null) {
+            if (numOfPlaces < CAPACITY) {
+                appendPlace(x, y, services, words, 1);
+                if (coordinateIndex != null) {
+                    coordinateIndex.add(x, y, this, numOfPlaces - 1);
+                }
+                return;
+            }
+            split();
+        }
+        int leaf = getSuitableLeaf(x, y);
+        writableChild(leaf).insertPlace(x, y, services, words);
+        subtreePlaces++;
+        updateServiceSummary(services, 1);
+        updateExtraServiceSummary(words, 1, 1);
+    }
+
+    /**
+     * Edits services available at a place.
+     *
+     * @param x        The x-coordinate of the place.
+     * @param y        The y-coordinate of the place.
+     * @param services The new services available.
+     * @return True if the place is found and edited, false otherwise.
+     */
+    @Override
+    public boolean editPlace(int x, int y, String[] services) {
+        return editPlace(x, y, Service.encodeService(services));
+    }
+
+    /**
+     * Edits services available at a place.
+     *
+     * @param x        The x-coordinate of the place.
+     * @param y        The y-coordinate of the place.
+     * @param services The new encoded services available.
+     * @return True if the place is found and edited, false otherwise.
+     */
+    @Override
+    public boolean editPlace(int x, int y, int services) {
+        return replaceServices(x, y, services, null, extraServiceScratch()) != NOT_FOUND;
+    }
+
+    /**
+     * Edits the services of a place offering services of a ServiceRegistry.
+     *
+     * @param x        The x-coordinate of the place.
+     * @param y        The y-coordinate of the place.
+     * @param services The mask of the new services available, see ServiceRegistry.encodeService.
+     * @return True if the place is found and edited, false otherwise.
+     */
+    public boolean editPlace(int x, int y, int[] services) {
+        checkServiceWords(services);
+        return replaceServices(x, y, services[0], services, extraServiceScratch()) != NOT_FOUND;
+    }
+
+    /**
+     * Allocates room for the service words beyond the first of a place removed or edited, if the map stores any.
+     *
+     * @return The scratch array, or null if places have a single service word.
+     */
+    private int[] extraServiceScratch() {
+        return extraServiceWords == 0 ? null : new int[extraServiceWords];
+    }
+
+    /**
+     * Replaces the services of a place and keeps the service summaries along its path up to date.
+     *
+     * @param x           The x-coordinate of the place.
+     * @param y           The y-coordinate of the place.
+     * @param services    The new first service word.
+     * @param words       The whole new mask, or null if its other words are all 0.
+     * @param oldExtras   The array receiving the previous service words beyond the first, null if there are none.
+     * @return The previous first service word of the place as an unsigned value, or NOT_FOUND.
+     */
+    private long replaceServices(int x, int y, int services, int[] words, int[] oldExtras) {
+        long oldServices = NOT_FOUND;
         if (children[0] != null) {
             int leaf = getSuitableLeaf(x, y);
-            return children[leaf].editPlace(x, y, services);  // Added return here
+            oldServices = writableChild(leaf).replaceServices(x, y, services, words, oldExtras);
         } else {
-            for (int i = 0; i < numOfPlaces; i++) {
+            int i = findSlot(x, y);
+            if (i >= 0) {
+                oldServices = Integer.toUnsignedLong(placeServices[i]);
+                clearServiceBits(i, placeServices[i]);
+                placeServices[i] = services;
+                setServiceBits(i, services);
+                if (oldExtras != null) {
+                    System.arraycopy(placeExtraServices, i * extraServiceWords, oldExtras, 0, extraServiceWords);
+                    setExtraServices(i, words, 1);
+                }
+                markSlotsChanged(i, i + 1);
+            }
+        }
+        if (oldServices != NOT_FOUND) {
+            updateServiceSummary((int) oldServices, -1);
+            updateServiceSummary(services, 1);
+            updateExtraServiceSummary(oldExtras, 0, -1);
+            updateExtraServiceSummary(words, 1, 1);
+        }
+        return oldServices;
+    }
+
+    /**
+     * Removes a place from the map.
+     *
+     * @param x The x-coordinate of the place.
+     * @param y The y-coordinate of the place.
+     * @return True if the place is found and removed, false otherwise.
+     */
+    @Override
+    public boolean removePlace(int x, int y) {
+        return removeAndGetServices(x, y, extraServiceScratch()) != NOT_FOUND;
+    }
+
+    /**
+     * Removes a place and keeps the service summaries along its path up to date.
+     *
+     * @param x             The x-coordinate of the place.
+     * @param y             The y-coordinate of the place.
+     * @param removedExtras The array receiving the service words beyond the first of the place, null if there are none.
+     * @return The first service word of the removed place as an unsigned value, or NOT_FOUND.
+     */
+    private long removeAndGetServices(int x, int y, int[] removedExtras) {
+        long removedServices = NOT_FOUND;
+        if (children[0] != null) {
+            int leaf = getSuitableLeaf(x, y);
+            removedServices = writableChild(leaf).removeAndGetServices(x, y, removedExtras);
+            if (removedServices != NOT_FOUND && --subtreePlaces <= MERGE_THRESHOLD) {
+                collapse();
+            }
+        } else {
+            int i = findSlot(x, y);
+            if (i >= 0) {
+                removedServices = Integer.toUnsignedLong(placeServices[i]);
+                if (removedExtras != null) {
+                    System.arraycopy(placeExtraServices, i * extraServiceWords, removedExtras, 0, extraServiceWords);
+                }
+                removeAt(i);
+            }
+        }
+        if (removedServices != NOT_FOUND) {
+            updateServiceSummary((int) removedServices, -1);
+            updateExtraServiceSummary(removedExtras, 0, -1);
+        }
+        return removedServices;
+    }
+
+    /**
+     * Removes the place at the given index of this leaf.
+     * Either moves the last place into the gap, or shifts the following places left in stable removal mode.
+     *
+     * @param index The index of the place to remove.
+     */
+    private void removeAt(int index) {
+        int last = numOfPlaces - 1;
+        if (coordinateIndex != null) {
+            coordinateIndex.remove(placeXs[index], placeYs[index], this, index);
+        }
+        clearServiceBits(index, placeServices[index]);
+        if (stableRemoval) {
+            System.arraycopy(placeXs, index + 1, placeXs, index, last - index);
+            System.arraycopy(placeYs, index + 1, placeYs, index, last - index);
+            System.arraycopy(placeServices, index + 1, placeServices, index, last - index);
+            if (extraServiceWords > 0) {
+                System.arraycopy(placeExtraServices, (index + 1) * extraServiceWords, placeExtraServices,
+                        index * extraServiceWords, (last - index) * extraServiceWords);
+            }
+            markSlotsChanged(index, last);
+        } else {
+            if (index != last) {
+                clearServiceBits(last, placeServices[last]);
+                setServiceBits(index, placeServices[last]);
+            }
+            placeXs[index] = placeXs[last];
+            placeYs[index] = placeYs[last];
+            placeServices[index] = placeServices[last];
+            setExtraServices(index, placeExtraServices, last * extraServiceWords);
+            markSlotsChanged(index, index + 1);
+            if (coordinateIndex != null && index != last) {
+                coordinateIndex.move(placeXs[index], placeYs[index], this, last, this, index);
+            }
+            if (blockBoxes != null && index != last) {
+                expandBlock(index, placeXs[index], placeYs[index], mortonCode(placeXs[index], placeYs[index]));
+            }
+            // The place moved into the gap is out of order, the places before it are not
+            sortedPlaces = Math.min(sortedPlaces, index);
+        }
+        numOfPlaces = last;
+        if (stableRemoval) {
+            rebuildServiceIndex();
+            rebuildBlocks(index);
+        }
+    }
+
+    /**
+     * Finds the index of the place with the given coordinates in this leaf.
+     * Uses the coordinate index when enabled, otherwise scans the leaf, skipping the blocks of sorted leaves
+     * whose box does not contain the coordinates.
+     *
+     * @param x The x-coordinate of the place.
+     * @param y The y-coordinate of the place.
+     * @return The index of the place, or -1 if the leaf holds no place at these coordinates.
+     */
+    private int findSlot(int x, int y) {
+        if (coordinateIndex != null) {
+            return coordinateIndex.findSlot(x, y, this);
+        }
+        for (int block = 0; block << BLOCK_SHIFT < numOfPlaces; block++) {
+            if (blockBoxes != null && (x < blockBoxes[4 * block] || x > blockBoxes[4 * block + 1]
+                    || y < blockBoxes[4 * block + 2] || y > blockBoxes[4 * block + 3])) {
+                continue;
+            }
+            for (int i = block << BLOCK_SHIFT; i < Math.min(numOfPlaces, (block + 1) << BLOCK_SHIFT); i++) {
                 if (placeXs[i] == x && placeYs[i] == y) {
-                    placeServices[i] = Service.encodeService(services);
-                    return true;
+                    return i;
                 }
             }
         }
-        return false;
+        return -1;
+    }
+
+    /**
+     * Enables an O(1) lookup from coordinates to the slot of a place, used by editPlace and removePlace
+     * instead of scanning the leaf. The index is built from the current places and kept up to date by
+     * every later change. It costs extra memory per place, see getCoordinateIndexMemory.
+     * Call it on the root of the map.
+     *
+     * @throws IllegalStateException If the map uses stable removal, where every remove shifts the places after it
+     *                               and would rewrite their entries one by one.
+     */
+    public void enableCoordinateIndex() {
+        if (stableRemoval) {
+            throw new IllegalStateException("The coordinate index requires swap removal.");
+        }
+        if (coordinateIndex == null) {
+            indexPlaces(new CoordinateIndex());
+        }
+    }
+
+    /**
+     * Attaches an index to this subtree and records every place stored in it.
+     *
+     * @param index The index to attach.
+     */
+    private void indexPlaces(CoordinateIndex index) {
+        coordinateIndex = index;
+        for (int i = 0; i < numOfPlaces; i++) {
+            index.add(placeXs[i], placeYs[i], this, i);
+        }
+        if (children[0] != null) {
+            for (Map2D child : children) {
+                child.indexPlaces(index);
+            }
+        }
+    }
+
+    /**
+     * Gets the memory used by the coordinate index.
+     *
+     * @return The size of the index in bytes, or 0 if the index is not enabled.
+     */
+    public long getCoordinateIndexMemory() {
+        return coordinateIndex == null ? 0 : coordinateIndex.memoryBytes();
+    }
+
+    /**
+     * Enables an index of the places offering each service in every leaf, used by searches instead of scanning
+     * the leaf: a search follows the index of the requested service fewest places of the leaf offer, checks the
+     * other requested services on those places only, and skips the rest of the leaf. Searches for rare services
+     * then test a small fraction of the places in their area. The index is built from the current places and kept
+     * up to date by every later change, at one bit per place and service of the first service word, see
+     * getServiceIndexMemory. Services beyond the first word of a ServiceRegistry are checked but not indexed.
+     * Call it on the root of the map.
+     */
+    public void enableServiceIndex() {
+        serviceIndexed = true;
+        if (children[0] == null) {
+            rebuildServiceIndex();
+        } else {
+            for (Map2D child : children) {
+                child.enableServiceIndex();
+            }
+        }
+    }
+
+    /**
+     * Stores the places of every leaf sorted by their Morton code, and summarises each block of 256 slots by the
+     * bounding box and the range of codes of its places. A search then binary-searches the blocks whose codes can
+     * fall in its walk-distance square and skips those whose box is outside of the search area or farther than the
+     * k places already found, instead of testing every place of the leaf; finding a place to edit or remove only
+     * scans the blocks whose box contains it.
+     * Leaves are sorted now, then again whenever they are rebuilt: on split, bulk load, collapse and compact.
+     * Places added one by one between those are appended and removals move the last place of the leaf: the places
+     * before the first one out of order are still searched by code and the others by the box of their block, which
+     * the changes widen; compact restores the order. The summaries take 32 bytes per block.
+     * Sorting gives up the insertion order that stable removal otherwise keeps within each leaf. Call it on the root
+     * of the map.
+     */
+    public void enableSortedLeaves() {
+        sortedLeaves = true;
+        if (children[0] == null) {
+            if (placeXs != null) {
+                resizeBlocks(placeXs.length);
+                sortSlots(0, numOfPlaces);
+            }
+        } else {
+            for (Map2D child : children) {
+                child.enableSortedLeaves();
+            }
+        }
+    }
+
+    /**
+     * Gets the memory used by the service index.
+     *
+     * @return The size of the index in bytes, or 0 if the index is not enabled.
+     */
+    public long getServiceIndexMemory() {
+        long bytes = 0;
+        if (serviceBitmaps != null) {
+            for (long[] bitmap : serviceBitmaps) {
+                bytes += bitmap == null ? 0 : (long) bitmap.length * Long.BYTES;
+            }
+        }
+        if (children[0] != null) {
+            for (Map2D child : children) {
+                bytes += child.getServiceIndexMemory();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Searches for places within a certain distance from a given point with specified services.
+     * Nodes are visited best-first, nearest to the user first, and the search stops as soon as no
+     * remaining node can hold a place closer than the k-th best found so far.
+     *
+     * @param userX        The x-coordinate of the user's position.
+     * @param userY        The y-coordinate of the user's position.
+     * @param walkDistance The maximum walking distance from the user.
+     * @param services     The services to search for.
+     * @param k            The maximum number of results to return.
+     * @return An ArrayList of places matching the search criteria, sorted by distance from the user.
+     */
+    @Override
+    public ArrayList<Place> searchPlace(int userX, int userY, int walkDistance, String[] services, int k) {
+        QueryContext context = new QueryContext();
+        searchPlace(userX, userY, walkDistance, Service.encodeService(services), k, context);
+        return context.toPlaceList();
+    }
+
+    /**
+     * Searches for places within a certain distance from a given point with specified services,
+     * writing the results into a caller-owned context instead of allocating a result list.
+     * Once the context has served a search with the same k, the search allocates nothing.
+     *
+     * @param userX        The x-coordinate of the user's position.
+     * @param userY        The y-coordinate of the user's position.
+     * @param walkDistance The maximum walking distance from the user.
+     * @param serviceMask  The encoded services to search for, see Service.encodeService.
+     * @param k            The maximum number of results to return.
+     * @param context      The context receiving the results, sorted by distance from the user.
+     */
+    @Override
+    public void searchPlace(int userX, int userY, int walkDistance, int serviceMask, int k, QueryContext context) {
+        context.reset(k, extraServiceWords);
+        if (k > 0) {
+            searchNearest(userX, userY, walkDistance, false, serviceMask, null, null, context, 0L, 0, null);
+        }
+        context.nearest.sortAscending();
+    }
+
+    /**
+     * Searches for places within a certain distance from a given point offering services of a ServiceRegistry.
+     * A mask whose words beyond the first are all 0 is searched at the cost of an int mask.
+     *
+     * @param userX        The x-coordinate of the user's position.
+     * @param userY        The y-coordinate of the user's position.
+     * @param walkDistance The maximum walking distance from the user.
+     * @param serviceMask  The mask of the services to search for, see ServiceRegistry.encodeService.
+     * @param k            The maximum number of results to return.
+     * @param context      The context receiving the results, sorted by distance from the user.
+     */
+    public void searchPlace(int userX, int userY, int walkDistance, int[] serviceMask, int k, QueryContext context) {
+        checkServiceWords(serviceMask);
+        context.reset(k, extraServiceWords);
+        if (k > 0) {
+            searchNearest(userX, userY, walkDistance, false, serviceMask[0], checkedServiceWords(serviceMask), null, context, 0L, 0, null);
+        }
+        context.nearest.sortAscending();
+    }
+
+    /**
+     * Gets the mask to check the service words beyond the first against.
+     *
+     * @param serviceMask The whole mask of the requested services.
+     * @return The mask, or null if its words beyond the first are all 0 and need no check.
+     */
+    private static int[] checkedServiceWords(int[] serviceMask) {
+        for (int w = 1; w < serviceMask.length; w++) {
+            if (serviceMask[w] != 0) {
+                return serviceMask;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Searches for places within a straight-line radius of a given point with specified services.
+     * Unlike searchPlace, which covers the whole square of side 2 * walkDistance, places in the corners
+     * of that square beyond the radius are not returned.
+     *
+     * @param userX    The x-coordinate of the user's position.
+     * @param userY    The y-coordinate of the user's position.
+     * @param radius   The maximum straight-line distance from the user.
+     * @param services The services to search for.
+     * @param k        The maximum number of results to return.
+     * @return An ArrayList of places matching the search criteria, sorted by distance from the user.
+     */
+    public ArrayList<Place> searchPlaceWithinRadius(int userX, int userY, int radius, String[] services, int k) {
+        QueryContext context = new QueryContext();
+        searchPlaceWithinRadius(userX, userY, radius, Service.encodeService(services), k, context);
+        return context.toPlaceList();
+    }
+
+    /**
+     * Searches for places within a straight-line radius of a given point with specified services,
+     * writing the results into a caller-owned context.
+     * Nodes are pruned by their distance to the circle and places are filtered on squared distance,
+     * so no square root is taken during the search.
+     *
+     * @param userX       The x-coordinate of the user's position.
+     * @param userY       The y-coordinate of the user's position.
+     * @param radius      The maximum straight-line distance from the user.
+     * @param serviceMask The encoded services to search for, see Service.encodeService.
+     * @param k           The maximum number of results to return.
+     * @param context     The context receiving the results, sorted by distance from the user.
+     */
+    @Override
+    public void searchPlaceWithinRadius(int userX, int userY, int radius, int serviceMask, int k, QueryContext context) {
+        context.reset(k, extraServiceWords);
+        if (k > 0 && radius >= 0) {
+            searchNearest(userX, userY, radius, true, serviceMask, null, null, context, 0L, 0, null);
+        }
+        context.nearest.sortAscending();
+    }
+
+    /**
+     * Searches for places within a straight-line radius of a given point offering services of a ServiceRegistry.
+     *
+     * @param userX       The x-coordinate of the user's position.
+     * @param userY       The y-coordinate of the user's position.
+     * @param radius      The maximum straight-line distance from the user.
+     * @param serviceMask The mask of the services to search for, see ServiceRegistry.encodeService.
+     * @param k           The maximum number of results to return.
+     * @param context     The context receiving the results, sorted by distance from the user.
+     */
+    public void searchPlaceWithinRadius(int userX, int userY, int radius, int[] serviceMask, int k, QueryContext context) {
+        checkServiceWords(serviceMask);
+        context.reset(k, extraServiceWords);
+        if (k > 0 && radius >= 0) {
+            searchNearest(userX, userY, radius, true, serviceMask[0], checkedServiceWords(serviceMask), null, context, 0L, 0, null);
+        }
+        context.nearest.sortAscending();
+    }
+
+    /**
+     * Searches for places within a certain distance from a given point whose services match a predicate, such as
+     * places offering any of several services. The matching places are found in one traversal of the tree and the
+     * k best ranked are kept: those with the smallest score, see ServicePredicate.score.
+     *
+     * @param userX        The x-coordinate of the user's position.
+     * @param userY        The y-coordinate of the user's position.
+     * @param walkDistance The maximum walking distance from the user.
+     * @param predicate    The services the places must or must not offer, and how they are ranked.
+     * @param k            The maximum number of results to return.
+     * @param context      The context receiving the results, sorted by score.
+     */
+    public void searchPlace(int userX, int userY, int walkDistance, ServicePredicate predicate, int k, QueryContext context) {
+        int[] serviceWords = checkedServiceWords(predicate);
+        context.reset(k, extraServiceWords);
+        if (k > 0) {
+            searchNearest(userX, userY, walkDistance, false, predicate.getAllOf(), serviceWords, predicate, context, 0L, 0, null);
+        }
+        context.nearest.sortAscending();
+    }
+
+    /**
+     * Searches for places within a straight-line radius of a given point whose services match a predicate.
+     *
+     * @param userX     The x-coordinate of the user's position.
+     * @param userY     The y-coordinate of the user's position.
+     * @param radius    The maximum straight-line distance from the user.
+     * @param predicate The services the places must or must not offer, and how they are ranked.
+     * @param k         The maximum number of results to return.
+     * @param context   The context receiving the results, sorted by score.
+     */
+    public void searchPlaceWithinRadius(int userX, int userY, int radius, ServicePredicate predicate, int k, QueryContext context) {
+        int[] serviceWords = checkedServiceWords(predicate);
+        context.reset(k, extraServiceWords);
+        if (k > 0 && radius >= 0) {
+            searchNearest(userX, userY, radius, true, predicate.getAllOf(), serviceWords, predicate, context, 0L, 0, null);
+        }
+        context.nearest.sortAscending();
+    }
+
+    /**
+     * Gets the mask to check the service words beyond the first against for the all-of services of a predicate.
+     *
+     * @param predicate The predicate, with at most as many words as the services stored at each place.
+     * @return The mask, or null if its words beyond the first are all 0 and need no check.
+     */
+    private int[] checkedServiceWords(ServicePredicate predicate) {
+        if (predicate.getWords() > 1 + extraServiceWords) {
+            throw new IllegalArgumentException("Service predicate has " + predicate.getWords() + " words, expected at most " + (1 + extraServiceWords) + ".");
+        }
+        int[] allOf = new int[1 + extraServiceWords];
+        for (int w = 0; w < allOf.length; w++) {
+            allOf[w] = predicate.getAllOf(w);
+        }
+        return checkedServiceWords(allOf);
+    }
+
+    /**
+     * Finds the nearest places within the walk distance with the specified services, visiting nodes best-first.
+     * The walk distance is either the half-side of a square or the radius of a circle around the user.
+     * A node is visited only if it overlaps that area and its service summary offers every requested service,
+     * and the search stops once the closest remaining node is farther than the worst of k places already found.
+     * With a predicate, places are also filtered on its other conditions and ranked by its keys, which are never
+     * smaller than squared distances, so the same bound still prunes.
+     *
+     * @param userX        The x-coordinate of the user's position.
+     * @param userY        The y-coordinate of the user's position.
+     * @param walkDistance The maximum walking distance from the user.
+     * @param circular     True to search the circle of radius walkDistance, false to search the square.
+     * @param serviceMask  The encoded services to search for.
+     * @param serviceWords The whole mask of the services to search for, or null if they all fit in serviceMask.
+     * @param predicate    The other conditions on the services and the ranking of the places, or null to rank by distance.
+     * @param context      The context holding the node queue and the heap collecting the k nearest places.
+     * @param path         The quadrant path of this node, used to rank ties.
+     * @param depth        The depth of this node.
+     * @param sharedBound  The smallest k-th distance found by any concurrent search of another subtree, or null.
+     */
+    private void searchNearest(int userX, int userY, int walkDistance, boolean circular, int serviceMask, int[] serviceWords,
+                               ServicePredicate predicate, QueryContext context, long path, int depth, AtomicLong sharedBound) {
+        // The walk-distance square, as a rectangle given by its top-left corner and size
+        int left = userX - walkDistance;
+        int top = userY + walkDistance;
+        int size = walkDistance * 2;
+        long radiusSquared = (long) walkDistance * walkDistance;
+        if (!overlapsSearchArea(userX, userY, left, top, size, circular, radiusSquared)
+                || !offersServices(serviceMask, serviceWords) || !mayMatch(predicate)) {
+            return;
+        }
+        NodeQueue queue = context.queue;
+        NearestPlaceHeap nearest = context.nearest;
+        queue.push(this, minSquaredDistanceTo(userX, userY), path, depth);
+        while (!queue.isEmpty()) {
+            Map2D node = queue.topNode();
+            long bound = queue.topBound();
+            long nodePath = queue.topPath();
+            int nodeDepth = queue.topDepth();
+            queue.removeTop();
+            if ((nearest.isFull() && bound > nearest.worstKey()) || (sharedBound != null && bound > sharedBound.get())) {
+                break;
+            }
+            if (node.children[0] != null) {
+                int shift = 62 - 2 * nodeDepth;
+                for (int i = 0; i < node.children.length; i++) {
+                    Map2D child = node.children[i];
+                    if (child.overlapsSearchArea(userX, userY, left, top, size, circular, radiusSquared)
+                            && child.offersServices(serviceMask, serviceWords) && child.mayMatch(predicate)) {
+                        long childPath = shift >= 0 ? nodePath | ((long) i << shift) : nodePath;
+                        queue.push(child, child.minSquaredDistanceTo(userX, userY), childPath, nodeDepth + 1);
+                    }
+                }
+            }
+            node.scanLeaf(userX, userY, left, top, size, circular, radiusSquared, serviceMask, serviceWords, predicate,
+                    nearest, nodePath);
+            if (sharedBound != null && node.numOfPlaces > 0 && nearest.isFull()) {
+                // The k places of this heap bound the k-th distance of the whole search
+                long worst = nearest.worstKey();
+                sharedBound.accumulateAndGet(worst, Math::min);
+            }
+        }
+        queue.clear();
+    }
+
+    /**
+     * Offers the places of this leaf that lie in the search area and match the requested services.
+     * The scan follows the service index when it can. In a sorted leaf it only visits the blocks whose box reaches
+     * the search area and is no farther than the worst of k places already found, and among the blocks filled by the
+     * Morton-ordered prefix those whose codes cannot fall in the walk-distance square are first cut off by binary search.
+     */
+    private void scanLeaf(int userX, int userY, int left, int top, int size, boolean circular, long radiusSquared,
+                          int serviceMask, int[] serviceWords, ServicePredicate predicate, NearestPlaceHeap nearest, long path) {
+        int rarestService = getRarestIndexedService(serviceMask);
+        long[] bitmap = rarestService >= 0 ? serviceBitmaps[rarestService] : null;
+        if (rarestService >= 0 && bitmap == null) {
+            return; // No place of the leaf offers the service
+        }
+        // Only the places offering one of the any-of services can match, so the union of their indexes may be followed
+        int anyOf = rarestService < 0 && predicate != null && isAnyOfIndexed(predicate) ? predicate.getAnyOf() : 0;
+        int blocks = (numOfPlaces + BLOCK_SIZE - 1) >> BLOCK_SHIFT;
+        // The blocks filled by the sorted prefix are searched by code, the blocks after them are all checked by box
+        int sortedBlocks = blockBoxes == null ? 0 : sortedPlaces == numOfPlaces ? blocks : sortedPlaces >> BLOCK_SHIFT;
+        int firstBlock = 0;
+        int lastBlock = -1;
+        if (sortedBlocks > 0) {
+            long lowCode = mortonCode(left, top);
+            long highCode = mortonCode((int) Math.min((long) left + size, Integer.MAX_VALUE), (int) Math.max((long) top - size, Integer.MIN_VALUE));
+            firstBlock = firstBlockReaching(lowCode, sortedBlocks);
+            lastBlock = lastBlockFrom(highCode, sortedBlocks);
+        }
+        for (int block = firstBlock <= lastBlock ? firstBlock : sortedBlocks; block < blocks;
+             block = block == lastBlock ? sortedBlocks : block + 1) {
+            if (blockBoxes != null && !blockReaches(block, userX, userY, left, top, size, circular, radiusSquared, nearest)) {
+                continue;
+            }
+            int from = block << BLOCK_SHIFT;
+            int to = Math.min(numOfPlaces, from + BLOCK_SIZE);
+            if (bitmap != null || anyOf != 0) {
+                for (int word = from >>> 6; word << 6 < to; word++) {
+                    long bits = slotsBelow(bitmap != null ? bitmap[word] : anyOfBits(anyOf, word), word, to);
+                    for (; bits != 0; bits &= bits - 1) {
+                        offerIfMatching((word << 6) + Long.numberOfTrailingZeros(bits), userX, userY, left, top, size,
+                                circular, radiusSquared, serviceMask, serviceWords, predicate, nearest, path);
+                    }
+                }
+            } else {
+                for (int i = from; i < to; i++) {
+                    offerIfMatching(i, userX, userY, left, top, size, circular, radiusSquared, serviceMask, serviceWords,
+                            predicate, nearest, path);
+                }
+            }
+        }
+    }
+
+    /**
+     * Keeps the bits of 64 slots of the service index that stand for slots before a given one.
+     *
+     * @param bits The bits of the slots.
+     * @param word The index of the 64 slots in the bitmaps.
+     * @param to   The first slot whose bit is dropped.
+     * @return The bits of the slots before to.
+     */
+    private static long slotsBelow(long bits, int word, int to) {
+        int slots = to - (word << 6);
+        return slots >= Long.SIZE ? bits : bits & ((1L << slots) - 1);
+    }
+
+    /**
+     * Gets the union of the indexes of some services over 64 slots of this leaf.
+     *
+     * @param anyOf The services.
+     * @param word  The index of the 64 slots in the bitmaps.
+     * @return The bits of the slots offering at least one of the services.
+     */
+    private long anyOfBits(int anyOf, int word) {
+        long union = 0;
+        for (int remaining = anyOf; remaining != 0; remaining &= remaining - 1) {
+            long[] bitmap = serviceBitmaps[Integer.numberOfTrailingZeros(remaining)];
+            union |= bitmap != null ? bitmap[word] : 0;
+        }
+        return union;
+    }
+
+    /**
+     * Finds the first block of the sorted prefix of this leaf that may hold a code at least the given one.
+     *
+     * @param code   The smallest code searched.
+     * @param blocks The number of blocks filled by the sorted prefix.
+     * @return The block, or blocks if there is none.
+     */
+    private int firstBlockReaching(long code, int blocks) {
+        int low = 0;
+        int high = blocks;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (blockCodes[2 * middle + 1] >= code) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Finds the last block of the sorted prefix of this leaf that may hold a code at most the given one.
+     *
+     * @param code   The largest code searched.
+     * @param blocks The number of blocks filled by the sorted prefix.
+     * @return The block, or -1 if there is none.
+     */
+    private int lastBlockFrom(long code, int blocks) {
+        int low = 0;
+        int high = blocks;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (blockCodes[2 * middle] > code) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low - 1;
+    }
+
+    /**
+     * Checks whether the box of a block of this leaf overlaps the search area and may hold a place ranking before
+     * the worst of those kept.
+     */
+    private boolean blockReaches(int block, int userX, int userY, int left, int top, int size, boolean circular,
+                                 long radiusSquared, NearestPlaceHeap nearest) {
+        int minX = blockBoxes[4 * block];
+        int maxX = blockBoxes[4 * block + 1];
+        int minY = blockBoxes[4 * block + 2];
+        int maxY = blockBoxes[4 * block + 3];
+        long dx = Math.max(0, Math.max((long) minX - userX, (long) userX - maxX));
+        long dy = Math.max(0, Math.max((long) minY - userY, (long) userY - maxY));
+        long squaredDistance = dx * dx + dy * dy;
+        if (minX > maxX || (nearest.isFull() && squaredDistance > nearest.worstKey())) {
+            return false;
+        }
+        return circular
+                ? squaredDistance <= radiusSquared
+                : minX <= (long) left + size && maxX >= left && minY <= top && maxY >= (long) top - size;
+    }
+
+    /**
+     * Offers the place at a slot of this leaf if it lies in the search area and offers the requested services.
+     */
+    private void offerIfMatching(int slot, int userX, int userY, int left, int top, int size, boolean circular, long radiusSquared,
+                                 int serviceMask, int[] serviceWords, ServicePredicate predicate, NearestPlaceHeap nearest, long path) {
+        int x = placeXs[slot];
+        int y = placeYs[slot];
+        long squaredDistance = squaredDistance(x, y, userX, userY);
+        boolean inside = circular
+                ? squaredDistance <= radiusSquared
+                : x >= left && x <= left + size && y <= top && y >= top - size;
+        if (inside && Service.contains(placeServices[slot], serviceMask) && (serviceWords == null
+                || Service.contains(placeExtraServices, slot * extraServiceWords, serviceWords, 1, extraServiceWords))) {
+            int services = placeServices[slot];
+            if (predicate == null) {
+                nearest.offer(squaredDistance, path, slot, x, y, services, placeExtraServices, slot * extraServiceWords);
+            } else if (predicate.matches(services, placeExtraServices, slot * extraServiceWords)) {
+                nearest.offerRanked(predicate.rankKey(squaredDistance, services, placeExtraServices, slot * extraServiceWords),
+                        squaredDistance, path, slot, x, y, services,
+                        placeExtraServices, slot * extraServiceWords);
+            }
+        }
+    }
+
+    /**
+     * Checks whether some place of this subtree may match the conditions of a predicate beyond its all-of services:
+     * some place must offer one of its any-of services, and not every place may offer one of its none-of services.
+     *
+     * @param predicate The predicate, or null for none.
+     * @return False if no place of this subtree matches, true otherwise.
+     */
+    private boolean mayMatch(ServicePredicate predicate) {
+        if (predicate == null) {
+            return true;
+        }
+        int places = size();
+        boolean anyOfRequested = false;
+        boolean anyOfOffered = false;
+        for (int w = 0; w < predicate.getWords(); w++) {
+            int anyOf = predicate.getAnyOf(w);
+            anyOfRequested |= anyOf != 0;
+            anyOfOffered |= ((w == 0 ? serviceSummary : extraServiceSummary[w - 1]) & anyOf) != 0;
+            for (int remaining = predicate.getNoneOf(w); remaining != 0; remaining &= remaining - 1) {
+                if (serviceCounts[w * Integer.SIZE + Integer.numberOfTrailingZeros(remaining)] == places) {
+                    return false;
+                }
+            }
+        }
+        return !anyOfRequested || anyOfOffered;
+    }
+
+    /**
+     * Checks whether a scan of this leaf should follow the union of the indexes of the any-of services of a predicate
+     * rather than visit every place: the leaf is indexed, the services all lie in the first word, which is the only one
+     * indexed, and fewer than half of the places offer any of them.
+     *
+     * @param predicate The predicate.
+     * @return True to follow the indexes, false to scan every place.
+     */
+    private boolean isAnyOfIndexed(ServicePredicate predicate) {
+        int anyOf = predicate.getAnyOf();
+        if (serviceBitmaps == null || anyOf == 0) {
+            return false;
+        }
+        for (int w = 1; w < predicate.getWords(); w++) {
+            if (predicate.getAnyOf(w) != 0) {
+                return false;
+            }
+        }
+        long offering = 0;
+        for (int remaining = anyOf; remaining != 0; remaining &= remaining - 1) {
+            offering += serviceCounts[Integer.numberOfTrailingZeros(remaining)];
+        }
+        return offering * 2 < numOfPlaces;
+    }
+
+    /**
+     * Picks the index a scan of this leaf should follow: that of the requested service offered by the fewest places.
+     *
+     * @param serviceMask The first word of the requested services.
+     * @return The service whose index to follow, or -1 to scan every place because the leaf is not indexed or no
+     * service of the first word is requested.
+     */
+    private int getRarestIndexedService(int serviceMask) {
+        if (serviceBitmaps == null || serviceMask == 0) {
+            return -1;
+        }
+        int rarest = Integer.numberOfTrailingZeros(serviceMask);
+        for (int remaining = serviceMask & (serviceMask - 1); remaining != 0; remaining &= remaining - 1) {
+            int service = Integer.numberOfTrailingZeros(remaining);
+            if (serviceCounts[service] < serviceCounts[rarest]) {
+                rarest = service;
+            }
+        }
+        return rarest;
+    }
+
+    /**
+     * Answers many searches in one pass over the tree. Query i is the same as
+     * searchPlace(userXs[i], userYs[i], walkDistances[i], serviceMasks[i], ks[i], contexts[i]) and its results are
+     * written into contexts[i].
+     * The queries descend the tree together: at each node they are grouped by the child their walk-distance
+     * square fits in, so the upper levels are walked once per group instead of once per query, and each query
+     * starts its best-first search from the smallest node holding its whole square. Queries ending in the same
+     * leaf with the same services share one scan of the leaf that keeps only the places offering them.
+     *
+     * @param userXs        The x-coordinates of the users' positions.
+     * @param userYs        The y-coordinates of the users' positions.
+     * @param walkDistances The maximum walking distances from the users.
+     * @param serviceMasks  The encoded services to search for, see Service.encodeService.
+     * @param ks            The maximum numbers of results to return.
+     * @param contexts      The contexts receiving the results, one per query, each sorted by distance from its user.
+     */
+    public void searchPlaceBatch(int[] userXs, int[] userYs, int[] walkDistances, int[] serviceMasks, int[] ks, QueryContext[] contexts) {
+        int count = userXs.length;
+        if (userYs.length != count || walkDistances.length != count || serviceMasks.length != count
+                || ks.length != count || contexts.length != count) {
+            throw new IllegalArgumentException("Query arrays must have the same length.");
+        }
+        SearchBatch batch = new SearchBatch(userXs, userYs, walkDistances, serviceMasks, contexts);
+        int active = 0;
+        for (int i = 0; i < count; i++) {
+            contexts[i].reset(ks[i], extraServiceWords);
+            if (ks[i] > 0) {
+                batch.queries[active++] = i;
+            }
+        }
+        searchBatch(batch, 0, active, 0L, 0);
+        for (int i = 0; i < count; i++) {
+            contexts[i].nearest.sortAscending();
+        }
+    }
+
+    /**
+     * Holds the queries of a searchPlaceBatch call and the scratch space shared by its traversal.
+     */
+    private static final class SearchBatch {
+        private final int[] userXs;
+        private final int[] userYs;
+        private final int[] walkDistances;
+        private final int[] serviceMasks;
+        private final QueryContext[] contexts;
+        private final int[] queries; // Indices of the queries, reordered as they are sent down the tree
+        private final int[] buffer;
+        private final long[] keys;
+        private int[] matchingSlots = new int[INITIAL_LEAF_CAPACITY];
+
+        SearchBatch(int[] userXs, int[] userYs, int[] walkDistances, int[] serviceMasks, QueryContext[] contexts) {
+            this.userXs = userXs;
+            this.userYs = userYs;
+            this.walkDistances = walkDistances;
+            this.serviceMasks = serviceMasks;
+            this.contexts = contexts;
+            queries = new int[userXs.length];
+            buffer = new int[userXs.length];
+            keys = new long[userXs.length];
+        }
+
+        void searchFrom(Map2D node, int query, long path, int depth) {
+            node.searchNearest(userXs[query], userYs[query], walkDistances[query], false, serviceMasks[query], null, null, contexts[query],
+                    path, depth, null);
+        }
+    }
+
+    /**
+     * Sends each query of a range down to the child holding its whole walk-distance square, and searches the
+     * remaining queries from this node.
+     *
+     * @param batch The queries.
+     * @param from  The first index of the range in batch.queries (inclusive).
+     * @param to    The last index of the range in batch.queries (exclusive).
+     * @param path  The quadrant path of this node.
+     * @param depth The depth of this node.
+     */
+    private void searchBatch(SearchBatch batch, int from, int to, long path, int depth) {
+        if (from == to) {
+            return;
+        }
+        int[] queries = batch.queries;
+        if (children[0] == null || depth >= 31) {
+            searchLeafBatch(batch, from, to, path, depth);
+            return;
+        }
+        // Counting sort of the range by containing child, bucket 4 holding the queries spanning several children
+        int[] starts = new int[children.length + 2];
+        for (int i = from; i < to; i++) {
+            starts[getContainingChild(batch, queries[i]) + 1]++;
+        }
+        starts[0] = from;
+        for (int bucket = 1; bucket < starts.length; bucket++) {
+            starts[bucket] += starts[bucket - 1];
+        }
+        int[] next = Arrays.copyOf(starts, children.length + 1);
+        for (int i = from; i < to; i++) {
+            batch.buffer[next[getContainingChild(batch, queries[i])]++] = queries[i];
+        }
+        System.arraycopy(batch.buffer, from, queries, from, to - from);
+        for (int child = 0; child < children.length; child++) {
+            children[child].searchBatch(batch, starts[child], starts[child + 1], path | ((long) child << (62 - 2 * depth)), depth + 1);
+        }
+        for (int i = starts[children.length]; i < to; i++) {
+            batch.searchFrom(this, queries[i], path, depth);
+        }
+    }
+
+    /**
+     * Answers the queries of a range that all lie within this leaf. Queries asking for the same services
+     * share one pass over the leaf that collects the slots of the places offering them, and then only test
+     * those places.
+     */
+    private void searchLeafBatch(SearchBatch batch, int from, int to, long path, int depth) {
+        int[] queries = batch.queries;
+        if (to - from == 1 || children[0] != null) {
+            for (int i = from; i < to; i++) {
+                batch.searchFrom(this, queries[i], path, depth);
+            }
+            return;
+        }
+        // Group the queries by service mask
+        long[] keys = batch.keys;
+        for (int i = from; i < to; i++) {
+            keys[i] = ((long) batch.serviceMasks[queries[i]] << 32) | queries[i];
+        }
+        Arrays.sort(keys, from, to);
+        int groupStart = from;
+        while (groupStart < to) {
+            int serviceMask = (int) (keys[groupStart] >>> 32);
+            int groupEnd = groupStart + 1;
+            while (groupEnd < to && (int) (keys[groupEnd] >>> 32) == serviceMask) {
+                groupEnd++;
+            }
+            if (Service.contains(serviceSummary, serviceMask)) {
+                if (batch.matchingSlots.length < numOfPlaces) {
+                    batch.matchingSlots = new int[Math.max(numOfPlaces, 2 * batch.matchingSlots.length)];
+                }
+                int[] matchingSlots = batch.matchingSlots;
+                int matched = 0;
+                int rarestService = getRarestIndexedService(serviceMask);
+                if (rarestService >= 0) {
+                    long[] bitmap = serviceBitmaps[rarestService];
+                    for (int word = 0; bitmap != null && word << 6 < numOfPlaces; word++) {
+                        for (long bits = slotsBelow(bitmap[word], word, numOfPlaces); bits != 0; bits &= bits - 1) {
+                            int slot = (word << 6) + Long.numberOfTrailingZeros(bits);
+                            if (Service.contains(placeServices[slot], serviceMask)) {
+                                matchingSlots[matched++] = slot;
+                            }
+                        }
+                    }
+                } else {
+                    for (int slot = 0; slot < numOfPlaces; slot++) {
+                        if (Service.contains(placeServices[slot], serviceMask)) {
+                            matchingSlots[matched++] = slot;
+                        }
+                    }
+                }
+                for (int i = groupStart; i < groupEnd; i++) {
+                    int query = (int) keys[i];
+                    scanMatchingSlots(batch, query, matchingSlots, matched, path);
+                }
+            }
+            groupStart = groupEnd;
+        }
+    }
+
+    /**
+     * Offers the places at the given slots of this leaf that lie in a query's walk-distance square.
+     */
+    private void scanMatchingSlots(SearchBatch batch, int query, int[] matchingSlots, int matched, long path) {
+        int userX = batch.userXs[query];
+        int userY = batch.userYs[query];
+        int walkDistance = batch.walkDistances[query];
+        int left = userX - walkDistance;
+        int top = userY + walkDistance;
+        int size = walkDistance * 2;
+        if (!overlapsSearchArea(userX, userY, left, top, size, false, 0)) {
+            return;
+        }
+        NearestPlaceHeap nearest = batch.contexts[query].nearest;
+        for (int j = 0; j < matched; j++) {
+            int slot = matchingSlots[j];
+            int x = placeXs[slot];
+            int y = placeYs[slot];
+            if (x >= left && x <= left + size && y <= top && y >= top - size) {
+                nearest.offer(squaredDistance(x, y, userX, userY), path, slot, x, y, placeServices[slot], placeExtraServices,
+                        slot * extraServiceWords);
+            }
+        }
     }
 
     /**
-     * Removes a place from the map.
+     * Determines the child that every point of a walk-distance square would be stored in.
      *
-     * @param x The x-coordinate of the place.
-     * @param y The y-coordinate of the place.
-     * @return True if the place is found and removed, false otherwise.
+     * @param batch The queries.
+     * @param query The index of the query.
+     * @return The index of the child, or 4 if the square spans several children.
      */
-    public boolean removePlace(int x, int y) {
-        if (children[0] != null) {
-            int leaf = getSuitableLeaf(x, y);
-            return children[leaf].removePlace(x, y);
+    private int getContainingChild(SearchBatch batch, int query) {
+        int userX = batch.userXs[query];
+        int userY = batch.userYs[query];
+        int walkDistance = batch.walkDistances[query];
+        int verticalMidpoint = getVerticalMidpoint();
+        int horizontalMidpoint = getHorizontalMidpoint();
+        boolean left = (long) userX + walkDistance < verticalMidpoint;
+        boolean right = (long) userX - walkDistance >= verticalMidpoint;
+        boolean top = (long) userY - walkDistance >= horizontalMidpoint;
+        boolean bottom = (long) userY + walkDistance < horizontalMidpoint;
+        if ((!left && !right) || (!top && !bottom)) {
+            return children.length;
+        }
+        if (top) {
+            return right ? 1 : 0;
         } else {
-            for (int i = 0; i < numOfPlaces; i++) {
-                if (placeXs[i] == x && placeYs[i] == y) {
-                    // Correctly shifting remaining places
-                    for (int j = i; j < numOfPlaces - 1; j++) {
-                        placeXs[j] = placeXs[j + 1];
-                        placeYs[j] = placeYs[j + 1];
-                        placeServices[j] = placeServices[j + 1];
-                    }
-                    numOfPlaces--;
-                    return true;
-                }
-            }
+            return right ? 3 : 2;
         }
-        return false;
     }
 
     /**
-     * Searches for places within a certain distance from a given point with specified services.
+     * Searches for places within a certain distance from a given point with specified services, searching
+     * the subtrees of large nodes concurrently on a ForkJoinPool.
+     * The subtree nearest to the user is searched first on the calling thread, then the other subtrees run as
+     * pool tasks. Each task keeps its own k nearest places and the heaps are merged as the tasks complete, so
+     * the results are exactly those of searchPlace. Tasks share the smallest k-th distance found so far to prune
+     * each other. Until some task holds k places nothing can be pruned, so the tasks together may scan more
+     * places than searchPlace would; the parallel path pays off for large areas when several cores are free.
+     * Searches expected to cover fewer places than a few leaves run sequentially, as they would not benefit.
      *
      * @param userX        The x-coordinate of the user's position.
      * @param userY        The y-coordinate of the user's position.
      * @param walkDistance The maximum walking distance from the user.
-     * @param services     The services to search for.
+     * @param serviceMask  The encoded services to search for, see Service.encodeService.
      * @param k            The maximum number of results to return.
-     * @return An ArrayList of places matching the search criteria.
+     * @param context      The context receiving the results, sorted by distance from the user.
+     * @param pool         The pool running the search tasks.
      */
-    public ArrayList<Place> searchPlace(int userX, int userY, int walkDistance, String[] services, int k) {
-        Rectangle boundaryRect = new Rectangle(userX - walkDistance, userY + walkDistance, walkDistance * 2, walkDistance * 2);
-        ArrayList<Place> results = new ArrayList<>();
-        searchPlace(boundaryRect, services, results);
-
-        // Call to merge sort
-        if (!results.isEmpty()) {
-            mergeSortPlaceList(results, 0, results.size() - 1, userX, userY);
+    public void parallelSearchPlace(int userX, int userY, int walkDistance, int serviceMask, int k, QueryContext context, ForkJoinPool pool) {
+        if (k <= 0 || estimatePlacesInSquare(userX, userY, walkDistance) < PARALLEL_SEARCH_THRESHOLD) {
+            searchPlace(userX, userY, walkDistance, serviceMask, k, context);
+            return;
         }
-
-        ArrayList<Place> kResults = new ArrayList<>();
-        for (int i = 0; i < k && i < results.size(); i++) {
-            kResults.add(results.get(i));
+        context.reset(k, extraServiceWords);
+        AtomicLong sharedBound = new AtomicLong(Long.MAX_VALUE);
+        ArrayList<SearchTask> tasks = new ArrayList<>();
+        collectSearchTasks(userX, userY, walkDistance, serviceMask, k, sharedBound, 0L, 0, tasks);
+        if (!tasks.isEmpty()) {
+            // The nearest subtree is searched first so that its k-th distance prunes the others
+            SearchTask nearestTask = tasks.get(0);
+            for (SearchTask task : tasks) {
+                if (task.minSquaredDistance < nearestTask.minSquaredDistance) {
+                    nearestTask = task;
+                }
+            }
+            context.nearest.offerAll(nearestTask.compute().nearest);
+            for (SearchTask task : tasks) {
+                if (task != nearestTask) {
+                    pool.execute(task);
+                }
+            }
+            for (SearchTask task : tasks) {
+                if (task != nearestTask) {
+                    context.nearest.offerAll(task.join().nearest);
+                }
+            }
         }
-        return kResults;
+        context.nearest.sortAscending();
     }
 
     /**
-     * Recursively searches for places within a boundary with specified services.
+     * Estimates the number of places inside the walk-distance square, assuming they are spread evenly.
      *
-     * @param boundaryRect The boundary to search within.
-     * @param services     The services to search for.
-     * @param results      The ArrayList to store the results.
+     * @return The estimated number of places.
      */
-    private void searchPlace(Rectangle boundaryRect, String[] services, ArrayList<Place> results) {
-        if (!boundaryRect.intersects(boundary)) {
-            return;
-        }
-        if (children[0] != null) {
-            for (Map2D child : children) {
-                child.searchPlace(boundaryRect, services, results);
-            }
-        }
-        for (int i = 0; i < numOfPlaces; i++) {
-            if (boundaryRect.contains(placeXs[i], placeYs[i]) && Service.contains(placeServices[i], Service.encodeService(services))) {
-                results.add(new Place(placeXs[i], placeYs[i], placeServices[i]));
-            }
+    private double estimatePlacesInSquare(int userX, int userY, int walkDistance) {
+        long right = (long) boundary.getX() + boundary.getWidth();
+        long bottom = (long) boundary.getY() - boundary.getHeight();
+        long overlapWidth = Math.min(right, (long) userX + walkDistance) - Math.max(boundary.getX(), (long) userX - walkDistance);
+        long overlapHeight = Math.min(boundary.getY(), (long) userY + walkDistance) - Math.max(bottom, (long) userY - walkDistance);
+        if (overlapWidth <= 0 || overlapHeight <= 0) {
+            return 0;
         }
+        double coveredFraction = (double) overlapWidth / Math.max(boundary.getWidth(), 1) * overlapHeight / Math.max(boundary.getHeight(), 1);
+        return size() * coveredFraction;
     }
 
     /**
-     * Merges two halves of a place list during merge sort.
+     * Creates one search task per subtree that overlaps the walk-distance square and offers the requested
+     * services, descending until the subtrees hold few enough places to be searched by a single task.
      *
-     * @param places The ArrayList of places to merge.
-     * @param left   The left index.
-     * @param mid    The middle index.
-     * @param right  The right index.
-     * @param userX  The x-coordinate of the user's position.
-     * @param userY  The y-coordinate of the user's position.
+     * @param path  The quadrant path of this node.
+     * @param depth The depth of this node.
+     * @param tasks The list receiving the tasks.
      */
-    private void merge(ArrayList<Place> places, int left, int mid, int right, int userX, int userY) {
-        // Temporary ArrayLists to hold the two halves
-        ArrayList<Place> leftSublist = new ArrayList<>();
-        ArrayList<Place> rightSublist = new ArrayList<>();
-
-        // Copy data to temporary sublists
-        for (int i = 0; i <= mid - left; i++) {
-            leftSublist.add(places.get(left + i));
+    private void collectSearchTasks(int userX, int userY, int walkDistance, int serviceMask, int k, AtomicLong sharedBound,
+                                    long path, int depth, ArrayList<SearchTask> tasks) {
+        if (!overlapsSearchArea(userX, userY, userX - walkDistance, userY + walkDistance, walkDistance * 2, false, 0)
+                || !Service.contains(serviceSummary, serviceMask)) {
+            return;
+        }
+        if (children[0] == null || size() <= PARALLEL_SEARCH_THRESHOLD || depth >= 31) {
+            tasks.add(new SearchTask(this, path, depth, userX, userY, walkDistance, serviceMask, k, sharedBound));
+            return;
         }
-        for (int j = 0; j < right - mid; j++) {
-            rightSublist.add(places.get(mid + 1 + j));
+        for (int i = 0; i < children.length; i++) {
+            children[i].collectSearchTasks(userX, userY, walkDistance, serviceMask, k, sharedBound,
+                    path | ((long) i << (62 - 2 * depth)), depth + 1, tasks);
         }
+    }
 
-        int i = 0, j = 0;
-        int k = left; // Start merging into the original array starting from left index
+    /**
+     * Searches one subtree for its k nearest places with the same best-first search as searchPlace,
+     * skipping it entirely if another task has already found k places nearer than the subtree.
+     */
+    private static final class SearchTask extends RecursiveTask<QueryContext> {
+        private static final long serialVersionUID = 1L;
 
-        // Merge back to original list
-        while (i < leftSublist.size() && j < rightSublist.size()) {
-            if (leftSublist.get(i).distanceTo(userX, userY) <= rightSublist.get(j).distanceTo(userX, userY)) {
-                places.set(k++, leftSublist.get(i++));
-            } else {
-                places.set(k++, rightSublist.get(j++));
-            }
-        }
+        private final transient Map2D node; // Tasks are never serialized
+        private final long path;
+        private final int depth;
+        private final long minSquaredDistance;
+        private final int userX;
+        private final int userY;
+        private final int walkDistance;
+        private final int serviceMask;
+        private final int k;
+        private final AtomicLong sharedBound;
 
-        // Copy the remaining elements of leftSublist, if any
-        while (i < leftSublist.size()) {
-            places.set(k++, leftSublist.get(i++));
+        SearchTask(Map2D node, long path, int depth, int userX, int userY, int walkDistance, int serviceMask, int k, AtomicLong sharedBound) {
+            this.node = node;
+            this.path = path;
+            this.depth = depth;
+            this.minSquaredDistance = node.minSquaredDistanceTo(userX, userY);
+            this.userX = userX;
+            this.userY = userY;
+            this.walkDistance = walkDistance;
+            this.serviceMask = serviceMask;
+            this.k = k;
+            this.sharedBound = sharedBound;
         }
 
-        // Copy the remaining elements of rightSublist, if any
-        while (j < rightSublist.size()) {
-            places.set(k++, rightSublist.get(j++));
+        @Override
+        protected QueryContext compute() {
+            QueryContext context = new QueryContext();
+            context.reset(k, node.extraServiceWords);
+            if (minSquaredDistance <= sharedBound.get()) {
+                node.searchNearest(userX, userY, walkDistance, false, serviceMask, null, null, context, path, depth, sharedBound);
+            }
+            return context;
         }
     }
 
     /**
-     * Sorts places using merge sort.
+     * Calculates the smallest squared distance from a point to this node's boundary.
      *
-     * @param places The ArrayList of places to sort.
-     * @param left   The left index of the subarray.
-     * @param right  The right index of the subarray.
-     * @param userX  The x-coordinate of the user's position.
-     * @param userY  The y-coordinate of the user's position.
+     * @param x The x-coordinate of the point.
+     * @param y The y-coordinate of the point.
+     * @return The squared distance from the point to the nearest edge of the boundary, or 0 if the point is inside.
      */
-    private void mergeSortPlaceList(ArrayList<Place> places, int left, int right, int userX, int userY) {
-        if (left < right) {
-            int mid = (left + right) / 2; // Find the middle point
+    private long minSquaredDistanceTo(int x, int y) {
+        int nearestX = Math.max(boundary.getX(), Math.min(x, boundary.getX() + boundary.getWidth()));
+        int nearestY = Math.max(boundary.getY() - boundary.getHeight(), Math.min(y, boundary.getY()));
+        return squaredDistance(nearestX, nearestY, x, y);
+    }
 
-            // Sort first and second halves
-            mergeSortPlaceList(places, left, mid, userX, userY);
-            mergeSortPlaceList(places, mid + 1, right, userX, userY);
+    /**
+     * Calculates the exact squared distance between two points.
+     *
+     * @return The squared Euclidean distance.
+     */
+    private static long squaredDistance(int x1, int y1, int x2, int y2) {
+        long dx = (long) x1 - x2;
+        long dy = (long) y1 - y2;
+        return dx * dx + dy * dy;
+    }
 
-            // Merge the sorted halves
-            merge(places, left, mid, right, userX, userY);
+    /**
+     * Checks whether this node's boundary overlaps the area searched around the user.
+     *
+     * @param userX         The x-coordinate of the user's position.
+     * @param userY         The y-coordinate of the user's position.
+     * @param left          The left edge of the walk-distance square.
+     * @param top           The top edge of the walk-distance square.
+     * @param size          The side of the walk-distance square.
+     * @param circular      True if the area is the circle of the given squared radius, false if it is the square.
+     * @param radiusSquared The squared radius of the circle.
+     * @return True if the node may hold places inside the area, false otherwise.
+     */
+    private boolean overlapsSearchArea(int userX, int userY, int left, int top, int size, boolean circular, long radiusSquared) {
+        if (circular) {
+            return minSquaredDistanceTo(userX, userY) <= radiusSquared;
         }
+        return boundary.intersects(left, top, size, size);
     }
 
     /**
@@ -272,7 +2290,7 @@ public class Map2D {
      * @param userY           The y-coordinate of the user's position.
      * @param searchedServices The services searched by the user.
      */
-    public void displayPlaceList(ArrayList<Place> places, int userX, int userY, String[] searchedServices) {
+    public static void displayPlaceList(ArrayList<Place> places, int userX, int userY, String[] searchedServices) {
         int placeColumnWidth = 5; // Width of the Place column
         int distanceColumnWidth = 16; // Width of the Distance(units) column
         // Display Headers
@@ -331,18 +2349,605 @@ public class Map2D {
         System.out.println("|" + "_".repeat(placeColumnWidth + 2) + "|" + "_".repeat(26) + "|" + "_".repeat(distanceColumnWidth + 2) + "|" + "_".repeat(32) + "|" + "_".repeat(52) + "|");
     }
 
+    /**
+     * Saves the map to a binary snapshot file that load can restore without re-inserting any place.
+     * The tree structure and leaf arrays are written as they are, through a large direct buffer, so saving
+     * and loading are bounded by disk bandwidth. The file is versioned and checksummed, see SnapshotFormat.
+     * The coordinate index is not saved; enable it again after loading if needed.
+     * Maps built with a ServiceRegistry keep every service word of their places, but not the registry itself,
+     * which the caller keeps to name the ids of the loaded map.
+     * The snapshot is written to a temporary file beside the target, forced to disk and then moved over the target,
+     * so a save that fails or crashes partway leaves the previous file intact.
+     *
+     * @param path The file to write, replaced if it exists.
+     * @throws IOException If the file cannot be written; an existing file is then left unchanged.
+     */
+    public void save(Path path) throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            try (SnapshotWriter writer = new SnapshotWriter(temporary)) {
+                writeNode(writer, 0L);
+                writer.finish(boundary, stableRemoval ? SnapshotFormat.FLAG_STABLE_REMOVAL : 0, extraServiceWords, size(), countNodes());
+            }
+            Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            try {
+                Files.deleteIfExists(temporary);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+        markClean();
+    }
+
+    /**
+     * Loads a map from a snapshot file written by save.
+     *
+     * @param path The file to read.
+     * @return The restored map.
+     * @throws IOException If the file cannot be read, is not a snapshot of a supported version, or is corrupt.
+     */
+    public static Map2D load(Path path) throws IOException {
+        try (SnapshotReader reader = new SnapshotReader(path)) {
+            Map2D map2D = new Map2D(reader.getBoundary(), (reader.getFlags() & SnapshotFormat.FLAG_STABLE_REMOVAL) != 0,
+                    reader.getExtraServiceWords());
+            map2D.readNode(reader, 0L);
+            reader.verify();
+            if (map2D.size() != reader.getNumOfPlaces()) {
+                throw new IOException("Snapshot is corrupt: expected " + reader.getNumOfPlaces() + " places.");
+            }
+            map2D.markClean();
+            return map2D;
+        }
+    }
+
+    /**
+     * Loads a map from a snapshot file and applies the given segments, in the order they were saved.
+     *
+     * @param snapshot The snapshot file written by save.
+     * @param segments The segment files written by saveSegment since that snapshot.
+     * @return The restored map.
+     * @throws IOException If a file cannot be read, is corrupt, or does not follow the map restored so far.
+     */
+    public static Map2D load(Path snapshot, Path... segments) throws IOException {
+        Map2D map2D = load(snapshot);
+        for (Path segment : segments) {
+            map2D.applySegment(segment);
+        }
+        return map2D;
+    }
+
+    /**
+     * Saves the changes made since the last save, saveSegment or load to a segment file, so that a checkpoint
+     * writes in proportion to the changes rather than to the size of the map. A changed leaf is written as the
+     * slots that changed, or whole when that is smaller, and a node that was split or collapsed is written with
+     * its whole subtree. The change marks are reset once the segment is complete, and kept if it cannot be written.
+     *
+     * @param path The file to write, replaced if it exists.
+     * @return The number of entries written, one per changed leaf or reshaped subtree.
+     * @throws IOException If the file cannot be written.
+     */
+    public int saveSegment(Path path) throws IOException {
+        int entries = countChangedSubtrees();
+        try (SnapshotWriter writer = new SnapshotWriter(path, SnapshotFormat.SEGMENT_MAGIC)) {
+            writeChanges(writer, 0L, 0L, 0);
+            writer.finish(boundary, stableRemoval ? SnapshotFormat.FLAG_STABLE_REMOVAL : 0, extraServiceWords, size(), entries);
+        }
+        markClean();
+        return entries;
+    }
+
+    /**
+     * Counts the entries saveSegment writes for this subtree.
+     *
+     * @return The number of segment entries.
+     */
+    private int countChangedSubtrees() {
+        if (!dirty) {
+            return 0;
+        }
+        if (children[0] == null || reshaped) {
+            return 1;
+        }
+        int count = 0;
+        for (Map2D child : children) {
+            count += child.countChangedSubtrees();
+        }
+        return count;
+    }
+
+    /**
+     * Checks whether saveSegment writes this changed leaf as the slots that changed rather than whole.
+     *
+     * @return True for a leaf delta, false to write the leaf whole.
+     */
+    private boolean writesLeafDelta() {
+        return !reshaped && changedSlots != null
+                && SnapshotFormat.leafDeltaBytes(countChangedSlots(), extraServiceWords)
+                < SnapshotFormat.leafBytes(numOfPlaces, extraServiceWords);
+    }
+
+    /**
+     * Writes a segment entry for each changed leaf or reshaped subtree below this node, in pre-order.
+     *
+     * @param writer The segment writer.
+     * @param offset The offset of the next entry from the start of the body.
+     * @param path   The quadrant path of this node.
+     * @param depth  The depth of this node.
+     * @return The offset following the last entry written.
+     */
+    private long writeChanges(SnapshotWriter writer, long offset, long path, int depth) throws IOException {
+        if (!dirty) {
+            return offset;
+        }
+        if (children[0] == null || reshaped) {
+            if (depth > SnapshotFormat.MAX_SEGMENT_DEPTH) {
+                throw new IOException("Map is too deep for a segment: changed node at depth " + depth + ".");
+            }
+            boolean delta = children[0] == null && writesLeafDelta();
+            writer.writeLong(path);
+            writer.writeInt(depth);
+            writer.writeInt(delta ? SnapshotFormat.LEAF_DELTA : SnapshotFormat.SUBTREE);
+            offset += SnapshotFormat.SEGMENT_ENTRY_BYTES;
+            return delta ? writeLeafDelta(writer, offset) : writeNode(writer, offset);
+        }
+        for (int i = 0; i < children.length; i++) {
+            offset = children[i].writeChanges(writer, offset, path | ((long) i << (62 - 2 * depth)), depth + 1);
+        }
+        return offset;
+    }
+
+    /**
+     * Writes the changed slots of this leaf.
+     *
+     * @param writer The segment writer.
+     * @param offset The offset of the delta from the start of the body.
+     * @return The offset following the delta.
+     */
+    private long writeLeafDelta(SnapshotWriter writer, long offset) throws IOException {
+        int changed = countChangedSlots();
+        int[] slots = new int[changed];
+        int[] values = new int[changed];
+        for (int slot = 0, i = 0; slot < numOfPlaces; slot++) {
+            if ((changedSlots[slot >>> 6] & 1L << slot) != 0) {
+                slots[i++] = slot;
+            }
+        }
+        writer.writeInt(numOfPlaces);
+        writer.writeInt(changed);
+        writer.writeInt(serviceSummary);
+        writer.writeInt(0);
+        writer.writeInts(extraServiceSummary, 0, extraServiceWords);
+        writer.writeInts(slots, 0, changed);
+        for (int[] source : new int[][]{placeXs, placeYs, placeServices}) {
+            for (int i = 0; i < changed; i++) {
+                values[i] = source[slots[i]];
+            }
+            writer.writeInts(values, 0, changed);
+        }
+        if (extraServiceWords > 0) {
+            int[] extras = new int[changed * extraServiceWords];
+            for (int i = 0; i < changed; i++) {
+                System.arraycopy(placeExtraServices, slots[i] * extraServiceWords, extras, i * extraServiceWords, extraServiceWords);
+            }
+            writer.writeInts(extras, 0, extras.length);
+        }
+        return offset + SnapshotFormat.leafDeltaBytes(changed, extraServiceWords);
+    }
+
+    /**
+     * Applies a leaf delta to this leaf and recounts its services.
+     *
+     * @param reader The segment reader.
+     * @param offset The offset of the delta from the start of the body.
+     * @return The offset following the delta.
+     */
+    private long readLeafDelta(SnapshotReader reader, long offset) throws IOException {
+        int count = reader.readInt();
+        int changed = reader.readInt();
+        int summary = reader.readInt();
+        reader.readInt();
+        int[] extraSummary = new int[extraServiceWords];
+        reader.readInts(extraSummary, 0, extraServiceWords);
+        if (children[0] != null || count < 0 || count > CAPACITY || changed < 0 || changed > count) {
+            throw new IOException("Segment does not follow this map: invalid leaf delta at offset " + offset + ".");
+        }
+        int[] slots = new int[changed];
+        int[] values = new int[changed];
+        reader.readInts(slots, 0, changed);
+        // Slots are written in increasing order, and every slot past the old end of the leaf is among them
+        int newSlots = 0;
+        for (int i = 0; i < changed; i++) {
+            if (slots[i] < 0 || slots[i] >= count || (i > 0 && slots[i] <= slots[i - 1])) {
+                throw new IOException("Segment is corrupt: invalid slot " + slots[i] + " at offset " + offset + ".");
+            }
+            if (slots[i] >= numOfPlaces) {
+                newSlots++;
+            }
+        }
+        if (newSlots != Math.max(0, count - numOfPlaces)) {
+            throw new IOException("Segment does not follow this map: leaf delta at offset " + offset + " skips new places.");
+        }
+        if (count > 0) {
+            ensureLeafCapacity(count);
+        }
+        for (int[] target : new int[][]{placeXs, placeYs, placeServices}) {
+            reader.readInts(values, 0, changed);
+            for (int i = 0; i < changed; i++) {
+                target[slots[i]] = values[i];
+            }
+        }
+        if (extraServiceWords > 0) {
+            int[] extras = new int[changed * extraServiceWords];
+            reader.readInts(extras, 0, extras.length);
+            for (int i = 0; i < changed; i++) {
+                System.arraycopy(extras, i * extraServiceWords, placeExtraServices, slots[i] * extraServiceWords, extraServiceWords);
+            }
+        }
+        numOfPlaces = count;
+        Arrays.fill(serviceCounts, 0);
+        serviceSummary = 0;
+        Arrays.fill(extraServiceSummary, 0);
+        for (int i = 0; i < count; i++) {
+            updateServiceSummary(placeServices[i], 1);
+            updateExtraServiceSummary(placeExtraServices, i * extraServiceWords, 1);
+        }
+        rebuildServiceIndex();
+        rebuildBlocks(0);
+        if (summary != serviceSummary || !Arrays.equals(extraSummary, extraServiceSummary)) {
+            throw new IOException("Segment is corrupt: leaf summary does not match its places at offset " + offset + ".");
+        }
+        return offset + SnapshotFormat.leafDeltaBytes(changed, extraServiceWords);
+    }
+
+    /**
+     * Replaces the subtrees recorded in a segment and brings the counts and summaries above them up to date.
+     *
+     * @param path The segment file.
+     */
+    private void applySegment(Path path) throws IOException {
+        try (SnapshotReader reader = new SnapshotReader(path, SnapshotFormat.SEGMENT_MAGIC)) {
+            Rectangle segmentBoundary = reader.getBoundary();
+            boolean segmentStableRemoval = (reader.getFlags() & SnapshotFormat.FLAG_STABLE_REMOVAL) != 0;
+            if (segmentBoundary.getX() != boundary.getX() || segmentBoundary.getY() != boundary.getY()
+                    || segmentBoundary.getWidth() != boundary.getWidth() || segmentBoundary.getHeight() != boundary.getHeight()
+                    || segmentStableRemoval != stableRemoval || reader.getExtraServiceWords() != extraServiceWords) {
+                throw new IOException("Segment " + path + " belongs to another map.");
+            }
+            Map2D[] ancestors = new Map2D[SnapshotFormat.MAX_SEGMENT_DEPTH];
+            long offset = 0;
+            for (long entry = 0; entry < reader.getNumOfNodes(); entry++) {
+                long nodePath = reader.readLong();
+                int depth = reader.readInt();
+                int kind = reader.readInt();
+                if (depth < 0 || depth > SnapshotFormat.MAX_SEGMENT_DEPTH) {
+                    throw new IOException("Segment is corrupt: invalid depth " + depth + " at offset " + offset + ".");
+                }
+                Map2D node = this;
+                for (int level = 0; level < depth; level++) {
+                    if (node.children[0] == null) {
+                        throw new IOException("Segment does not follow this map: no node at offset " + offset + ".");
+                    }
+                    ancestors[level] = node;
+                    node = node.children[(int) (nodePath >>> (62 - 2 * level)) & 3];
+                }
+                offset += SnapshotFormat.SEGMENT_ENTRY_BYTES;
+                if (kind == SnapshotFormat.LEAF_DELTA) {
+                    offset = node.readLeafDelta(reader, offset);
+                } else if (kind == SnapshotFormat.SUBTREE) {
+                    node.clear();
+                    offset = node.readNode(reader, offset);
+                } else {
+                    throw new IOException("Segment is corrupt: invalid entry kind " + kind + " at offset " + offset + ".");
+                }
+                for (int level = depth - 1; level >= 0; level--) {
+                    ancestors[level].sumChildServiceSummaries();
+                }
+            }
+            reader.verify();
+            if (size() != reader.getNumOfPlaces()) {
+                throw new IOException("Segment does not follow this map: expected " + reader.getNumOfPlaces() + " places.");
+            }
+        }
+        markClean();
+    }
+
+    /**
+     * Resets the change marks of this subtree after it was saved or loaded.
+     * A node is only dirty if its parent is, so clean subtrees are skipped.
+     */
+    private void markClean() {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+        reshaped = false;
+        changedSlots = null;
+        if (children[0] != null) {
+            for (Map2D child : children) {
+                child.markClean();
+            }
+        }
+    }
+
+    /**
+     * Calculates the size of this subtree's records in a snapshot.
+     *
+     * @return The size in bytes.
+     */
+    private long snapshotBytes() {
+        if (children[0] == null) {
+            return SnapshotFormat.leafBytes(numOfPlaces, extraServiceWords);
+        }
+        long bytes = SnapshotFormat.internalBytes(extraServiceWords);
+        for (Map2D child : children) {
+            bytes += child.snapshotBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Writes the records of this subtree in pre-order.
+     *
+     * @param writer The snapshot writer.
+     * @param offset The offset of this node's record from the start of the body.
+     * @return The offset following the last record of the subtree.
+     */
+    private long writeNode(SnapshotWriter writer, long offset) throws IOException {
+        boolean leaf = children[0] == null;
+        writer.writeInt(leaf ? SnapshotFormat.LEAF : SnapshotFormat.INTERNAL);
+        writer.writeInt(boundary.getX());
+        writer.writeInt(boundary.getY());
+        writer.writeInt(boundary.getWidth());
+        writer.writeInt(boundary.getHeight());
+        writer.writeInt(serviceSummary);
+        writer.writeInt(size());
+        writer.writeInt(0);
+        writer.writeInts(extraServiceSummary, 0, extraServiceWords);
+        if (leaf) {
+            writer.writeInts(placeXs, 0, numOfPlaces);
+            writer.writeInts(placeYs, 0, numOfPlaces);
+            writer.writeInts(placeServices, 0, numOfPlaces);
+            if (extraServiceWords > 0) {
+                writer.writeInts(placeExtraServices, 0, numOfPlaces * extraServiceWords);
+            }
+            return offset + SnapshotFormat.leafBytes(numOfPlaces, extraServiceWords);
+        }
+        long childOffset = offset + SnapshotFormat.internalBytes(extraServiceWords);
+        for (Map2D child : children) {
+            writer.writeLong(childOffset);
+            childOffset += child.snapshotBytes();
+        }
+        long next = offset + SnapshotFormat.internalBytes(extraServiceWords);
+        for (Map2D child : children) {
+            next = child.writeNode(writer, next);
+        }
+        return next;
+    }
+
+    /**
+     * Reads the records of this subtree, checking them against the structure this node would have.
+     *
+     * @param reader The snapshot reader.
+     * @param offset The offset of this node's record from the start of the body.
+     * @return The offset following the last record of the subtree.
+     */
+    private long readNode(SnapshotReader reader, long offset) throws IOException {
+        int tag = reader.readInt();
+        if (reader.readInt() != boundary.getX() || reader.readInt() != boundary.getY()
+                || reader.readInt() != boundary.getWidth() || reader.readInt() != boundary.getHeight()) {
+            throw new IOException("Snapshot is corrupt: unexpected node boundary at offset " + offset + ".");
+        }
+        int summary = reader.readInt();
+        int count = reader.readInt();
+        reader.readInt();
+        int[] extraSummary = new int[extraServiceWords];
+        reader.readInts(extraSummary, 0, extraServiceWords);
+        long end;
+        if (tag == SnapshotFormat.LEAF) {
+            if (count < 0 || count > CAPACITY) {
+                throw new IOException("Snapshot is corrupt: invalid leaf size " + count + " at offset " + offset + ".");
+            }
+            if (count > 0) {
+                ensureLeafCapacity(count);
+                reader.readInts(placeXs, 0, count);
+                reader.readInts(placeYs, 0, count);
+                reader.readInts(placeServices, 0, count);
+                if (extraServiceWords > 0) {
+                    reader.readInts(placeExtraServices, 0, count * extraServiceWords);
+                }
+            }
+            numOfPlaces = count;
+            for (int i = 0; i < count; i++) {
+                updateServiceSummary(placeServices[i], 1);
+                updateExtraServiceSummary(placeExtraServices, i * extraServiceWords, 1);
+            }
+            rebuildServiceIndex();
+            rebuildBlocks(0);
+            end = offset + SnapshotFormat.leafBytes(count, extraServiceWords);
+        } else if (tag == SnapshotFormat.INTERNAL) {
+            createChildren();
+            for (int i = 0; i < children.length; i++) {
+                reader.readLong(); // Child offsets are only needed for random access
+            }
+            end = offset + SnapshotFormat.internalBytes(extraServiceWords);
+            for (Map2D child : children) {
+                end = child.readNode(reader, end);
+            }
+            sumChildServiceSummaries();
+        } else {
+            throw new IOException("Snapshot is corrupt: invalid node tag " + tag + " at offset " + offset + ".");
+        }
+        if (summary != serviceSummary || !Arrays.equals(extraSummary, extraServiceSummary) || count != size()) {
+            throw new IOException("Snapshot is corrupt: node summary does not match its places at offset " + offset + ".");
+        }
+        return end;
+    }
+
+    /**
+     * Gets the number of places stored in this subtree.
+     *
+     * @return The number of places.
+     */
+    private int size() {
+        return children[0] == null ? numOfPlaces : subtreePlaces;
+    }
+
+    @Override
     public int countPlaces() {
-        int count = numOfPlaces;
+        return size();
+    }
+
+    /**
+     * Gets the number of service words stored per place beyond the first.
+     *
+     * @return 0 for maps of the services of Service, ServiceRegistry.getWords() - 1 for maps built with a registry.
+     */
+    int getExtraServiceWords() {
+        return extraServiceWords;
+    }
+
+    /**
+     * Gets the boundary of the map.
+     *
+     * @return The boundary.
+     */
+    @Override
+    public Rectangle getBoundary() {
+        return boundary;
+    }
+
+    /**
+     * Merges this internal node's subtree back into a single leaf.
+     * Places keep their order within each former leaf, visited quadrant by quadrant, unless leaves are sorted.
+     * The service summary is unchanged since the subtree holds the same places.
+     */
+    private void collapse() {
+        Map2D[] oldChildren = children.clone();
+        int count = subtreePlaces;
+        dirty = true;
+        reshaped = true;
+        Arrays.fill(children, null);
+        subtreePlaces = 0;
+        ensureLeafCapacity(count);
+        for (Map2D child : oldChildren) {
+            child.moveLeafPlacesTo(this);
+        }
+        rebuildServiceIndex();
+        if (sortedLeaves) {
+            sortSlots(0, numOfPlaces);
+        }
+    }
+
+    /**
+     * Appends every place of this subtree to the given leaf, updating the coordinate index.
+     *
+     * @param target The leaf receiving the places.
+     */
+    private void moveLeafPlacesTo(Map2D target) {
+        if (children[0] != null) {
+            for (Map2D child : children) {
+                child.moveLeafPlacesTo(target);
+            }
+            return;
+        }
+        if (numOfPlaces == 0) {
+            return;
+        }
+        System.arraycopy(placeXs, 0, target.placeXs, target.numOfPlaces, numOfPlaces);
+        System.arraycopy(placeYs, 0, target.placeYs, target.numOfPlaces, numOfPlaces);
+        System.arraycopy(placeServices, 0, target.placeServices, target.numOfPlaces, numOfPlaces);
+        if (extraServiceWords > 0) {
+            System.arraycopy(placeExtraServices, 0, target.placeExtraServices, target.numOfPlaces * extraServiceWords,
+                    numOfPlaces * extraServiceWords);
+        }
+        if (coordinateIndex != null) {
+            for (int i = 0; i < numOfPlaces; i++) {
+                coordinateIndex.move(placeXs[i], placeYs[i], this, i, target, target.numOfPlaces + i);
+            }
+        }
+        target.numOfPlaces += numOfPlaces;
+    }
+
+    /**
+     * Collapses every subtree holding at most a quarter of a leaf of places into a single leaf and trims
+     * leaf buffers that are more than twice as large as needed. Removals already collapse subtrees as they
+     * fall to the mark, so after a large batch of removals compact mainly releases the unused capacity of
+     * leaves that shrank. Subtrees above the mark are kept: smaller leaves still let searches skip more places.
+     * When leaves are sorted, leaves whose Morton order was broken by later changes are sorted again.
+     *
+     * @return The number of nodes removed from the tree.
+     */
+    public int compact() {
+        if (children[0] == null) {
+            if (placeXs != null && placeXs.length > 2 * Math.max(numOfPlaces, INITIAL_LEAF_CAPACITY)) {
+                if (numOfPlaces == 0) {
+                    releaseLeafStorage();
+                } else {
+                    placeXs = Arrays.copyOf(placeXs, numOfPlaces);
+                    placeYs = Arrays.copyOf(placeYs, numOfPlaces);
+                    placeServices = Arrays.copyOf(placeServices, numOfPlaces);
+                    if (extraServiceWords > 0) {
+                        placeExtraServices = Arrays.copyOf(placeExtraServices, numOfPlaces * extraServiceWords);
+                    }
+                    rebuildServiceIndex();
+                    if (sortedLeaves) {
+                        blockBoxes = null;
+                        blockCodes = null;
+                        resizeBlocks(numOfPlaces);
+                        rebuildBlocks(0);
+                    }
+                }
+            }
+            if (sortedLeaves && sortedPlaces < numOfPlaces) {
+                sortSlots(0, numOfPlaces);
+            }
+            return 0;
+        }
+        if (subtreePlaces <= MERGE_THRESHOLD) {
+            int removedNodes = countNodes() - 1;
+            collapse();
+            return removedNodes;
+        }
+        int removedNodes = 0;
+        for (Map2D child : children) {
+            removedNodes += child.compact();
+            dirty |= child.dirty; // Leaves sorted again by compact are dirty
+        }
+        if (removedNodes > 0) {
+            dirty = true;
+        }
+        return removedNodes;
+    }
+
+    /**
+     * Counts the nodes of this subtree, itself included.
+     *
+     * @return The number of nodes.
+     */
+    public int countNodes() {
+        int count = 1;
         if (children[0] != null) {
             for (Map2D child : children) {
-                count += child.countPlaces();
+                count += child.countNodes();
             }
         }
         return count;
     }
 
+    @Override
     public void clear() {
-        numOfPlaces = 0;
+        dirty = true;
+        reshaped = true;
+        releaseLeafStorage();
+        subtreePlaces = 0;
+        if (coordinateIndex != null) {
+            coordinateIndex.clear();
+        }
+        Arrays.fill(serviceCounts, 0);
+        serviceSummary = 0;
+        Arrays.fill(extraServiceSummary, 0);
         for (int i = 0; i < children.length; i++) {
             children[i] = null;
         }
@@ -0,0 +1,373 @@
+package src;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * Represents a read-only 2D map answering searches directly from a memory-mapped snapshot written by Map2D.save.
+ * Opening only maps the file and checks its header, so startup does not depend on the number of places; the
+ * places stay outside the Java heap, and processes mapping the same file share its pages in the page cache.
+ * The search visits nodes best-first exactly like Map2D.searchPlace and returns the same places in the same order.
+ * Searches only read the mapping, so one MappedMap2D can serve many threads, each with its own QueryContext.
+ * Snapshots of maps built with a ServiceRegistry are searched with the multi-word masks of that registry.
+ */
+public class MappedMap2D {
+    private static final int CHUNK_BYTES = 1 << 30;
+    private final MappedByteBuffer[] chunks;
+    private final int chunkBytes;
+    private final Rectangle boundary;
+    private final int extraServiceWords;
+    private final int nodeHeaderBytes;
+    private final long numOfPlaces;
+    private final long bodyLength;
+    private final int expectedChecksum;
+
+    /**
+     * Constructs a MappedMap2D object mapping the given snapshot file.
+     *
+     * @param path The snapshot file.
+     * @throws IOException If the file cannot be mapped or is not a snapshot of a supported version.
+     */
+    public MappedMap2D(Path path) throws IOException {
+        this(path, CHUNK_BYTES);
+    }
+
+    /**
+     * Constructs a MappedMap2D object mapping the given snapshot file in chunks of the given size.
+     * Consecutive chunks overlap by the size of the largest node record, so every record lies entirely within
+     * the chunk holding its first byte.
+     *
+     * @param path       The snapshot file.
+     * @param chunkBytes The number of bytes each chunk starts after the previous one.
+     * @throws IOException If the file cannot be mapped or is not a snapshot of a supported version.
+     */
+    MappedMap2D(Path path, int chunkBytes) throws IOException {
+        this.chunkBytes = chunkBytes;
+        if (chunkBytes <= 0) {
+            throw new IllegalArgumentException("Invalid chunk size: " + chunkBytes);
+        }
+        // The mapping stays valid once the channel is closed
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize < SnapshotFormat.HEADER_BYTES) {
+                throw new IOException("Snapshot is truncated: incomplete header.");
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, SnapshotFormat.HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt() != SnapshotFormat.MAGIC) {
+                throw new IOException("Not a Map2D snapshot: " + path);
+            }
+            int version = header.getInt();
+            if (version < SnapshotFormat.MIN_VERSION || version > SnapshotFormat.VERSION) {
+                throw new IOException("Unsupported snapshot version: " + version);
+            }
+            header.getInt(); // Removal mode does not matter to a read-only map
+            extraServiceWords = header.getInt();
+            long overlap = extraServiceWords < 0 ? -1 : SnapshotFormat.leafBytes(Map2D.CAPACITY, extraServiceWords);
+            if (overlap < 0 || overlap > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot is corrupt: invalid number of service words " + extraServiceWords + ".");
+            }
+            if ((long) chunkBytes + overlap > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Invalid chunk size: " + chunkBytes);
+            }
+            nodeHeaderBytes = SnapshotFormat.nodeHeaderBytes(extraServiceWords);
+            boundary = new Rectangle(header.getInt(), header.getInt(), header.getInt(), header.getInt());
+            numOfPlaces = header.getLong();
+            header.getLong();
+            bodyLength = header.getLong();
+            expectedChecksum = header.getInt();
+            if (bodyLength != fileSize - SnapshotFormat.HEADER_BYTES || bodyLength < nodeHeaderBytes) {
+                throw new IOException("Snapshot is truncated: expected " + bodyLength + " body bytes.");
+            }
+            int numOfChunks = (int) ((bodyLength + chunkBytes - 1) / chunkBytes);
+            chunks = new MappedByteBuffer[numOfChunks];
+            for (int i = 0; i < numOfChunks; i++) {
+                long start = (long) i * chunkBytes;
+                long length = Math.min((long) chunkBytes + overlap, bodyLength - start);
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, SnapshotFormat.HEADER_BYTES + start, length);
+                chunks[i].order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+    }
+
+    /**
+     * Gets the chunk holding the record at the given body offset.
+     */
+    private MappedByteBuffer chunkOf(long offset) {
+        return chunks[(int) (offset / chunkBytes)];
+    }
+
+    /**
+     * Gets the position of a body offset within its chunk.
+     */
+    private int positionOf(long offset) {
+        return (int) (offset % chunkBytes);
+    }
+
+    /**
+     * Reads the whole file and checks it against the checksum in its header. Opening does not do this,
+     * since it would read every page; call it once after copying a snapshot to a new host.
+     *
+     * @return True if the body matches its checksum, false otherwise.
+     */
+    public boolean verifyChecksum() {
+        CRC32C checksum = new CRC32C();
+        for (int i = 0; i < chunks.length; i++) {
+            long start = (long) i * chunkBytes;
+            int length = (int) Math.min(chunkBytes, bodyLength - start);
+            checksum.update(chunks[i].duplicate().position(0).limit(length));
+        }
+        return (int) checksum.getValue() == expectedChecksum;
+    }
+
+    /**
+     * Searches for places within a certain distance from a given point with specified services.
+     *
+     * @param userX        The x-coordinate of the user's position.
+     * @param userY        The y-coordinate of the user's position.
+     * @param walkDistance The maximum walking distance from the user.
+     * @param services     The services to search for.
+     * @param k            The maximum number of results to return.
+     * @return An ArrayList of places matching the search criteria, sorted by distance from the user.
+     */
+    public ArrayList<Place> searchPlace(int userX, int userY, int walkDistance, String[] services, int k) {
+        QueryContext context = new QueryContext();
+        searchPlace(userX, userY, walkDistance, Service.encodeService(services), k, context);
+        return context.toPlaceList();
+    }
+
+    /**
+     * Searches for places within a certain distance from a given point with specified services,
+     * writing the results into a caller-owned context.
+     *
+     * @param userX        The x-coordinate of the user's position.
+     * @param userY        The y-coordinate of the user's position.
+     * @param walkDistance The maximum walking distance from the user.
+     * @param serviceMask  The encoded services to search for, see Service.encodeService.
+     * @param k            The maximum number of results to return.
+     * @param context      The context receiving the results, sorted by distance from the user.
+     */
+    public void searchPlace(int userX, int userY, int walkDistance, int serviceMask, int k, QueryContext context) {
+        context.reset(k, extraServiceWords);
+        if (k > 0) {
+            searchNearest(userX, userY, walkDistance, false, serviceMask, null, context);
+        }
+        context.nearest.sortAscending();
+    }
+
+    /**
+     * Searches for places within a certain distance from a given point offering services of a ServiceRegistry,
+     * writing the results into a caller-owned context.
+     *
+     * @param userX        The x-coordinate of the user's position.
+     * @param userY        The y-coordinate of the user's position.
+     * @param walkDistance The maximum walking distance from the user.
+     * @param serviceMask  The mask of the services to search for, see ServiceRegistry.encodeService.
+     * @param k            The maximum number of results to return.
+     * @param context      The context receiving the results, sorted by distance from the user.
+     */
+    public void searchPlace(int userX, int userY, int walkDistance, int[] serviceMask, int k, QueryContext context) {
+        checkServiceWords(serviceMask);
+        context.reset(k, extraServiceWords);
+        if (k > 0) {
+            searchNearest(userX, userY, walkDistance, false, serviceMask[0], serviceMask, context);
+        }
+        context.nearest.sortAscending();
+    }
+
+    /**
+     * Searches for places within a straight-line radius of a given point with specified services,
+     * writing the results into a caller-owned context.
+     *
+     * @param userX       The x-coordinate of the user's position.
+     * @param userY       The y-coordinate of the user's position.
+     * @param radius      The maximum straight-line distance from the user.
+     * @param serviceMask The encoded services to search for, see Service.encodeService.
+     * @param k           The maximum number of results to return.
+     * @param context     The context receiving the results, sorted by distance from the user.
+     */
+    public void searchPlaceWithinRadius(int userX, int userY, int radius, int serviceMask, int k, QueryContext context) {
+        context.reset(k, extraServiceWords);
+        if (k > 0 && radius >= 0) {
+            searchNearest(userX, userY, radius, true, serviceMask, null, context);
+        }
+        context.nearest.sortAscending();
+    }
+
+    /**
+     * Searches for places within a straight-line radius of a given point offering services of a ServiceRegistry,
+     * writing the results into a caller-owned context.
+     *
+     * @param userX       The x-coordinate of the user's position.
+     * @param userY       The y-coordinate of the user's position.
+     * @param radius      The maximum straight-line distance from the user.
+     * @param serviceMask The mask of the services to search for, see ServiceRegistry.encodeService.
+     * @param k           The maximum number of results to return.
+     * @param context     The context receiving the results, sorted by distance from the user.
+     */
+    public void searchPlaceWithinRadius(int userX, int userY, int radius, int[] serviceMask, int k, QueryContext context) {
+        checkServiceWords(serviceMask);
+        context.reset(k, extraServiceWords);
+        if (k > 0 && radius >= 0) {
+            searchNearest(userX, userY, radius, true, serviceMask[0], serviceMask, context);
+        }
+        context.nearest.sortAscending();
+    }
+
+    /**
+     * Checks that a mask has one word per word of the services stored at each place.
+     *
+     * @param services The mask.
+     */
+    private void checkServiceWords(int[] services) {
+        if (services.length != 1 + extraServiceWords) {
+            throw new IllegalArgumentException("Service mask has " + services.length + " words, expected " + (1 + extraServiceWords) + ".");
+        }
+    }
+
+    /**
+     * Checks whether the service words beyond the first, stored from a position of a chunk, contain every
+     * requested service.
+     *
+     * @param serviceWords The whole mask of the requested services, or null if only the first word is requested.
+     */
+    private boolean containsExtraWords(MappedByteBuffer chunk, int position, int[] serviceWords) {
+        if (serviceWords == null) {
+            return true;
+        }
+        for (int w = 0; w < extraServiceWords; w++) {
+            int requested = serviceWords[w + 1];
+            if ((chunk.getInt(position + w * Integer.BYTES) & requested) != requested) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds the nearest places within the walk distance with the specified services, visiting node records
+     * best-first. This is Map2D's search reading nodes from the mapping instead of from objects.
+     */
+    private void searchNearest(int userX, int userY, int walkDistance, boolean circular, int serviceMask, int[] serviceWords,
+                               QueryContext context) {
+        int left = userX - walkDistance;
+        int top = userY + walkDistance;
+        int size = walkDistance * 2;
+        long radiusSquared = (long) walkDistance * walkDistance;
+        NodeQueue queue = context.queue;
+        NearestPlaceHeap nearest = context.nearest;
+        int[] extras = extraServiceWords > 0 ? new int[extraServiceWords] : null;
+        if (!visitable(0L, userX, userY, left, top, size, circular, radiusSquared, serviceMask, serviceWords)) {
+            return;
+        }
+        queue.push(0L, minSquaredDistance(0L, userX, userY), 0L, 0);
+        while (!queue.isEmpty()) {
+            long offset = queue.topOffset();
+            long bound = queue.topBound();
+            long path = queue.topPath();
+            int depth = queue.topDepth();
+            queue.removeTop();
+            if (nearest.isFull() && bound > nearest.worstKey()) {
+                break;
+            }
+            MappedByteBuffer chunk = chunkOf(offset);
+            int position = positionOf(offset);
+            int count = chunk.getInt(position + 24);
+            if (chunk.getInt(position) == SnapshotFormat.INTERNAL) {
+                int shift = 62 - 2 * depth;
+                for (int i = 0; i < 4; i++) {
+                    long childOffset = chunk.getLong(position + nodeHeaderBytes + i * Long.BYTES);
+                    if (visitable(childOffset, userX, userY, left, top, size, circular, radiusSquared, serviceMask, serviceWords)) {
+                        long childPath = shift >= 0 ? path | ((long) i << shift) : path;
+                        queue.push(childOffset, minSquaredDistance(childOffset, userX, userY), childPath, depth + 1);
+                    }
+                }
+                continue;
+            }
+            int xs = position + nodeHeaderBytes;
+            int ys = xs + count * Integer.BYTES;
+            int services = ys + count * Integer.BYTES;
+            int extraServices = services + count * Integer.BYTES;
+            for (int i = 0; i < count; i++) {
+                int x = chunk.getInt(xs + i * Integer.BYTES);
+                int y = chunk.getInt(ys + i * Integer.BYTES);
+                long dx = (long) x - userX;
+                long dy = (long) y - userY;
+                long squaredDistance = dx * dx + dy * dy;
+                boolean inside = circular
+                        ? squaredDistance <= radiusSquared
+                        : x >= left && x <= left + size && y <= top && y >= top - size;
+                if (inside) {
+                    int placeServices = chunk.getInt(services + i * Integer.BYTES);
+                    int placeExtras = extraServices + i * extraServiceWords * Integer.BYTES;
+                    if (Service.contains(placeServices, serviceMask) && containsExtraWords(chunk, placeExtras, serviceWords)) {
+                        for (int w = 0; w < extraServiceWords; w++) {
+                            extras[w] = chunk.getInt(placeExtras + w * Integer.BYTES);
+                        }
+                        nearest.offer(squaredDistance, path, i, x, y, placeServices, extras, 0);
+                    }
+                }
+            }
+        }
+        queue.clear();
+    }
+
+    /**
+     * Checks whether a node overlaps the search area and offers every requested service.
+     */
+    private boolean visitable(long offset, int userX, int userY, int left, int top, int size, boolean circular, long radiusSquared,
+                              int serviceMask, int[] serviceWords) {
+        MappedByteBuffer chunk = chunkOf(offset);
+        int position = positionOf(offset);
+        if (!Service.contains(chunk.getInt(position + 20), serviceMask)
+                || !containsExtraWords(chunk, position + SnapshotFormat.NODE_HEADER_BYTES, serviceWords)) {
+            return false;
+        }
+        if (circular) {
+            return minSquaredDistance(offset, userX, userY) <= radiusSquared;
+        }
+        int x = chunk.getInt(position + 4);
+        int y = chunk.getInt(position + 8);
+        int width = chunk.getInt(position + 12);
+        int height = chunk.getInt(position + 16);
+        return x < left + size && x + width > left && y > top - size && y - height < top;
+    }
+
+    /**
+     * Calculates the smallest squared distance from a point to a node's boundary.
+     */
+    private long minSquaredDistance(long offset, int userX, int userY) {
+        MappedByteBuffer chunk = chunkOf(offset);
+        int position = positionOf(offset);
+        int x = chunk.getInt(position + 4);
+        int y = chunk.getInt(position + 8);
+        int width = chunk.getInt(position + 12);
+        int height = chunk.getInt(position + 16);
+        long dx = (long) Math.max(x, Math.min(userX, x + width)) - userX;
+        long dy = (long) Math.max(y - height, Math.min(userY, y)) - userY;
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * Gets the number of places in the map, as recorded in the snapshot header.
+     *
+     * @return The number of places.
+     */
+    public long countPlaces() {
+        return numOfPlaces;
+    }
+
+    /**
+     * Gets the boundary of the map.
+     *
+     * @return The boundary.
+     */
+    public Rectangle getBoundary() {
+        return boundary;
+    }
+}
@@ -0,0 +1,304 @@
+package src;
+
+import java.util.Arrays;
+
+/**
+ * A bounded max-heap holding the k best places found so far by a nearest-neighbour search.
+ * Places are ranked by a key, their exact squared distance to the user unless a ServicePredicate scores them, with ties
+ * broken by the position of the place in the tree (quadrant path of its leaf, then its slot in the leaf), which is the
+ * order a depth-first walk would visit them.
+ * The worst of the kept places sits at the root so it can be compared and replaced in O(log k).
+ */
+class NearestPlaceHeap {
+    private static final int DEFAULT_CAPACITY = 16; // Initial length of the arrays before they grow towards k
+    private int capacity;
+    private long[] keys;
+    private long[] squaredDistances;
+    private long[] paths;
+    private int[] slots;
+    private int[] xs;
+    private int[] ys;
+    private int[] services;
+    // Service words beyond the first of each kept place, extraWords per place, for maps built with a ServiceRegistry
+    private int extraWords;
+    private int[] extraServices;
+    private int size;
+
+    /**
+     * Constructs an empty heap keeping at most k places.
+     *
+     * @param k The maximum number of places to keep.
+     */
+    NearestPlaceHeap(int k) {
+        keys = new long[DEFAULT_CAPACITY];
+        squaredDistances = new long[DEFAULT_CAPACITY];
+        paths = new long[DEFAULT_CAPACITY];
+        slots = new int[DEFAULT_CAPACITY];
+        xs = new int[DEFAULT_CAPACITY];
+        ys = new int[DEFAULT_CAPACITY];
+        services = new int[DEFAULT_CAPACITY];
+        extraServices = new int[0];
+        reset(k);
+    }
+
+    /**
+     * Empties the heap and sets the number of places to keep.
+     * The arrays are kept, so a heap reused for searches with the same k allocates nothing.
+     *
+     * @param k The maximum number of places to keep.
+     */
+    void reset(int k) {
+        reset(k, 0);
+    }
+
+    /**
+     * Empties the heap, sets the number of places to keep and the number of extra service words kept per place.
+     *
+     * @param k          The maximum number of places to keep.
+     * @param extraWords The number of service words per place beyond the first.
+     */
+    void reset(int k, int extraWords) {
+        capacity = Math.max(k, 0);
+        size = 0;
+        this.extraWords = extraWords;
+        if (extraServices.length < squaredDistances.length * extraWords) {
+            extraServices = new int[squaredDistances.length * extraWords];
+        }
+    }
+
+    /**
+     * Ensures that the underlying arrays have room for one more place.
+     * They grow geometrically towards k, so a large k with few matches stays small.
+     */
+    private void ensureCapacity() {
+        if (size == squaredDistances.length) {
+            int newCapacity = (int) Math.min(capacity, 2L * squaredDistances.length);
+            keys = Arrays.copyOf(keys, newCapacity);
+            squaredDistances = Arrays.copyOf(squaredDistances, newCapacity);
+            paths = Arrays.copyOf(paths, newCapacity);
+            slots = Arrays.copyOf(slots, newCapacity);
+            xs = Arrays.copyOf(xs, newCapacity);
+            ys = Arrays.copyOf(ys, newCapacity);
+            services = Arrays.copyOf(services, newCapacity);
+            if (extraWords > 0) {
+                extraServices = Arrays.copyOf(extraServices, newCapacity * extraWords);
+            }
+        }
+    }
+
+    /**
+     * Compares the ranking key of an entry with the given key.
+     *
+     * @return A negative number, zero or a positive number if the entry ranks before, equal to or after the key.
+     */
+    private int compare(int i, long key, long path, int slot) {
+        if (keys[i] != key) {
+            return keys[i] < key ? -1 : 1;
+        }
+        if (paths[i] != path) {
+            return Long.compareUnsigned(paths[i], path);
+        }
+        return Integer.compare(slots[i], slot);
+    }
+
+    private int compare(int i, int j) {
+        return compare(i, keys[j], paths[j], slots[j]);
+    }
+
+    /**
+     * Offers a place to the heap. It is kept if the heap is not full or if it ranks before the current worst place.
+     *
+     * @param squaredDistance The squared distance from the user to the place.
+     * @param path            The quadrant path of the leaf holding the place.
+     * @param slot            The index of the place in its leaf.
+     * @param x               The x-coordinate of the place.
+     * @param y               The y-coordinate of the place.
+     * @param service         The services available at the place.
+     */
+    void offer(long squaredDistance, long path, int slot, int x, int y, int service) {
+        offer(squaredDistance, path, slot, x, y, service, null, 0);
+    }
+
+    /**
+     * Offers a place along with its service words beyond the first, which are kept if the heap was reset for them.
+     *
+     * @param squaredDistance The squared distance from the user to the place.
+     * @param path            The quadrant path of the leaf holding the place.
+     * @param slot            The index of the place in its leaf.
+     * @param x               The x-coordinate of the place.
+     * @param y               The y-coordinate of the place.
+     * @param service         The first service word of the place.
+     * @param extras          The array holding the other service words of the place.
+     * @param extrasOffset    The index of the second service word in extras.
+     */
+    void offer(long squaredDistance, long path, int slot, int x, int y, int service, int[] extras, int extrasOffset) {
+        offerRanked(squaredDistance, squaredDistance, path, slot, x, y, service, extras, extrasOffset);
+    }
+
+    /**
+     * Offers a place ranked by a key other than its squared distance, see ServicePredicate.
+     *
+     * @param key             The ranking key of the place, never smaller than its squared distance.
+     * @param squaredDistance The squared distance from the user to the place.
+     * @param path            The quadrant path of the leaf holding the place.
+     * @param slot            The index of the place in its leaf.
+     * @param x               The x-coordinate of the place.
+     * @param y               The y-coordinate of the place.
+     * @param service         The first service word of the place.
+     * @param extras          The array holding the other service words of the place, or null.
+     * @param extrasOffset    The index of the second service word in extras.
+     */
+    void offerRanked(long key, long squaredDistance, long path, int slot, int x, int y, int service, int[] extras, int extrasOffset) {
+        if (size < capacity) {
+            ensureCapacity();
+            int i = size++;
+            set(i, key, squaredDistance, path, slot, x, y, service);
+            setExtras(i, extras, extrasOffset);
+            siftUp(i);
+        } else if (capacity > 0 && compare(0, key, path, slot) > 0) {
+            set(0, key, squaredDistance, path, slot, x, y, service);
+            setExtras(0, extras, extrasOffset);
+            siftDown(0, size);
+        }
+    }
+
+    private void setExtras(int i, int[] extras, int extrasOffset) {
+        if (extraWords > 0) {
+            if (extras == null) {
+                Arrays.fill(extraServices, i * extraWords, (i + 1) * extraWords, 0);
+            } else {
+                System.arraycopy(extras, extrasOffset, extraServices, i * extraWords, extraWords);
+            }
+        }
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (compare(parent, i) >= 0) {
+                break;
+            }
+            swap(parent, i);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i, int end) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= end) {
+                break;
+            }
+            if (child + 1 < end && compare(child + 1, child) > 0) {
+                child++;
+            }
+            if (compare(i, child) >= 0) {
+                break;
+            }
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    private void set(int i, long key, long squaredDistance, long path, int slot, int x, int y, int service) {
+        keys[i] = key;
+        squaredDistances[i] = squaredDistance;
+        paths[i] = path;
+        slots[i] = slot;
+        xs[i] = x;
+        ys[i] = y;
+        services[i] = service;
+    }
+
+    private void swap(int i, int j) {
+        long key = keys[i];
+        long squaredDistance = squaredDistances[i];
+        long path = paths[i];
+        int slot = slots[i];
+        int x = xs[i];
+        int y = ys[i];
+        int service = services[i];
+        set(i, keys[j], squaredDistances[j], paths[j], slots[j], xs[j], ys[j], services[j]);
+        set(j, key, squaredDistance, path, slot, x, y, service);
+        for (int w = 0; w < extraWords; w++) {
+            int extra = extraServices[i * extraWords + w];
+            extraServices[i * extraWords + w] = extraServices[j * extraWords + w];
+            extraServices[j * extraWords + w] = extra;
+        }
+    }
+
+    /**
+     * Offers every place kept by another heap, with its original ranking key.
+     * Merging the heaps of searches over disjoint subtrees gives the same places as one search over all of them.
+     *
+     * @param other The heap to merge into this one.
+     */
+    void offerAll(NearestPlaceHeap other) {
+        for (int i = 0; i < other.size; i++) {
+            offerRanked(other.keys[i], other.squaredDistances[i], other.paths[i], other.slots[i], other.xs[i], other.ys[i], other.services[i],
+                    other.extraWords > 0 ? other.extraServices : null, i * other.extraWords);
+        }
+    }
+
+    /**
+     * Checks whether the heap already holds k places.
+     *
+     * @return True if the heap is full, false otherwise.
+     */
+    boolean isFull() {
+        return size == capacity && size > 0;
+    }
+
+    /**
+     * Gets the ranking key of the worst place kept so far. Only meaningful when the heap is not empty.
+     * Keys are never smaller than squared distances, so it also bounds the squared distance of any better place.
+     *
+     * @return The largest kept key.
+     */
+    long worstKey() {
+        return keys[0];
+    }
+
+    /**
+     * Sorts the kept places from best to worst ranked, which is nearest to farthest unless they were scored.
+     * The heap must not be offered more places afterwards.
+     */
+    void sortAscending() {
+        for (int end = size - 1; end > 0; end--) {
+            swap(0, end);
+            siftDown(0, end);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    int getX(int i) {
+        return xs[i];
+    }
+
+    int getY(int i) {
+        return ys[i];
+    }
+
+    int getServices(int i) {
+        return services[i];
+    }
+
+    int getExtraWords() {
+        return extraWords;
+    }
+
+    int getExtraService(int i, int word) {
+        return extraServices[i * extraWords + word];
+    }
+
+    long getKey(int i) {
+        return keys[i];
+    }
+
+    long getSquaredDistance(int i) {
+        return squaredDistances[i];
+    }
+}
@@ -0,0 +1,166 @@
+package src;
+
+import java.util.Arrays;
+
+/**
+ * A min-priority queue of map nodes ordered by their lower-bound squared distance to a query point.
+ * Used by the best-first nearest-neighbour search to visit the closest nodes first.
+ * Alongside each node it keeps the node's quadrant path and depth, which identify where the node sits in the tree.
+ * Nodes of a MappedMap2D have no object and are queued by their offset in the snapshot file instead.
+ */
+class NodeQueue {
+    private static final int DEFAULT_CAPACITY = 64; // Default capacity of the queue when initialized
+    private Map2D[] nodes;
+    private long[] offsets;
+    private long[] bounds;
+    private long[] paths;
+    private int[] depths;
+    private int size;
+
+    /**
+     * Constructs an empty NodeQueue with the default initial capacity.
+     */
+    NodeQueue() {
+        nodes = new Map2D[DEFAULT_CAPACITY];
+        offsets = new long[DEFAULT_CAPACITY];
+        bounds = new long[DEFAULT_CAPACITY];
+        paths = new long[DEFAULT_CAPACITY];
+        depths = new int[DEFAULT_CAPACITY];
+        size = 0;
+    }
+
+    /**
+     * Ensures that the underlying arrays have room for one more node, doubling them when full.
+     */
+    private void ensureCapacity() {
+        if (size == nodes.length) {
+            int newCapacity = nodes.length * 2;
+            Map2D[] newNodes = new Map2D[newCapacity];
+            System.arraycopy(nodes, 0, newNodes, 0, size);
+            nodes = newNodes;
+            offsets = Arrays.copyOf(offsets, newCapacity);
+            bounds = Arrays.copyOf(bounds, newCapacity);
+            paths = Arrays.copyOf(paths, newCapacity);
+            depths = Arrays.copyOf(depths, newCapacity);
+        }
+    }
+
+    /**
+     * Adds a node to the queue.
+     *
+     * @param node  The node to add.
+     * @param bound The lower bound of the squared distance from the query point to any place in the node.
+     * @param path  The quadrant path of the node.
+     * @param depth The depth of the node.
+     */
+    void push(Map2D node, long bound, long path, int depth) {
+        push(node, 0L, bound, path, depth);
+    }
+
+    /**
+     * Adds a node of a memory-mapped snapshot to the queue.
+     *
+     * @param offset The offset of the node's record in the snapshot.
+     * @param bound  The lower bound of the squared distance from the query point to any place in the node.
+     * @param path   The quadrant path of the node.
+     * @param depth  The depth of the node.
+     */
+    void push(long offset, long bound, long path, int depth) {
+        push(null, offset, bound, path, depth);
+    }
+
+    private void push(Map2D node, long offset, long bound, long path, int depth) {
+        ensureCapacity();
+        int i = size++;
+        // Sift up
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (bounds[parent] <= bound) {
+                break;
+            }
+            move(parent, i);
+            i = parent;
+        }
+        set(i, node, offset, bound, path, depth);
+    }
+
+    /**
+     * Removes the node with the smallest bound from the queue.
+     */
+    void removeTop() {
+        size--;
+        nodes[0] = null;
+        if (size == 0) {
+            return;
+        }
+        Map2D node = nodes[size];
+        long offset = offsets[size];
+        long bound = bounds[size];
+        long path = paths[size];
+        int depth = depths[size];
+        nodes[size] = null;
+        int i = 0;
+        // Sift down
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && bounds[child + 1] < bounds[child]) {
+                child++;
+            }
+            if (bound <= bounds[child]) {
+                break;
+            }
+            move(child, i);
+            i = child;
+        }
+        set(i, node, offset, bound, path, depth);
+    }
+
+    private void move(int from, int to) {
+        set(to, nodes[from], offsets[from], bounds[from], paths[from], depths[from]);
+    }
+
+    private void set(int i, Map2D node, long offset, long bound, long path, int depth) {
+        nodes[i] = node;
+        offsets[i] = offset;
+        bounds[i] = bound;
+        paths[i] = path;
+        depths[i] = depth;
+    }
+
+    Map2D topNode() {
+        return nodes[0];
+    }
+
+    long topOffset() {
+        return offsets[0];
+    }
+
+    long topBound() {
+        return bounds[0];
+    }
+
+    long topPath() {
+        return paths[0];
+    }
+
+    int topDepth() {
+        return depths[0];
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes all nodes from the queue, keeping the allocated arrays for reuse.
+     */
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            nodes[i] = null;
+        }
+        size = 0;
+    }
+}
@@ -56,10 +56,33 @@ public class Place {
      * @return The distance between this place and the destination.
      */
     public double distanceTo(int x, int y) {
+        return distanceBetween(this.x, this.y, x, y);
+    }
+
+    /**
+     * Calculates the distance between two points, rounded to 2 decimal places.
+     *
+     * @param x1 The x-coordinate of the first point.
+     * @param y1 The y-coordinate of the first point.
+     * @param x2 The x-coordinate of the second point.
+     * @param y2 The y-coordinate of the second point.
+     * @return The distance between the two points.
+     */
+    public static double distanceBetween(int x1, int y1, int x2, int y2) {
         // Calculate Euclidean distance
-        double result = Math.sqrt(Math.pow(this.x - x, 2) + Math.pow(this.y - y, 2));
+        double result = Math.sqrt(Math.pow(x1 - x2, 2) + Math.pow(y1 - y2, 2));
 
         // Round to 2 decimal places
         return Math.round(result * 100.0) / 100.0;
     }
+
+    /**
+     * Converts an exact squared distance into a distance rounded to 2 decimal places, like distanceTo.
+     *
+     * @param squaredDistance The squared Euclidean distance.
+     * @return The rounded distance.
+     */
+    public static double distanceFromSquared(long squaredDistance) {
+        return Math.round(Math.sqrt(squaredDistance) * 100.0) / 100.0;
+    }
 }
@@ -0,0 +1,461 @@
+package src;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.Exchanger;
+
+/**
+ * Imports places from large files into a map without creating a String or Place object per place.
+ * Two formats are read:
+ * <pre>
+ * Text:   one place per line, "x,y,Service1;Service2", with the services optional ("x,y" or "x,y,")
+ * Binary: BINARY_RECORD_BYTES per place, int x, int y, int encoded services, little-endian
+ * </pre>
+ * The calling thread reads the file through a large buffer and parses bytes straight into batches of int arrays;
+ * service names are found with a small hash table over their bytes. Full batches are handed to an insert thread
+ * through an Exchanger, which gives back the batch it finished with, so parsing the next batch overlaps with
+ * bulk loading the previous one and no batch is ever allocated after the first two.
+ * Places imported before an error stay in the map.
+ */
+public class PlaceImporter {
+    public static final int BINARY_RECORD_BYTES = 12;
+    private static final int BUFFER_BYTES = 8 << 20;
+    private static final int DEFAULT_BATCH_SIZE = 1 << 20;
+    // Open-addressed table from the bytes of a service name to its bit position plus one, 0 for an empty slot
+    private static final int SERVICE_TABLE_MASK = 31;
+    private static final int[] SERVICE_TABLE = new int[SERVICE_TABLE_MASK + 1];
+    private static final byte[][] SERVICE_NAMES = new byte[Service.NUM_SERVICES][];
+    private final Map2D map2D;
+    private final int batchSize;
+
+    static {
+        for (int service = 0; service < Service.NUM_SERVICES; service++) {
+            byte[] name = Service.decodeService(1 << service)[0].getBytes(StandardCharsets.US_ASCII);
+            SERVICE_NAMES[service] = name;
+            int slot = serviceHash(name, 0, name.length);
+            while (SERVICE_TABLE[slot] != 0) {
+                slot = (slot + 1) & SERVICE_TABLE_MASK;
+            }
+            SERVICE_TABLE[slot] = service + 1;
+        }
+    }
+
+    /**
+     * Constructs a PlaceImporter object loading places into the given map in batches of DEFAULT_BATCH_SIZE.
+     *
+     * @param map2D The map receiving the places.
+     */
+    public PlaceImporter(Map2D map2D) {
+        this(map2D, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Constructs a PlaceImporter object loading places into the given map in batches of the given size.
+     *
+     * @param map2D     The map receiving the places.
+     * @param batchSize The number of places handed to bulkLoad at a time.
+     */
+    public PlaceImporter(Map2D map2D, int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        }
+        this.map2D = map2D;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Hashes a service name by its first byte, last byte and length, which tell every service apart.
+     */
+    private static int serviceHash(byte[] bytes, int from, int to) {
+        return ((bytes[from] * 31 + bytes[to - 1]) * 31 + (to - from)) & SERVICE_TABLE_MASK;
+    }
+
+    /**
+     * Finds the service whose name is the given range of bytes.
+     *
+     * @return The bit position of the service, or -1 if no service has this name.
+     */
+    private static int findService(byte[] bytes, int from, int to) {
+        for (int slot = serviceHash(bytes, from, to); SERVICE_TABLE[slot] != 0; slot = (slot + 1) & SERVICE_TABLE_MASK) {
+            int service = SERVICE_TABLE[slot] - 1;
+            byte[] name = SERVICE_NAMES[service];
+            if (name.length == to - from && Arrays.equals(name, 0, name.length, bytes, from, to)) {
+                return service;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Imports every place of a text file.
+     *
+     * @param path The file to read.
+     * @return The number of places imported.
+     * @throws IOException              If the file cannot be read or holds a malformed line.
+     * @throws IllegalArgumentException If a place is out of the map's boundary.
+     */
+    public long importText(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return importBatches(new TextSource(channel));
+        }
+    }
+
+    /**
+     * Imports every place of a binary file.
+     *
+     * @param path The file to read.
+     * @return The number of places imported.
+     * @throws IOException              If the file cannot be read or ends with an incomplete record.
+     * @throws IllegalArgumentException If a place is out of the map's boundary.
+     */
+    public long importBinary(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return importBatches(new BinarySource(channel));
+        }
+    }
+
+    /**
+     * A batch of places on its way from the parser to the insert thread.
+     */
+    private static final class Batch {
+        final int[] xs;
+        final int[] ys;
+        final int[] services;
+        int length;
+        boolean last; // Set on the final batch, after which the insert thread stops
+
+        Batch(int capacity) {
+            xs = new int[capacity];
+            ys = new int[capacity];
+            services = new int[capacity];
+        }
+
+        boolean isFull() {
+            return length == xs.length;
+        }
+
+        void add(int x, int y, int placeServices) {
+            xs[length] = x;
+            ys[length] = y;
+            services[length] = placeServices;
+            length++;
+        }
+    }
+
+    /**
+     * Fills batches with the places of a file, in file order.
+     */
+    private interface BatchSource {
+        /**
+         * Adds places to an empty batch until it is full or the file ends.
+         *
+         * @param batch The batch to fill.
+         * @return False once the file has ended, true if more places may follow.
+         */
+        boolean fill(Batch batch) throws IOException;
+    }
+
+    /**
+     * Loads the batches it receives into the map, on its own thread.
+     */
+    private final class Inserter implements Runnable {
+        private final Exchanger<Batch> exchanger;
+        private Batch batch;
+        private volatile RuntimeException failure;
+
+        Inserter(Exchanger<Batch> exchanger, Batch spare) {
+            this.exchanger = exchanger;
+            batch = spare;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                batch = exchange(exchanger, batch);
+                if (failure == null && batch.length > 0) {
+                    try {
+                        map2D.bulkLoad(batch.xs, batch.ys, batch.services, batch.length);
+                    } catch (RuntimeException e) {
+                        failure = e;
+                    }
+                }
+                if (batch.last) {
+                    return;
+                }
+                batch.length = 0;
+            }
+        }
+    }
+
+    /**
+     * Parses batches on the calling thread while the insert thread loads the previous one.
+     */
+    private long importBatches(BatchSource source) throws IOException {
+        Exchanger<Batch> exchanger = new Exchanger<>();
+        Inserter inserter = new Inserter(exchanger, new Batch(batchSize));
+        Thread thread = new Thread(inserter, "map2d-import");
+        thread.start();
+        Batch batch = new Batch(batchSize);
+        long places = 0;
+        boolean finished = false;
+        try {
+            while (!finished && inserter.failure == null) {
+                finished = !source.fill(batch);
+                batch.last = finished;
+                places += batch.length;
+                batch = exchange(exchanger, batch);
+            }
+        } finally {
+            if (!finished) {
+                // Parsing or inserting failed: hand over an empty last batch so the insert thread stops
+                batch.length = 0;
+                batch.last = true;
+                exchange(exchanger, batch);
+            }
+            boolean interrupted = false;
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (inserter.failure != null) {
+            throw inserter.failure;
+        }
+        return places;
+    }
+
+    /**
+     * Swaps batches with the other thread, waiting through interrupts so that neither thread is left waiting
+     * for a partner that gave up. The interrupt is restored afterwards.
+     */
+    private static Batch exchange(Exchanger<Batch> exchanger, Batch batch) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return exchanger.exchange(batch);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Parses text lines from a buffer refilled from the file, so a line may be cut at the end of the buffer;
+     * parsing then stops, the buffer keeps the unfinished line and the line is parsed again once more bytes
+     * have been read.
+     */
+    private static final class TextSource implements BatchSource {
+        private static final int INCOMPLETE = -1;
+        private final FileChannel channel;
+        private final byte[] bytes = new byte[BUFFER_BYTES];
+        private final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        private int position; // Start of the first line not parsed yet
+        private int limit; // End of the bytes read
+        private boolean endOfFile;
+        private long lineNumber = 1;
+        private int number; // Value of the last number parsed
+
+        TextSource(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public boolean fill(Batch batch) throws IOException {
+            while (!batch.isFull()) {
+                if (position == limit && endOfFile) {
+                    return false;
+                }
+                int end = position < limit ? parseLine(batch, position) : INCOMPLETE;
+                if (end == INCOMPLETE) {
+                    readMore();
+                } else {
+                    position = end;
+                    lineNumber++;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Moves the unfinished line to the start of the buffer and reads more of the file after it.
+         */
+        private void readMore() throws IOException {
+            if (position == 0 && limit == bytes.length) {
+                throw new IOException("Line " + lineNumber + " is longer than " + BUFFER_BYTES + " bytes.");
+            }
+            System.arraycopy(bytes, position, bytes, 0, limit - position);
+            limit -= position;
+            position = 0;
+            buffer.limit(bytes.length).position(limit);
+            int read = channel.read(buffer);
+            if (read < 0) {
+                endOfFile = true;
+            } else {
+                limit += read;
+            }
+        }
+
+        private IOException malformed(String reason) {
+            return new IOException("Malformed place at line " + lineNumber + ": " + reason + ".");
+        }
+
+        /**
+         * Parses one line into the batch; empty lines are skipped.
+         *
+         * @return The start of the next line, or INCOMPLETE if the line continues past the bytes read.
+         */
+        private int parseLine(Batch batch, int p) throws IOException {
+            if (bytes[p] == '\n' || bytes[p] == '\r') {
+                return endOfLine(p);
+            }
+            p = parseNumber(p);
+            if (p == INCOMPLETE) {
+                return INCOMPLETE;
+            }
+            int x = number;
+            if (p == limit || bytes[p] != ',') {
+                throw malformed("expected ',' after x");
+            }
+            p = parseNumber(p + 1);
+            if (p == INCOMPLETE) {
+                return INCOMPLETE;
+            }
+            int y = number;
+            int services = 0;
+            if (p < limit && bytes[p] == ',') {
+                p++;
+                while (true) {
+                    int tokenStart = p;
+                    while (p < limit && bytes[p] != ';' && bytes[p] != '\n' && bytes[p] != '\r') {
+                        p++;
+                    }
+                    if (p == limit && !endOfFile) {
+                        return INCOMPLETE;
+                    }
+                    if (p > tokenStart) {
+                        int service = findService(bytes, tokenStart, p);
+                        if (service < 0) {
+                            throw malformed("unknown service '" + new String(bytes, tokenStart, p - tokenStart, StandardCharsets.US_ASCII) + "'");
+                        }
+                        services |= 1 << service;
+                    }
+                    if (p == limit || bytes[p] != ';') {
+                        break;
+                    }
+                    p++;
+                }
+            }
+            int next = endOfLine(p);
+            if (next != INCOMPLETE) {
+                batch.add(x, y, services);
+            }
+            return next;
+        }
+
+        /**
+         * Skips the line terminator at the given position, "\n", "\r\n" or the end of the file.
+         *
+         * @return The start of the next line, or INCOMPLETE if the terminator continues past the bytes read.
+         */
+        private int endOfLine(int p) throws IOException {
+            if (p < limit && bytes[p] == '\r') {
+                p++;
+            }
+            if (p < limit && bytes[p] == '\n') {
+                return p + 1;
+            }
+            if (p == limit) {
+                return endOfFile ? p : INCOMPLETE;
+            }
+            throw malformed("unexpected '" + (char) bytes[p] + "'");
+        }
+
+        /**
+         * Parses an optionally negative decimal int into number.
+         *
+         * @return The position after the last digit, or INCOMPLETE if the number may continue past the bytes read.
+         */
+        private int parseNumber(int p) throws IOException {
+            boolean negative = p < limit && bytes[p] == '-';
+            if (negative) {
+                p++;
+            }
+            long value = 0;
+            int start = p;
+            while (p < limit && bytes[p] >= '0' && bytes[p] <= '9') {
+                value = value * 10 + (bytes[p] - '0');
+                if (p - start >= 10) {
+                    throw malformed("number out of range");
+                }
+                p++;
+            }
+            if (p == limit && !endOfFile) {
+                return INCOMPLETE;
+            }
+            if (p == start) {
+                throw malformed("expected a number");
+            }
+            value = negative ? -value : value;
+            if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+                throw malformed("number out of range");
+            }
+            number = (int) value;
+            return p;
+        }
+    }
+
+    /**
+     * Reads binary records through a buffer refilled from the file.
+     */
+    private static final class BinarySource implements BatchSource {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        private boolean endOfFile;
+
+        BinarySource(FileChannel channel) {
+            this.channel = channel;
+            buffer.limit(0);
+        }
+
+        @Override
+        public boolean fill(Batch batch) throws IOException {
+            while (!batch.isFull()) {
+                if (buffer.remaining() < BINARY_RECORD_BYTES) {
+                    if (endOfFile) {
+                        if (buffer.hasRemaining()) {
+                            throw new IOException("File ends with an incomplete record.");
+                        }
+                        return false;
+                    }
+                    buffer.compact();
+                    endOfFile = channel.read(buffer) < 0;
+                    buffer.flip();
+                    continue;
+                }
+                int records = Math.min(buffer.remaining() / BINARY_RECORD_BYTES, batch.xs.length - batch.length);
+                for (int i = 0; i < records; i++) {
+                    batch.add(buffer.getInt(), buffer.getInt(), buffer.getInt());
+                }
+            }
+            return true;
+        }
+    }
+}
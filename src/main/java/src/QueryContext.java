@@ -0,0 +1,175 @@
+package src;
+
+/**
+ * Holds the working state and results of a nearest-place search so they can be reused across searches.
+ * A search through Map2D.searchPlace(int, int, int, int, int, QueryContext) refills the context with the
+ * matching places sorted from nearest to farthest; once its buffers have grown to fit k, repeated searches
+ * allocate nothing.
+ * A context is not thread-safe: use one context per thread.
+ */
+public class QueryContext {
+    final NodeQueue queue;
+    final NearestPlaceHeap nearest;
+    // Context for the per-subtree searches of a ConcurrentMap2D, created on first use
+    private QueryContext partial;
+
+    /**
+     * Constructs an empty QueryContext.
+     */
+    public QueryContext() {
+        queue = new NodeQueue();
+        nearest = new NearestPlaceHeap(0);
+    }
+
+    /**
+     * Empties the context before a new search.
+     *
+     * @param k The maximum number of results the search keeps.
+     */
+    void reset(int k) {
+        reset(k, 0);
+    }
+
+    /**
+     * Empties the context before a new search of a map storing service words beyond the first.
+     *
+     * @param k          The maximum number of results the search keeps.
+     * @param extraWords The number of service words per place beyond the first.
+     */
+    void reset(int k, int extraWords) {
+        queue.clear();
+        nearest.reset(k, extraWords);
+    }
+
+    /**
+     * Gets the context a ConcurrentMap2D searches each subtree into before merging the results into this one.
+     *
+     * @return The partial-results context owned by this context.
+     */
+    QueryContext partialContext() {
+        if (partial == null) {
+            partial = new QueryContext();
+        }
+        return partial;
+    }
+
+    /**
+     * Returns the number of places found by the last search.
+     *
+     * @return The number of results.
+     */
+    public int size() {
+        return nearest.size();
+    }
+
+    /**
+     * Returns true if the last search found no places.
+     *
+     * @return True if there are no results, false otherwise.
+     */
+    public boolean isEmpty() {
+        return nearest.size() == 0;
+    }
+
+    /**
+     * Gets the x-coordinate of a result.
+     *
+     * @param index The rank of the result, 0 being the nearest.
+     * @return The x-coordinate.
+     */
+    public int getX(int index) {
+        checkIndex(index);
+        return nearest.getX(index);
+    }
+
+    /**
+     * Gets the y-coordinate of a result.
+     *
+     * @param index The rank of the result, 0 being the nearest.
+     * @return The y-coordinate.
+     */
+    public int getY(int index) {
+        checkIndex(index);
+        return nearest.getY(index);
+    }
+
+    /**
+     * Gets the services available at a result.
+     *
+     * @param index The rank of the result, 0 being the nearest.
+     * @return The encoded services.
+     */
+    public int getServices(int index) {
+        checkIndex(index);
+        return nearest.getServices(index);
+    }
+
+    /**
+     * Gets every service word of a result, for maps built with a ServiceRegistry.
+     * Words the map does not store are set to 0.
+     *
+     * @param index    The rank of the result, 0 being the nearest.
+     * @param services The array receiving the mask, see ServiceRegistry.decodeService.
+     */
+    public void getServices(int index, int[] services) {
+        checkIndex(index);
+        services[0] = nearest.getServices(index);
+        for (int w = 1; w < services.length; w++) {
+            services[w] = w <= nearest.getExtraWords() ? nearest.getExtraService(index, w - 1) : 0;
+        }
+    }
+
+    /**
+     * Gets the distance from the user to a result, rounded like Place.distanceTo.
+     *
+     * @param index The rank of the result, 0 being the nearest.
+     * @return The distance.
+     */
+    public double getDistance(int index) {
+        checkIndex(index);
+        return Place.distanceFromSquared(nearest.getSquaredDistance(index));
+    }
+
+    /**
+     * Gets the exact squared distance from the user to a result, the key results are ranked by unless a
+     * ServicePredicate scores them.
+     *
+     * @param index The rank of the result, 0 being the nearest.
+     * @return The squared distance.
+     */
+    public long getSquaredDistance(int index) {
+        checkIndex(index);
+        return nearest.getSquaredDistance(index);
+    }
+
+    /**
+     * Gets the score a result was ranked by, rounded like getDistance: its distance, plus the penalties of a
+     * ServicePredicate for the preferred services it does not offer.
+     *
+     * @param index The rank of the result, 0 being the best.
+     * @return The score, equal to the distance for searches that do not score places.
+     */
+    public double getScore(int index) {
+        checkIndex(index);
+        return Place.distanceFromSquared(nearest.getKey(index));
+    }
+
+    /**
+     * Copies the results into a new list of places.
+     *
+     * @return An ArrayList of the places found, sorted by distance from the user.
+     */
+    public ArrayList<Place> toPlaceList() {
+        ArrayList<Place> places = new ArrayList<>(Math.max(size(), 1));
+        for (int i = 0; i < size(); i++) {
+            places.add(new Place(nearest.getX(i), nearest.getY(i), nearest.getServices(i)));
+        }
+        return places;
+    }
+
+    private void checkIndex(int index) {
+        if (index >= size() || index < 0) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+    }
+}
@@ -81,9 +81,22 @@ public class Rectangle {
      * @return True if there is an intersection, false otherwise.
      */
     public boolean intersects(Rectangle anotherRect) {
-        return this.x < anotherRect.x + anotherRect.width &&
-                this.x + width > anotherRect.x &&
-                this.y > anotherRect.y - anotherRect.height &&
-                this.y - height < anotherRect.y;
+        return intersects(anotherRect.x, anotherRect.y, anotherRect.width, anotherRect.height);
+    }
+
+    /**
+     * Checks if this rectangle intersects with the rectangle given by its top-left corner and size.
+     *
+     * @param x      The x-coordinate of the top-left corner of the other rectangle.
+     * @param y      The y-coordinate of the top-left corner of the other rectangle.
+     * @param width  The width of the other rectangle.
+     * @param height The height of the other rectangle.
+     * @return True if there is an intersection, false otherwise.
+     */
+    public boolean intersects(int x, int y, int width, int height) {
+        return this.x < x + width &&
+                this.x + this.width > x &&
+                this.y > y - height &&
+                this.y - this.height < y;
     }
 }
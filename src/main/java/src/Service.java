@@ -81,4 +81,23 @@ public class Service {
     public static boolean contains(int services1, int services2) {
         return (services1 & services2) == services2;
     }
+
+    /**
+     * Checks if the services of one multi-word mask are contained within another, see ServiceRegistry.
+     * The words are combined without branching, so the cost only depends on the number of words.
+     *
+     * @param services1 The array holding the services to check against.
+     * @param offset1   The index of their first word.
+     * @param services2 The array holding the services to check for containment.
+     * @param offset2   The index of their first word.
+     * @param words     The number of words to compare.
+     * @return True if services2 are contained within services1, false otherwise.
+     */
+    public static boolean contains(int[] services1, int offset1, int[] services2, int offset2, int words) {
+        int missing = 0;
+        for (int w = 0; w < words; w++) {
+            missing |= services2[offset2 + w] & ~services1[offset1 + w];
+        }
+        return missing == 0;
+    }
 }
@@ -0,0 +1,289 @@
+package src;
+
+/**
+ * Describes which places a search accepts by their services, and optionally how it ranks them, so that queries such as
+ * "an ATM or a ConvenienceStore, but not a School" are answered by one traversal of the tree.
+ * A place matches when it offers every service of allOf, at least one service of anyOf (unless anyOf is 0) and no
+ * service of noneOf. Matching places are ranked by their score: their distance to the user plus missingPenalty for
+ * each service of preferred they do not offer, so a place offering every preferred service ranks by distance alone.
+ * Masks are encoded with Service.encodeService, or with ServiceRegistry.encodeService for maps built with a registry;
+ * a predicate with fewer words than such a map treats the missing words as 0.
+ */
+public class ServicePredicate {
+    // Each mask holds one entry per service word
+    private final int[] allOf;
+    private final int[] anyOf;
+    private final int[] noneOf;
+    private final int[] preferred;
+    private final int missingPenalty;
+
+    /**
+     * Constructs a ServicePredicate ranking matching places by distance.
+     *
+     * @param allOf  The services a place must all offer.
+     * @param anyOf  The services a place must offer at least one of, or 0 for no such condition.
+     * @param noneOf The services a place must not offer.
+     */
+    public ServicePredicate(int allOf, int anyOf, int noneOf) {
+        this(allOf, anyOf, noneOf, 0, 0);
+    }
+
+    /**
+     * Constructs a ServicePredicate ranking matching places by distance, penalized for missing preferred services.
+     *
+     * @param allOf          The services a place must all offer.
+     * @param anyOf          The services a place must offer at least one of, or 0 for no such condition.
+     * @param noneOf         The services a place must not offer.
+     * @param preferred      The optional services a place should offer.
+     * @param missingPenalty The distance added to the score of a place for each preferred service it does not offer.
+     */
+    public ServicePredicate(int allOf, int anyOf, int noneOf, int preferred, int missingPenalty) {
+        this(new int[]{allOf}, new int[]{anyOf}, new int[]{noneOf}, new int[]{preferred}, missingPenalty);
+    }
+
+    /**
+     * Constructs a ServicePredicate over the services of a ServiceRegistry, ranking matching places by distance.
+     *
+     * @param allOf  The services a place must all offer, see ServiceRegistry.encodeService.
+     * @param anyOf  The services a place must offer at least one of, all 0 for no such condition.
+     * @param noneOf The services a place must not offer.
+     */
+    public ServicePredicate(int[] allOf, int[] anyOf, int[] noneOf) {
+        this(allOf, anyOf, noneOf, new int[allOf.length], 0);
+    }
+
+    /**
+     * Constructs a ServicePredicate over the services of a ServiceRegistry, ranking matching places by distance,
+     * penalized for missing preferred services.
+     *
+     * @param allOf          The services a place must all offer, see ServiceRegistry.encodeService.
+     * @param anyOf          The services a place must offer at least one of, all 0 for no such condition.
+     * @param noneOf         The services a place must not offer.
+     * @param preferred      The optional services a place should offer.
+     * @param missingPenalty The distance added to the score of a place for each preferred service it does not offer.
+     */
+    public ServicePredicate(int[] allOf, int[] anyOf, int[] noneOf, int[] preferred, int missingPenalty) {
+        if (missingPenalty < 0) {
+            throw new IllegalArgumentException("Illegal missing-service penalty: " + missingPenalty);
+        }
+        if (allOf.length == 0 || anyOf.length != allOf.length || noneOf.length != allOf.length
+                || preferred.length != allOf.length) {
+            throw new IllegalArgumentException("Service masks must have the same number of words.");
+        }
+        this.allOf = allOf.clone();
+        this.anyOf = anyOf.clone();
+        this.noneOf = noneOf.clone();
+        this.preferred = preferred.clone();
+        this.missingPenalty = missingPenalty;
+    }
+
+    /**
+     * Constructs a ServicePredicate accepting places that offer at least one of the given services.
+     *
+     * @param services The encoded services, see Service.encodeService.
+     * @return The new predicate.
+     */
+    public static ServicePredicate anyOf(int services) {
+        return new ServicePredicate(0, services, 0);
+    }
+
+    /**
+     * Constructs a ServicePredicate accepting places that offer at least one of the given services of a ServiceRegistry.
+     *
+     * @param services The encoded services, see ServiceRegistry.encodeService.
+     * @return The new predicate.
+     */
+    public static ServicePredicate anyOf(int[] services) {
+        return new ServicePredicate(new int[services.length], services, new int[services.length]);
+    }
+
+    /**
+     * Checks whether a place with the given services matches this predicate.
+     *
+     * @param services The encoded services of the place, which offers none of the words beyond the first.
+     * @return True if the place matches, false otherwise.
+     */
+    public boolean matches(int services) {
+        return matches(services, null, 0);
+    }
+
+    /**
+     * Checks whether a place with the given services of a ServiceRegistry matches this predicate.
+     *
+     * @param services The encoded services of the place, with at least as many words as this predicate.
+     * @return True if the place matches, false otherwise.
+     */
+    public boolean matches(int[] services) {
+        return matches(services[0], services, 1);
+    }
+
+    /**
+     * Checks whether a place matches this predicate, given its first service word and the array holding the others.
+     *
+     * @param services The first service word of the place.
+     * @param extras   The array holding the words beyond the first, or null if they are all 0.
+     * @param offset   The index of the second word in extras.
+     * @return True if the place matches, false otherwise.
+     */
+    boolean matches(int services, int[] extras, int offset) {
+        int missing = allOf[0] & ~services;
+        int requested = anyOf[0];
+        int offered = anyOf[0] & services;
+        int excluded = noneOf[0] & services;
+        for (int w = 1; w < allOf.length; w++) {
+            int word = extras != null ? extras[offset + w - 1] : 0;
+            missing |= allOf[w] & ~word;
+            requested |= anyOf[w];
+            offered |= anyOf[w] & word;
+            excluded |= noneOf[w] & word;
+        }
+        return missing == 0 && (requested == 0 || offered != 0) && excluded == 0;
+    }
+
+    /**
+     * Counts the preferred services a place does not offer.
+     */
+    private int missingPreferred(int services, int[] extras, int offset) {
+        int missing = Integer.bitCount(preferred[0] & ~services);
+        for (int w = 1; w < preferred.length; w++) {
+            missing += Integer.bitCount(preferred[w] & ~(extras != null ? extras[offset + w - 1] : 0));
+        }
+        return missing;
+    }
+
+    /**
+     * Calculates the score of a place, the distance a search ranks it by.
+     *
+     * @param distance The distance from the user to the place.
+     * @param services The encoded services of the place, which offers none of the words beyond the first.
+     * @return The distance plus the penalty of each missing preferred service.
+     */
+    public double score(double distance, int services) {
+        return distance + (double) missingPenalty * missingPreferred(services, null, 0);
+    }
+
+    /**
+     * Calculates the score of a place with the given services of a ServiceRegistry.
+     *
+     * @param distance The distance from the user to the place.
+     * @param services The encoded services of the place, with at least as many words as this predicate.
+     * @return The distance plus the penalty of each missing preferred service.
+     */
+    public double score(double distance, int[] services) {
+        return distance + (double) missingPenalty * missingPreferred(services[0], services, 1);
+    }
+
+    /**
+     * Calculates the key a search ranks a place by: its squared score, rounded up.
+     * The key is never smaller than the squared distance, so a node farther than the worst kept key holds no
+     * better place and can still be pruned; it equals the squared distance when no preferred service is missing.
+     *
+     * @param squaredDistance The squared distance from the user to the place.
+     * @param services        The first service word of the place.
+     * @param extras          The array holding the words beyond the first, or null if they are all 0.
+     * @param offset          The index of the second word in extras.
+     * @return The ranking key, saturating at Long.MAX_VALUE.
+     */
+    long rankKey(long squaredDistance, int services, int[] extras, int offset) {
+        int missing = missingPreferred(services, extras, offset);
+        if (missing == 0 || missingPenalty == 0) {
+            return squaredDistance;
+        }
+        double score = Math.sqrt(squaredDistance) + (double) missingPenalty * missing;
+        return Math.max(squaredDistance, (long) Math.ceil(score * score));
+    }
+
+    /**
+     * Gets the services a place must all offer.
+     *
+     * @return The first word of the encoded services.
+     */
+    public int getAllOf() {
+        return allOf[0];
+    }
+
+    /**
+     * Gets a word of the services a place must all offer.
+     *
+     * @param word The index of the word.
+     * @return The encoded services, or 0 if the word is beyond those of this predicate.
+     */
+    public int getAllOf(int word) {
+        return word < allOf.length ? allOf[word] : 0;
+    }
+
+    /**
+     * Gets the services a place must offer at least one of.
+     *
+     * @return The first word of the encoded services.
+     */
+    public int getAnyOf() {
+        return anyOf[0];
+    }
+
+    /**
+     * Gets a word of the services a place must offer at least one of.
+     *
+     * @param word The index of the word.
+     * @return The encoded services, or 0 if the word is beyond those of this predicate.
+     */
+    public int getAnyOf(int word) {
+        return word < anyOf.length ? anyOf[word] : 0;
+    }
+
+    /**
+     * Gets the services a place must not offer.
+     *
+     * @return The first word of the encoded services.
+     */
+    public int getNoneOf() {
+        return noneOf[0];
+    }
+
+    /**
+     * Gets a word of the services a place must not offer.
+     *
+     * @param word The index of the word.
+     * @return The encoded services, or 0 if the word is beyond those of this predicate.
+     */
+    public int getNoneOf(int word) {
+        return word < noneOf.length ? noneOf[word] : 0;
+    }
+
+    /**
+     * Gets the optional services a place should offer.
+     *
+     * @return The first word of the encoded services.
+     */
+    public int getPreferred() {
+        return preferred[0];
+    }
+
+    /**
+     * Gets a word of the services a place should offer.
+     *
+     * @param word The index of the word.
+     * @return The encoded services, or 0 if the word is beyond those of this predicate.
+     */
+    public int getPreferred(int word) {
+        return word < preferred.length ? preferred[word] : 0;
+    }
+
+    /**
+     * Gets the number of service words of this predicate.
+     *
+     * @return 1 for a predicate built from Service.encodeService masks, ServiceRegistry.getWords otherwise.
+     */
+    public int getWords() {
+        return allOf.length;
+    }
+
+    /**
+     * Gets the distance added to the score of a place for each preferred service it does not offer.
+     *
+     * @return The penalty.
+     */
+    public int getMissingPenalty() {
+        return missingPenalty;
+    }
+}
@@ -0,0 +1,160 @@
+package src;
+
+/**
+ * Interns service names to ids and encodes sets of them as multi-word masks, for maps offering more services
+ * than fit in the single int of Service.encodeService.
+ * Service id i is bit (i % 32) of word (i / 32), so the first word of a mask is laid out like the int masks of
+ * Service, and a registry created by withStandardServices gives the services of Service their usual ids.
+ * Names are looked up in an open-addressing table sized for the maximum number of services, which never grows.
+ * A registry is not thread-safe while services are being registered: register them before sharing it.
+ */
+public class ServiceRegistry {
+    private final int maxServices;
+    private final int words;
+    private final String[] names; // Indexed by id
+    private final int[] table; // Id + 1 of the name hashed to each position, 0 marks an empty position
+    private final int mask;
+    private int size;
+
+    /**
+     * Constructs an empty ServiceRegistry.
+     *
+     * @param maxServices The largest number of services that can be registered.
+     */
+    public ServiceRegistry(int maxServices) {
+        if (maxServices <= 0) {
+            throw new IllegalArgumentException("Illegal maximum number of services: " + maxServices);
+        }
+        this.maxServices = maxServices;
+        words = (maxServices + Integer.SIZE - 1) / Integer.SIZE;
+        names = new String[maxServices];
+        table = new int[Integer.highestOneBit(maxServices) * 4];
+        mask = table.length - 1;
+    }
+
+    /**
+     * Constructs a ServiceRegistry holding the services of Service under their usual ids.
+     *
+     * @param maxServices The largest number of services that can be registered, the standard ones included.
+     * @return The new registry.
+     */
+    public static ServiceRegistry withStandardServices(int maxServices) {
+        ServiceRegistry registry = new ServiceRegistry(Math.max(maxServices, Service.NUM_SERVICES));
+        for (int service = 0; service < Service.NUM_SERVICES; service++) {
+            registry.register(Service.decodeService(1 << service)[0]);
+        }
+        return registry;
+    }
+
+    private int home(String name) {
+        int hash = name.hashCode() * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    /**
+     * Registers a service, or finds it if it is already registered.
+     *
+     * @param name The name of the service.
+     * @return The id of the service.
+     */
+    public int register(String name) {
+        int i = home(name);
+        for (; table[i] != 0; i = (i + 1) & mask) {
+            if (names[table[i] - 1].equals(name)) {
+                return table[i] - 1;
+            }
+        }
+        if (size == maxServices) {
+            throw new IllegalStateException("Registry is full: cannot register " + name + " beyond " + maxServices + " services.");
+        }
+        names[size] = name;
+        table[i] = ++size;
+        return size - 1;
+    }
+
+    /**
+     * Gets the id of a registered service.
+     *
+     * @param name The name of the service.
+     * @return The id of the service, or -1 if it is not registered.
+     */
+    public int getId(String name) {
+        for (int i = home(name); table[i] != 0; i = (i + 1) & mask) {
+            if (names[table[i] - 1].equals(name)) {
+                return table[i] - 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the name of a registered service.
+     *
+     * @param id The id of the service.
+     * @return The name of the service.
+     */
+    public String getName(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("Id: " + id + ", Size: " + size);
+        }
+        return names[id];
+    }
+
+    /**
+     * Returns the number of registered services.
+     *
+     * @return The number of services.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of int words in a mask of this registry.
+     *
+     * @return The number of words per mask.
+     */
+    public int getWords() {
+        return words;
+    }
+
+    /**
+     * Encodes an array of registered services into a mask.
+     *
+     * @param services The array of services to encode.
+     * @return The mask, getWords() words long.
+     */
+    public int[] encodeService(String[] services) {
+        int[] encoded = new int[words];
+        for (String service : services) {
+            int id = getId(service);
+            if (id < 0) {
+                throw new IllegalArgumentException("Unknown service: " + service);
+            }
+            encoded[id / Integer.SIZE] |= 1 << (id % Integer.SIZE);
+        }
+        return encoded;
+    }
+
+    /**
+     * Decodes a mask into an array of service names, in id order.
+     *
+     * @param encoded The mask, at most getWords() words long.
+     * @return An array of service names.
+     */
+    public String[] decodeService(int[] encoded) {
+        int count = 0;
+        for (int word : encoded) {
+            count += Integer.bitCount(word);
+        }
+        String[] result = new String[count];
+        int index = 0;
+        for (int w = 0; w < encoded.length; w++) {
+            for (int remaining = encoded[w]; remaining != 0; remaining &= remaining - 1) {
+                int id = w * Integer.SIZE + Integer.numberOfTrailingZeros(remaining);
+                result[index++] = id < size ? names[id] : "Unknown";
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,95 @@
+package src;
+
+/**
+ * Layout of the binary snapshot files written by Map2D.save and read by Map2D.load, and of the segments
+ * written by Map2D.saveSegment. All values are little-endian.
+ *
+ * <pre>
+ * Header (HEADER_BYTES bytes)
+ *   int  MAGIC, int VERSION, int flags (FLAG_STABLE_REMOVAL), int extra service words per place (w)
+ *   int  boundary x, y, width, height
+ *   long number of places, long number of nodes, long body length in bytes
+ *   int  CRC32C of the body, then zero padding
+ * Body: nodes in pre-order, each starting with a nodeHeaderBytes(w) header
+ *   int  tag (LEAF or INTERNAL), int boundary x, y, width, height, int service summary, int number of places, int reserved,
+ *   int[w] summary of the extra service words
+ *   leaf:     int[count] x-coordinates, int[count] y-coordinates, int[count] services,
+ *             int[count * w] extra service words, the w words of each place in turn
+ *   internal: long[4] offsets of the children from the start of the body, children following in quadrant order
+ *
+ * A segment has the same header with SEGMENT_MAGIC, the number of places of the whole map once the segment is
+ * applied, and the number of entries in place of the number of nodes. Its body is a sequence of entries:
+ *   long quadrant path of the node, 2 bits per level from the top, int depth, int kind (SUBTREE or LEAF_DELTA)
+ *   SUBTREE:    the node's new subtree, in the snapshot body format above
+ *   LEAF_DELTA: int number of places, int number of changed slots, int service summary, int reserved,
+ *               int[w] summary of the extra service words,
+ *               int[changed] slots, int[changed] x-coordinates, int[changed] y-coordinates, int[changed] services,
+ *               int[changed * w] extra service words
+ * </pre>
+ *
+ * Version 1 files were written before places could hold extra service words; they read as w = 0.
+ */
+final class SnapshotFormat {
+    static final int MAGIC = 0x4D32_4453; // "M2DS"
+    static final int SEGMENT_MAGIC = 0x4D32_4447; // "M2DG"
+    static final int VERSION = 2;
+    static final int MIN_VERSION = 1; // Oldest version still read
+    static final int FLAG_STABLE_REMOVAL = 1;
+    static final int HEADER_BYTES = 64;
+    static final int NODE_HEADER_BYTES = 32;
+    static final int CHILD_OFFSETS_BYTES = 4 * Long.BYTES;
+    static final int SEGMENT_ENTRY_BYTES = 16;
+    static final int SUBTREE = 0;
+    static final int LEAF_DELTA = 1;
+    static final int LEAF_DELTA_HEADER_BYTES = 16;
+    static final int MAX_SEGMENT_DEPTH = 32; // Deepest node a 64-bit quadrant path can address
+    static final int LEAF = 0;
+    static final int INTERNAL = 1;
+    static final int BUFFER_BYTES = 8 << 20; // Size of the direct buffers used for file I/O
+
+    private SnapshotFormat() {
+    }
+
+    /**
+     * Calculates the size of a node header.
+     *
+     * @param extraServiceWords The number of service words per place beyond the first.
+     * @return The size in bytes.
+     */
+    static int nodeHeaderBytes(int extraServiceWords) {
+        return NODE_HEADER_BYTES + Integer.BYTES * extraServiceWords;
+    }
+
+    /**
+     * Calculates the size of a leaf record.
+     *
+     * @param numOfPlaces       The number of places in the leaf.
+     * @param extraServiceWords The number of service words per place beyond the first.
+     * @return The size in bytes.
+     */
+    static long leafBytes(int numOfPlaces, int extraServiceWords) {
+        return nodeHeaderBytes(extraServiceWords) + (3L + extraServiceWords) * Integer.BYTES * numOfPlaces;
+    }
+
+    /**
+     * Calculates the size of an internal node record, without its children.
+     *
+     * @param extraServiceWords The number of service words per place beyond the first.
+     * @return The size in bytes.
+     */
+    static long internalBytes(int extraServiceWords) {
+        return nodeHeaderBytes(extraServiceWords) + CHILD_OFFSETS_BYTES;
+    }
+
+    /**
+     * Calculates the size of a leaf delta, without its entry header.
+     *
+     * @param numOfChangedSlots The number of changed slots in the delta.
+     * @param extraServiceWords The number of service words per place beyond the first.
+     * @return The size in bytes.
+     */
+    static long leafDeltaBytes(int numOfChangedSlots, int extraServiceWords) {
+        return LEAF_DELTA_HEADER_BYTES + Integer.BYTES * extraServiceWords
+                + (4L + extraServiceWords) * Integer.BYTES * numOfChangedSlots;
+    }
+}
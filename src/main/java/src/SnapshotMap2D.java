@@ -0,0 +1,213 @@
+package src;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Represents a 2D map whose readers never block and never see a change half applied.
+ * The map is a persistent version of Map2D: a change copies only the nodes on the path from the root to the
+ * place it touches, shares every other subtree with the previous version, and publishes the new root through
+ * an atomic reference. A search reads whichever root was published last and needs no synchronization, since
+ * published nodes are never modified again.
+ * Changes are either committed one by one, or grouped between beginBatch and commit so that one publication
+ * (and one copy of each touched node) covers the whole batch. Writers are serialized with each other.
+ * Copying a leaf copies its arrays, so single changes on large leaves produce a lot of garbage; prefer batches.
+ */
+public class SnapshotMap2D {
+    private final AtomicReference<Map2D> published;
+    private Map2D working; // Root of the batch being built, null outside a batch
+    private Object batchOwner;
+
+    /**
+     * Constructs an empty SnapshotMap2D object with the given boundary.
+     *
+     * @param boundary The boundary of the map.
+     */
+    public SnapshotMap2D(Rectangle boundary) {
+        this(new Map2D(boundary));
+    }
+
+    /**
+     * Constructs a SnapshotMap2D object holding the places of an existing map, for example one built with bulkLoad.
+     * The map becomes the first published version and must not be modified directly afterwards.
+     *
+     * @param initial The map to start from; it must not use a coordinate index.
+     */
+    public SnapshotMap2D(Map2D initial) {
+        if (initial.getCoordinateIndexMemory() > 0) {
+            throw new IllegalArgumentException("A snapshot map cannot use a coordinate index.");
+        }
+        published = new AtomicReference<>(initial);
+    }
+
+    /**
+     * Starts a batch: the following changes are applied to a private version of the map and become visible
+     * to searches together when commit is called.
+     */
+    public synchronized void beginBatch() {
+        if (working != null) {
+            throw new IllegalStateException("A batch is already in progress.");
+        }
+        batchOwner = new Object();
+        working = published.get().copyFor(batchOwner);
+    }
+
+    /**
+     * Publishes every change made since beginBatch as the new version of the map.
+     */
+    public synchronized void commit() {
+        if (working == null) {
+            throw new IllegalStateException("No batch in progress.");
+        }
+        published.set(working);
+        // A new owner is used by the next batch, so the nodes published here are never modified again
+        working = null;
+        batchOwner = null;
+    }
+
+    /**
+     * Discards every change made since beginBatch.
+     */
+    public synchronized void rollback() {
+        working = null;
+        batchOwner = null;
+    }
+
+    /**
+     * Adds a place to the map, publishing it immediately unless a batch is in progress.
+     *
+     * @param x        The x-coordinate of the place.
+     * @param y        The y-coordinate of the place.
+     * @param services The services available at the place.
+     */
+    public synchronized void addPlace(int x, int y, int services) {
+        boolean autoCommit = working == null;
+        if (autoCommit) {
+            beginBatch();
+        }
+        try {
+            working.addPlace(x, y, services);
+        } catch (RuntimeException e) {
+            if (autoCommit) {
+                rollback();
+            }
+            throw e;
+        }
+        if (autoCommit) {
+            commit();
+        }
+    }
+
+    /**
+     * Edits services available at a place, publishing the change immediately unless a batch is in progress.
+     *
+     * @param x        The x-coordinate of the place.
+     * @param y        The y-coordinate of the place.
+     * @param services The new services available.
+     * @return True if the place is found and edited, false otherwise.
+     */
+    public boolean editPlace(int x, int y, String[] services) {
+        return editPlace(x, y, Service.encodeService(services));
+    }
+
+    /**
+     * Edits services available at a place, publishing the change immediately unless a batch is in progress.
+     *
+     * @param x        The x-coordinate of the place.
+     * @param y        The y-coordinate of the place.
+     * @param services The new encoded services available.
+     * @return True if the place is found and edited, false otherwise.
+     */
+    public synchronized boolean editPlace(int x, int y, int services) {
+        boolean autoCommit = working == null;
+        if (autoCommit) {
+            beginBatch();
+        }
+        boolean edited = working.editPlace(x, y, services);
+        if (autoCommit) {
+            // Nothing to publish when the place does not exist
+            if (edited) {
+                commit();
+            } else {
+                rollback();
+            }
+        }
+        return edited;
+    }
+
+    /**
+     * Removes a place from the map, publishing the change immediately unless a batch is in progress.
+     *
+     * @param x The x-coordinate of the place.
+     * @param y The y-coordinate of the place.
+     * @return True if the place is found and removed, false otherwise.
+     */
+    public synchronized boolean removePlace(int x, int y) {
+        boolean autoCommit = working == null;
+        if (autoCommit) {
+            beginBatch();
+        }
+        boolean removed = working.removePlace(x, y);
+        if (autoCommit) {
+            if (removed) {
+                commit();
+            } else {
+                rollback();
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Searches the latest published version for places within a certain distance from a given point with
+     * specified services.
+     *
+     * @param userX        The x-coordinate of the user's position.
+     * @param userY        The y-coordinate of the user's position.
+     * @param walkDistance The maximum walking distance from the user.
+     * @param services     The services to search for.
+     * @param k            The maximum number of results to return.
+     * @return An ArrayList of places matching the search criteria, sorted by distance from the user.
+     */
+    public ArrayList<Place> searchPlace(int userX, int userY, int walkDistance, String[] services, int k) {
+        return published.get().searchPlace(userX, userY, walkDistance, services, k);
+    }
+
+    /**
+     * Searches the latest published version for places within a certain distance from a given point with
+     * specified services, writing the results into a caller-owned context. Use one context per thread.
+     *
+     * @param userX        The x-coordinate of the user's position.
+     * @param userY        The y-coordinate of the user's position.
+     * @param walkDistance The maximum walking distance from the user.
+     * @param serviceMask  The encoded services to search for, see Service.encodeService.
+     * @param k            The maximum number of results to return.
+     * @param context      The context receiving the results, sorted by distance from the user.
+     */
+    public void searchPlace(int userX, int userY, int walkDistance, int serviceMask, int k, QueryContext context) {
+        published.get().searchPlace(userX, userY, walkDistance, serviceMask, k, context);
+    }
+
+    /**
+     * Searches the latest published version for places within a straight-line radius of a given point with
+     * specified services, writing the results into a caller-owned context. Use one context per thread.
+     *
+     * @param userX       The x-coordinate of the user's position.
+     * @param userY       The y-coordinate of the user's position.
+     * @param radius      The maximum straight-line distance from the user.
+     * @param serviceMask The encoded services to search for, see Service.encodeService.
+     * @param k           The maximum number of results to return.
+     * @param context     The context receiving the results, sorted by distance from the user.
+     */
+    public void searchPlaceWithinRadius(int userX, int userY, int radius, int serviceMask, int k, QueryContext context) {
+        published.get().searchPlaceWithinRadius(userX, userY, radius, serviceMask, k, context);
+    }
+
+    /**
+     * Counts the places in the latest published version.
+     *
+     * @return The number of places.
+     */
+    public int countPlaces() {
+        return published.get().countPlaces();
+    }
+}
@@ -0,0 +1,172 @@
+package src;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * Reads a snapshot sequentially through a large direct buffer, checking the header on open and the body
+ * checksum once the whole body has been read.
+ */
+class SnapshotReader implements AutoCloseable {
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final CRC32C checksum;
+    private final int flags;
+    private final int extraServiceWords;
+    private final Rectangle boundary;
+    private final long numOfPlaces;
+    private final long numOfNodes;
+    private final long bodyLength;
+    private final int expectedChecksum;
+    private long bodyRead; // Bytes of the body loaded into the buffer so far
+
+    /**
+     * Constructs a SnapshotReader and reads the header of the given file.
+     *
+     * @param path The file to read.
+     * @throws IOException If the file cannot be read or is not a snapshot of a supported version.
+     */
+    SnapshotReader(Path path) throws IOException {
+        this(path, SnapshotFormat.MAGIC);
+    }
+
+    /**
+     * Constructs a SnapshotReader and reads the header of the given file, which must be of the given kind.
+     *
+     * @param path  The file to read.
+     * @param magic The magic number of the file, SnapshotFormat.MAGIC or SEGMENT_MAGIC.
+     * @throws IOException If the file cannot be read or is not a file of that kind in a supported version.
+     */
+    SnapshotReader(Path path, int magic) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            buffer = ByteBuffer.allocateDirect(SnapshotFormat.BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            checksum = new CRC32C();
+            buffer.limit(SnapshotFormat.HEADER_BYTES);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new IOException("Snapshot is truncated: incomplete header.");
+                }
+            }
+            buffer.flip();
+            if (buffer.getInt() != magic) {
+                throw new IOException((magic == SnapshotFormat.MAGIC ? "Not a Map2D snapshot: " : "Not a Map2D segment: ") + path);
+            }
+            int version = buffer.getInt();
+            if (version < SnapshotFormat.MIN_VERSION || version > SnapshotFormat.VERSION) {
+                throw new IOException("Unsupported snapshot version: " + version);
+            }
+            flags = buffer.getInt();
+            extraServiceWords = buffer.getInt();
+            if (extraServiceWords < 0) {
+                throw new IOException("Snapshot is corrupt: invalid number of service words " + extraServiceWords + ".");
+            }
+            boundary = new Rectangle(buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt());
+            numOfPlaces = buffer.getLong();
+            numOfNodes = buffer.getLong();
+            bodyLength = buffer.getLong();
+            expectedChecksum = buffer.getInt();
+            if (bodyLength != channel.size() - SnapshotFormat.HEADER_BYTES) {
+                throw new IOException("Snapshot is truncated: expected " + bodyLength + " body bytes.");
+            }
+            buffer.clear().limit(0);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Loads more of the body into the buffer, keeping the bytes not consumed yet.
+     *
+     * @param bytes The number of bytes that must be available.
+     */
+    private void ensureAvailable(int bytes) throws IOException {
+        if (buffer.remaining() >= bytes) {
+            return;
+        }
+        buffer.compact();
+        while (buffer.position() < bytes) {
+            int start = buffer.position();
+            int read = channel.read(buffer);
+            if (read < 0) {
+                throw new IOException("Snapshot is truncated.");
+            }
+            checksum.update(buffer.duplicate().position(start).limit(start + read));
+            bodyRead += read;
+        }
+        buffer.flip();
+    }
+
+    int readInt() throws IOException {
+        ensureAvailable(Integer.BYTES);
+        return buffer.getInt();
+    }
+
+    long readLong() throws IOException {
+        ensureAvailable(Long.BYTES);
+        return buffer.getLong();
+    }
+
+    /**
+     * Reads values into a range of an int array with bulk copies from the buffer.
+     *
+     * @param values The array to fill.
+     * @param from   The first index to fill.
+     * @param count  The number of values to read.
+     */
+    void readInts(int[] values, int from, int count) throws IOException {
+        while (count > 0) {
+            ensureAvailable(Integer.BYTES);
+            int chunk = Math.min(count, buffer.remaining() / Integer.BYTES);
+            buffer.asIntBuffer().get(values, from, chunk);
+            buffer.position(buffer.position() + chunk * Integer.BYTES);
+            from += chunk;
+            count -= chunk;
+        }
+    }
+
+    /**
+     * Checks that the whole body was read and matches the checksum stored in the header.
+     *
+     * @throws IOException If bytes are left over or the checksum differs.
+     */
+    void verify() throws IOException {
+        if (buffer.hasRemaining() || bodyRead != bodyLength) {
+            throw new IOException("Snapshot is corrupt: unexpected data after the last node.");
+        }
+        if ((int) checksum.getValue() != expectedChecksum) {
+            throw new IOException("Snapshot is corrupt: checksum mismatch.");
+        }
+    }
+
+    int getFlags() {
+        return flags;
+    }
+
+    int getExtraServiceWords() {
+        return extraServiceWords;
+    }
+
+    Rectangle getBoundary() {
+        return boundary;
+    }
+
+    long getNumOfPlaces() {
+        return numOfPlaces;
+    }
+
+    long getNumOfNodes() {
+        return numOfNodes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,131 @@
+package src;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * Writes a snapshot body sequentially through a large direct buffer and checksums it on the way.
+ * The header is written last, once the body length and checksum are known.
+ */
+class SnapshotWriter implements AutoCloseable {
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final CRC32C checksum;
+    private final int magic;
+    private long bodyLength;
+
+    /**
+     * Constructs a SnapshotWriter creating or truncating the given file.
+     *
+     * @param path The file to write.
+     * @throws IOException If the file cannot be opened.
+     */
+    SnapshotWriter(Path path) throws IOException {
+        this(path, SnapshotFormat.MAGIC);
+    }
+
+    /**
+     * Constructs a SnapshotWriter creating or truncating the given file, for files of the given kind.
+     *
+     * @param path  The file to write.
+     * @param magic The magic number of the file, SnapshotFormat.MAGIC or SEGMENT_MAGIC.
+     * @throws IOException If the file cannot be opened.
+     */
+    SnapshotWriter(Path path, int magic) throws IOException {
+        this.magic = magic;
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        buffer = ByteBuffer.allocateDirect(SnapshotFormat.BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        checksum = new CRC32C();
+        channel.position(SnapshotFormat.HEADER_BYTES);
+    }
+
+    private void ensureRemaining(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        checksum.update(buffer.duplicate());
+        bodyLength += buffer.remaining();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    void writeInt(int value) throws IOException {
+        ensureRemaining(Integer.BYTES);
+        buffer.putInt(value);
+    }
+
+    void writeLong(long value) throws IOException {
+        ensureRemaining(Long.BYTES);
+        buffer.putLong(value);
+    }
+
+    /**
+     * Writes a range of an int array with bulk copies into the buffer.
+     *
+     * @param values The array to write.
+     * @param from   The first index to write.
+     * @param count  The number of values to write.
+     */
+    void writeInts(int[] values, int from, int count) throws IOException {
+        while (count > 0) {
+            ensureRemaining(Integer.BYTES);
+            int chunk = Math.min(count, buffer.remaining() / Integer.BYTES);
+            buffer.asIntBuffer().put(values, from, chunk);
+            buffer.position(buffer.position() + chunk * Integer.BYTES);
+            from += chunk;
+            count -= chunk;
+        }
+    }
+
+    /**
+     * Flushes the body and writes the header at the start of the file.
+     *
+     * @param boundary          The boundary of the map.
+     * @param flags             The format flags.
+     * @param extraServiceWords The number of service words per place beyond the first.
+     * @param numOfPlaces       The number of places in the map.
+     * @param numOfNodes        The number of nodes in the map, or of entries in a segment.
+     * @throws IOException If the file cannot be written.
+     */
+    void finish(Rectangle boundary, int flags, int extraServiceWords, long numOfPlaces, long numOfNodes) throws IOException {
+        flush();
+        buffer.putInt(magic);
+        buffer.putInt(SnapshotFormat.VERSION);
+        buffer.putInt(flags);
+        buffer.putInt(extraServiceWords);
+        buffer.putInt(boundary.getX());
+        buffer.putInt(boundary.getY());
+        buffer.putInt(boundary.getWidth());
+        buffer.putInt(boundary.getHeight());
+        buffer.putLong(numOfPlaces);
+        buffer.putLong(numOfNodes);
+        buffer.putLong(bodyLength);
+        buffer.putInt((int) checksum.getValue());
+        while (buffer.position() < SnapshotFormat.HEADER_BYTES) {
+            buffer.put((byte) 0);
+        }
+        buffer.flip();
+        long position = 0;
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        buffer.clear();
+        channel.force(true);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
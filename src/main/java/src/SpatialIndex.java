@@ -0,0 +1,111 @@
+package src;
+
+/**
+ * A structure storing places by their coordinates and answering nearest-place searches over them, so that callers
+ * can run the same workload against different engines: the quadtree of Map2D, its thread-safe ConcurrentMap2D, or
+ * the flat GridIndex.
+ * Places are identified by their coordinates. Searches rank places by their exact squared distance to the user and
+ * write their results into a caller-owned QueryContext, sorted from nearest to farthest.
+ */
+public interface SpatialIndex {
+    /**
+     * Adds a place to the index.
+     *
+     * @param x        The x-coordinate of the place.
+     * @param y        The y-coordinate of the place.
+     * @param services The encoded services available at the place, see Service.encodeService.
+     * @throws IllegalArgumentException If the place is out of the boundary of the index.
+     */
+    void addPlace(int x, int y, int services);
+
+    /**
+     * Edits services available at a place.
+     *
+     * @param x        The x-coordinate of the place.
+     * @param y        The y-coordinate of the place.
+     * @param services The new encoded services available.
+     * @return True if the place is found and edited, false otherwise.
+     */
+    boolean editPlace(int x, int y, int services);
+
+    /**
+     * Edits services available at a place.
+     *
+     * @param x        The x-coordinate of the place.
+     * @param y        The y-coordinate of the place.
+     * @param services The new services available.
+     * @return True if the place is found and edited, false otherwise.
+     */
+    default boolean editPlace(int x, int y, String[] services) {
+        return editPlace(x, y, Service.encodeService(services));
+    }
+
+    /**
+     * Removes a place from the index.
+     *
+     * @param x The x-coordinate of the place.
+     * @param y The y-coordinate of the place.
+     * @return True if the place is found and removed, false otherwise.
+     */
+    boolean removePlace(int x, int y);
+
+    /**
+     * Searches for the places nearest to a given point offering the specified services, within the square of
+     * side 2 * walkDistance centred on the user.
+     *
+     * @param userX        The x-coordinate of the user's position.
+     * @param userY        The y-coordinate of the user's position.
+     * @param walkDistance The maximum walking distance from the user.
+     * @param serviceMask  The encoded services to search for, see Service.encodeService.
+     * @param k            The maximum number of results to return.
+     * @param context      The context receiving the results, sorted by distance from the user.
+     */
+    void searchPlace(int userX, int userY, int walkDistance, int serviceMask, int k, QueryContext context);
+
+    /**
+     * Searches for places within a certain distance from a given point with specified services.
+     *
+     * @param userX        The x-coordinate of the user's position.
+     * @param userY        The y-coordinate of the user's position.
+     * @param walkDistance The maximum walking distance from the user.
+     * @param services     The services to search for.
+     * @param k            The maximum number of results to return.
+     * @return An ArrayList of places matching the search criteria, sorted by distance from the user.
+     */
+    default ArrayList<Place> searchPlace(int userX, int userY, int walkDistance, String[] services, int k) {
+        QueryContext context = new QueryContext();
+        searchPlace(userX, userY, walkDistance, Service.encodeService(services), k, context);
+        return context.toPlaceList();
+    }
+
+    /**
+     * Searches for the places nearest to a given point offering the specified services, within a straight-line radius.
+     *
+     * @param userX       The x-coordinate of the user's position.
+     * @param userY       The y-coordinate of the user's position.
+     * @param radius      The maximum straight-line distance from the user.
+     * @param serviceMask The encoded services to search for, see Service.encodeService.
+     * @param k           The maximum number of results to return.
+     * @param context     The context receiving the results, sorted by distance from the user.
+     */
+    void searchPlaceWithinRadius(int userX, int userY, int radius, int serviceMask, int k, QueryContext context);
+
+    /**
+     * Counts the places in the index.
+     *
+     * @return The number of places.
+     */
+    int countPlaces();
+
+    /**
+     * Removes every place from the index.
+     */
+    void clear();
+
+    /**
+     * Gets the boundary of the index, which every place lies in.
+     *
+     * @return The boundary.
+     */
+    Rectangle getBoundary();
+}
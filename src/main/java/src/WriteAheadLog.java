@@ -0,0 +1,368 @@
+package src;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An append-only log of the changes made to a map since its last snapshot.
+ * All values are little-endian.
+ *
+ * <pre>
+ * Header (headerBytes(w) bytes)
+ *   int  MAGIC, int VERSION, long generation of the snapshot the changes apply to,
+ *   int  extra service words per place (w), then zero padding
+ * Records (recordBytes(w) bytes each)
+ *   int  operation (ADD, EDIT or REMOVE) in the low 8 bits, check of the record in the high 24 bits
+ *   int  x, int y, int services (0 for REMOVE), int[w] extra service words, then zero padding
+ * </pre>
+ *
+ * Records are padded to a power of two and aligned to their size, so a write torn by a crash never leaves half
+ * a record inside a disk sector; the check rejects a record whose bytes were not all written. Replay stops at
+ * the first incomplete or invalid record and cuts the log there.
+ * Logs of maps storing a single service word keep the version 1 layout: a V1_HEADER_BYTES header without the
+ * number of words, followed by RECORD_BYTES records.
+ */
+class WriteAheadLog implements AutoCloseable {
+    static final int ADD = 1;
+    static final int EDIT = 2;
+    static final int REMOVE = 3;
+    static final int HEADER_BYTES = 32; // Smallest header of the current version
+    static final int V1_HEADER_BYTES = 16;
+    static final int RECORD_BYTES = 16; // Smallest record, holding a single service word
+    private static final int MAGIC = 0x4D32_574C; // "M2WL"
+    private static final int VERSION = 2;
+    private static final int BUFFER_BYTES = 64 << 10;
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final int extraServiceWords;
+    private final int recordBytes;
+    private int headerBytes;
+    private final Durability durability;
+    private final int syncEvery;
+    private final Object syncLock = new Object(); // Held by the thread forcing the log, see awaitDurable
+    private long appended; // Sequence number of the last record appended
+    private volatile long synced; // Sequence number of the last record forced to the device
+
+    /**
+     * Constructs a WriteAheadLog, creating the file with an empty log or opening an existing one.
+     *
+     * @param path              The log file.
+     * @param generation        The generation of the snapshot the log applies to.
+     * @param extraServiceWords The number of service words per place beyond the first in the logged map.
+     * @param durability        How far each change is pushed before append returns.
+     * @param syncEvery         The number of changes between two forces, used by BATCH_SYNCED.
+     * @throws IOException If the file cannot be opened, belongs to another generation or holds other service words.
+     */
+    WriteAheadLog(Path path, long generation, int extraServiceWords, Durability durability, int syncEvery) throws IOException {
+        if (syncEvery <= 0) {
+            throw new IllegalArgumentException("syncEvery must be positive: " + syncEvery);
+        }
+        if (extraServiceWords < 0 || recordBytes(extraServiceWords) > BUFFER_BYTES) {
+            throw new IllegalArgumentException("Invalid number of service words: " + extraServiceWords);
+        }
+        this.extraServiceWords = extraServiceWords;
+        this.durability = durability;
+        this.syncEvery = syncEvery;
+        recordBytes = recordBytes(extraServiceWords);
+        buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (!readHeader(path, generation)) {
+                headerBytes = headerBytes(extraServiceWords);
+                buffer.putInt(MAGIC).putInt(extraServiceWords == 0 ? 1 : VERSION).putLong(generation);
+                if (extraServiceWords > 0) {
+                    buffer.putInt(extraServiceWords);
+                }
+                while (buffer.position() < headerBytes) {
+                    buffer.put((byte) 0);
+                }
+                buffer.flip();
+                channel.truncate(0);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer, headerBytes - buffer.remaining());
+                }
+                buffer.clear();
+                channel.force(true);
+            }
+            channel.position(headerBytes);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Calculates the size of a record, the smallest power of two holding its fields.
+     *
+     * @param extraServiceWords The number of service words per place beyond the first.
+     * @return The size in bytes.
+     */
+    static int recordBytes(int extraServiceWords) {
+        long fields = RECORD_BYTES + (long) Integer.BYTES * extraServiceWords;
+        return fields > BUFFER_BYTES ? Integer.MAX_VALUE : Math.max(RECORD_BYTES, Integer.highestOneBit((int) fields - 1) << 1);
+    }
+
+    /**
+     * Calculates the size of the header written for a map, a multiple of the record size.
+     *
+     * @param extraServiceWords The number of service words per place beyond the first.
+     * @return The size in bytes.
+     */
+    static int headerBytes(int extraServiceWords) {
+        return extraServiceWords == 0 ? V1_HEADER_BYTES : Math.max(HEADER_BYTES, recordBytes(extraServiceWords));
+    }
+
+    /**
+     * Reads the header of an existing log and sets headerBytes.
+     *
+     * @return False if the file holds no complete header, for example a new file, true otherwise.
+     * @throws IOException If the file is not a log, belongs to another generation or holds other service words.
+     */
+    private boolean readHeader(Path path, long generation) throws IOException {
+        long size = channel.size();
+        if (size < V1_HEADER_BYTES) {
+            return false;
+        }
+        buffer.limit(size < HEADER_BYTES ? V1_HEADER_BYTES : HEADER_BYTES);
+        while (buffer.hasRemaining()) {
+            channel.read(buffer, buffer.position());
+        }
+        buffer.flip();
+        int magic = buffer.getInt();
+        int version = buffer.getInt();
+        long logGeneration = buffer.getLong();
+        if (magic != MAGIC || version < 1 || version > VERSION) {
+            throw new IOException("Not a Map2D log: " + path);
+        }
+        if (version > 1 && size < HEADER_BYTES) {
+            buffer.clear();
+            return false; // The header was torn while the log was created
+        }
+        int logWords = version == 1 ? 0 : buffer.getInt();
+        buffer.clear();
+        if (logGeneration != generation) {
+            throw new IOException("Log " + path + " does not belong to snapshot generation " + generation + ".");
+        }
+        if (logWords != extraServiceWords) {
+            throw new IOException("Log " + path + " holds " + (1 + logWords) + " service words per place, expected "
+                    + (1 + extraServiceWords) + ".");
+        }
+        headerBytes = headerBytes(extraServiceWords);
+        return size >= headerBytes;
+    }
+
+    /**
+     * Calculates the check stored with a record, a 24-bit hash of its fields.
+     *
+     * @param words The whole mask of the services, or null if its words beyond the first are all 0.
+     */
+    private int check(int operation, int x, int y, int services, int[] words) {
+        long hash = operation * 0x9E37_79B9_7F4A_7C15L;
+        hash = (hash ^ x) * 0xBF58_476D_1CE4_E5B9L;
+        hash = (hash ^ y) * 0x94D0_49BB_1331_11EBL;
+        hash = (hash ^ services) * 0x9E37_79B9_7F4A_7C15L;
+        for (int w = 1; w <= extraServiceWords; w++) {
+            hash = (hash ^ (words == null ? 0 : words[w])) * 0xBF58_476D_1CE4_E5B9L;
+        }
+        return (int) (hash >>> 40);
+    }
+
+    /**
+     * Applies every valid record to a map, then cuts the log after the last one so new records follow it.
+     * Must be called once, before the first append.
+     *
+     * @param map2D The map restored from the snapshot the log applies to.
+     * @return The number of changes replayed.
+     * @throws IOException If the log cannot be read or a record cannot be applied.
+     */
+    long replay(Map2D map2D) throws IOException {
+        long position = headerBytes;
+        long replayed = 0;
+        int[] words = extraServiceWords > 0 ? new int[1 + extraServiceWords] : null;
+        buffer.clear();
+        boolean valid = true;
+        while (valid) {
+            int read = channel.read(buffer, position + buffer.position());
+            buffer.flip();
+            if (buffer.remaining() < recordBytes) {
+                break;
+            }
+            while (buffer.remaining() >= recordBytes) {
+                int start = buffer.position();
+                int word = buffer.getInt();
+                int x = buffer.getInt();
+                int y = buffer.getInt();
+                int services = buffer.getInt();
+                if (words != null) {
+                    words[0] = services;
+                    for (int w = 1; w <= extraServiceWords; w++) {
+                        words[w] = buffer.getInt();
+                    }
+                }
+                buffer.position(start + recordBytes);
+                int operation = word & 0xFF;
+                if (word >>> 8 != check(operation, x, y, services, words) || !apply(map2D, operation, x, y, services, words)) {
+                    valid = false;
+                    break;
+                }
+                position += recordBytes;
+                replayed++;
+            }
+            buffer.compact();
+            if (read < 0) {
+                break;
+            }
+        }
+        buffer.clear();
+        if (channel.size() > position) {
+            channel.truncate(position);
+            channel.force(true);
+        }
+        channel.position(position);
+        appended = replayed;
+        synced = replayed;
+        return replayed;
+    }
+
+    /**
+     * Applies one logged change to a map.
+     *
+     * @param words The whole mask of the services, or null if the map stores a single service word.
+     * @return False if the operation is unknown or the change does not fit the map, true otherwise.
+     */
+    private static boolean apply(Map2D map2D, int operation, int x, int y, int services, int[] words) {
+        if (!map2D.getBoundary().contains(x, y)) {
+            return false;
+        }
+        switch (operation) {
+            case ADD -> {
+                if (words == null) {
+                    map2D.addPlace(x, y, services);
+                } else {
+                    map2D.addPlace(x, y, words);
+                }
+            }
+            case EDIT -> {
+                if (words == null) {
+                    map2D.editPlace(x, y, services);
+                } else {
+                    map2D.editPlace(x, y, words);
+                }
+            }
+            case REMOVE -> map2D.removePlace(x, y);
+            default -> {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Appends a change to the log and pushes it as far as the durability level requires, except for SYNCED,
+     * where the caller forces it with awaitDurable once it no longer holds the map's lock.
+     *
+     * @param operation The operation, ADD, EDIT or REMOVE.
+     * @param x         The x-coordinate of the place.
+     * @param y         The y-coordinate of the place.
+     * @param services  The first service word of the place after the change.
+     * @param words     The whole mask of the place after the change, or null if its other words are all 0.
+     * @return The sequence number of the record.
+     * @throws IOException If the log cannot be written.
+     */
+    synchronized long append(int operation, int x, int y, int services, int[] words) throws IOException {
+        if (buffer.remaining() < recordBytes) {
+            writeBuffer();
+        }
+        int end = buffer.position() + recordBytes;
+        buffer.putInt(operation | check(operation, x, y, services, words) << 8).putInt(x).putInt(y).putInt(services);
+        for (int w = 1; w <= extraServiceWords; w++) {
+            buffer.putInt(words == null ? 0 : words[w]);
+        }
+        while (buffer.position() < end) {
+            buffer.put((byte) 0);
+        }
+        appended++;
+        if (durability == Durability.WRITTEN || durability == Durability.BATCH_SYNCED) {
+            writeBuffer();
+        }
+        if (durability == Durability.BATCH_SYNCED && appended - synced >= syncEvery) {
+            channel.force(false);
+            synced = appended;
+        }
+        return appended;
+    }
+
+    /**
+     * Writes the buffered records to the operating system.
+     */
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Waits until the record with the given sequence number is on the device. The first waiter writes and
+     * forces every record appended so far; the waiters that queued behind it find their records already
+     * covered and return without forcing again.
+     *
+     * @param sequence The sequence number returned by append.
+     * @throws IOException If the log cannot be forced.
+     */
+    void awaitDurable(long sequence) throws IOException {
+        if (synced >= sequence) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (synced >= sequence) {
+                return;
+            }
+            long target;
+            synchronized (this) {
+                writeBuffer();
+                target = appended;
+            }
+            channel.force(false);
+            synced = target;
+        }
+    }
+
+    /**
+     * Writes and forces every record appended so far.
+     *
+     * @throws IOException If the log cannot be written.
+     */
+    void sync() throws IOException {
+        long target;
+        synchronized (this) {
+            target = appended;
+        }
+        awaitDurable(target);
+    }
+
+    /**
+     * Gets the size of the log file, including records still in the buffer.
+     *
+     * @return The size in bytes.
+     */
+    synchronized long getBytes() {
+        return headerBytes + appended * recordBytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (syncLock) {
+            try {
+                sync();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,240 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import src.*;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+public class ConcurrentMap2DTest {
+    private static final int NUM_PLACES = 1_000_000;
+    private static final int MAX_COORDINATE = 10_000_000;
+    private static final int WALK_DISTANCE = 50_000;
+    private static final int WRITE_PERCENT = 5;
+    private static final long DURATION_MS = 1_000;
+    private static final Random random = new Random();
+    private static ConcurrentMap2D concurrentMap;
+    private static Map2D lockedMap;
+    private static final ReentrantReadWriteLock globalLock = new ReentrantReadWriteLock();
+
+    @BeforeAll
+    public static void setUpOnce() {
+        Rectangle boundary = new Rectangle(0, MAX_COORDINATE, MAX_COORDINATE, MAX_COORDINATE);
+        concurrentMap = new ConcurrentMap2D(boundary);
+        lockedMap = new Map2D(boundary);
+        for (int i = 0; i < NUM_PLACES; i++) {
+            int x = random.nextInt(MAX_COORDINATE);
+            int y = random.nextInt(MAX_COORDINATE);
+            int services = random.nextInt(1 << Service.NUM_SERVICES);
+            concurrentMap.addPlace(x, y, services);
+            lockedMap.addPlace(x, y, services);
+        }
+        System.out.println("| Threads | Global Lock (ops/s) | Striped Locks (ops/s) | Speedup |");
+        System.out.println("|---------|---------------------|-----------------------|---------|");
+    }
+
+    /**
+     * Runs a mixed workload on each thread for a fixed time: WRITE_PERCENT of the operations add a place or
+     * remove the place the thread added before, the rest are searches.
+     *
+     * @return The number of operations completed by all threads.
+     */
+    private static long runWorkload(int numberOfThreads, boolean striped) throws InterruptedException {
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong operations = new AtomicLong();
+        Thread[] threads = new Thread[numberOfThreads];
+        for (int t = 0; t < numberOfThreads; t++) {
+            threads[t] = new Thread(() -> {
+                ThreadLocalRandom threadRandom = ThreadLocalRandom.current();
+                QueryContext context = new QueryContext();
+                int addedX = -1;
+                int addedY = -1;
+                long count = 0;
+                while (running.get()) {
+                    if (threadRandom.nextInt(100) < WRITE_PERCENT) {
+                        if (addedX < 0) {
+                            addedX = threadRandom.nextInt(MAX_COORDINATE);
+                            addedY = threadRandom.nextInt(MAX_COORDINATE);
+                            add(striped, addedX, addedY);
+                        } else {
+                            remove(striped, addedX, addedY);
+                            addedX = -1;
+                        }
+                    } else {
+                        int serviceMask = 1 << threadRandom.nextInt(Service.NUM_SERVICES);
+                        search(striped, threadRandom.nextInt(MAX_COORDINATE), threadRandom.nextInt(MAX_COORDINATE), serviceMask, context);
+                    }
+                    count++;
+                }
+                if (addedX >= 0) {
+                    remove(striped, addedX, addedY);
+                }
+                operations.addAndGet(count);
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        Thread.sleep(DURATION_MS);
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return operations.get();
+    }
+
+    private static void add(boolean striped, int x, int y) {
+        if (striped) {
+            concurrentMap.addPlace(x, y, 1);
+            return;
+        }
+        globalLock.writeLock().lock();
+        try {
+            lockedMap.addPlace(x, y, 1);
+        } finally {
+            globalLock.writeLock().unlock();
+        }
+    }
+
+    private static void remove(boolean striped, int x, int y) {
+        if (striped) {
+            concurrentMap.removePlace(x, y);
+            return;
+        }
+        globalLock.writeLock().lock();
+        try {
+            lockedMap.removePlace(x, y);
+        } finally {
+            globalLock.writeLock().unlock();
+        }
+    }
+
+    private static void search(boolean striped, int userX, int userY, int serviceMask, QueryContext context) {
+        if (striped) {
+            concurrentMap.searchPlace(userX, userY, WALK_DISTANCE, serviceMask, 50, context);
+            return;
+        }
+        globalLock.readLock().lock();
+        try {
+            lockedMap.searchPlace(userX, userY, WALK_DISTANCE, serviceMask, 50, context);
+        } finally {
+            globalLock.readLock().unlock();
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 2, 4, 8, 16, 32})
+    void throughputWithWriteMix(int numberOfThreads) throws InterruptedException {
+        runWorkload(numberOfThreads, false); // Warm up
+        long locked = runWorkload(numberOfThreads, false);
+        runWorkload(numberOfThreads, true); // Warm up
+        long striped = runWorkload(numberOfThreads, true);
+        double lockedPerSecond = locked * 1_000.0 / DURATION_MS;
+        double stripedPerSecond = striped * 1_000.0 / DURATION_MS;
+        System.out.printf("| %-7d | %19.0f | %21.0f | %6.2fx |\n",
+                numberOfThreads, lockedPerSecond, stripedPerSecond, stripedPerSecond / lockedPerSecond);
+        Assertions.assertEquals(NUM_PLACES, concurrentMap.countPlaces(), "Every added place should have been removed again");
+    }
+
+    @Test
+    void concurrentSearchesSeeConsistentResults() throws InterruptedException {
+        int maxCoordinate = 1 << 20;
+        int numPreloaded = 360_000; // Close to a full leaf per quadrant, so the writers trigger splits
+        int numAddedPerWriter = 60_000;
+        int numberOfWriters = 2;
+        ConcurrentMap2D map2D = new ConcurrentMap2D(new Rectangle(0, maxCoordinate, maxCoordinate, maxCoordinate), 1);
+        Map2D expected = new Map2D(new Rectangle(0, maxCoordinate, maxCoordinate, maxCoordinate));
+        for (int i = 0; i < numPreloaded; i++) {
+            int x = random.nextInt(maxCoordinate);
+            int y = random.nextInt(maxCoordinate);
+            int services = 1 << random.nextInt(Service.NUM_SERVICES);
+            map2D.addPlace(x, y, services);
+            expected.addPlace(x, y, services);
+        }
+        int[][] addedXs = new int[numberOfWriters][numAddedPerWriter];
+        int[][] addedYs = new int[numberOfWriters][numAddedPerWriter];
+        for (int w = 0; w < numberOfWriters; w++) {
+            for (int i = 0; i < numAddedPerWriter; i++) {
+                addedXs[w][i] = random.nextInt(maxCoordinate);
+                addedYs[w][i] = random.nextInt(maxCoordinate);
+                expected.addPlace(addedXs[w][i], addedYs[w][i], 1);
+            }
+            for (int i = 0; i < numAddedPerWriter; i += 2) {
+                expected.removePlace(addedXs[w][i], addedYs[w][i]);
+            }
+        }
+
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicReference<String> failure = new AtomicReference<>();
+        Thread[] writers = new Thread[numberOfWriters];
+        for (int w = 0; w < numberOfWriters; w++) {
+            int writer = w;
+            writers[w] = new Thread(() -> {
+                for (int i = 0; i < numAddedPerWriter; i++) {
+                    map2D.addPlace(addedXs[writer][i], addedYs[writer][i], 1);
+                }
+                for (int i = 0; i < numAddedPerWriter; i += 2) {
+                    if (!map2D.removePlace(addedXs[writer][i], addedYs[writer][i])) {
+                        failure.compareAndSet(null, "An added place could not be removed");
+                    }
+                }
+            });
+        }
+        Thread[] readers = new Thread[4];
+        for (int r = 0; r < readers.length; r++) {
+            readers[r] = new Thread(() -> {
+                ThreadLocalRandom threadRandom = ThreadLocalRandom.current();
+                QueryContext context = new QueryContext();
+                while (writing.get()) {
+                    int userX = threadRandom.nextInt(maxCoordinate);
+                    int userY = threadRandom.nextInt(maxCoordinate);
+                    int walkDistance = threadRandom.nextInt(maxCoordinate / 8);
+                    int serviceMask = 1 << threadRandom.nextInt(Service.NUM_SERVICES);
+                    map2D.searchPlace(userX, userY, walkDistance, serviceMask, 100, context);
+                    for (int i = 0; i < context.size(); i++) {
+                        boolean inside = Math.abs(context.getX(i) - userX) <= walkDistance && Math.abs(context.getY(i) - userY) <= walkDistance;
+                        boolean sorted = i == 0 || context.getSquaredDistance(i - 1) <= context.getSquaredDistance(i);
+                        if (!inside || !sorted || !Service.contains(context.getServices(i), serviceMask)) {
+                            failure.compareAndSet(null, "Search returned a place outside the area, out of order or without the service");
+                        }
+                    }
+                }
+            });
+        }
+        for (Thread reader : readers) {
+            reader.start();
+        }
+        for (Thread writer : writers) {
+            writer.start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        writing.set(false);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        Assertions.assertNull(failure.get());
+        Assertions.assertEquals(expected.countPlaces(), map2D.countPlaces());
+
+        QueryContext actual = new QueryContext();
+        QueryContext reference = new QueryContext();
+        for (int i = 0; i < 200; i++) {
+            int userX = random.nextInt(maxCoordinate);
+            int userY = random.nextInt(maxCoordinate);
+            int walkDistance = random.nextInt(maxCoordinate / 4);
+            map2D.searchPlace(userX, userY, walkDistance, 0, 100, actual);
+            expected.searchPlace(userX, userY, walkDistance, 0, 100, reference);
+            Assertions.assertEquals(reference.size(), actual.size());
+            for (int j = 0; j < reference.size(); j++) {
+                Assertions.assertEquals(reference.getSquaredDistance(j), actual.getSquaredDistance(j));
+            }
+        }
+    }
+}
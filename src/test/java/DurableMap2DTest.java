@@ -0,0 +1,185 @@
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import src.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.Random;
+
+public class DurableMap2DTest {
+    private static final int MAX_COORDINATE = 10_000_000;
+    private static final Rectangle BOUNDARY = new Rectangle(0, MAX_COORDINATE, MAX_COORDINATE, MAX_COORDINATE);
+    private static final Random random = new Random();
+    private static Path directory;
+
+    @BeforeAll
+    public static void setUpOnce() throws IOException {
+        directory = Files.createTempDirectory("map2d-durable");
+    }
+
+    @AfterAll
+    public static void tearDownOnce() throws IOException {
+        try (var files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    /**
+     * Makes random changes to both maps: mostly additions, with edits and removals of places added earlier.
+     */
+    private static void makeChanges(DurableMap2D durable, Map2D expected, int[] xs, int[] ys, int from, int to) throws IOException {
+        for (int i = from; i < to; i++) {
+            xs[i] = random.nextInt(MAX_COORDINATE);
+            ys[i] = random.nextInt(MAX_COORDINATE);
+            int services = random.nextInt(1 << Service.NUM_SERVICES);
+            durable.addPlace(xs[i], ys[i], services);
+            expected.addPlace(xs[i], ys[i], services);
+            if (i > 0 && i % 5 == 0) {
+                int j = random.nextInt(i);
+                Assertions.assertEquals(expected.editPlace(xs[j], ys[j], services), durable.editPlace(xs[j], ys[j], services));
+            }
+            if (i > 0 && i % 7 == 0) {
+                int j = random.nextInt(i);
+                Assertions.assertEquals(expected.removePlace(xs[j], ys[j]), durable.removePlace(xs[j], ys[j]));
+            }
+        }
+    }
+
+    private static boolean sameSearchResults(Map2D expected, DurableMap2D actual) {
+        QueryContext expectedContext = new QueryContext();
+        QueryContext actualContext = new QueryContext();
+        for (int i = 0; i < 200; i++) {
+            int userX = random.nextInt(MAX_COORDINATE);
+            int userY = random.nextInt(MAX_COORDINATE);
+            int serviceMask = 1 << random.nextInt(Service.NUM_SERVICES);
+            expected.searchPlace(userX, userY, 500_000, serviceMask, 50, expectedContext);
+            actual.searchPlace(userX, userY, 500_000, serviceMask, 50, actualContext);
+            if (expectedContext.size() != actualContext.size()) {
+                return false;
+            }
+            for (int j = 0; j < expectedContext.size(); j++) {
+                if (expectedContext.getX(j) != actualContext.getX(j) || expectedContext.getY(j) != actualContext.getY(j)
+                        || expectedContext.getServices(j) != actualContext.getServices(j)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Test
+    void crashRecoveryRestoresEveryLoggedChange() throws IOException {
+        Path mapDirectory = directory.resolve("recovery");
+        Map2D expected = new Map2D(BOUNDARY);
+        int[] xs = new int[300_000];
+        int[] ys = new int[300_000];
+
+        // Never closed: the process is assumed to die after the last change returns
+        DurableMap2D crashed = new DurableMap2D(mapDirectory, BOUNDARY, Durability.WRITTEN);
+        makeChanges(crashed, expected, xs, ys, 0, 100_000);
+        DurableMap2D recovered = new DurableMap2D(mapDirectory, BOUNDARY, Durability.WRITTEN);
+        Assertions.assertEquals(expected.countPlaces(), recovered.countPlaces());
+        Assertions.assertTrue(sameSearchResults(expected, recovered), "Replaying the log should restore the map");
+
+        makeChanges(recovered, expected, xs, ys, 100_000, 200_000);
+        recovered.checkpoint();
+        Assertions.assertEquals(16, recovered.getLogBytes(), "A checkpoint should leave an empty log");
+        makeChanges(recovered, expected, xs, ys, 200_000, 300_000);
+        DurableMap2D restarted = new DurableMap2D(mapDirectory, BOUNDARY, Durability.WRITTEN);
+        Assertions.assertTrue(restarted.getReplayedChanges() < 200_000, "Only changes after the checkpoint should be replayed");
+        Assertions.assertEquals(expected.countPlaces(), restarted.countPlaces());
+        Assertions.assertTrue(sameSearchResults(expected, restarted), "Snapshot and log should restore the map");
+        restarted.close();
+    }
+
+    @Test
+    void incrementalCheckpointsAreMergedInTheBackground() throws IOException {
+        Path mapDirectory = directory.resolve("incremental");
+        Map2D expected = new Map2D(BOUNDARY);
+        int[] xs = new int[400_000];
+        int[] ys = new int[400_000];
+        DurableMap2D durable = new DurableMap2D(mapDirectory, BOUNDARY, Durability.BUFFERED);
+        makeChanges(durable, expected, xs, ys, 0, 300_000);
+        durable.checkpoint();
+        for (int round = 0; round < 10; round++) {
+            makeChanges(durable, expected, xs, ys, 300_000 + round * 5_000, 300_000 + (round + 1) * 5_000);
+            durable.checkpoint();
+        }
+        durable.awaitMerge();
+        Assertions.assertTrue(durable.getSegmentCount() < 8, "Segments should have been merged into a new base");
+        makeChanges(durable, expected, xs, ys, 350_000, 400_000);
+        durable.sync();
+
+        DurableMap2D restarted = new DurableMap2D(mapDirectory, BOUNDARY, Durability.BUFFERED);
+        Assertions.assertTrue(restarted.getReplayedChanges() < 100_000, "Only changes after the last checkpoint should be replayed");
+        Assertions.assertEquals(expected.countPlaces(), restarted.countPlaces());
+        Assertions.assertTrue(sameSearchResults(expected, restarted), "Base, segments and log should restore the map");
+        restarted.close();
+    }
+
+    @Test
+    void tornTailIsDiscarded() throws IOException {
+        Path mapDirectory = directory.resolve("torn");
+        try (DurableMap2D map2D = new DurableMap2D(mapDirectory, BOUNDARY, Durability.BUFFERED)) {
+            for (int i = 0; i < 1_000; i++) {
+                map2D.addPlace(random.nextInt(MAX_COORDINATE), random.nextInt(MAX_COORDINATE), 1);
+            }
+        }
+        byte[] garbage = new byte[16 + 7];
+        random.nextBytes(garbage);
+        Files.write(mapDirectory.resolve("log-0.bin"), garbage, StandardOpenOption.APPEND);
+        try (DurableMap2D map2D = new DurableMap2D(mapDirectory, BOUNDARY, Durability.BUFFERED)) {
+            Assertions.assertEquals(1_000, map2D.getReplayedChanges());
+            map2D.addPlace(1, 1, 1);
+        }
+        try (DurableMap2D map2D = new DurableMap2D(mapDirectory, BOUNDARY, Durability.BUFFERED)) {
+            Assertions.assertEquals(1_001, map2D.countPlaces(), "Changes after a cut tail should be replayed");
+        }
+    }
+
+    @Test
+    void mutationThroughputPerDurability() throws Exception {
+        System.out.println("| Durability          | Threads | Changes   | Runtime (ms) | Changes/s    |");
+        System.out.println("|---------------------|---------|-----------|--------------|--------------|");
+        measureThroughput(Durability.BUFFERED, 1, 1, 500_000);
+        measureThroughput(Durability.WRITTEN, 1, 1, 500_000);
+        measureThroughput(Durability.BATCH_SYNCED, 64, 1, 100_000);
+        measureThroughput(Durability.SYNCED, 1, 1, 2_000);
+        measureThroughput(Durability.SYNCED, 1, 8, 2_000);
+    }
+
+    private static void measureThroughput(Durability durability, int syncEvery, int threads, int changes) throws Exception {
+        Path mapDirectory = directory.resolve(durability + "-" + threads);
+        DurableMap2D map2D = new DurableMap2D(mapDirectory, BOUNDARY, durability, syncEvery);
+        Thread[] writers = new Thread[threads];
+        long startTime = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            writers[t] = new Thread(() -> {
+                Random threadRandom = new Random();
+                try {
+                    for (int i = 0; i < changes / threads; i++) {
+                        map2D.addPlace(threadRandom.nextInt(MAX_COORDINATE), threadRandom.nextInt(MAX_COORDINATE), 1);
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            writers[t].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        map2D.close();
+        double millis = (System.nanoTime() - startTime) / 1_000_000.0;
+        String label = durability == Durability.BATCH_SYNCED ? durability + " (" + syncEvery + ")" : durability.toString();
+        System.out.printf("| %-19s | %-7d | %-9d | %12.1f | %12.0f |\n", label, threads, changes, millis, changes * 1_000 / millis);
+        Assertions.assertEquals(changes, map2D.countPlaces());
+    }
+}
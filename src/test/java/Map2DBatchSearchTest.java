@@ -0,0 +1,78 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import src.*;
+
+import java.util.Random;
+
+public class Map2DBatchSearchTest {
+    private static final int NUM_PLACES = 5_000_000;
+    private static final int MAX_COORDINATE = 10_000_000;
+    private static final int ITERATIONS = 3;
+    private static final Random random = new Random();
+    private static Map2D map2D;
+
+    @BeforeAll
+    public static void setUpOnce() {
+        int[] xs = new int[NUM_PLACES];
+        int[] ys = new int[NUM_PLACES];
+        int[] services = new int[NUM_PLACES];
+        for (int i = 0; i < NUM_PLACES; i++) {
+            xs[i] = random.nextInt(MAX_COORDINATE);
+            ys[i] = random.nextInt(MAX_COORDINATE);
+            services[i] = 1 << random.nextInt(Service.NUM_SERVICES);
+        }
+        map2D = new Map2D(new Rectangle(0, MAX_COORDINATE, MAX_COORDINATE, MAX_COORDINATE));
+        map2D.bulkLoad(xs, ys, services);
+        System.out.println("| Queries | Walk Distance | Pass/Fail | Loop (us/query) | Batch (us/query) | Speedup |");
+        System.out.println("|---------|---------------|-----------|-----------------|------------------|---------|");
+    }
+
+    @ParameterizedTest
+    @CsvSource({"1000, 10000", "1000, 50000", "10000, 50000", "10000, 500000"})
+    void batchMatchesLoopOverSearchPlace(int numberOfQueries, int walkDistance) {
+        int[] userXs = new int[numberOfQueries];
+        int[] userYs = new int[numberOfQueries];
+        int[] walkDistances = new int[numberOfQueries];
+        int[] serviceMasks = new int[numberOfQueries];
+        int[] ks = new int[numberOfQueries];
+        QueryContext[] loopContexts = new QueryContext[numberOfQueries];
+        QueryContext[] batchContexts = new QueryContext[numberOfQueries];
+        for (int i = 0; i < numberOfQueries; i++) {
+            userXs[i] = random.nextInt(MAX_COORDINATE);
+            userYs[i] = random.nextInt(MAX_COORDINATE);
+            walkDistances[i] = walkDistance;
+            serviceMasks[i] = Service.encodeService(new String[]{"Restaurant"});
+            ks[i] = 50;
+            loopContexts[i] = new QueryContext();
+            batchContexts[i] = new QueryContext();
+        }
+
+        long loopTotal = 0;
+        long batchTotal = 0;
+        for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+            long startTime = System.nanoTime();
+            for (int i = 0; i < numberOfQueries; i++) {
+                map2D.searchPlace(userXs[i], userYs[i], walkDistances[i], serviceMasks[i], ks[i], loopContexts[i]);
+            }
+            loopTotal += System.nanoTime() - startTime;
+            startTime = System.nanoTime();
+            map2D.searchPlaceBatch(userXs, userYs, walkDistances, serviceMasks, ks, batchContexts);
+            batchTotal += System.nanoTime() - startTime;
+        }
+
+        boolean passed = true;
+        for (int i = 0; passed && i < numberOfQueries; i++) {
+            passed = loopContexts[i].size() == batchContexts[i].size();
+            for (int j = 0; passed && j < loopContexts[i].size(); j++) {
+                passed = loopContexts[i].getX(j) == batchContexts[i].getX(j) && loopContexts[i].getY(j) == batchContexts[i].getY(j);
+            }
+        }
+        double loopMicros = loopTotal / 1_000.0 / ITERATIONS / numberOfQueries;
+        double batchMicros = batchTotal / 1_000.0 / ITERATIONS / numberOfQueries;
+        System.out.printf("| %-7d | %-13d | %-9s | %15.2f | %16.2f | %6.2fx |\n",
+                numberOfQueries, walkDistance, passed ? "Passed" : "Failed", loopMicros, batchMicros, loopMicros / batchMicros);
+        Assertions.assertTrue(passed, "Each batched query should return the same places as searchPlace");
+    }
+}
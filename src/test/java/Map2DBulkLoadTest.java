@@ -0,0 +1,87 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import src.*;
+
+import java.util.Random;
+
+public class Map2DBulkLoadTest {
+    private static final int MAX_COORDINATE = 10_000_000;
+    private static final Random random = new Random();
+
+    @BeforeAll
+    public static void setUpOnce() {
+        System.out.println("| Num of Places   | Pass/Fail | addPlace loop (ms) | bulkLoad (ms) | Speedup |");
+        System.out.println("|-----------------|-----------|--------------------|---------------|---------|");
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {10, 100, 1_000, 10_000, 100_000, 1_000_000, 10_000_000})
+    void bulkLoadVariousNumberOfPlaces(int numberOfPlaces) {
+        int[] xs = new int[numberOfPlaces];
+        int[] ys = new int[numberOfPlaces];
+        int[] services = new int[numberOfPlaces];
+        for (int i = 0; i < numberOfPlaces; i++) {
+            xs[i] = random.nextInt(MAX_COORDINATE);
+            ys[i] = random.nextInt(MAX_COORDINATE);
+            services[i] = 1 << random.nextInt(Service.NUM_SERVICES);
+        }
+
+        // Per-point insertion, as done by Main and Map2DInsertTest
+        Map2D loopMap = new Map2D(new Rectangle(0, MAX_COORDINATE, MAX_COORDINATE, MAX_COORDINATE));
+        long loopStart = System.nanoTime();
+        for (int i = 0; i < numberOfPlaces; i++) {
+            loopMap.addPlace(xs[i], ys[i], services[i]);
+        }
+        double loopDuration = (System.nanoTime() - loopStart) / 1_000_000.0;
+
+        // Single-pass bulk load of the same batch
+        Map2D bulkMap = new Map2D(new Rectangle(0, MAX_COORDINATE, MAX_COORDINATE, MAX_COORDINATE));
+        long bulkStart = System.nanoTime();
+        bulkMap.bulkLoad(xs, ys, services);
+        double bulkDuration = (System.nanoTime() - bulkStart) / 1_000_000.0;
+
+        int userX = xs[0];
+        int userY = ys[0];
+        String[] searchServices = {"Restaurant"};
+        ArrayList<Place> expected = loopMap.searchPlace(userX, userY, 100_000, searchServices, 50);
+        ArrayList<Place> actual = bulkMap.searchPlace(userX, userY, 100_000, searchServices, 50);
+        boolean passed = bulkMap.countPlaces() == numberOfPlaces && expected.size() == actual.size();
+        for (int i = 0; passed && i < expected.size(); i++) {
+            passed = expected.get(i).distanceTo(userX, userY) == actual.get(i).distanceTo(userX, userY);
+        }
+
+        System.out.printf("| %-15d | %-9s | %18.3f | %13.3f | %6.2fx |\n",
+                numberOfPlaces, passed ? "Passed" : "Failed", loopDuration, bulkDuration, loopDuration / bulkDuration);
+        Assertions.assertTrue(passed, "Bulk loaded map should hold the same places as the addPlace loop");
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1_000, 100_000, 1_000_000})
+    void streamingBulkLoadInChunks(int chunkSize) {
+        int numberOfPlaces = 2_000_000;
+        Map2D map2D = new Map2D(new Rectangle(0, MAX_COORDINATE, MAX_COORDINATE, MAX_COORDINATE));
+        int[] xs = new int[chunkSize];
+        int[] ys = new int[chunkSize];
+        int[] services = new int[chunkSize];
+
+        long startTime = System.nanoTime();
+        int loaded = 0;
+        while (loaded < numberOfPlaces) {
+            int length = Math.min(chunkSize, numberOfPlaces - loaded);
+            for (int i = 0; i < length; i++) {
+                xs[i] = random.nextInt(MAX_COORDINATE);
+                ys[i] = random.nextInt(MAX_COORDINATE);
+                services[i] = 1 << random.nextInt(Service.NUM_SERVICES);
+            }
+            map2D.bulkLoad(xs, ys, services, length);
+            loaded += length;
+        }
+        double duration = (System.nanoTime() - startTime) / 1_000_000.0;
+
+        System.out.printf("Streaming bulk load of %d places in chunks of %d completed in %.3f ms\n",
+                numberOfPlaces, chunkSize, duration);
+        Assertions.assertEquals(numberOfPlaces, map2D.countPlaces(), "Every chunk should be loaded");
+    }
+}
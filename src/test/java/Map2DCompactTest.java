@@ -0,0 +1,85 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import src.*;
+
+import java.util.Random;
+
+public class Map2DCompactTest {
+    private static final int NUM_PLACES = 5_000_000;
+    private static final int MAX_COORDINATE = 10_000_000;
+    private static final int NUM_SEARCHES = 1_000;
+    private static final Random random = new Random();
+    private static int[] xs;
+    private static int[] ys;
+    private static int[] services;
+
+    @BeforeAll
+    public static void setUpOnce() {
+        xs = new int[NUM_PLACES];
+        ys = new int[NUM_PLACES];
+        services = new int[NUM_PLACES];
+        for (int i = 0; i < NUM_PLACES; i++) {
+            xs[i] = random.nextInt(MAX_COORDINATE);
+            ys[i] = random.nextInt(MAX_COORDINATE);
+            services[i] = 1 << random.nextInt(Service.NUM_SERVICES);
+        }
+        System.out.println("| Deleted (%) | Pass/Fail | Nodes (full) | Nodes (after deletes) | Nodes (compacted) | Search (us) | Search compacted (us) |");
+        System.out.println("|-------------|-----------|--------------|-----------------------|-------------------|-------------|-----------------------|");
+    }
+
+    private static double searchMicros(Map2D map2D, int[] userXs, int[] userYs, QueryContext context) {
+        int serviceMask = Service.encodeService(new String[]{"Hospital"});
+        long startTime = System.nanoTime();
+        for (int i = 0; i < userXs.length; i++) {
+            map2D.searchPlace(userXs[i], userYs[i], 2_000_000, serviceMask, 50, context);
+        }
+        return (System.nanoTime() - startTime) / 1_000.0 / userXs.length;
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {50, 90, 99})
+    void mergeAndCompactAfterBatchDelete(int deletedPercent) {
+        Map2D map2D = new Map2D(new Rectangle(0, MAX_COORDINATE, MAX_COORDINATE, MAX_COORDINATE));
+        map2D.bulkLoad(xs.clone(), ys.clone(), services.clone());
+        int nodesFull = map2D.countNodes();
+
+        int numberOfDeletes = (int) ((long) NUM_PLACES * deletedPercent / 100);
+        for (int i = 0; i < numberOfDeletes; i++) {
+            map2D.removePlace(xs[i], ys[i]);
+        }
+        int nodesAfterDeletes = map2D.countNodes();
+
+        QueryContext context = new QueryContext();
+        int[] userXs = new int[NUM_SEARCHES];
+        int[] userYs = new int[NUM_SEARCHES];
+        for (int i = 0; i < NUM_SEARCHES; i++) {
+            userXs[i] = random.nextInt(MAX_COORDINATE);
+            userYs[i] = random.nextInt(MAX_COORDINATE);
+        }
+        searchMicros(map2D, userXs, userYs, context);
+        double before = searchMicros(map2D, userXs, userYs, context);
+        long[] expected = new long[NUM_SEARCHES];
+        int serviceMask = Service.encodeService(new String[]{"Hospital"});
+        for (int i = 0; i < NUM_SEARCHES; i++) {
+            map2D.searchPlace(userXs[i], userYs[i], 2_000_000, serviceMask, 50, context);
+            expected[i] = context.isEmpty() ? -1 : context.getSquaredDistance(context.size() - 1);
+        }
+
+        int removedNodes = map2D.compact();
+        int nodesCompacted = map2D.countNodes();
+        searchMicros(map2D, userXs, userYs, context);
+        double after = searchMicros(map2D, userXs, userYs, context);
+
+        boolean passed = map2D.countPlaces() == NUM_PLACES - numberOfDeletes && nodesCompacted == nodesAfterDeletes - removedNodes;
+        for (int i = 0; passed && i < NUM_SEARCHES; i++) {
+            map2D.searchPlace(userXs[i], userYs[i], 2_000_000, serviceMask, 50, context);
+            passed = expected[i] == (context.isEmpty() ? -1 : context.getSquaredDistance(context.size() - 1));
+        }
+        System.out.printf("| %-11d | %-9s | %12d | %21d | %17d | %11.2f | %21.2f |\n",
+                deletedPercent, passed ? "Passed" : "Failed", nodesFull, nodesAfterDeletes, nodesCompacted, before, after);
+        Assertions.assertTrue(passed, "Merging subtrees should keep every remaining place and search result");
+        Assertions.assertTrue(nodesAfterDeletes <= nodesFull, "Deletions should never grow the tree");
+    }
+}
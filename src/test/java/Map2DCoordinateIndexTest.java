@@ -0,0 +1,120 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import src.*;
+
+import java.util.Random;
+
+public class Map2DCoordinateIndexTest {
+    private static final int NUM_PLACES = 10_000_000;
+    private static final int MAX_COORDINATE = 10_000_000;
+    private static final int NUM_OPERATIONS = 100_000;
+    private static final Random random = new Random();
+    private static int[] xs;
+    private static int[] ys;
+    private static int[] services;
+
+    @BeforeAll
+    public static void setUpOnce() {
+        xs = new int[NUM_PLACES];
+        ys = new int[NUM_PLACES];
+        services = new int[NUM_PLACES];
+        for (int i = 0; i < NUM_PLACES; i++) {
+            xs[i] = random.nextInt(MAX_COORDINATE);
+            ys[i] = random.nextInt(MAX_COORDINATE);
+            services[i] = 1 << random.nextInt(Service.NUM_SERVICES);
+        }
+        System.out.println("| Mode     | Remove Mode | Pass/Fail | Edit (us/op) | Remove (us/op) | Index (B/place) |");
+        System.out.println("|----------|-------------|-----------|--------------|----------------|-----------------|");
+    }
+
+    private static Map2D populate(boolean stableRemoval, boolean indexed) {
+        Map2D map2D = new Map2D(new Rectangle(0, MAX_COORDINATE, MAX_COORDINATE, MAX_COORDINATE), stableRemoval);
+        if (indexed) {
+            map2D.enableCoordinateIndex();
+        }
+        map2D.bulkLoad(xs.clone(), ys.clone(), services.clone());
+        return map2D;
+    }
+
+    private static void editAndRemove(boolean stableRemoval, boolean indexed) {
+        Map2D map2D = populate(stableRemoval, indexed);
+        double indexBytesPerPlace = (double) map2D.getCoordinateIndexMemory() / NUM_PLACES;
+
+        long startTime = System.nanoTime();
+        int edited = 0;
+        for (int i = 0; i < NUM_OPERATIONS; i++) {
+            if (map2D.editPlace(xs[i], ys[i], services[i] | 1)) {
+                edited++;
+            }
+        }
+        double editMicros = (System.nanoTime() - startTime) / 1_000.0 / NUM_OPERATIONS;
+
+        startTime = System.nanoTime();
+        int removed = 0;
+        for (int i = 0; i < NUM_OPERATIONS; i++) {
+            if (map2D.removePlace(xs[i], ys[i])) {
+                removed++;
+            }
+        }
+        double removeMicros = (System.nanoTime() - startTime) / 1_000.0 / NUM_OPERATIONS;
+
+        boolean passed = edited == NUM_OPERATIONS && removed == NUM_OPERATIONS
+                && map2D.countPlaces() == NUM_PLACES - NUM_OPERATIONS;
+        System.out.printf("| %-8s | %-11s | %-9s | %12.3f | %14.3f | %15.2f |\n",
+                indexed ? "Indexed" : "Scan", stableRemoval ? "Stable" : "Swap", passed ? "Passed" : "Failed",
+                editMicros, removeMicros, indexBytesPerPlace);
+        Assertions.assertTrue(passed, "Every edited and removed place should be found exactly once");
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void swapRemoveWithAndWithoutIndex(boolean indexed) {
+        editAndRemove(false, indexed);
+    }
+
+    @Test
+    void stableRemoveRejectsIndex() {
+        editAndRemove(true, false);
+        Map2D map2D = new Map2D(new Rectangle(0, MAX_COORDINATE, MAX_COORDINATE, MAX_COORDINATE), true);
+        Assertions.assertThrows(IllegalStateException.class, map2D::enableCoordinateIndex,
+                "Stable removal would rewrite the entries of every shifted place");
+    }
+
+    @Test
+    void indexedMapMatchesScannedMap() {
+        int maxCoordinate = 1 << 12; // Small range so places share coordinates and leaves split
+        Map2D scanned = new Map2D(new Rectangle(0, maxCoordinate, maxCoordinate, maxCoordinate));
+        Map2D indexed = new Map2D(new Rectangle(0, maxCoordinate, maxCoordinate, maxCoordinate));
+        indexed.enableCoordinateIndex();
+        for (int i = 0; i < 300_000; i++) {
+            int x = random.nextInt(maxCoordinate);
+            int y = random.nextInt(maxCoordinate);
+            int placeServices = 1 << random.nextInt(Service.NUM_SERVICES);
+            switch (random.nextInt(4)) {
+                case 0:
+                    Assertions.assertEquals(scanned.removePlace(x, y), indexed.removePlace(x, y));
+                    break;
+                case 1:
+                    Assertions.assertEquals(scanned.editPlace(x, y, placeServices), indexed.editPlace(x, y, placeServices));
+                    break;
+                default:
+                    scanned.addPlace(x, y, placeServices);
+                    indexed.addPlace(x, y, placeServices);
+            }
+        }
+        Assertions.assertEquals(scanned.countPlaces(), indexed.countPlaces());
+        for (int i = 0; i < 100; i++) {
+            int userX = random.nextInt(maxCoordinate);
+            int userY = random.nextInt(maxCoordinate);
+            ArrayList<Place> expected = scanned.searchPlace(userX, userY, 500, new String[]{"Hospital"}, 50);
+            ArrayList<Place> actual = indexed.searchPlace(userX, userY, 500, new String[]{"Hospital"}, 50);
+            Assertions.assertEquals(expected.size(), actual.size());
+            for (int j = 0; j < expected.size(); j++) {
+                Assertions.assertEquals(expected.get(j).distanceTo(userX, userY), actual.get(j).distanceTo(userX, userY));
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import src.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class Map2DNearestSearchTest {
+    private static final int NUM_PLACES = 1_000_000;
+    private static final int MAX_COORDINATE = 10_000_000;
+    private static final Random random = new Random();
+    private static Map2D map2D;
+    private static int[] xs;
+    private static int[] ys;
+    private static int[] services;
+
+    @BeforeAll
+    public static void setUpOnce() {
+        map2D = new Map2D(new Rectangle(0, MAX_COORDINATE, MAX_COORDINATE, MAX_COORDINATE));
+        xs = new int[NUM_PLACES];
+        ys = new int[NUM_PLACES];
+        services = new int[NUM_PLACES];
+        for (int i = 0; i < NUM_PLACES; i++) {
+            xs[i] = random.nextInt(MAX_COORDINATE);
+            ys[i] = random.nextInt(MAX_COORDINATE);
+            services[i] = random.nextInt(1 << Service.NUM_SERVICES);
+            map2D.addPlace(xs[i], ys[i], services[i]);
+        }
+        System.out.println("| Walk Distance | k    | Matches   | Pass/Fail | Runtime (ms) |");
+        System.out.println("|---------------|------|-----------|-----------|--------------|");
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1_000, 50_000, 500_000, 5_000_000})
+    void searchMatchesFullScanAndSort(int walkDistance) {
+        int userX = random.nextInt(MAX_COORDINATE);
+        int userY = random.nextInt(MAX_COORDINATE);
+        String[] searchServices = {"Restaurant", "School"};
+        int serviceMask = Service.encodeService(searchServices);
+        int k = 50;
+
+        // Expected: every matching place in the walk-distance square, sorted by distance
+        double[] matches = new double[NUM_PLACES];
+        int numOfMatches = 0;
+        for (int i = 0; i < NUM_PLACES; i++) {
+            if (Math.abs(xs[i] - userX) <= walkDistance && Math.abs(ys[i] - userY) <= walkDistance
+                    && Service.contains(services[i], serviceMask)) {
+                matches[numOfMatches++] = Place.distanceBetween(xs[i], ys[i], userX, userY);
+            }
+        }
+        Arrays.sort(matches, 0, numOfMatches);
+
+        long startTime = System.nanoTime();
+        ArrayList<Place> results = map2D.searchPlace(userX, userY, walkDistance, searchServices, k);
+        double runTime = (System.nanoTime() - startTime) / 1_000_000.0;
+
+        boolean passed = results.size() == Math.min(k, numOfMatches);
+        for (int i = 0; passed && i < results.size(); i++) {
+            passed = results.get(i).distanceTo(userX, userY) == matches[i]
+                    && Service.contains(results.get(i).getServices(), serviceMask);
+        }
+        System.out.printf("| %-13d | %-4d | %-9d | %-9s | %12.3f |\n",
+                walkDistance, k, numOfMatches, passed ? "Passed" : "Failed", runTime);
+        Assertions.assertTrue(passed, "Best-first search should return the k nearest matching places");
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1_000, 50_000, 500_000, 2_000_000})
+    void radiusSearchMatchesFullScan(int radius) {
+        int userX = random.nextInt(MAX_COORDINATE);
+        int userY = random.nextInt(MAX_COORDINATE);
+        String[] searchServices = {"Restaurant"};
+        int serviceMask = Service.encodeService(searchServices);
+
+        // Expected: every matching place within the radius, sorted by distance
+        double[] matches = new double[NUM_PLACES];
+        int numOfMatches = 0;
+        for (int i = 0; i < NUM_PLACES; i++) {
+            long dx = xs[i] - userX;
+            long dy = ys[i] - userY;
+            if (dx * dx + dy * dy <= (long) radius * radius && Service.contains(services[i], serviceMask)) {
+                matches[numOfMatches++] = Place.distanceBetween(xs[i], ys[i], userX, userY);
+            }
+        }
+        Arrays.sort(matches, 0, numOfMatches);
+
+        ArrayList<Place> circle = map2D.searchPlaceWithinRadius(userX, userY, radius, searchServices, NUM_PLACES);
+        ArrayList<Place> square = map2D.searchPlace(userX, userY, radius, searchServices, NUM_PLACES);
+        System.out.printf("Radius %d: %d places in the circle, %d in the square\n", radius, circle.size(), square.size());
+
+        Assertions.assertEquals(numOfMatches, circle.size(), "Radius search should return every place within the radius");
+        for (int i = 0; i < circle.size(); i++) {
+            Assertions.assertEquals(matches[i], circle.get(i).distanceTo(userX, userY), "Results should be sorted by distance");
+        }
+    }
+
+    @Test
+    void rareServiceSearchAfterRemovalsAndEdits() {
+        Map2D rareMap = new Map2D(new Rectangle(0, MAX_COORDINATE, MAX_COORDINATE, MAX_COORDINATE));
+        int numberOfPlaces = 400_000;
+        int hospital = 1 << Service.HOSPITAL;
+        int pharmacy = 1 << Service.PHARMACY;
+        int[] rareXs = new int[numberOfPlaces];
+        int[] rareYs = new int[numberOfPlaces];
+        int[] rareServices = new int[numberOfPlaces];
+        for (int i = 0; i < numberOfPlaces; i++) {
+            rareXs[i] = random.nextInt(MAX_COORDINATE);
+            rareYs[i] = random.nextInt(MAX_COORDINATE);
+            // Only 1 in 1000 places offers a hospital and a pharmacy
+            rareServices[i] = random.nextInt(1000) == 0 ? hospital | pharmacy : 1 << Service.RESTAURANT;
+            rareMap.addPlace(rareXs[i], rareYs[i], rareServices[i]);
+        }
+        // Remove half of the rare places and turn some common places into hospitals without a pharmacy
+        for (int i = 0; i < numberOfPlaces; i++) {
+            if (rareServices[i] != (1 << Service.RESTAURANT) && i % 2 == 0) {
+                Assertions.assertTrue(rareMap.removePlace(rareXs[i], rareYs[i]), "Rare place should be removed");
+                rareServices[i] = -1;
+            } else if (i % 997 == 0) {
+                Assertions.assertTrue(rareMap.editPlace(rareXs[i], rareYs[i], new String[]{"Hospital"}), "Place should be edited");
+                rareServices[i] = hospital;
+            }
+        }
+
+        String[] searchServices = {"Hospital", "Pharmacy"};
+        int userX = MAX_COORDINATE / 2;
+        int userY = MAX_COORDINATE / 2;
+        int walkDistance = MAX_COORDINATE / 2;
+        double[] matches = new double[numberOfPlaces];
+        int numOfMatches = 0;
+        for (int i = 0; i < numberOfPlaces; i++) {
+            if (rareServices[i] != -1 && Service.contains(rareServices[i], hospital | pharmacy)) {
+                matches[numOfMatches++] = Place.distanceBetween(rareXs[i], rareYs[i], userX, userY);
+            }
+        }
+        Arrays.sort(matches, 0, numOfMatches);
+
+        ArrayList<Place> results = rareMap.searchPlace(userX, userY, walkDistance, searchServices, numberOfPlaces);
+        Assertions.assertEquals(numOfMatches, results.size(), "Every remaining rare place should be found");
+        for (int i = 0; i < results.size(); i++) {
+            Assertions.assertEquals(matches[i], results.get(i).distanceTo(userX, userY), "Results should be sorted by distance");
+        }
+    }
+}
@@ -0,0 +1,89 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import src.*;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+public class Map2DParallelBulkLoadTest {
+    private static final int NUM_PLACES = 10_000_000;
+    private static final int MAX_COORDINATE = 10_000_000;
+    private static final Random random = new Random();
+    private static int[] sourceXs;
+    private static int[] sourceYs;
+    private static int[] sourceServices;
+    private static double sequentialDuration;
+
+    @BeforeAll
+    public static void setUpOnce() {
+        sourceXs = new int[NUM_PLACES];
+        sourceYs = new int[NUM_PLACES];
+        sourceServices = new int[NUM_PLACES];
+        for (int i = 0; i < NUM_PLACES; i++) {
+            sourceXs[i] = random.nextInt(MAX_COORDINATE);
+            sourceYs[i] = random.nextInt(MAX_COORDINATE);
+            sourceServices[i] = 1 << random.nextInt(Service.NUM_SERVICES);
+        }
+        Map2D map2D = new Map2D(new Rectangle(0, MAX_COORDINATE, MAX_COORDINATE, MAX_COORDINATE));
+        int[] xs = sourceXs.clone();
+        int[] ys = sourceYs.clone();
+        int[] services = sourceServices.clone();
+        long startTime = System.nanoTime();
+        map2D.bulkLoad(xs, ys, services);
+        sequentialDuration = (System.nanoTime() - startTime) / 1_000_000.0;
+
+        System.out.println("Sequential bulkLoad of " + NUM_PLACES + " places: " + sequentialDuration + " ms");
+        System.out.println("| Threads | Pass/Fail | Runtime (ms) | Speedup |");
+        System.out.println("|---------|-----------|--------------|---------|");
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 2, 4, 8, 16})
+    void parallelBulkLoadSpeedup(int threads) {
+        Map2D map2D = new Map2D(new Rectangle(0, MAX_COORDINATE, MAX_COORDINATE, MAX_COORDINATE));
+        int[] xs = sourceXs.clone();
+        int[] ys = sourceYs.clone();
+        int[] services = sourceServices.clone();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+
+        long startTime = System.nanoTime();
+        map2D.parallelBulkLoad(xs, ys, services, pool);
+        double duration = (System.nanoTime() - startTime) / 1_000_000.0;
+        pool.shutdown();
+
+        boolean passed = map2D.countPlaces() == NUM_PLACES;
+        System.out.printf("| %-7d | %-9s | %12.3f | %6.2fx |\n",
+                threads, passed ? "Passed" : "Failed", duration, sequentialDuration / duration);
+        Assertions.assertTrue(passed, "Parallel bulk load should load every place");
+    }
+
+    @Test
+    void parallelBulkLoadMatchesAddPlace() {
+        int numberOfPlaces = 500_000;
+        Map2D expectedMap = new Map2D(new Rectangle(0, MAX_COORDINATE, MAX_COORDINATE, MAX_COORDINATE));
+        for (int i = 0; i < numberOfPlaces; i++) {
+            expectedMap.addPlace(sourceXs[i], sourceYs[i], sourceServices[i]);
+        }
+        Map2D actualMap = new Map2D(new Rectangle(0, MAX_COORDINATE, MAX_COORDINATE, MAX_COORDINATE));
+        ForkJoinPool pool = new ForkJoinPool(4);
+        actualMap.parallelBulkLoad(sourceXs.clone(), sourceYs.clone(), sourceServices.clone(), numberOfPlaces, pool);
+        pool.shutdown();
+
+        Assertions.assertEquals(expectedMap.countPlaces(), actualMap.countPlaces(), "Both maps should hold every place");
+        String[] searchServices = {"Hospital"};
+        for (int i = 0; i < 20; i++) {
+            int userX = random.nextInt(MAX_COORDINATE);
+            int userY = random.nextInt(MAX_COORDINATE);
+            ArrayList<Place> expected = expectedMap.searchPlace(userX, userY, 200_000, searchServices, 100);
+            ArrayList<Place> actual = actualMap.searchPlace(userX, userY, 200_000, searchServices, 100);
+            Assertions.assertEquals(expected.size(), actual.size(), "Searches should return the same number of places");
+            for (int j = 0; j < expected.size(); j++) {
+                Assertions.assertEquals(expected.get(j).distanceTo(userX, userY), actual.get(j).distanceTo(userX, userY),
+                        "Searches should return places at the same distances");
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import src.*;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+public class Map2DParallelSearchTest {
+    private static final int NUM_PLACES = 10_000_000;
+    private static final int MAX_COORDINATE = 10_000_000;
+    private static final int NUM_SEARCHES = 20;
+    private static final Random random = new Random();
+    private static Map2D map2D;
+
+    @BeforeAll
+    public static void setUpOnce() {
+        int[] xs = new int[NUM_PLACES];
+        int[] ys = new int[NUM_PLACES];
+        int[] services = new int[NUM_PLACES];
+        for (int i = 0; i < NUM_PLACES; i++) {
+            xs[i] = random.nextInt(MAX_COORDINATE);
+            ys[i] = random.nextInt(MAX_COORDINATE);
+            services[i] = random.nextInt(1 << Service.NUM_SERVICES);
+        }
+        map2D = new Map2D(new Rectangle(0, MAX_COORDINATE, MAX_COORDINATE, MAX_COORDINATE));
+        map2D.bulkLoad(xs, ys, services);
+        System.out.println("| Walk Distance | k     | Threads | Pass/Fail | Sequential (ms) | Parallel (ms) | Speedup |");
+        System.out.println("|---------------|-------|---------|-----------|-----------------|---------------|---------|");
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "10000, 50, 4",
+            "2000000, 1000, 1", "2000000, 1000, 2", "2000000, 1000, 4", "2000000, 1000, 8",
+            "5000000, 100000, 1", "5000000, 100000, 2", "5000000, 100000, 4", "5000000, 100000, 8"
+    })
+    void parallelSearchMatchesSequential(int walkDistance, int k, int threads) {
+        // Four required services match about one place in sixteen
+        int serviceMask = Service.encodeService(new String[]{"ATM", "Hospital", "Park", "School"});
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        QueryContext sequential = new QueryContext();
+        QueryContext parallel = new QueryContext();
+        long sequentialTotal = 0;
+        long parallelTotal = 0;
+        boolean passed = true;
+        for (int i = 0; i < NUM_SEARCHES; i++) {
+            int userX = random.nextInt(MAX_COORDINATE);
+            int userY = random.nextInt(MAX_COORDINATE);
+            long startTime = System.nanoTime();
+            map2D.searchPlace(userX, userY, walkDistance, serviceMask, k, sequential);
+            sequentialTotal += System.nanoTime() - startTime;
+            startTime = System.nanoTime();
+            map2D.parallelSearchPlace(userX, userY, walkDistance, serviceMask, k, parallel, pool);
+            parallelTotal += System.nanoTime() - startTime;
+
+            passed &= sequential.size() == parallel.size();
+            for (int j = 0; passed && j < sequential.size(); j++) {
+                passed = sequential.getX(j) == parallel.getX(j) && sequential.getY(j) == parallel.getY(j)
+                        && sequential.getServices(j) == parallel.getServices(j);
+            }
+        }
+        pool.shutdown();
+        double sequentialMillis = sequentialTotal / 1_000_000.0 / NUM_SEARCHES;
+        double parallelMillis = parallelTotal / 1_000_000.0 / NUM_SEARCHES;
+        System.out.printf("| %-13d | %-5d | %-7d | %-9s | %15.3f | %13.3f | %6.2fx |\n",
+                walkDistance, k, threads, passed ? "Passed" : "Failed", sequentialMillis, parallelMillis, sequentialMillis / parallelMillis);
+        Assertions.assertTrue(passed, "Parallel search should return exactly the sequential results");
+    }
+}
@@ -0,0 +1,84 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import src.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+public class Map2DQueryContextTest {
+    private static final int NUM_PLACES = 1_000_000;
+    private static final int MAX_COORDINATE = 10_000_000;
+    private static final int NUM_SEARCHES = 5_000;
+    private static final Random random = new Random();
+    private static Map2D map2D;
+
+    @BeforeAll
+    public static void setUpOnce() {
+        map2D = new Map2D(new Rectangle(0, MAX_COORDINATE, MAX_COORDINATE, MAX_COORDINATE));
+        for (int i = 0; i < NUM_PLACES; i++) {
+            map2D.addPlace(random.nextInt(MAX_COORDINATE), random.nextInt(MAX_COORDINATE), random.nextInt(1 << Service.NUM_SERVICES));
+        }
+        System.out.println("| Walk Distance | Searches | Allocated (B/op) | Runtime (us/op) |");
+        System.out.println("|---------------|----------|------------------|-----------------|");
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+
+    private static void runSearches(int walkDistance, int serviceMask, QueryContext context, int[] userXs, int[] userYs) {
+        for (int i = 0; i < userXs.length; i++) {
+            map2D.searchPlace(userXs[i], userYs[i], walkDistance, serviceMask, 50, context);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1_000, 50_000, 500_000})
+    void steadyStateSearchAllocatesNothing(int walkDistance) {
+        int serviceMask = Service.encodeService(new String[]{"Restaurant", "School"});
+        QueryContext context = new QueryContext();
+        int[] userXs = new int[NUM_SEARCHES];
+        int[] userYs = new int[NUM_SEARCHES];
+        for (int i = 0; i < NUM_SEARCHES; i++) {
+            userXs[i] = random.nextInt(MAX_COORDINATE);
+            userYs[i] = random.nextInt(MAX_COORDINATE);
+        }
+
+        // Warm up so the context buffers have grown and the search is compiled
+        runSearches(walkDistance, serviceMask, context, userXs, userYs);
+
+        long allocatedBefore = allocatedBytes();
+        long startTime = System.nanoTime();
+        runSearches(walkDistance, serviceMask, context, userXs, userYs);
+        long endTime = System.nanoTime();
+        long allocatedAfter = allocatedBytes();
+
+        double bytesPerSearch = (double) (allocatedAfter - allocatedBefore) / NUM_SEARCHES;
+        double microsPerSearch = (endTime - startTime) / 1_000.0 / NUM_SEARCHES;
+        System.out.printf("| %-13d | %-8d | %16.2f | %15.2f |\n", walkDistance, NUM_SEARCHES, bytesPerSearch, microsPerSearch);
+        Assertions.assertTrue(bytesPerSearch < 1, "A steady-state search should not allocate");
+    }
+
+    @Test
+    void contextResultsMatchPlaceList() {
+        String[] services = {"Hospital"};
+        QueryContext context = new QueryContext();
+        for (int i = 0; i < 100; i++) {
+            int userX = random.nextInt(MAX_COORDINATE);
+            int userY = random.nextInt(MAX_COORDINATE);
+            int k = 1 + random.nextInt(100);
+            ArrayList<Place> expected = map2D.searchPlace(userX, userY, 300_000, services, k);
+            map2D.searchPlace(userX, userY, 300_000, Service.encodeService(services), k, context);
+            Assertions.assertEquals(expected.size(), context.size(), "Context should hold the same number of results");
+            for (int j = 0; j < expected.size(); j++) {
+                Assertions.assertEquals(expected.get(j).getX(), context.getX(j));
+                Assertions.assertEquals(expected.get(j).getY(), context.getY(j));
+                Assertions.assertEquals(expected.get(j).getServices(), context.getServices(j));
+                Assertions.assertEquals(expected.get(j).distanceTo(userX, userY), context.getDistance(j));
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import src.*;
+
+import java.util.Random;
+
+public class Map2DRankingTest {
+    private static final int MAX_COORDINATE = 10_000_000;
+    private static final int ITERATIONS = 5;
+    private static final Random random = new Random();
+
+    @BeforeAll
+    public static void setUpOnce() {
+        System.out.println("| Num of Places   | Pass/Fail | distanceTo sort (ms) | Squared sort (ms) | Speedup |");
+        System.out.println("|-----------------|-----------|----------------------|-------------------|---------|");
+    }
+
+    // Sort phase used before ranking moved to squared distances: Place.distanceTo twice per comparison
+    private static void mergeSortByDistanceTo(Place[] places, Place[] buffer, int left, int right, int userX, int userY) {
+        if (left >= right) {
+            return;
+        }
+        int mid = (left + right) / 2;
+        mergeSortByDistanceTo(places, buffer, left, mid, userX, userY);
+        mergeSortByDistanceTo(places, buffer, mid + 1, right, userX, userY);
+        System.arraycopy(places, left, buffer, left, right - left + 1);
+        int i = left, j = mid + 1, k = left;
+        while (i <= mid && j <= right) {
+            if (buffer[i].distanceTo(userX, userY) <= buffer[j].distanceTo(userX, userY)) {
+                places[k++] = buffer[i++];
+            } else {
+                places[k++] = buffer[j++];
+            }
+        }
+        while (i <= mid) {
+            places[k++] = buffer[i++];
+        }
+        while (j <= right) {
+            places[k++] = buffer[j++];
+        }
+    }
+
+    // Sort phase on exact squared distances computed once per place
+    private static void mergeSortBySquaredDistance(long[] keys, Place[] places, long[] keyBuffer, Place[] buffer, int left, int right) {
+        if (left >= right) {
+            return;
+        }
+        int mid = (left + right) / 2;
+        mergeSortBySquaredDistance(keys, places, keyBuffer, buffer, left, mid);
+        mergeSortBySquaredDistance(keys, places, keyBuffer, buffer, mid + 1, right);
+        System.arraycopy(keys, left, keyBuffer, left, right - left + 1);
+        System.arraycopy(places, left, buffer, left, right - left + 1);
+        int i = left, j = mid + 1, k = left;
+        while (i <= mid && j <= right) {
+            if (keyBuffer[i] <= keyBuffer[j]) {
+                keys[k] = keyBuffer[i];
+                places[k++] = buffer[i++];
+            } else {
+                keys[k] = keyBuffer[j];
+                places[k++] = buffer[j++];
+            }
+        }
+        while (i <= mid) {
+            keys[k] = keyBuffer[i];
+            places[k++] = buffer[i++];
+        }
+        while (j <= right) {
+            keys[k] = keyBuffer[j];
+            places[k++] = buffer[j++];
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1_000, 10_000, 100_000, 1_000_000})
+    void sortPhaseBeforeAndAfter(int numberOfPlaces) {
+        int userX = random.nextInt(MAX_COORDINATE);
+        int userY = random.nextInt(MAX_COORDINATE);
+        Place[] source = new Place[numberOfPlaces];
+        for (int i = 0; i < numberOfPlaces; i++) {
+            source[i] = new Place(random.nextInt(MAX_COORDINATE), random.nextInt(MAX_COORDINATE), 0);
+        }
+        Place[] byDistanceTo = new Place[numberOfPlaces];
+        Place[] bySquared = new Place[numberOfPlaces];
+        Place[] buffer = new Place[numberOfPlaces];
+        long[] keys = new long[numberOfPlaces];
+        long[] keyBuffer = new long[numberOfPlaces];
+
+        long beforeTotal = 0;
+        long afterTotal = 0;
+        for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+            System.arraycopy(source, 0, byDistanceTo, 0, numberOfPlaces);
+            long startTime = System.nanoTime();
+            mergeSortByDistanceTo(byDistanceTo, buffer, 0, numberOfPlaces - 1, userX, userY);
+            beforeTotal += System.nanoTime() - startTime;
+
+            System.arraycopy(source, 0, bySquared, 0, numberOfPlaces);
+            startTime = System.nanoTime();
+            for (int i = 0; i < numberOfPlaces; i++) {
+                long dx = bySquared[i].getX() - userX;
+                long dy = bySquared[i].getY() - userY;
+                keys[i] = dx * dx + dy * dy;
+            }
+            mergeSortBySquaredDistance(keys, bySquared, keyBuffer, buffer, 0, numberOfPlaces - 1);
+            afterTotal += System.nanoTime() - startTime;
+        }
+        double before = beforeTotal / 1_000_000.0 / ITERATIONS;
+        double after = afterTotal / 1_000_000.0 / ITERATIONS;
+
+        boolean passed = true;
+        for (int i = 0; passed && i < numberOfPlaces; i++) {
+            passed = byDistanceTo[i].distanceTo(userX, userY) == Place.distanceFromSquared(keys[i]);
+        }
+        System.out.printf("| %-15d | %-9s | %20.3f | %17.3f | %6.2fx |\n",
+                numberOfPlaces, passed ? "Passed" : "Failed", before, after, before / after);
+        Assertions.assertTrue(passed, "Both rankings should order places by the same rounded distances");
+    }
+}
@@ -0,0 +1,64 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import src.*;
+
+import java.util.Random;
+
+public class Map2DRemoveTest {
+    private static final int NUM_PLACES = 10_000_000;
+    private static final int MAX_COORDINATE = 10_000_000;
+    private static final Random random = new Random();
+    private static int[] xs;
+    private static int[] ys;
+    private static int[] services;
+
+    @BeforeAll
+    public static void setUpOnce() {
+        xs = new int[NUM_PLACES];
+        ys = new int[NUM_PLACES];
+        services = new int[NUM_PLACES];
+        for (int i = 0; i < NUM_PLACES; i++) {
+            xs[i] = random.nextInt(MAX_COORDINATE);
+            ys[i] = random.nextInt(MAX_COORDINATE);
+            services[i] = 1 << random.nextInt(Service.NUM_SERVICES);
+        }
+        System.out.println("| Num of Deletes  | Mode   | Pass/Fail | Runtime (ms) | Per Delete (us) |");
+        System.out.println("|-----------------|--------|-----------|--------------|-----------------|");
+    }
+
+    private static Map2D populate(boolean stableRemoval) {
+        Map2D map2D = new Map2D(new Rectangle(0, MAX_COORDINATE, MAX_COORDINATE, MAX_COORDINATE), stableRemoval);
+        map2D.bulkLoad(xs.clone(), ys.clone(), services.clone());
+        return map2D;
+    }
+
+    private static void deletePlaces(Map2D map2D, int numberOfDeletes, String mode) {
+        long startTime = System.nanoTime();
+        int removed = 0;
+        for (int i = 0; i < numberOfDeletes; i++) {
+            if (map2D.removePlace(xs[i], ys[i])) {
+                removed++;
+            }
+        }
+        double duration = (System.nanoTime() - startTime) / 1_000_000.0;
+
+        boolean passed = removed == numberOfDeletes && map2D.countPlaces() == NUM_PLACES - numberOfDeletes;
+        System.out.printf("| %-15d | %-6s | %-9s | %12.3f | %15.3f |\n",
+                numberOfDeletes, mode, passed ? "Passed" : "Failed", duration, duration * 1_000 / numberOfDeletes);
+        Assertions.assertTrue(passed, "Every deleted place should be removed exactly once");
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1_000, 10_000, 100_000, 1_000_000})
+    void swapRemoveBulkDeletes(int numberOfDeletes) {
+        deletePlaces(populate(false), numberOfDeletes, "Swap");
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1_000, 10_000, 100_000})
+    void stableRemoveBulkDeletes(int numberOfDeletes) {
+        deletePlaces(populate(true), numberOfDeletes, "Stable");
+    }
+}
@@ -0,0 +1,198 @@
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import src.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+public class Map2DSegmentTest {
+    private static final int MAX_COORDINATE = 10_000_000;
+    private static final Rectangle BOUNDARY = new Rectangle(0, MAX_COORDINATE, MAX_COORDINATE, MAX_COORDINATE);
+    private static final Random random = new Random();
+    private static Path directory;
+
+    @BeforeAll
+    public static void setUpOnce() throws IOException {
+        directory = Files.createTempDirectory("map2d-segment");
+    }
+
+    @AfterAll
+    public static void tearDownOnce() throws IOException {
+        try (var files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    /**
+     * Places currently in a map, so that edits and removals can pick existing ones.
+     */
+    private static class LivePlaces {
+        int[] xs;
+        int[] ys;
+        int size;
+
+        LivePlaces(int[] xs, int[] ys) {
+            this.xs = xs.clone();
+            this.ys = ys.clone();
+            size = xs.length;
+        }
+
+        void add(int x, int y) {
+            if (size == xs.length) {
+                xs = java.util.Arrays.copyOf(xs, size * 2 + 16);
+                ys = java.util.Arrays.copyOf(ys, size * 2 + 16);
+            }
+            xs[size] = x;
+            ys[size] = y;
+            size++;
+        }
+
+        void remove(int i) {
+            size--;
+            xs[i] = xs[size];
+            ys[i] = ys[size];
+        }
+    }
+
+    private static Map2D randomMap(int numberOfPlaces, LivePlaces[] live) {
+        int[] xs = new int[numberOfPlaces];
+        int[] ys = new int[numberOfPlaces];
+        int[] services = new int[numberOfPlaces];
+        for (int i = 0; i < numberOfPlaces; i++) {
+            xs[i] = random.nextInt(MAX_COORDINATE);
+            ys[i] = random.nextInt(MAX_COORDINATE);
+            services[i] = random.nextInt(1 << Service.NUM_SERVICES);
+        }
+        Map2D map2D = new Map2D(BOUNDARY);
+        map2D.bulkLoad(xs, ys, services);
+        live[0] = new LivePlaces(xs, ys);
+        return map2D;
+    }
+
+    /**
+     * Makes random changes spread over the whole map: additions, edits and removals in equal parts.
+     */
+    private static void makeChanges(Map2D map2D, LivePlaces live, int changes) {
+        for (int i = 0; i < changes; i++) {
+            int kind = random.nextInt(3);
+            if (kind == 0 || live.size == 0) {
+                int x = random.nextInt(MAX_COORDINATE);
+                int y = random.nextInt(MAX_COORDINATE);
+                map2D.addPlace(x, y, random.nextInt(1 << Service.NUM_SERVICES));
+                live.add(x, y);
+            } else {
+                int j = random.nextInt(live.size);
+                if (kind == 1) {
+                    map2D.editPlace(live.xs[j], live.ys[j], random.nextInt(1 << Service.NUM_SERVICES));
+                } else {
+                    map2D.removePlace(live.xs[j], live.ys[j]);
+                    live.remove(j);
+                }
+            }
+        }
+    }
+
+    private static boolean sameMaps(Map2D expected, Map2D actual) {
+        if (expected.countPlaces() != actual.countPlaces() || expected.countNodes() != actual.countNodes()) {
+            return false;
+        }
+        QueryContext expectedContext = new QueryContext();
+        QueryContext actualContext = new QueryContext();
+        for (int i = 0; i < 200; i++) {
+            int userX = random.nextInt(MAX_COORDINATE);
+            int userY = random.nextInt(MAX_COORDINATE);
+            int serviceMask = 1 << random.nextInt(Service.NUM_SERVICES);
+            expected.searchPlace(userX, userY, 300_000, serviceMask, 50, expectedContext);
+            actual.searchPlace(userX, userY, 300_000, serviceMask, 50, actualContext);
+            if (expectedContext.size() != actualContext.size()) {
+                return false;
+            }
+            for (int j = 0; j < expectedContext.size(); j++) {
+                if (expectedContext.getX(j) != actualContext.getX(j) || expectedContext.getY(j) != actualContext.getY(j)
+                        || expectedContext.getServices(j) != actualContext.getServices(j)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Test
+    void segmentsRestoreSplitsCollapsesAndEdits() throws IOException {
+        LivePlaces[] live = new LivePlaces[1];
+        Map2D map2D = randomMap(500_000, live);
+        Path base = directory.resolve("base.bin");
+        map2D.save(base);
+        Path[] segments = new Path[4];
+
+        makeChanges(map2D, live[0], 20_000);
+        segments[0] = directory.resolve("segment-1.bin");
+        map2D.saveSegment(segments[0]);
+
+        // Crowd one corner until its leaf splits
+        for (int i = 0; i < 150_000; i++) {
+            int x = random.nextInt(MAX_COORDINATE / 64);
+            int y = random.nextInt(MAX_COORDINATE / 64);
+            map2D.addPlace(x, y, random.nextInt(1 << Service.NUM_SERVICES));
+            live[0].add(x, y);
+        }
+        segments[1] = directory.resolve("segment-2.bin");
+        map2D.saveSegment(segments[1]);
+
+        // Empty the top half until its subtrees collapse
+        for (int j = live[0].size - 1; j >= 0; j--) {
+            if (live[0].ys[j] > MAX_COORDINATE / 2) {
+                map2D.removePlace(live[0].xs[j], live[0].ys[j]);
+                live[0].remove(j);
+            }
+        }
+        segments[2] = directory.resolve("segment-3.bin");
+        map2D.saveSegment(segments[2]);
+
+        segments[3] = directory.resolve("segment-4.bin");
+        Assertions.assertEquals(0, map2D.saveSegment(segments[3]), "A segment without changes should be empty");
+
+        Map2D loaded = Map2D.load(base, segments);
+        Assertions.assertTrue(sameMaps(map2D, loaded), "Base and segments should restore the same tree and places");
+
+        Assertions.assertThrows(IOException.class, () -> Map2D.load(base, segments[1], segments[2]),
+                "A segment that does not follow the map should be rejected");
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1_000, 10_000, 100_000, 1_000_000})
+    void segmentSizeFollowsChurn(int changes) throws IOException {
+        LivePlaces[] live = new LivePlaces[1];
+        Map2D map2D = randomMap(10_000_000, live);
+        Path base = directory.resolve("churn-base.bin");
+        long startTime = System.nanoTime();
+        map2D.save(base);
+        double saveMillis = (System.nanoTime() - startTime) / 1_000_000.0;
+
+        makeChanges(map2D, live[0], changes);
+        Path segment = directory.resolve("churn-segment.bin");
+        startTime = System.nanoTime();
+        int entries = map2D.saveSegment(segment);
+        double segmentMillis = (System.nanoTime() - startTime) / 1_000_000.0;
+
+        boolean passed = sameMaps(map2D, Map2D.load(base, segment));
+        if (changes == 1_000) {
+            System.out.println("| Changes   | Pass/Fail | Entries | Segment (MB) | Segment (ms) | Snapshot (MB) | Snapshot (ms) |");
+            System.out.println("|-----------|-----------|---------|--------------|--------------|---------------|---------------|");
+        }
+        System.out.printf("| %-9d | %-9s | %7d | %12.3f | %12.1f | %13.2f | %13.1f |\n", changes, passed ? "Passed" : "Failed",
+                entries, Files.size(segment) / (1024.0 * 1024.0), segmentMillis, Files.size(base) / (1024.0 * 1024.0), saveMillis);
+        Assertions.assertTrue(passed, "Base and segment should restore the same tree and places");
+        Files.delete(base);
+        Files.delete(segment);
+    }
+}
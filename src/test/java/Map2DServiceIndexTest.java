@@ -0,0 +1,184 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import src.*;
+
+import java.util.Random;
+
+public class Map2DServiceIndexTest {
+    private static final int MAX_COORDINATE = 10_000_000;
+    private static final Rectangle BOUNDARY = new Rectangle(0, MAX_COORDINATE, MAX_COORDINATE, MAX_COORDINATE);
+    // Share of places offering each service, from common to rare
+    private static final double[] SELECTIVITIES = {0.5, 0.2, 0.05, 0.01, 0.005};
+    private static final Random random = new Random();
+
+    private static int randomServices() {
+        int services = 0;
+        for (int service = 0; service < SELECTIVITIES.length; service++) {
+            if (random.nextDouble() < SELECTIVITIES[service]) {
+                services |= 1 << service;
+            }
+        }
+        return services;
+    }
+
+    private static boolean sameResults(QueryContext expected, QueryContext actual) {
+        if (expected.size() != actual.size()) {
+            return false;
+        }
+        for (int j = 0; j < expected.size(); j++) {
+            if (expected.getX(j) != actual.getX(j) || expected.getY(j) != actual.getY(j)
+                    || expected.getServices(j) != actual.getServices(j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void assertSameSearchResults(Map2D expected, Map2D actual) {
+        QueryContext expectedContext = new QueryContext();
+        QueryContext actualContext = new QueryContext();
+        for (int i = 0; i < 300; i++) {
+            int userX = random.nextInt(MAX_COORDINATE);
+            int userY = random.nextInt(MAX_COORDINATE);
+            int walkDistance = random.nextInt(2_000_000);
+            int serviceMask = random.nextInt(1 << SELECTIVITIES.length);
+            expected.searchPlace(userX, userY, walkDistance, serviceMask, 30, expectedContext);
+            actual.searchPlace(userX, userY, walkDistance, serviceMask, 30, actualContext);
+            Assertions.assertTrue(sameResults(expectedContext, actualContext), "Indexed search should find the same places");
+            expected.searchPlaceWithinRadius(userX, userY, walkDistance, serviceMask, 30, expectedContext);
+            actual.searchPlaceWithinRadius(userX, userY, walkDistance, serviceMask, 30, actualContext);
+            Assertions.assertTrue(sameResults(expectedContext, actualContext), "Indexed radius search should find the same places");
+        }
+    }
+
+    @Test
+    void indexFollowsEveryChange() {
+        for (boolean stableRemoval : new boolean[]{false, true}) {
+            Map2D plain = new Map2D(BOUNDARY, stableRemoval);
+            Map2D indexed = new Map2D(BOUNDARY, stableRemoval);
+            indexed.enableServiceIndex();
+            int numberOfPlaces = 250_000;
+            int[] xs = new int[numberOfPlaces];
+            int[] ys = new int[numberOfPlaces];
+            int[] services = new int[numberOfPlaces];
+            for (int i = 0; i < numberOfPlaces; i++) {
+                // Half of the places crowd one corner so that its leaves split, most of them are removed again below
+                int range = i % 2 == 0 ? MAX_COORDINATE / 64 : MAX_COORDINATE;
+                xs[i] = random.nextInt(range);
+                ys[i] = random.nextInt(range);
+                services[i] = randomServices();
+                plain.addPlace(xs[i], ys[i], services[i]);
+                indexed.addPlace(xs[i], ys[i], services[i]);
+            }
+            for (int i = 1; i < numberOfPlaces; i += 2) {
+                int edited = randomServices();
+                Assertions.assertEquals(plain.editPlace(xs[i], ys[i], edited), indexed.editPlace(xs[i], ys[i], edited));
+            }
+            for (int i = 0; i < numberOfPlaces; i += stableRemoval ? 40 : 2) {
+                Assertions.assertEquals(plain.removePlace(xs[i], ys[i]), indexed.removePlace(xs[i], ys[i]));
+            }
+            Assertions.assertEquals(plain.compact(), indexed.compact());
+            assertSameSearchResults(plain, indexed);
+
+            int[] batchXs = new int[100_000];
+            int[] batchYs = new int[100_000];
+            int[] batchServices = new int[100_000];
+            for (int i = 0; i < batchXs.length; i++) {
+                batchXs[i] = random.nextInt(MAX_COORDINATE);
+                batchYs[i] = random.nextInt(MAX_COORDINATE);
+                batchServices[i] = randomServices();
+            }
+            plain.bulkLoad(batchXs.clone(), batchYs.clone(), batchServices.clone());
+            indexed.bulkLoad(batchXs, batchYs, batchServices);
+            assertSameSearchResults(plain, indexed);
+        }
+    }
+
+    @Test
+    void removingTheLastSlotOfALeafHidesIt() {
+        int hospital = 1 << Service.HOSPITAL;
+        Map2D map2D = new Map2D(BOUNDARY);
+        map2D.enableServiceIndex();
+        map2D.addPlace(100, 100, hospital);
+        map2D.addPlace(200, 200, hospital);
+        Assertions.assertTrue(map2D.removePlace(200, 200));
+        Assertions.assertEquals(1, map2D.countPlaces());
+
+        QueryContext context = new QueryContext();
+        map2D.searchPlace(0, 0, 1_000, hospital, 10, context);
+        Assertions.assertEquals(1, context.size(), "A removed place should not be found");
+        Assertions.assertEquals(100, context.getX(0));
+        QueryContext[] contexts = {new QueryContext()};
+        map2D.searchPlaceBatch(new int[]{0}, new int[]{0}, new int[]{1_000}, new int[]{hospital}, new int[]{10}, contexts);
+        Assertions.assertEquals(1, contexts[0].size(), "A removed place should not be found by a batch search");
+
+        // The slot is reused by the next place, which must only be found for its own services
+        map2D.addPlace(300, 300, 1 << Service.ATM);
+        map2D.searchPlace(0, 0, 1_000, hospital, 10, context);
+        Assertions.assertEquals(1, context.size(), "A reused slot should not keep the services of the removed place");
+    }
+
+    @Test
+    void indexedScanAcrossSelectivities() {
+        int numberOfPlaces = 2_000_000;
+        int[] xs = new int[numberOfPlaces];
+        int[] ys = new int[numberOfPlaces];
+        int[] services = new int[numberOfPlaces];
+        for (int i = 0; i < numberOfPlaces; i++) {
+            xs[i] = random.nextInt(MAX_COORDINATE);
+            ys[i] = random.nextInt(MAX_COORDINATE);
+            services[i] = randomServices();
+        }
+        Map2D plain = new Map2D(BOUNDARY);
+        plain.bulkLoad(xs.clone(), ys.clone(), services.clone());
+        Map2D indexed = new Map2D(BOUNDARY);
+        indexed.bulkLoad(xs, ys, services);
+        indexed.enableServiceIndex();
+
+        System.out.println("| Services         | Selectivity | Pass/Fail | Plain (us/op) | Indexed (us/op) | Speedup | Index (B/place) |");
+        System.out.println("|------------------|-------------|-----------|---------------|-----------------|---------|-----------------|");
+        double indexBytesPerPlace = (double) indexed.getServiceIndexMemory() / numberOfPlaces;
+        int[][] masks = {{0}, {1}, {2}, {3}, {4}, {0, 4}};
+        for (int round = 0; round < 2; round++) {
+            for (int[] mask : masks) {
+                int serviceMask = 0;
+                double selectivity = 1;
+                for (int service : mask) {
+                    serviceMask |= 1 << service;
+                    selectivity *= SELECTIVITIES[service];
+                }
+                int[] userXs = new int[1_000];
+                int[] userYs = new int[1_000];
+                for (int i = 0; i < userXs.length; i++) {
+                    userXs[i] = random.nextInt(MAX_COORDINATE);
+                    userYs[i] = random.nextInt(MAX_COORDINATE);
+                }
+                QueryContext plainContext = new QueryContext();
+                QueryContext indexedContext = new QueryContext();
+                double plainMicros = measure(plain, userXs, userYs, serviceMask, plainContext);
+                double indexedMicros = measure(indexed, userXs, userYs, serviceMask, indexedContext);
+                boolean passed = true;
+                for (int i = 0; i < 100; i++) {
+                    plain.searchPlace(userXs[i], userYs[i], 200_000, serviceMask, 10, plainContext);
+                    indexed.searchPlace(userXs[i], userYs[i], 200_000, serviceMask, 10, indexedContext);
+                    passed &= sameResults(plainContext, indexedContext);
+                }
+                if (round == 1) { // The first round warms up
+                    System.out.printf("| %-16s | %10.2f%% | %-9s | %13.1f | %15.1f | %6.1fx | %15.2f |\n",
+                            String.join("+", Service.decodeService(serviceMask)),
+                            selectivity * 100, passed ? "Passed" : "Failed", plainMicros, indexedMicros, plainMicros / indexedMicros,
+                            indexBytesPerPlace);
+                }
+                Assertions.assertTrue(passed, "Indexed search should find the same places");
+            }
+        }
+    }
+
+    private static double measure(Map2D map2D, int[] userXs, int[] userYs, int serviceMask, QueryContext context) {
+        long startTime = System.nanoTime();
+        for (int i = 0; i < userXs.length; i++) {
+            map2D.searchPlace(userXs[i], userYs[i], 200_000, serviceMask, 10, context);
+        }
+        return (System.nanoTime() - startTime) / 1_000.0 / userXs.length;
+    }
+}
@@ -0,0 +1,230 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import src.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class Map2DServicePredicateTest {
+    private static final int MAX_COORDINATE = 10_000_000;
+    private static final Rectangle BOUNDARY = new Rectangle(0, MAX_COORDINATE, MAX_COORDINATE, MAX_COORDINATE);
+    private static final int ATM = 1 << Service.ATM;
+    private static final int CONVENIENCE_STORE = 1 << Service.CONVENIENCE_STORE;
+    private static final int SCHOOL = 1 << Service.SCHOOL;
+    private static final Random random = new Random();
+
+    /**
+     * Gives each service to about a fifth of the places.
+     */
+    private static int randomServices() {
+        int services = 0;
+        for (int service = 0; service < Service.NUM_SERVICES; service++) {
+            if (random.nextInt(5) == 0) {
+                services |= 1 << service;
+            }
+        }
+        return services;
+    }
+
+    private static int randomMask(int maxServices) {
+        int mask = 0;
+        for (int i = random.nextInt(maxServices + 1); i > 0; i--) {
+            mask |= 1 << random.nextInt(Service.NUM_SERVICES);
+        }
+        return mask;
+    }
+
+    private static double score(ServicePredicate predicate, int x, int y, int services, int userX, int userY) {
+        long dx = x - userX;
+        long dy = y - userY;
+        return predicate.score(Math.sqrt(dx * dx + dy * dy), services);
+    }
+
+    @Test
+    void predicatesMatchBruteForce() {
+        int numberOfPlaces = 200_000;
+        int[] xs = new int[numberOfPlaces];
+        int[] ys = new int[numberOfPlaces];
+        int[] services = new int[numberOfPlaces];
+        Map2D plain = new Map2D(BOUNDARY);
+        Map2D indexed = new Map2D(BOUNDARY);
+        indexed.enableServiceIndex();
+        for (int i = 0; i < numberOfPlaces; i++) {
+            xs[i] = random.nextInt(MAX_COORDINATE);
+            ys[i] = random.nextInt(MAX_COORDINATE);
+            services[i] = randomServices();
+            plain.addPlace(xs[i], ys[i], services[i]);
+            indexed.addPlace(xs[i], ys[i], services[i]);
+        }
+
+        QueryContext context = new QueryContext();
+        double[] expected = new double[numberOfPlaces];
+        for (int query = 0; query < 300; query++) {
+            int userX = random.nextInt(MAX_COORDINATE);
+            int userY = random.nextInt(MAX_COORDINATE);
+            int walkDistance = random.nextInt(1_000_000);
+            boolean circular = query % 2 == 1;
+            ServicePredicate predicate = query % 3 == 0
+                    ? new ServicePredicate(randomMask(1), randomMask(3), randomMask(2))
+                    : new ServicePredicate(randomMask(1), randomMask(3), randomMask(2), randomMask(3), random.nextInt(200_000));
+            int matches = 0;
+            for (int i = 0; i < numberOfPlaces; i++) {
+                long dx = xs[i] - userX;
+                long dy = ys[i] - userY;
+                boolean inside = circular
+                        ? dx * dx + dy * dy <= (long) walkDistance * walkDistance
+                        : Math.abs(dx) <= walkDistance && Math.abs(dy) <= walkDistance;
+                if (inside && predicate.matches(services[i])) {
+                    expected[matches++] = score(predicate, xs[i], ys[i], services[i], userX, userY);
+                }
+            }
+            Arrays.sort(expected, 0, matches);
+            for (Map2D map2D : new Map2D[]{plain, indexed}) {
+                if (circular) {
+                    map2D.searchPlaceWithinRadius(userX, userY, walkDistance, predicate, 20, context);
+                } else {
+                    map2D.searchPlace(userX, userY, walkDistance, predicate, 20, context);
+                }
+                Assertions.assertEquals(Math.min(matches, 20), context.size(), "Search should find every matching place");
+                for (int j = 0; j < context.size(); j++) {
+                    Assertions.assertTrue(predicate.matches(context.getServices(j)), "Results should match the predicate");
+                    double actual = score(predicate, context.getX(j), context.getY(j), context.getServices(j), userX, userY);
+                    Assertions.assertEquals(expected[j], actual, 0.01, "Results should be the best scored places");
+                    Assertions.assertEquals(actual, context.getScore(j), 0.01);
+                }
+            }
+        }
+    }
+
+    @Test
+    void anyOfSearchSkipsARemovedLastSlot() {
+        int hospital = 1 << Service.HOSPITAL;
+        Map2D map2D = new Map2D(BOUNDARY);
+        map2D.enableServiceIndex();
+        for (int i = 1; i <= 6; i++) {
+            map2D.addPlace(i * 100, i * 100, ATM); // Few places offer the any-of services, so their indexes are followed
+        }
+        map2D.addPlace(700, 700, hospital);
+        map2D.addPlace(800, 800, hospital);
+        Assertions.assertTrue(map2D.removePlace(800, 800));
+
+        QueryContext context = new QueryContext();
+        map2D.searchPlace(0, 0, 1_000, ServicePredicate.anyOf(hospital | SCHOOL), 10, context);
+        Assertions.assertEquals(1, context.size(), "A removed place should not be found");
+        Assertions.assertEquals(700, context.getX(0));
+        map2D.searchPlace(0, 0, 1_000, new ServicePredicate(0, hospital | SCHOOL, 0, SCHOOL, 1_000), 10, context);
+        Assertions.assertEquals(1, context.size(), "A removed place should not be found when ranked by preferred services");
+    }
+
+    @Test
+    void oneAnyOfSearchAgainstTwoMergedSearches() {
+        int numberOfPlaces = 2_000_000;
+        int[] xs = new int[numberOfPlaces];
+        int[] ys = new int[numberOfPlaces];
+        int[] services = new int[numberOfPlaces];
+        for (int i = 0; i < numberOfPlaces; i++) {
+            xs[i] = random.nextInt(MAX_COORDINATE);
+            ys[i] = random.nextInt(MAX_COORDINATE);
+            services[i] = randomServices();
+        }
+        Map2D map2D = new Map2D(BOUNDARY);
+        map2D.bulkLoad(xs.clone(), ys.clone(), services.clone());
+        Map2D indexed = new Map2D(BOUNDARY);
+        indexed.bulkLoad(xs, ys, services);
+        indexed.enableServiceIndex();
+        ServicePredicate anyOf = ServicePredicate.anyOf(ATM | CONVENIENCE_STORE);
+        ServicePredicate excluding = new ServicePredicate(0, ATM | CONVENIENCE_STORE, SCHOOL);
+        ServicePredicate preferring = new ServicePredicate(0, ATM | CONVENIENCE_STORE, 0, ATM | CONVENIENCE_STORE, 20_000);
+        QueryContext atmContext = new QueryContext();
+        QueryContext storeContext = new QueryContext();
+        QueryContext context = new QueryContext();
+        long[] merged = new long[20];
+
+        System.out.println("| Query                              | Searches | Pass/Fail | Runtime (us/op) |");
+        System.out.println("|------------------------------------|----------|-----------|-----------------|");
+        int searches = 5_000;
+        for (int round = 0; round < 2; round++) {
+            boolean print = round == 1; // The first round warms up
+            boolean passed = true;
+            long startTime = System.nanoTime();
+            for (int i = 0; i < searches; i++) {
+                int userX = random.nextInt(MAX_COORDINATE);
+                int userY = random.nextInt(MAX_COORDINATE);
+                map2D.searchPlace(userX, userY, 200_000, ATM, 10, atmContext);
+                map2D.searchPlace(userX, userY, 200_000, CONVENIENCE_STORE, 10, storeContext);
+                int size = mergeDistances(atmContext, storeContext, merged);
+                if (i % 50 == 0) { // A sample is checked against one any-of search, adding 2% to the timed work
+                    map2D.searchPlace(userX, userY, 200_000, anyOf, 10, context);
+                    passed &= context.size() == Math.min(size, 10);
+                    for (int j = 0; j < context.size() && passed; j++) {
+                        passed = context.getSquaredDistance(j) == merged[j];
+                    }
+                }
+            }
+            print(print, "Two searches merged by the client", searches, passed, startTime);
+
+            startTime = System.nanoTime();
+            for (int i = 0; i < searches; i++) {
+                map2D.searchPlace(random.nextInt(MAX_COORDINATE), random.nextInt(MAX_COORDINATE), 200_000, anyOf, 10, context);
+            }
+            print(print, "ATM or ConvenienceStore", searches, true, startTime);
+
+            startTime = System.nanoTime();
+            for (int i = 0; i < searches; i++) {
+                indexed.searchPlace(random.nextInt(MAX_COORDINATE), random.nextInt(MAX_COORDINATE), 200_000, anyOf, 10, context);
+            }
+            print(print, "ATM or ConvenienceStore, indexed", searches, true, startTime);
+
+            passed = true;
+            startTime = System.nanoTime();
+            for (int i = 0; i < searches; i++) {
+                map2D.searchPlace(random.nextInt(MAX_COORDINATE), random.nextInt(MAX_COORDINATE), 200_000, excluding, 10, context);
+                for (int j = 0; j < context.size(); j++) {
+                    passed &= excluding.matches(context.getServices(j));
+                }
+            }
+            print(print, "ATM or ConvenienceStore, no School", searches, passed, startTime);
+
+            passed = true;
+            startTime = System.nanoTime();
+            for (int i = 0; i < searches; i++) {
+                map2D.searchPlace(random.nextInt(MAX_COORDINATE), random.nextInt(MAX_COORDINATE), 200_000, preferring, 10, context);
+                for (int j = 1; j < context.size(); j++) {
+                    passed &= context.getScore(j - 1) <= context.getScore(j);
+                }
+            }
+            print(print, "Either, both preferred (+20000)", searches, passed, startTime);
+            Assertions.assertTrue(passed, "Results should be sorted by score");
+        }
+    }
+
+    /**
+     * Merges the squared distances of two sorted results the way a client would, dropping places found by both.
+     *
+     * @return The number of distinct places, at most merged.length.
+     */
+    private static int mergeDistances(QueryContext first, QueryContext second, long[] merged) {
+        int i = 0;
+        int j = 0;
+        int size = 0;
+        while (size < merged.length && (i < first.size() || j < second.size())) {
+            if (j == second.size() || (i < first.size() && first.getSquaredDistance(i) <= second.getSquaredDistance(j))) {
+                if (j < second.size() && first.getX(i) == second.getX(j) && first.getY(i) == second.getY(j)) {
+                    j++;
+                }
+                merged[size++] = first.getSquaredDistance(i++);
+            } else {
+                merged[size++] = second.getSquaredDistance(j++);
+            }
+        }
+        return size;
+    }
+
+    private static void print(boolean print, String query, int searches, boolean passed, long startTime) {
+        double microsPerSearch = (System.nanoTime() - startTime) / 1_000.0 / searches;
+        if (print) {
+            System.out.printf("| %-34s | %-8d | %-9s | %15.2f |\n", query, searches, passed ? "Passed" : "Failed", microsPerSearch);
+        }
+        Assertions.assertTrue(passed, query + " should find the expected places");
+    }
+}
@@ -0,0 +1,352 @@
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import src.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+public class Map2DServiceRegistryTest {
+    private static final int MAX_COORDINATE = 10_000_000;
+    private static final Rectangle BOUNDARY = new Rectangle(0, MAX_COORDINATE, MAX_COORDINATE, MAX_COORDINATE);
+    private static final int NUM_SERVICES = 140;
+    private static final Random random = new Random();
+    private static ServiceRegistry registry;
+    private static Path directory;
+
+    @BeforeAll
+    public static void setUpOnce() throws IOException {
+        registry = ServiceRegistry.withStandardServices(NUM_SERVICES);
+        for (int id = Service.NUM_SERVICES; id < NUM_SERVICES; id++) {
+            registry.register("Category" + id);
+        }
+        directory = Files.createTempDirectory("map2d-registry");
+    }
+
+    @AfterAll
+    public static void tearDownOnce() throws IOException {
+        try (var files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    /**
+     * Picks a few services among all those of the registry.
+     */
+    private static int[] randomMask(int services) {
+        int[] mask = new int[registry.getWords()];
+        for (int i = 0; i < services; i++) {
+            int id = random.nextInt(NUM_SERVICES);
+            mask[id / Integer.SIZE] |= 1 << (id % Integer.SIZE);
+        }
+        return mask;
+    }
+
+    private static boolean containsMask(int[] services, int[] mask) {
+        return Service.contains(services, 0, mask, 0, mask.length);
+    }
+
+    @Test
+    void wideMasksMatchBruteForce() {
+        int numberOfPlaces = 300_000;
+        int[] xs = new int[numberOfPlaces];
+        int[] ys = new int[numberOfPlaces];
+        int[][] masks = new int[numberOfPlaces][];
+        boolean[] removed = new boolean[numberOfPlaces];
+        Map2D map2D = new Map2D(BOUNDARY, registry);
+        // The first places crowd one corner so that its leaves split, and most of them are removed again below
+        int crowded = 150_000;
+        for (int i = 0; i < numberOfPlaces; i++) {
+            int range = i < crowded ? MAX_COORDINATE / 64 : MAX_COORDINATE;
+            xs[i] = random.nextInt(range);
+            ys[i] = random.nextInt(range);
+            masks[i] = randomMask(8);
+            map2D.addPlace(xs[i], ys[i], masks[i]);
+        }
+        for (int i = 0; i < numberOfPlaces / 10; i++) {
+            int j = random.nextInt(numberOfPlaces);
+            if (removed[j]) {
+                continue;
+            }
+            if (i % 2 == 0) {
+                masks[j] = randomMask(8);
+                Assertions.assertTrue(map2D.editPlace(xs[j], ys[j], masks[j]));
+            } else {
+                removed[j] = true;
+                Assertions.assertTrue(map2D.removePlace(xs[j], ys[j]));
+            }
+        }
+        for (int i = 0; i < crowded - 10_000; i++) {
+            if (!removed[i]) {
+                removed[i] = true;
+                Assertions.assertTrue(map2D.removePlace(xs[i], ys[i]));
+            }
+        }
+
+        QueryContext context = new QueryContext();
+        int[] resultMask = new int[registry.getWords()];
+        for (int query = 0; query < 200; query++) {
+            int userX = random.nextInt(MAX_COORDINATE);
+            int userY = random.nextInt(MAX_COORDINATE);
+            int walkDistance = 1_000_000;
+            int[] mask = randomMask(1 + random.nextInt(2));
+            map2D.searchPlace(userX, userY, walkDistance, mask, 20, context);
+
+            long[] expected = new long[numberOfPlaces];
+            int matches = 0;
+            for (int i = 0; i < numberOfPlaces; i++) {
+                if (!removed[i] && Math.abs(xs[i] - userX) <= walkDistance && Math.abs(ys[i] - userY) <= walkDistance
+                        && containsMask(masks[i], mask)) {
+                    long dx = xs[i] - userX;
+                    long dy = ys[i] - userY;
+                    expected[matches++] = dx * dx + dy * dy;
+                }
+            }
+            Arrays.sort(expected, 0, matches);
+            Assertions.assertEquals(Math.min(matches, 20), context.size(), "Search should find every matching place");
+            for (int j = 0; j < context.size(); j++) {
+                Assertions.assertEquals(expected[j], context.getSquaredDistance(j));
+                context.getServices(j, resultMask);
+                Assertions.assertTrue(containsMask(resultMask, mask), "Results should offer every requested service");
+            }
+        }
+    }
+
+    @Test
+    void widePredicatesMatchBruteForce() {
+        int numberOfPlaces = 200_000;
+        int[] xs = new int[numberOfPlaces];
+        int[] ys = new int[numberOfPlaces];
+        int[][] masks = new int[numberOfPlaces][];
+        Map2D plain = new Map2D(BOUNDARY, registry);
+        Map2D indexed = new Map2D(BOUNDARY, registry);
+        indexed.enableServiceIndex();
+        for (int i = 0; i < numberOfPlaces; i++) {
+            xs[i] = random.nextInt(MAX_COORDINATE);
+            ys[i] = random.nextInt(MAX_COORDINATE);
+            masks[i] = randomMask(8);
+            plain.addPlace(xs[i], ys[i], masks[i]);
+            indexed.addPlace(xs[i], ys[i], masks[i]);
+        }
+
+        QueryContext context = new QueryContext();
+        int[] resultMask = new int[registry.getWords()];
+        double[] expected = new double[numberOfPlaces];
+        for (int query = 0; query < 200; query++) {
+            int userX = random.nextInt(MAX_COORDINATE);
+            int userY = random.nextInt(MAX_COORDINATE);
+            int walkDistance = random.nextInt(1_000_000);
+            boolean circular = query % 2 == 1;
+            ServicePredicate predicate = query % 5 == 0
+                    ? new ServicePredicate(0, 1 << random.nextInt(Integer.SIZE), 0) // One word, applying to ids below 32
+                    : new ServicePredicate(randomMask(random.nextInt(2)), randomMask(3), randomMask(2), randomMask(3),
+                    random.nextInt(200_000));
+            int matches = 0;
+            for (int i = 0; i < numberOfPlaces; i++) {
+                long dx = xs[i] - userX;
+                long dy = ys[i] - userY;
+                boolean inside = circular
+                        ? dx * dx + dy * dy <= (long) walkDistance * walkDistance
+                        : Math.abs(dx) <= walkDistance && Math.abs(dy) <= walkDistance;
+                if (inside && predicate.matches(masks[i])) {
+                    expected[matches++] = predicate.score(Math.sqrt(dx * dx + dy * dy), masks[i]);
+                }
+            }
+            Arrays.sort(expected, 0, matches);
+            for (Map2D map2D : new Map2D[]{plain, indexed}) {
+                if (circular) {
+                    map2D.searchPlaceWithinRadius(userX, userY, walkDistance, predicate, 20, context);
+                } else {
+                    map2D.searchPlace(userX, userY, walkDistance, predicate, 20, context);
+                }
+                Assertions.assertEquals(Math.min(matches, 20), context.size(), "Search should find every matching place");
+                for (int j = 0; j < context.size(); j++) {
+                    context.getServices(j, resultMask);
+                    Assertions.assertTrue(predicate.matches(resultMask), "Results should match the predicate on every word");
+                    Assertions.assertEquals(expected[j], context.getScore(j), 0.01, "Results should be the best scored places");
+                }
+            }
+        }
+        ServicePredicate tooWide = ServicePredicate.anyOf(new int[registry.getWords() + 1]);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> plain.searchPlace(1, 1, 1, tooWide, 1, context));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new Map2D(BOUNDARY).searchPlace(1, 1, 1,
+                ServicePredicate.anyOf(randomMask(1)), 1, context));
+    }
+
+    @Test
+    void firstWordSearchCostsTheSameAsIntMasks() {
+        int numberOfPlaces = 1_000_000;
+        Map2D narrow = new Map2D(BOUNDARY);
+        Map2D wide = new Map2D(BOUNDARY, registry);
+        for (int i = 0; i < numberOfPlaces; i++) {
+            int x = random.nextInt(MAX_COORDINATE);
+            int y = random.nextInt(MAX_COORDINATE);
+            int[] mask = randomMask(8);
+            narrow.addPlace(x, y, mask[0]);
+            wide.addPlace(x, y, mask);
+        }
+        int[] lowMask = new int[registry.getWords()];
+        lowMask[0] = Service.encodeService(new String[]{"Hospital"});
+        int[] highMask = registry.encodeService(new String[]{"Category" + (NUM_SERVICES - 1)});
+
+        System.out.println("| Map          | Mask          | Searches | Runtime (us/op) |");
+        System.out.println("|--------------|---------------|----------|-----------------|");
+        QueryContext narrowContext = new QueryContext();
+        QueryContext wideContext = new QueryContext();
+        for (int round = 0; round < 2; round++) {
+            boolean print = round == 1; // The first round warms up
+            measure(print, "1 word", "Hospital", () -> narrow.searchPlace(random.nextInt(MAX_COORDINATE),
+                    random.nextInt(MAX_COORDINATE), 500_000, lowMask[0], 50, narrowContext));
+            measure(print, registry.getWords() + " words", "Hospital", () -> wide.searchPlace(random.nextInt(MAX_COORDINATE),
+                    random.nextInt(MAX_COORDINATE), 500_000, lowMask, 50, wideContext));
+            measure(print, registry.getWords() + " words", "Category" + (NUM_SERVICES - 1), () -> wide.searchPlace(
+                    random.nextInt(MAX_COORDINATE), random.nextInt(MAX_COORDINATE), 500_000, highMask, 50, wideContext));
+        }
+
+        for (int i = 0; i < 100; i++) {
+            int userX = random.nextInt(MAX_COORDINATE);
+            int userY = random.nextInt(MAX_COORDINATE);
+            narrow.searchPlace(userX, userY, 500_000, lowMask[0], 50, narrowContext);
+            wide.searchPlace(userX, userY, 500_000, lowMask, 50, wideContext);
+            Assertions.assertEquals(narrowContext.size(), wideContext.size());
+            for (int j = 0; j < narrowContext.size(); j++) {
+                Assertions.assertEquals(narrowContext.getX(j), wideContext.getX(j));
+                Assertions.assertEquals(narrowContext.getY(j), wideContext.getY(j));
+                Assertions.assertEquals(narrowContext.getServices(j), wideContext.getServices(j));
+            }
+        }
+    }
+
+    private static void measure(boolean print, String map, String mask, Runnable search) {
+        int searches = 2_000;
+        long startTime = System.nanoTime();
+        for (int i = 0; i < searches; i++) {
+            search.run();
+        }
+        double microsPerSearch = (System.nanoTime() - startTime) / 1_000.0 / searches;
+        if (print) {
+            System.out.printf("| %-12s | %-13s | %-8d | %15.2f |\n", map, mask, searches, microsPerSearch);
+        }
+    }
+
+    @Test
+    void registryInternsNamesUpToItsMaximum() {
+        ServiceRegistry small = new ServiceRegistry(2);
+        Assertions.assertEquals(0, small.register("Cinema"));
+        Assertions.assertEquals(1, small.register("Museum"));
+        Assertions.assertEquals(0, small.register("Cinema"), "Registering a name twice should give the same id");
+        Assertions.assertThrows(IllegalStateException.class, () -> small.register("Zoo"));
+        Assertions.assertEquals(-1, small.getId("Zoo"));
+        Assertions.assertArrayEquals(new String[]{"Cinema", "Museum"}, small.decodeService(small.encodeService(new String[]{"Museum", "Cinema"})));
+        Assertions.assertEquals(Service.HOSPITAL, registry.getId("Hospital"), "Standard services should keep their ids");
+
+        Map2D map2D = new Map2D(BOUNDARY, registry);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> map2D.addPlace(1, 1, new int[1]));
+    }
+
+    /**
+     * A search of a map holding wide masks, such as the search of a loaded or mapped copy.
+     */
+    private interface WideSearch {
+        void search(int userX, int userY, int walkDistance, int[] serviceMask, int k, QueryContext context);
+    }
+
+    private static boolean sameSearchResults(Map2D expected, WideSearch actual) {
+        QueryContext expectedContext = new QueryContext();
+        QueryContext actualContext = new QueryContext();
+        int[] expectedServices = new int[registry.getWords()];
+        int[] actualServices = new int[registry.getWords()];
+        for (int i = 0; i < 200; i++) {
+            int userX = random.nextInt(MAX_COORDINATE);
+            int userY = random.nextInt(MAX_COORDINATE);
+            // Services beyond the first word, which a single-word copy would lose
+            int[] mask = registry.encodeService(new String[]{"Category" + (Integer.SIZE + random.nextInt(NUM_SERVICES - Integer.SIZE))});
+            expected.searchPlace(userX, userY, 1_000_000, mask, 20, expectedContext);
+            actual.search(userX, userY, 1_000_000, mask, 20, actualContext);
+            if (expectedContext.size() != actualContext.size()) {
+                return false;
+            }
+            for (int j = 0; j < expectedContext.size(); j++) {
+                expectedContext.getServices(j, expectedServices);
+                actualContext.getServices(j, actualServices);
+                if (expectedContext.getX(j) != actualContext.getX(j) || expectedContext.getY(j) != actualContext.getY(j)
+                        || !Arrays.equals(expectedServices, actualServices)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Test
+    void wideMasksSurviveSnapshotsSegmentsAndLogs() throws IOException {
+        int numberOfPlaces = 200_000;
+        int[] xs = new int[numberOfPlaces];
+        int[] ys = new int[numberOfPlaces];
+        Map2D map2D = new Map2D(BOUNDARY, registry);
+        for (int i = 0; i < numberOfPlaces; i++) {
+            // Half of the places crowd one corner so that its leaves split
+            int range = i % 2 == 0 ? MAX_COORDINATE / 64 : MAX_COORDINATE;
+            xs[i] = random.nextInt(range);
+            ys[i] = random.nextInt(range);
+            map2D.addPlace(xs[i], ys[i], randomMask(8));
+        }
+        Path snapshot = directory.resolve("wide.bin");
+        map2D.save(snapshot);
+        for (int i = 0; i < numberOfPlaces / 4; i++) {
+            int j = random.nextInt(numberOfPlaces);
+            if (i % 3 == 0) {
+                map2D.removePlace(xs[j], ys[j]);
+            } else {
+                map2D.editPlace(xs[j], ys[j], randomMask(8));
+            }
+        }
+        for (int i = 0; i < 1_000; i++) {
+            map2D.addPlace(random.nextInt(MAX_COORDINATE), random.nextInt(MAX_COORDINATE), randomMask(8));
+        }
+        Path segment = directory.resolve("wide-segment.bin");
+        Assertions.assertTrue(map2D.saveSegment(segment) > 0);
+        Map2D loaded = Map2D.load(snapshot, segment);
+        Assertions.assertEquals(map2D.countPlaces(), loaded.countPlaces());
+        Assertions.assertTrue(sameSearchResults(map2D, loaded::searchPlace), "A loaded map should keep every service word");
+
+        map2D.save(snapshot);
+        MappedMap2D mapped = new MappedMap2D(snapshot);
+        Assertions.assertTrue(mapped.verifyChecksum());
+        Assertions.assertTrue(sameSearchResults(map2D, mapped::searchPlace), "A mapped map should keep every service word");
+        Assertions.assertThrows(IllegalArgumentException.class, () -> mapped.searchPlace(0, 0, 1, new int[1], 1, new QueryContext()));
+
+        Path durableDirectory = directory.resolve("durable");
+        Map2D expected = new Map2D(BOUNDARY, registry);
+        try (DurableMap2D durable = new DurableMap2D(durableDirectory, BOUNDARY, registry, Durability.WRITTEN)) {
+            for (int i = 0; i < 20_000; i++) {
+                if (i == 10_000) {
+                    durable.checkpoint();
+                }
+                int x = random.nextInt(MAX_COORDINATE);
+                int y = random.nextInt(MAX_COORDINATE);
+                int[] mask = randomMask(8);
+                durable.addPlace(x, y, mask);
+                expected.addPlace(x, y, mask);
+                if (i % 4 == 0) {
+                    mask = randomMask(8);
+                    Assertions.assertTrue(durable.editPlace(x, y, mask));
+                    expected.editPlace(x, y, mask);
+                }
+            }
+        }
+        try (DurableMap2D reopened = new DurableMap2D(durableDirectory, BOUNDARY, registry, Durability.WRITTEN)) {
+            Assertions.assertEquals(12_500, reopened.getReplayedChanges(), "Changes after the checkpoint should be replayed");
+            Assertions.assertTrue(sameSearchResults(expected, reopened::searchPlace), "A reopened map should keep every service word");
+        }
+        Assertions.assertThrows(IOException.class, () -> new DurableMap2D(durableDirectory, BOUNDARY, Durability.WRITTEN),
+                "A map of wide masks should not reopen with single-word services");
+    }
+}
@@ -0,0 +1,160 @@
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import src.*;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+public class Map2DSnapshotTest {
+    private static final int MAX_COORDINATE = 10_000_000;
+    private static final Random random = new Random();
+    private static Path directory;
+
+    @BeforeAll
+    public static void setUpOnce() throws IOException {
+        directory = Files.createTempDirectory("map2d-snapshot");
+        System.out.println("| Num of Places   | Pass/Fail | File (MB) | Save (ms) | Load (ms) | Load (MB/s) | bulkLoad (ms) | addPlace (ms) |");
+        System.out.println("|-----------------|-----------|-----------|-----------|-----------|-------------|---------------|---------------|");
+    }
+
+    @AfterAll
+    public static void tearDownOnce() throws IOException {
+        try (var files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    private static boolean sameSearchResults(Map2D expected, Map2D actual) {
+        QueryContext expectedContext = new QueryContext();
+        QueryContext actualContext = new QueryContext();
+        for (int i = 0; i < 100; i++) {
+            int userX = random.nextInt(MAX_COORDINATE);
+            int userY = random.nextInt(MAX_COORDINATE);
+            int serviceMask = 1 << random.nextInt(Service.NUM_SERVICES);
+            expected.searchPlace(userX, userY, 200_000, serviceMask, 100, expectedContext);
+            actual.searchPlace(userX, userY, 200_000, serviceMask, 100, actualContext);
+            if (expectedContext.size() != actualContext.size()) {
+                return false;
+            }
+            for (int j = 0; j < expectedContext.size(); j++) {
+                if (expectedContext.getX(j) != actualContext.getX(j) || expectedContext.getY(j) != actualContext.getY(j)
+                        || expectedContext.getServices(j) != actualContext.getServices(j)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1_000, 100_000, 1_000_000, 10_000_000})
+    void roundTripAndLoadTime(int numberOfPlaces) throws IOException {
+        int[] xs = new int[numberOfPlaces];
+        int[] ys = new int[numberOfPlaces];
+        int[] services = new int[numberOfPlaces];
+        for (int i = 0; i < numberOfPlaces; i++) {
+            xs[i] = random.nextInt(MAX_COORDINATE);
+            ys[i] = random.nextInt(MAX_COORDINATE);
+            services[i] = random.nextInt(1 << Service.NUM_SERVICES);
+        }
+        long startTime = System.nanoTime();
+        Map2D inserted = new Map2D(new Rectangle(0, MAX_COORDINATE, MAX_COORDINATE, MAX_COORDINATE));
+        for (int i = 0; i < numberOfPlaces; i++) {
+            inserted.addPlace(xs[i], ys[i], services[i]);
+        }
+        double addPlaceMillis = (System.nanoTime() - startTime) / 1_000_000.0;
+        inserted = null;
+
+        startTime = System.nanoTime();
+        Map2D map2D = new Map2D(new Rectangle(0, MAX_COORDINATE, MAX_COORDINATE, MAX_COORDINATE));
+        map2D.bulkLoad(xs, ys, services);
+        double bulkLoadMillis = (System.nanoTime() - startTime) / 1_000_000.0;
+
+        Path file = directory.resolve("map-" + numberOfPlaces + ".bin");
+        startTime = System.nanoTime();
+        map2D.save(file);
+        double saveMillis = (System.nanoTime() - startTime) / 1_000_000.0;
+
+        startTime = System.nanoTime();
+        Map2D loaded = Map2D.load(file);
+        double loadMillis = (System.nanoTime() - startTime) / 1_000_000.0;
+        double megabytes = Files.size(file) / (1024.0 * 1024.0);
+
+        boolean passed = loaded.countPlaces() == numberOfPlaces && loaded.countNodes() == map2D.countNodes()
+                && sameSearchResults(map2D, loaded);
+        System.out.printf("| %-15d | %-9s | %9.2f | %9.1f | %9.1f | %11.1f | %13.1f | %13.1f |\n",
+                numberOfPlaces, passed ? "Passed" : "Failed", megabytes, saveMillis, loadMillis, megabytes * 1_000 / loadMillis,
+                bulkLoadMillis, addPlaceMillis);
+        Assertions.assertTrue(passed, "The loaded map should hold the same tree and places");
+        Files.delete(file);
+    }
+
+    @Test
+    void failedSaveLeavesThePreviousSnapshot() throws IOException {
+        Rectangle boundary = new Rectangle(0, MAX_COORDINATE, MAX_COORDINATE, MAX_COORDINATE);
+        Map2D saved = new Map2D(boundary);
+        Map2D changed = new Map2D(boundary);
+        for (int i = 0; i < 50_000; i++) {
+            int x = random.nextInt(MAX_COORDINATE);
+            int y = random.nextInt(MAX_COORDINATE);
+            int services = 1 << random.nextInt(Service.NUM_SERVICES);
+            saved.addPlace(x, y, services);
+            changed.addPlace(x, y, services);
+        }
+        changed.addPlace(MAX_COORDINATE / 2, MAX_COORDINATE / 2, 1 << Service.HOSPITAL);
+        Path path = directory.resolve("replaced.snapshot");
+        saved.save(path);
+
+        // The temporary file of the next save cannot be created, so it fails before the snapshot is replaced
+        Path temporary = directory.resolve("replaced.snapshot.tmp");
+        Files.createDirectory(temporary);
+        Assertions.assertThrows(IOException.class, () -> changed.save(path));
+        Files.deleteIfExists(temporary);
+        Map2D loaded = Map2D.load(path);
+        Assertions.assertEquals(saved.countPlaces(), loaded.countPlaces(), "A failed save should leave the previous snapshot");
+        Assertions.assertTrue(sameSearchResults(saved, loaded));
+
+        changed.save(path);
+        Assertions.assertFalse(Files.exists(temporary), "A save should not leave its temporary file behind");
+        Assertions.assertEquals(changed.countPlaces(), Map2D.load(path).countPlaces());
+    }
+
+    @Test
+    void corruptOrForeignFilesAreRejected() throws IOException {
+        Map2D map2D = new Map2D(new Rectangle(0, MAX_COORDINATE, MAX_COORDINATE, MAX_COORDINATE), true);
+        for (int i = 0; i < 10_000; i++) {
+            map2D.addPlace(random.nextInt(MAX_COORDINATE), random.nextInt(MAX_COORDINATE), random.nextInt(1 << Service.NUM_SERVICES));
+        }
+        Path file = directory.resolve("corrupt.bin");
+        map2D.save(file);
+        Assertions.assertEquals(10_000, Map2D.load(file).countPlaces());
+
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            long position = 64 + 32 + random.nextInt(10_000 * 12);
+            raf.seek(position);
+            int value = raf.read();
+            raf.seek(position);
+            raf.write(value ^ 0x10);
+        }
+        Assertions.assertThrows(IOException.class, () -> Map2D.load(file), "A flipped bit should fail the checksum");
+
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(raf.length() - 4);
+        }
+        Assertions.assertThrows(IOException.class, () -> Map2D.load(file), "A truncated file should be rejected");
+
+        Files.write(file, new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        Assertions.assertThrows(IOException.class, () -> Map2D.load(file), "A foreign file should be rejected");
+        Files.delete(file);
+    }
+}
@@ -0,0 +1,219 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import src.*;
+
+import java.util.Random;
+
+public class Map2DSortedLeavesTest {
+    private static final int MAX_COORDINATE = 10_000_000;
+    private static final Rectangle BOUNDARY = new Rectangle(0, MAX_COORDINATE, MAX_COORDINATE, MAX_COORDINATE);
+    private static final Random random = new Random();
+
+    private static int randomServices() {
+        int numServices = random.nextInt(5) + 1;
+        int result = 0;
+        for (int i = 0; i < numServices; i++) {
+            result |= 1 << random.nextInt(Service.NUM_SERVICES);
+        }
+        return result;
+    }
+
+    /**
+     * Compares the distances of the results only: places at the same distance may be ranked differently once
+     * leaves are reordered.
+     */
+    private static boolean sameDistances(QueryContext expected, QueryContext actual) {
+        if (expected.size() != actual.size()) {
+            return false;
+        }
+        for (int j = 0; j < expected.size(); j++) {
+            if (expected.getSquaredDistance(j) != actual.getSquaredDistance(j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compares searches centred on places of the given range, most of them close enough to stay within the blocks
+     * holding those places: the places appended to sorted leaves or moved into the gaps left by removals, which lie
+     * after the sorted prefix of their leaf or widen its blocks.
+     */
+    private static void assertSameSearchesAround(Map2D expected, Map2D actual, int[] xs, int[] ys, int from, int to) {
+        QueryContext expectedContext = new QueryContext();
+        QueryContext actualContext = new QueryContext();
+        int[] walkDistances = {0, 500, 5_000, 50_000, 1_000_000};
+        for (int i = 0; i < 300; i++) {
+            int place = from + random.nextInt(to - from);
+            int userX = xs[place];
+            int userY = ys[place];
+            int walkDistance = walkDistances[i % walkDistances.length];
+            int serviceMask = random.nextInt(4) == 0 ? 1 << random.nextInt(Service.NUM_SERVICES) : 0;
+            expected.searchPlace(userX, userY, walkDistance, serviceMask, 10, expectedContext);
+            actual.searchPlace(userX, userY, walkDistance, serviceMask, 10, actualContext);
+            Assertions.assertTrue(sameDistances(expectedContext, actualContext), "Sorted leaves should find the same places");
+            expected.searchPlaceWithinRadius(userX, userY, walkDistance, serviceMask, 10, expectedContext);
+            actual.searchPlaceWithinRadius(userX, userY, walkDistance, serviceMask, 10, actualContext);
+            Assertions.assertTrue(sameDistances(expectedContext, actualContext), "Sorted radius search should find the same places");
+            ServicePredicate predicate = ServicePredicate.anyOf(random.nextInt(1 << Service.NUM_SERVICES));
+            expected.searchPlace(userX, userY, walkDistance, predicate, 10, expectedContext);
+            actual.searchPlace(userX, userY, walkDistance, predicate, 10, actualContext);
+            Assertions.assertTrue(sameDistances(expectedContext, actualContext), "Sorted predicate search should find the same places");
+        }
+    }
+
+    @Test
+    void sortedLeavesFollowEveryChange() {
+        for (boolean stableRemoval : new boolean[]{false, true}) {
+            Map2D plain = new Map2D(BOUNDARY, stableRemoval);
+            Map2D sorted = new Map2D(BOUNDARY, stableRemoval);
+            Map2D indexed = new Map2D(BOUNDARY, stableRemoval);
+            indexed.enableServiceIndex();
+            if (!stableRemoval) {
+                indexed.enableCoordinateIndex();
+            }
+            Map2D[] maps = {plain, sorted, indexed};
+            int numberOfPlaces = 250_000;
+            int[] xs = new int[numberOfPlaces];
+            int[] ys = new int[numberOfPlaces];
+            for (int i = 0; i < numberOfPlaces; i++) {
+                // Half of the places crowd one corner so that its leaves split, most of them are removed again below
+                int range = i % 2 == 0 ? MAX_COORDINATE / 64 : MAX_COORDINATE;
+                xs[i] = random.nextInt(range);
+                ys[i] = random.nextInt(range);
+                int services = randomServices();
+                for (Map2D map2D : maps) {
+                    map2D.addPlace(xs[i], ys[i], services);
+                }
+                if (i == numberOfPlaces / 2) {
+                    // Places added from now on are appended to sorted leaves
+                    sorted.enableSortedLeaves();
+                    indexed.enableSortedLeaves();
+                }
+            }
+            // The places added after sorting was enabled were appended after the sorted prefix of their leaf
+            assertSameSearchesAround(plain, sorted, xs, ys, numberOfPlaces / 2, numberOfPlaces);
+            for (int i = 1; i < numberOfPlaces; i += 2) {
+                int edited = randomServices();
+                for (Map2D map2D : maps) {
+                    Assertions.assertTrue(map2D.editPlace(xs[i], ys[i], edited));
+                }
+            }
+            for (int i = 0; i < numberOfPlaces; i += stableRemoval ? 40 : 2) {
+                for (Map2D map2D : maps) {
+                    Assertions.assertTrue(map2D.removePlace(xs[i], ys[i]), "Sorted leaves should still find every place");
+                }
+            }
+            // Removals moved the last places of the leaves into the gaps, before and after their sorted prefix
+            assertSameSearchesAround(plain, sorted, xs, ys, 0, numberOfPlaces);
+            assertSameSearchesAround(plain, indexed, xs, ys, 0, numberOfPlaces);
+            Assertions.assertEquals(plain.compact(), sorted.compact());
+            Assertions.assertEquals(plain.compact(), indexed.compact());
+            assertSameSearchesAround(plain, sorted, xs, ys, 0, numberOfPlaces);
+            assertSameSearchesAround(plain, indexed, xs, ys, 0, numberOfPlaces);
+
+            int[] batchXs = new int[100_000];
+            int[] batchYs = new int[100_000];
+            int[] batchServices = new int[100_000];
+            for (int i = 0; i < batchXs.length; i++) {
+                batchXs[i] = random.nextInt(MAX_COORDINATE);
+                batchYs[i] = random.nextInt(MAX_COORDINATE);
+                batchServices[i] = randomServices();
+            }
+            for (Map2D map2D : maps) {
+                map2D.bulkLoad(batchXs.clone(), batchYs.clone(), batchServices.clone());
+                Assertions.assertEquals(plain.countPlaces(), map2D.countPlaces());
+            }
+            assertSameSearchesAround(plain, sorted, batchXs, batchYs, 0, batchXs.length);
+            assertSameSearchesAround(plain, indexed, batchXs, batchYs, 0, batchXs.length);
+            for (int i = 0; i < batchXs.length; i += 3) {
+                Assertions.assertTrue(indexed.removePlace(batchXs[i], batchYs[i]));
+                Assertions.assertTrue(sorted.removePlace(batchXs[i], batchYs[i]));
+                Assertions.assertTrue(plain.removePlace(batchXs[i], batchYs[i]));
+            }
+            assertSameSearchesAround(plain, sorted, batchXs, batchYs, 0, batchXs.length);
+            assertSameSearchesAround(plain, indexed, batchXs, batchYs, 0, batchXs.length);
+        }
+    }
+
+    @Test
+    void sortedLeavesAcrossWalkDistances() {
+        int numberOfPlaces = 2_000_000;
+        int[] xs = new int[numberOfPlaces];
+        int[] ys = new int[numberOfPlaces];
+        int[] services = new int[numberOfPlaces];
+        for (int i = 0; i < numberOfPlaces; i++) {
+            xs[i] = random.nextInt(MAX_COORDINATE);
+            ys[i] = random.nextInt(MAX_COORDINATE);
+            services[i] = randomServices();
+        }
+        Map2D plain = new Map2D(BOUNDARY);
+        plain.bulkLoad(xs.clone(), ys.clone(), services.clone());
+        Map2D sorted = new Map2D(BOUNDARY);
+        sorted.enableSortedLeaves();
+        long startTime = System.nanoTime();
+        sorted.bulkLoad(xs.clone(), ys.clone(), services.clone());
+        double sortedLoadMillis = (System.nanoTime() - startTime) / 1e6;
+        startTime = System.nanoTime();
+        Map2D unsortedLoad = new Map2D(BOUNDARY);
+        unsortedLoad.bulkLoad(xs.clone(), ys.clone(), services.clone());
+        double plainLoadMillis = (System.nanoTime() - startTime) / 1e6;
+        System.out.printf("Bulk load of %d places: %.1f ms unsorted, %.1f ms sorted%n", numberOfPlaces, plainLoadMillis, sortedLoadMillis);
+
+        // 1% more places added one by one land after the sorted prefix of their leaf, which is still searched by code
+        Map2D plainAppended = new Map2D(BOUNDARY);
+        plainAppended.bulkLoad(xs.clone(), ys.clone(), services.clone());
+        Map2D appended = new Map2D(BOUNDARY);
+        appended.enableSortedLeaves();
+        appended.bulkLoad(xs, ys, services);
+        for (int i = 0; i < numberOfPlaces / 100; i++) {
+            int x = random.nextInt(MAX_COORDINATE);
+            int y = random.nextInt(MAX_COORDINATE);
+            int added = randomServices();
+            plainAppended.addPlace(x, y, added);
+            appended.addPlace(x, y, added);
+        }
+
+        System.out.println("| Walk Distance | k  | Pass/Fail | Plain (us/op) | Sorted (us/op) | Appended (us/op) | Speedup |");
+        System.out.println("|---------------|----|-----------|---------------|----------------|------------------|---------|");
+        int serviceMask = Service.encodeService(new String[]{"Restaurant"});
+        int[] walkDistances = {5_000, 20_000, 50_000, 200_000, 1_000_000};
+        for (int round = 0; round < 2; round++) {
+            for (int walkDistance : walkDistances) {
+                int[] userXs = new int[2_000];
+                int[] userYs = new int[2_000];
+                for (int i = 0; i < userXs.length; i++) {
+                    userXs[i] = random.nextInt(MAX_COORDINATE);
+                    userYs[i] = random.nextInt(MAX_COORDINATE);
+                }
+                QueryContext plainContext = new QueryContext();
+                QueryContext sortedContext = new QueryContext();
+                double plainMicros = measure(plain, userXs, userYs, walkDistance, serviceMask, plainContext);
+                double sortedMicros = measure(sorted, userXs, userYs, walkDistance, serviceMask, sortedContext);
+                double appendedMicros = measure(appended, userXs, userYs, walkDistance, serviceMask, sortedContext);
+                boolean passed = true;
+                for (int i = 0; i < 200; i++) {
+                    plain.searchPlace(userXs[i], userYs[i], walkDistance, serviceMask, 10, plainContext);
+                    sorted.searchPlace(userXs[i], userYs[i], walkDistance, serviceMask, 10, sortedContext);
+                    passed &= sameDistances(plainContext, sortedContext);
+                    plainAppended.searchPlace(userXs[i], userYs[i], walkDistance, serviceMask, 10, plainContext);
+                    appended.searchPlace(userXs[i], userYs[i], walkDistance, serviceMask, 10, sortedContext);
+                    passed &= sameDistances(plainContext, sortedContext);
+                }
+                if (round == 1) { // The first round warms up
+                    System.out.printf("| %-13d | %-2d | %-9s | %13.1f | %14.1f | %16.1f | %6.1fx |\n", walkDistance, 10,
+                            passed ? "Passed" : "Failed", plainMicros, sortedMicros, appendedMicros, plainMicros / sortedMicros);
+                }
+                Assertions.assertTrue(passed, "Sorted leaves should find the same places");
+            }
+        }
+    }
+
+    private static double measure(Map2D map2D, int[] userXs, int[] userYs, int walkDistance, int serviceMask, QueryContext context) {
+        long startTime = System.nanoTime();
+        for (int i = 0; i < userXs.length; i++) {
+            map2D.searchPlace(userXs[i], userYs[i], walkDistance, serviceMask, 10, context);
+        }
+        return (System.nanoTime() - startTime) / 1_000.0 / userXs.length;
+    }
+}
@@ -0,0 +1,135 @@
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import src.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+public class MappedMap2DTest {
+    private static final int MAX_COORDINATE = 10_000_000;
+    private static final int NUM_OF_SEARCHES = 10_000;
+    private static final Random random = new Random();
+    private static Path directory;
+
+    @BeforeAll
+    public static void setUpOnce() throws IOException {
+        directory = Files.createTempDirectory("map2d-mapped");
+        System.out.println("| Num of Places   | Pass/Fail | Open (ms) | load (ms) | Heap mapped (MB) | Heap loaded (MB) | Search mapped (us) | Search loaded (us) |");
+        System.out.println("|-----------------|-----------|-----------|-----------|------------------|------------------|--------------------|--------------------|");
+    }
+
+    @AfterAll
+    public static void tearDownOnce() throws IOException {
+        try (var files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static boolean sameResults(QueryContext expected, QueryContext actual) {
+        if (expected.size() != actual.size()) {
+            return false;
+        }
+        for (int j = 0; j < expected.size(); j++) {
+            if (expected.getX(j) != actual.getX(j) || expected.getY(j) != actual.getY(j)
+                    || expected.getServices(j) != actual.getServices(j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Path saveRandomMap(int numberOfPlaces, String name) throws IOException {
+        int[] xs = new int[numberOfPlaces];
+        int[] ys = new int[numberOfPlaces];
+        int[] services = new int[numberOfPlaces];
+        for (int i = 0; i < numberOfPlaces; i++) {
+            xs[i] = random.nextInt(MAX_COORDINATE);
+            ys[i] = random.nextInt(MAX_COORDINATE);
+            services[i] = random.nextInt(1 << Service.NUM_SERVICES);
+        }
+        Map2D map2D = new Map2D(new Rectangle(0, MAX_COORDINATE, MAX_COORDINATE, MAX_COORDINATE));
+        map2D.bulkLoad(xs, ys, services);
+        Path file = directory.resolve(name);
+        map2D.save(file);
+        return file;
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {100_000, 1_000_000, 10_000_000})
+    void mappedSearchesMatchLoadedMap(int numberOfPlaces) throws IOException {
+        Path file = saveRandomMap(numberOfPlaces, "map-" + numberOfPlaces + ".bin");
+
+        long heapBefore = usedHeap();
+        long startTime = System.nanoTime();
+        MappedMap2D mapped = new MappedMap2D(file);
+        double openMillis = (System.nanoTime() - startTime) / 1_000_000.0;
+        double mappedMegabytes = (usedHeap() - heapBefore) / (1024.0 * 1024.0);
+
+        heapBefore = usedHeap();
+        startTime = System.nanoTime();
+        Map2D loaded = Map2D.load(file);
+        double loadMillis = (System.nanoTime() - startTime) / 1_000_000.0;
+        double loadedMegabytes = (usedHeap() - heapBefore) / (1024.0 * 1024.0);
+
+        int[] userXs = new int[NUM_OF_SEARCHES];
+        int[] userYs = new int[NUM_OF_SEARCHES];
+        int[] serviceMasks = new int[NUM_OF_SEARCHES];
+        for (int i = 0; i < NUM_OF_SEARCHES; i++) {
+            userXs[i] = random.nextInt(MAX_COORDINATE);
+            userYs[i] = random.nextInt(MAX_COORDINATE);
+            serviceMasks[i] = 1 << random.nextInt(Service.NUM_SERVICES);
+        }
+        QueryContext expected = new QueryContext();
+        QueryContext actual = new QueryContext();
+        boolean passed = mapped.countPlaces() == numberOfPlaces && mapped.verifyChecksum();
+        for (int i = 0; i < NUM_OF_SEARCHES / 10; i++) {
+            loaded.searchPlace(userXs[i], userYs[i], 200_000, serviceMasks[i], 50, expected);
+            mapped.searchPlace(userXs[i], userYs[i], 200_000, serviceMasks[i], 50, actual);
+            passed &= sameResults(expected, actual);
+            loaded.searchPlaceWithinRadius(userXs[i], userYs[i], 200_000, serviceMasks[i], 50, expected);
+            mapped.searchPlaceWithinRadius(userXs[i], userYs[i], 200_000, serviceMasks[i], 50, actual);
+            passed &= sameResults(expected, actual);
+        }
+
+        startTime = System.nanoTime();
+        for (int i = 0; i < NUM_OF_SEARCHES; i++) {
+            mapped.searchPlace(userXs[i], userYs[i], 200_000, serviceMasks[i], 50, actual);
+        }
+        double mappedMicros = (System.nanoTime() - startTime) / 1_000.0 / NUM_OF_SEARCHES;
+        startTime = System.nanoTime();
+        for (int i = 0; i < NUM_OF_SEARCHES; i++) {
+            loaded.searchPlace(userXs[i], userYs[i], 200_000, serviceMasks[i], 50, expected);
+        }
+        double loadedMicros = (System.nanoTime() - startTime) / 1_000.0 / NUM_OF_SEARCHES;
+
+        System.out.printf("| %-15d | %-9s | %9.2f | %9.1f | %16.2f | %16.2f | %18.2f | %18.2f |\n",
+                numberOfPlaces, passed ? "Passed" : "Failed", openMillis, loadMillis, mappedMegabytes, loadedMegabytes,
+                mappedMicros, loadedMicros);
+        Assertions.assertTrue(passed, "The mapped map should return the same places as the loaded map");
+    }
+
+    @Test
+    void foreignFilesAreRejected() throws IOException {
+        Path file = saveRandomMap(10_000, "foreign.bin");
+        Assertions.assertEquals(10_000, new MappedMap2D(file).countPlaces());
+        Files.write(file, new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        Assertions.assertThrows(IOException.class, () -> new MappedMap2D(file), "A foreign file should be rejected");
+    }
+}
@@ -0,0 +1,162 @@
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import src.*;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+public class PlaceImporterTest {
+    private static final int MAX_COORDINATE = 10_000_000;
+    private static final Rectangle BOUNDARY = new Rectangle(0, MAX_COORDINATE, MAX_COORDINATE, MAX_COORDINATE);
+    private static final int NUMBER_OF_PLACES = 5_000_000;
+    private static final Random random = new Random();
+    private static Path directory;
+    private static Path textFile;
+    private static Path binaryFile;
+
+    @BeforeAll
+    public static void setUpOnce() throws IOException {
+        directory = Files.createTempDirectory("map2d-import");
+        textFile = directory.resolve("places.csv");
+        binaryFile = directory.resolve("places.bin");
+        ByteBuffer record = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        try (BufferedWriter writer = Files.newBufferedWriter(textFile);
+             FileChannel channel = FileChannel.open(binaryFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            for (int i = 0; i < NUMBER_OF_PLACES; i++) {
+                int x = random.nextInt(MAX_COORDINATE);
+                int y = random.nextInt(MAX_COORDINATE);
+                int services = random.nextInt(1 << Service.NUM_SERVICES);
+                writer.write(x + "," + y + "," + String.join(";", Service.decodeService(services)) + "\n");
+                if (record.remaining() < PlaceImporter.BINARY_RECORD_BYTES) {
+                    channel.write(record.flip());
+                    record.clear();
+                }
+                record.putInt(x).putInt(y).putInt(services);
+            }
+            channel.write(record.flip());
+        }
+    }
+
+    @AfterAll
+    public static void tearDownOnce() throws IOException {
+        try (var files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    /**
+     * Imports the text file one line at a time, splitting each line into Strings and encoding its services by name.
+     */
+    private static Map2D importLineByLine(Path path) throws IOException {
+        Map2D map2D = new Map2D(BOUNDARY);
+        try (BufferedReader reader = Files.newBufferedReader(path)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(",", -1);
+                String[] services = fields[2].isEmpty() ? new String[0] : fields[2].split(";");
+                map2D.addPlace(Integer.parseInt(fields[0]), Integer.parseInt(fields[1]), Service.encodeService(services));
+            }
+        }
+        return map2D;
+    }
+
+    private static boolean sameSearchResults(Map2D expected, Map2D actual) {
+        if (expected.countPlaces() != actual.countPlaces()) {
+            return false;
+        }
+        QueryContext expectedContext = new QueryContext();
+        QueryContext actualContext = new QueryContext();
+        for (int i = 0; i < 200; i++) {
+            int userX = random.nextInt(MAX_COORDINATE);
+            int userY = random.nextInt(MAX_COORDINATE);
+            int serviceMask = 1 << random.nextInt(Service.NUM_SERVICES);
+            expected.searchPlace(userX, userY, 300_000, serviceMask, 50, expectedContext);
+            actual.searchPlace(userX, userY, 300_000, serviceMask, 50, actualContext);
+            if (expectedContext.size() != actualContext.size()) {
+                return false;
+            }
+            for (int j = 0; j < expectedContext.size(); j++) {
+                if (expectedContext.getX(j) != actualContext.getX(j) || expectedContext.getY(j) != actualContext.getY(j)
+                        || expectedContext.getServices(j) != actualContext.getServices(j)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Test
+    void importThroughput() throws IOException {
+        System.out.println("| Importer     | Pass/Fail | Places    | File (MB) | Runtime (ms) | MB/s    | Places/s     |");
+        System.out.println("|--------------|-----------|-----------|-----------|--------------|---------|--------------|");
+        long startTime = System.nanoTime();
+        Map2D expected = importLineByLine(textFile);
+        printRow("Line by line", true, textFile, startTime);
+
+        Map2D text = new Map2D(BOUNDARY);
+        startTime = System.nanoTime();
+        long places = new PlaceImporter(text).importText(textFile);
+        boolean textPassed = places == NUMBER_OF_PLACES && sameSearchResults(expected, text);
+        printRow("Text", textPassed, textFile, startTime);
+        text = null;
+
+        Map2D binary = new Map2D(BOUNDARY);
+        startTime = System.nanoTime();
+        places = new PlaceImporter(binary).importBinary(binaryFile);
+        boolean binaryPassed = places == NUMBER_OF_PLACES && sameSearchResults(expected, binary);
+        printRow("Binary", binaryPassed, binaryFile, startTime);
+
+        Assertions.assertTrue(textPassed, "The text importer should load the same places as the line-by-line import");
+        Assertions.assertTrue(binaryPassed, "The binary importer should load the same places as the line-by-line import");
+    }
+
+    private static void printRow(String importer, boolean passed, Path file, long startTime) throws IOException {
+        double millis = (System.nanoTime() - startTime) / 1_000_000.0;
+        double megabytes = Files.size(file) / (1024.0 * 1024.0);
+        System.out.printf("| %-12s | %-9s | %-9d | %9.1f | %12.1f | %7.1f | %12.0f |\n", importer, passed ? "Passed" : "Failed",
+                NUMBER_OF_PLACES, megabytes, millis, megabytes * 1_000 / millis, NUMBER_OF_PLACES * 1_000.0 / millis);
+    }
+
+    @Test
+    void emptyLinesLineEndingsAndBatchEndsAreHandled() throws IOException {
+        Path file = directory.resolve("edge.csv");
+        Files.writeString(file, "1,2,ATM;Park\r\n\n-0,4,\n5,6\n7,8,ConvenienceStore;School;ATM");
+        Map2D map2D = new Map2D(new Rectangle(0, 10, 10, 10));
+        Assertions.assertEquals(4, new PlaceImporter(map2D, 1).importText(file));
+        QueryContext context = new QueryContext();
+        map2D.searchPlace(7, 8, 0, 1 << Service.ATM, 10, context);
+        Assertions.assertEquals(1, context.size());
+        Assertions.assertEquals(Service.encodeService(new String[]{"ConvenienceStore", "School", "ATM"}), context.getServices(0));
+        Assertions.assertEquals(4, map2D.countPlaces());
+    }
+
+    @Test
+    void malformedInputIsRejectedWithItsLine() throws IOException {
+        Path file = directory.resolve("malformed.csv");
+        Files.writeString(file, "1,2,ATM\n3,4,Cinema\n5,6,Park\n");
+        Map2D map2D = new Map2D(new Rectangle(0, 10, 10, 10));
+        IOException e = Assertions.assertThrows(IOException.class, () -> new PlaceImporter(map2D).importText(file));
+        Assertions.assertTrue(e.getMessage().contains("line 2"), e.getMessage());
+
+        Files.writeString(file, "1,2,ATM\n30,4,Park\n");
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new PlaceImporter(map2D).importText(file),
+                "A place out of the map's boundary should be rejected");
+
+        Files.write(file, new byte[PlaceImporter.BINARY_RECORD_BYTES + 5]);
+        Assertions.assertThrows(IOException.class, () -> new PlaceImporter(map2D).importBinary(file),
+                "A binary file ending with an incomplete record should be rejected");
+    }
+}
@@ -0,0 +1,164 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import src.*;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class SnapshotMap2DTest {
+    private static final int NUM_PLACES = 1_000_000;
+    private static final int MAX_COORDINATE = 10_000_000;
+    private static final int NUM_MUTATIONS = 10_000;
+    private static final Random random = new Random();
+    private static int[] xs;
+    private static int[] ys;
+    private static int[] services;
+
+    @BeforeAll
+    public static void setUpOnce() {
+        xs = new int[NUM_PLACES];
+        ys = new int[NUM_PLACES];
+        services = new int[NUM_PLACES];
+        for (int i = 0; i < NUM_PLACES; i++) {
+            xs[i] = random.nextInt(MAX_COORDINATE);
+            ys[i] = random.nextInt(MAX_COORDINATE);
+            services[i] = 1 << random.nextInt(Service.NUM_SERVICES);
+        }
+        System.out.println("| Batch Size | Pass/Fail | Mutation (us/op) | Allocated (KB/op) | GC Count | GC Time (ms) |");
+        System.out.println("|------------|-----------|------------------|-------------------|----------|--------------|");
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+
+    private static long[] gcCountAndTime() {
+        long[] totals = new long[2];
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            totals[0] += Math.max(bean.getCollectionCount(), 0);
+            totals[1] += Math.max(bean.getCollectionTime(), 0);
+        }
+        return totals;
+    }
+
+    private static Map2D loadMap() {
+        Map2D map2D = new Map2D(new Rectangle(0, MAX_COORDINATE, MAX_COORDINATE, MAX_COORDINATE));
+        map2D.bulkLoad(xs.clone(), ys.clone(), services.clone());
+        return map2D;
+    }
+
+    // Batch size 0 stands for an ordinary Map2D modified in place
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 10, 100, 1_000, 10_000})
+    void mutationCostByBatchSize(int batchSize) {
+        Map2D map2D = loadMap();
+        SnapshotMap2D snapshotMap = batchSize == 0 ? null : new SnapshotMap2D(map2D);
+        // Single commits copy whole leaves each time, so fewer of them are measured
+        int numberOfMutations = batchSize == 1 ? NUM_MUTATIONS / 10 : NUM_MUTATIONS;
+
+        long[] gcBefore = gcCountAndTime();
+        long allocatedBefore = allocatedBytes();
+        long startTime = System.nanoTime();
+        int edited = 0;
+        for (int i = 0; i < numberOfMutations; i++) {
+            if (snapshotMap == null) {
+                edited += map2D.editPlace(xs[i], ys[i], services[i] | 1) ? 1 : 0;
+                continue;
+            }
+            if (batchSize > 1 && i % batchSize == 0) {
+                snapshotMap.beginBatch();
+            }
+            edited += snapshotMap.editPlace(xs[i], ys[i], services[i] | 1) ? 1 : 0;
+            if (batchSize > 1 && (i % batchSize == batchSize - 1 || i == numberOfMutations - 1)) {
+                snapshotMap.commit();
+            }
+        }
+        double micros = (System.nanoTime() - startTime) / 1_000.0 / numberOfMutations;
+        double kilobytes = (allocatedBytes() - allocatedBefore) / 1_024.0 / numberOfMutations;
+        long[] gcAfter = gcCountAndTime();
+
+        boolean passed = edited == numberOfMutations;
+        System.out.printf("| %-10s | %-9s | %16.2f | %17.2f | %8d | %12d |\n",
+                batchSize == 0 ? "in place" : batchSize, passed ? "Passed" : "Failed", micros, kilobytes,
+                gcAfter[0] - gcBefore[0], gcAfter[1] - gcBefore[1]);
+        Assertions.assertTrue(passed, "Every edited place should be found");
+    }
+
+    @Test
+    void readersSeeWholeBatchesOnly() throws InterruptedException {
+        int placesPerBatch = 100;
+        int numberOfBatches = 200;
+        SnapshotMap2D snapshotMap = new SnapshotMap2D(loadMap());
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicReference<String> failure = new AtomicReference<>();
+
+        // Each batch adds its places on one spot and a later batch removes them all; readers must see all or none
+        int[] spotXs = new int[numberOfBatches];
+        int[] spotYs = new int[numberOfBatches];
+        for (int b = 0; b < numberOfBatches; b++) {
+            spotXs[b] = random.nextInt(MAX_COORDINATE);
+            spotYs[b] = random.nextInt(MAX_COORDINATE);
+        }
+        Thread[] readers = new Thread[4];
+        for (int r = 0; r < readers.length; r++) {
+            readers[r] = new Thread(() -> {
+                QueryContext context = new QueryContext();
+                int serviceMask = Service.encodeService(new String[]{"Hospital", "School"});
+                Random readerRandom = new Random();
+                while (writing.get()) {
+                    int b = readerRandom.nextInt(numberOfBatches);
+                    snapshotMap.searchPlace(spotXs[b], spotYs[b], 0, serviceMask, placesPerBatch * 2, context);
+                    int found = context.size();
+                    if (found != 0 && found != placesPerBatch) {
+                        failure.compareAndSet(null, "A reader saw " + found + " places of a batch");
+                    }
+                }
+            });
+            readers[r].start();
+        }
+        int serviceMask = Service.encodeService(new String[]{"Hospital", "School"});
+        for (int round = 0; round < 3; round++) {
+            for (int b = 0; b < numberOfBatches; b++) {
+                snapshotMap.beginBatch();
+                for (int i = 0; i < placesPerBatch; i++) {
+                    snapshotMap.addPlace(spotXs[b], spotYs[b], serviceMask);
+                }
+                snapshotMap.commit();
+            }
+            for (int b = 0; b < numberOfBatches; b++) {
+                snapshotMap.beginBatch();
+                for (int i = 0; i < placesPerBatch; i++) {
+                    snapshotMap.removePlace(spotXs[b], spotYs[b]);
+                }
+                snapshotMap.commit();
+            }
+        }
+        writing.set(false);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        Assertions.assertNull(failure.get());
+        Assertions.assertEquals(NUM_PLACES, snapshotMap.countPlaces());
+    }
+
+    @Test
+    void rolledBackBatchLeavesMapUnchanged() {
+        SnapshotMap2D snapshotMap = new SnapshotMap2D(new Rectangle(0, MAX_COORDINATE, MAX_COORDINATE, MAX_COORDINATE));
+        snapshotMap.addPlace(10, 10, 1);
+        snapshotMap.beginBatch();
+        snapshotMap.addPlace(20, 20, 1);
+        snapshotMap.removePlace(10, 10);
+        Assertions.assertEquals(1, snapshotMap.countPlaces(), "Uncommitted changes should not be visible");
+        snapshotMap.rollback();
+        Assertions.assertEquals(1, snapshotMap.countPlaces());
+        Assertions.assertEquals(1, snapshotMap.searchPlace(10, 10, 0, new String[]{}, 10).size());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> snapshotMap.addPlace(-1, 10, 1));
+        Assertions.assertEquals(1, snapshotMap.countPlaces());
+    }
+}
@@ -0,0 +1,152 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import src.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class SpatialIndexTest {
+    private static final int MAX_COORDINATE = 10_000_000;
+    private static final Rectangle BOUNDARY = new Rectangle(0, MAX_COORDINATE, MAX_COORDINATE, MAX_COORDINATE);
+    private static final Random random = new Random();
+
+    private static int randomServices() {
+        int numServices = random.nextInt(5) + 1;
+        int result = 0;
+        for (int i = 0; i < numServices; i++) {
+            result |= 1 << random.nextInt(Service.NUM_SERVICES);
+        }
+        return result;
+    }
+
+    private static SpatialIndex[] createEngines(int expectedPlaces) {
+        return new SpatialIndex[]{new Map2D(BOUNDARY), new ConcurrentMap2D(BOUNDARY), GridIndex.forExpectedPlaces(BOUNDARY, expectedPlaces)};
+    }
+
+    @Test
+    void everyEngineMatchesBruteForce() {
+        int numberOfPlaces = 200_000;
+        int[] xs = new int[numberOfPlaces];
+        int[] ys = new int[numberOfPlaces];
+        int[] services = new int[numberOfPlaces];
+        boolean[] removed = new boolean[numberOfPlaces];
+        for (int i = 0; i < numberOfPlaces; i++) {
+            xs[i] = random.nextInt(MAX_COORDINATE + 1);
+            ys[i] = random.nextInt(MAX_COORDINATE + 1);
+            services[i] = randomServices();
+        }
+        for (int i = 0; i < numberOfPlaces; i += 3) {
+            removed[i] = true;
+        }
+        xs[1] = MAX_COORDINATE; // Places on the edges of the boundary
+        ys[2] = 0;
+
+        QueryContext context = new QueryContext();
+        long[] expected = new long[numberOfPlaces];
+        for (SpatialIndex index : createEngines(numberOfPlaces)) {
+            for (int i = 0; i < numberOfPlaces; i++) {
+                index.addPlace(xs[i], ys[i], services[i] ^ 1);
+            }
+            for (int i = 0; i < numberOfPlaces; i++) {
+                Assertions.assertTrue(removed[i] ? index.removePlace(xs[i], ys[i]) : index.editPlace(xs[i], ys[i], services[i]));
+            }
+            Assertions.assertFalse(index.removePlace(xs[0], ys[0]), "A removed place should not be found again");
+            Assertions.assertFalse(index.editPlace(-1, -1, 0), "A place out of the boundary should not be found");
+            Assertions.assertThrows(IllegalArgumentException.class, () -> index.addPlace(-1, 0, 1));
+            Assertions.assertEquals(numberOfPlaces - (numberOfPlaces + 2) / 3, index.countPlaces());
+
+            for (int query = 0; query < 200; query++) {
+                // Users may stand outside of the boundary
+                int userX = random.nextInt(MAX_COORDINATE + 2_000_000) - 1_000_000;
+                int userY = random.nextInt(MAX_COORDINATE + 2_000_000) - 1_000_000;
+                int walkDistance = random.nextInt(2_000_000);
+                int serviceMask = randomServices() & randomServices();
+                boolean circular = query % 2 == 1;
+                int matches = 0;
+                for (int i = 0; i < numberOfPlaces; i++) {
+                    long dx = xs[i] - userX;
+                    long dy = ys[i] - userY;
+                    boolean inside = circular
+                            ? dx * dx + dy * dy <= (long) walkDistance * walkDistance
+                            : Math.abs(dx) <= walkDistance && Math.abs(dy) <= walkDistance;
+                    if (!removed[i] && inside && Service.contains(services[i], serviceMask)) {
+                        expected[matches++] = dx * dx + dy * dy;
+                    }
+                }
+                Arrays.sort(expected, 0, matches);
+                if (circular) {
+                    index.searchPlaceWithinRadius(userX, userY, walkDistance, serviceMask, 30, context);
+                } else {
+                    index.searchPlace(userX, userY, walkDistance, serviceMask, 30, context);
+                }
+                String engine = index.getClass().getSimpleName();
+                Assertions.assertEquals(Math.min(matches, 30), context.size(), engine + " should find every matching place");
+                for (int j = 0; j < context.size(); j++) {
+                    Assertions.assertEquals(expected[j], context.getSquaredDistance(j), engine + " should find the nearest places");
+                    Assertions.assertTrue(Service.contains(context.getServices(j), serviceMask));
+                }
+            }
+            index.clear();
+            Assertions.assertEquals(0, index.countPlaces());
+            index.searchPlace(xs[1], ys[1], MAX_COORDINATE, 0, 10, context);
+            Assertions.assertTrue(context.isEmpty(), "A cleared index should find no place");
+        }
+    }
+
+    @Test
+    void enginesUnderTheSameWorkload() {
+        int numberOfPlaces = 5_000_000;
+        int[] xs = new int[numberOfPlaces];
+        int[] ys = new int[numberOfPlaces];
+        int[] services = new int[numberOfPlaces];
+        for (int i = 0; i < numberOfPlaces; i++) {
+            xs[i] = random.nextInt(MAX_COORDINATE);
+            ys[i] = random.nextInt(MAX_COORDINATE);
+            services[i] = randomServices();
+        }
+        int searches = 5_000;
+        int[] userXs = new int[searches];
+        int[] userYs = new int[searches];
+        for (int i = 0; i < searches; i++) {
+            userXs[i] = random.nextInt(MAX_COORDINATE);
+            userYs[i] = random.nextInt(MAX_COORDINATE);
+        }
+        int serviceMask = Service.encodeService(new String[]{"Restaurant", "School"});
+
+        System.out.println("| Engine          | Num of Places | Pass/Fail | Insert (ms) | Search (us/op) | Remove (ms) |");
+        System.out.println("|-----------------|---------------|-----------|-------------|----------------|-------------|");
+        for (int round = 0; round < 2; round++) {
+            long[] firstResults = null;
+            for (SpatialIndex index : createEngines(numberOfPlaces)) {
+                long startTime = System.nanoTime();
+                for (int i = 0; i < numberOfPlaces; i++) {
+                    index.addPlace(xs[i], ys[i], services[i]);
+                }
+                double insertMillis = (System.nanoTime() - startTime) / 1e6;
+
+                QueryContext context = new QueryContext();
+                long[] results = new long[searches];
+                startTime = System.nanoTime();
+                for (int i = 0; i < searches; i++) {
+                    index.searchPlace(userXs[i], userYs[i], 50_000, serviceMask, 50, context);
+                    results[i] = context.isEmpty() ? -1 : context.getSquaredDistance(context.size() - 1);
+                }
+                double searchMicros = (System.nanoTime() - startTime) / 1_000.0 / searches;
+                // Every engine should find the same k-th distance as the first one
+                boolean passed = firstResults == null || Arrays.equals(firstResults, results);
+                firstResults = firstResults == null ? results : firstResults;
+
+                startTime = System.nanoTime();
+                for (int i = 0; i < numberOfPlaces; i += 10) {
+                    passed &= index.removePlace(xs[i], ys[i]);
+                }
+                double removeMillis = (System.nanoTime() - startTime) / 1e6;
+                if (round == 1) { // The first round warms up
+                    System.out.printf("| %-15s | %-13d | %-9s | %11.1f | %14.2f | %11.1f |\n", index.getClass().getSimpleName(),
+                            numberOfPlaces, passed ? "Passed" : "Failed", insertMillis, searchMicros, removeMillis);
+                }
+                Assertions.assertTrue(passed, index.getClass().getSimpleName() + " should find the same places");
+            }
+        }
+    }
+}